@@ -67,8 +67,11 @@ public class ConfirmEventActivity extends AppCompatActivity {
      * For future development, it is useful to have a value to update after successful identifications
      * such as this one in order to increase probability of future accurate identifications of this
      * Acoustic Event.
+     *
+     * A new Acoustic Event holds 39 coefficients, MFCCs with their dynamic features, so it is given the
+     * default maxCost of an event of 39 coefficients.
      */
-    public static final double DEFAULT_MAX_COST = 300.0;
+    public static final double DEFAULT_MAX_COST = AcousticEvent.DEFAULT_MAX_COST;
 
     /**
      * The directory of the stored wav file recording of the acoustic event the user just recorded
@@ -24,7 +24,15 @@ import androidx.appcompat.app.AppCompatActivity;
 import androidx.appcompat.widget.Toolbar;
 
 import com.example.thirdearoftruth.R;
+import com.example.thirdearoftruth.audio.DeltaFeatureProcessor;
+import com.example.thirdearoftruth.audio.PreRollBuffer;
 import com.example.thirdearoftruth.models.User;
+import com.example.thirdearoftruth.utils.AudioDispatcher;
+import com.example.thirdearoftruth.utils.AudioEvent;
+import com.example.thirdearoftruth.utils.AudioProcessor;
+import com.example.thirdearoftruth.utils.MFCC;
+import com.example.thirdearoftruth.utils.ProcessorBranch;
+import com.example.thirdearoftruth.utils.WriterProcessor;
 import com.google.firebase.auth.FirebaseAuth;
 import com.google.firebase.auth.FirebaseUser;
 import com.google.firebase.database.DataSnapshot;
@@ -45,15 +53,9 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.concurrent.atomic.AtomicBoolean;
 
-import be.tarsos.dsp.AudioDispatcher;
-import be.tarsos.dsp.AudioEvent;
-import be.tarsos.dsp.AudioProcessor;
 import be.tarsos.dsp.io.TarsosDSPAudioFormat;
 import be.tarsos.dsp.io.TarsosDSPAudioInputStream;
 import be.tarsos.dsp.io.android.AndroidAudioInputStream;
-import be.tarsos.dsp.io.android.AudioDispatcherFactory;
-import be.tarsos.dsp.mfcc.MFCC;
-import be.tarsos.dsp.writer.WriterProcessor;
 
 /**
  * @author dermotbrennan
@@ -99,8 +101,22 @@ public class CreateEventActivity extends AppCompatActivity {
 
     AudioDispatcher recordDispatcher;
     WriterProcessor writerProcessor;
+
+    /**
+     * Runs the writerProcessor on its own thread so that writing the wav file never holds up the MFCC
+     * extraction on the recording thread. It may fall about 3 seconds behind before the recording waits.
+     */
+    ProcessorBranch writerBranch;
     MFCC mfcc;
+    DeltaFeatureProcessor deltaFeatures;
     AudioProcessor detectorProcessor;
+    /**
+     * The last few buffers before the event starts, added to the start of the event in the same way as
+     * the DetectionService does so that recorded and detected events line up
+     */
+    PreRollBuffer preRoll;
+    AudioEvent preRollEvent;
+    float[] preRollSamples;
     TarsosDSPAudioFormat tarsosDSPAudioFormat;
     File wavFile, wavFileDir;
     String fileName;
@@ -114,25 +130,16 @@ public class CreateEventActivity extends AppCompatActivity {
 
     // mfcc vars
     /**
-     * The MFCC array as returned by the TarsosDSP MFCC AudioProcessor
+     * The MFCC array as returned by the MFCC AudioProcessor
      */
     private static float[] mfccsFloats;
     /**
-     * The MFCC array converted to doubles
-     */
-    private static double[] mfccsAsDoubles;
-    /**
-     * The MFCC doubles boxed into a wrapped Double list
-     */
-    private static ArrayList<Double> mfccWrapperList;
-    /**
-     * The arrayList to hold each List of Wrapped Doubles of the MFCC. This will be unboxed to a
-     * primitive 2d array of double [][] during the recognition phase.
-     *
-     * This conversion is necessary because Firebase Realtime database has NO NATIVE SUPPORT FOR
+     * The arrayList to hold each feature vector (MFCC, deltas and delta-deltas) of the event as it
+     * is produced. It is passed on as JSON and only becomes a List of Wrapped Doubles when the
+     * ConfirmEventActivity uploads it, because Firebase Realtime database has NO NATIVE SUPPORT FOR
      * ARRAYS
      */
-    ArrayList<ArrayList<Double>> recordedEventMfccList;
+    ArrayList<float[]> recordedEventMfccList;
     int mfccCount;
 
     // AcousticEvent parameter variables
@@ -407,10 +414,18 @@ public class CreateEventActivity extends AppCompatActivity {
             try {
                 RandomAccessFile randomAccessFile = new RandomAccessFile(wavFile, "rw");
                 writerProcessor = new WriterProcessor(tarsosDSPAudioFormat, randomAccessFile);
-                mfcc = new MFCC(audioBufferSize, sampleRate, 13, 20, 133.33f, 8000f);
+                mfcc = new MFCC(audioBufferSize, sampleRate, 13, 20, 133.33f, 8000f, true);
+                deltaFeatures = new DeltaFeatureProcessor(mfcc, 13);
+                preRoll = new PreRollBuffer(tarsosDSPAudioFormat, audioBufferSize, PreRollBuffer.DEFAULT_FRAMES);
+                preRollEvent = new AudioEvent(tarsosDSPAudioFormat);
+                preRollSamples = new float[audioBufferSize];
                 detectorProcessor = new AudioProcessor() {
                     @Override
                     public void processingFinished() {
+                        // the recording was stopped during an event, keep the frames still in the delta ring
+                        if (detectionStarted.get()) {
+                            recordedEventMfccList.addAll(deltaFeatures.flush());
+                        }
                         Log.d(TAG, "recording ended");
                     }
 
@@ -421,19 +436,14 @@ public class CreateEventActivity extends AppCompatActivity {
                         // add to list
                         rmsValues.add(currentRMS);
 
-                        // extract MFCC and convert
+                        // the static MFCC of this frame
                         mfccsFloats = mfcc.getMFCC();
-                        mfccsAsDoubles = convertFloatsToDoubles(mfccsFloats);
-                        mfccWrapperList = new ArrayList<Double>(mfccsAsDoubles.length);
-                        for(double d : mfccsAsDoubles) {
-                            mfccWrapperList.add(Double.valueOf(d));
-                        }
 
 
                         //Strings for Log messages
                         threshString = Double.toString(volumeThreshold);
                         rmsString = Double.toString(currentRMS);
-                        mfccString = Arrays.toString(mfccsAsDoubles);
+                        mfccString = Arrays.toString(mfccsFloats);
 
                         // if a sound is not detected and rms is greater than thresh - START EVENT
 
@@ -441,7 +451,9 @@ public class CreateEventActivity extends AppCompatActivity {
 
                             detectionStarted.set(true);
                             startTime = System.currentTimeMillis(); // get the start time here
-                            recordedEventMfccList.add(mfccWrapperList);
+                            deltaFeatures.reset();
+                            addPreRollFrames(audioEvent);
+                            addEventFrame(audioEvent);
 
                             Log.d(RECORD_TAG, "START- Detection: " + detectionStarted.get() +
                                     " OVER THRESHOLD: " + threshString + "\t Current RMS: " +
@@ -449,7 +461,7 @@ public class CreateEventActivity extends AppCompatActivity {
 
                         } else if((currentRMS > volumeThreshold) && (detectionStarted.get()==true)) { // DURING
 
-                            recordedEventMfccList.add(mfccWrapperList);
+                            addEventFrame(audioEvent);
                             nearRelease=0;
                             Log.i("DURING", "Detection : "+detectionStarted.get()
                                     +" Mfcc : "+mfccString);
@@ -457,6 +469,8 @@ public class CreateEventActivity extends AppCompatActivity {
                         } else if((currentRMS <= volumeThreshold) && (nearRelease >= RELEASE)) { // END
 
                             detectionStarted.set(false);
+                            // the last frames of the event get their dynamic features now the end is known
+                            recordedEventMfccList.addAll(deltaFeatures.flush());
                             runOnUiThread(new Runnable() {
                                 @Override
                                 public void run() {
@@ -468,23 +482,28 @@ public class CreateEventActivity extends AppCompatActivity {
                             });
 
                             nearRelease=0;
+                            preRoll.push(audioEvent);
                             Log.i("END DETECTION", " END- Detection: " + detectionStarted.get());
 
                         }else if((detectionStarted.get()==true) && currentRMS <= volumeThreshold){ // RELEASE
 
                             nearRelease+=1;
-                            recordedEventMfccList.add(mfccWrapperList);
+                            addEventFrame(audioEvent);
                             Log.i("DIPPED BELOW", "Near Release : "+nearRelease+
                                     " Detection : "+detectionStarted.get()+" Mfcc"+mfccString);
                         } else{
 
+                            // keep this buffer in case the next one starts the event
+                            preRoll.push(audioEvent);
                             Log.i(RECORD_TAG,"No detection yet");
                         }
                         return true;
                     }
                 };
 
-                recordDispatcher.addAudioProcessor(writerProcessor);
+                writerBranch = new ProcessorBranch("Record Writer Thread", 64, false)
+                        .addAudioProcessor(writerProcessor);
+                recordDispatcher.addBranch(writerBranch);
                 recordDispatcher.addAudioProcessor(mfcc);
                 recordDispatcher.addAudioProcessor(detectorProcessor);
 
@@ -505,6 +524,38 @@ public class CreateEventActivity extends AppCompatActivity {
 
 
 
+    /**
+     * Pushes the MFCC of this frame of the event into the delta feature ring and adds the feature
+     * vector that it completes (if any) to the recorded event.
+     *
+     * @param audioEvent the block of frames the MFCC processor has just processed
+     */
+    private void addEventFrame(AudioEvent audioEvent) {
+        deltaFeatures.process(audioEvent);
+        if (deltaFeatures.isFeatureReady()) {
+            recordedEventMfccList.add(deltaFeatures.getFeatures());
+        }
+    } // end addEventFrame
+
+
+    /**
+     * Adds the buffers read just before the event started to the start of the event, oldest first.
+     *
+     * @param audioEvent the buffer that started the event, which the MFCC processor has already processed
+     */
+    private void addPreRollFrames(AudioEvent audioEvent) {
+        for (int i = 0; i < preRoll.size(); i++) {
+            preRollEvent.setPcmBuffer(preRoll.frame(i), preRollSamples);
+            mfcc.process(preRollEvent);
+            addEventFrame(preRollEvent);
+        }
+        preRoll.clear();
+        // process the buffer that started the event again, its MFCC was replaced by the pre-roll's
+        mfcc.process(audioEvent);
+    } // end addPreRollFrames
+
+
+
     /**
      * Stops the recordingDispatcher and the timer/chronometer
      */
@@ -538,10 +589,12 @@ public class CreateEventActivity extends AppCompatActivity {
         // end the reading
         if (recordDispatcher != null) {
             if (!recordDispatcher.isStopped()) {
+                // waits for the writer branch to finish the wav file
                 recordDispatcher.stop();
 
                 //log time recording stopped for NFR test
                 Log.d(TAG, "Recording/Extraction END : "+System.currentTimeMillis());
+                Log.d(TAG, writerBranch.toString());
 
             } // end inner if
         } // end outer if
@@ -570,24 +623,6 @@ public class CreateEventActivity extends AppCompatActivity {
         //return maxRMS;
     }
 
-    /**
-     * Converts the mfcc float array to doubles in order to be sent through the DTW
-     * class
-     *
-     * @param input an array of floats representing the mfcc output
-     * @return a double array of mfccs
-     */
-    public static double[] convertFloatsToDoubles(float[] input) {
-        if (input == null) {
-            return null; // Or throw an exception
-        }
-        double[] output = new double[input.length];
-        for (int i = 0; i < input.length; i++) {
-            output[i] = input[i];
-        }
-        return output;
-    }
-
 
 
 
@@ -0,0 +1,189 @@
+package com.example.thirdearoftruth.audio;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import com.example.thirdearoftruth.metrics.TraceRecorder;
+import com.example.thirdearoftruth.models.AcousticEvent;
+import com.google.firebase.auth.FirebaseUser;
+import com.google.firebase.database.DataSnapshot;
+import com.google.firebase.database.DatabaseError;
+import com.google.firebase.database.DatabaseReference;
+import com.google.firebase.database.FirebaseDatabase;
+import com.google.firebase.database.ValueEventListener;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the user's known Acoustic Events, with their MFCC matrices already converted for Dynamic
+ * Time Warping, in memory for as long as the DetectionService is listening.
+ *
+ * A single ValueEventListener is registered on the user's Acoustic Events in the Firebase Realtime
+ * Database when the cache is started and removed when it is stopped. Every change to the user's events
+ * replaces the whole list, so the recognition thread always reads a complete, unchanging list without
+ * waiting on the database for each detected sound.
+ *
+ * A cache can also be made from a fixed list of events, with no database behind it, so that recordings
+ * can be recognised off the device.
+ *
+ * While trace capture is on, the first read of the user's events is recorded in the TraceRecorder from
+ * the listener being registered to the events arriving, along with any wait for them on a recognition
+ * thread and every later change.
+ */
+public class AcousticEventCache {
+
+    private static final String TAG = "ACOUSTIC_EVENT_CACHE";
+
+    private static final TraceRecorder TRACE = TraceRecorder.getInstance();
+
+    /**
+     * The reference to the Firebase Realtime Database containing all the known acoustic events for this
+     * user, null if the cache holds a fixed list
+     */
+    private final DatabaseReference mDatabaseReference;
+
+    /**
+     * The latest known events, replaced as a whole on every change
+     */
+    private volatile List<AcousticEvent> acousticEvents = Collections.emptyList();
+
+    /**
+     * Counted down when the first list of known events has been read
+     */
+    private final CountDownLatch loaded = new CountDownLatch(1);
+
+    /**
+     * The longest a recognition thread waits for the first list before checking the deadline of its session
+     */
+    private static final long DEADLINE_CHECK_MILLIS = 50;
+
+    /**
+     * The id of the trace events of the first read from the database
+     */
+    private volatile long fetchTraceId;
+
+    /**
+     * Converts each snapshot of the user's events into AcousticEvent objects ready for DTW
+     */
+    private final ValueEventListener listener = new ValueEventListener() {
+        @Override
+        public void onDataChange(@NonNull DataSnapshot snapshot) {
+            List<AcousticEvent> events = new ArrayList<>();
+            for (DataSnapshot dataSnapshot : snapshot.getChildren()) {
+                AcousticEvent acousticEvent = dataSnapshot.getValue(AcousticEvent.class);
+                if (acousticEvent == null || acousticEvent.getMfccDoubleList() == null) {
+                    continue;
+                }
+                acousticEvent.setMfccMatrix(acousticEvent.getMfccDoubleList());
+                acousticEvent.upgradeLegacyMaxCost();
+                events.add(acousticEvent);
+            }
+            acousticEvents = Collections.unmodifiableList(events);
+            if (loaded.getCount() > 0) {
+                TRACE.asyncEnd("firebase", "template fetch", fetchTraceId, null, null, "templates", events.size());
+            } else {
+                TRACE.instant("firebase", "templates changed", -1, null, null, "templates", events.size(),
+                        null, 0, null, 0);
+            }
+            loaded.countDown();
+            Log.d(TAG, events.size() + " known Acoustic Events cached");
+        } // end onDataChange
+
+        @Override
+        public void onCancelled(@NonNull DatabaseError error) {
+            if (loaded.getCount() > 0) {
+                TRACE.asyncEnd("firebase", "template fetch", fetchTraceId, "error", error.getMessage(), null, 0);
+            }
+            Log.e(TAG, error.getMessage());
+        } // end on cancelled
+    };
+
+
+    /**
+     * @param firebaseUser the user whose known Acoustic Events are cached
+     */
+    public AcousticEventCache(FirebaseUser firebaseUser) {
+        mDatabaseReference = FirebaseDatabase.getInstance().getReference("AcousticEvents")
+                .child(firebaseUser.getUid());
+    }
+
+    /**
+     * @param acousticEvents a fixed list of known Acoustic Events, each with its MFCC matrix already set
+     */
+    public AcousticEventCache(List<AcousticEvent> acousticEvents) {
+        mDatabaseReference = null;
+        this.acousticEvents = Collections.unmodifiableList(new ArrayList<>(acousticEvents));
+        loaded.countDown();
+    }
+
+
+    // Methods
+
+    /**
+     * Start listening for the user's known Acoustic Events
+     */
+    public void start() {
+        if (mDatabaseReference != null) {
+            fetchTraceId = TRACE.nextAsyncId();
+            TRACE.asyncBegin("firebase", "template fetch", fetchTraceId, null, null, null, 0);
+            mDatabaseReference.addValueEventListener(listener);
+        }
+    }
+
+    /**
+     * Stop listening for changes. The last list read stays available.
+     */
+    public void stop() {
+        if (mDatabaseReference != null) {
+            mDatabaseReference.removeEventListener(listener);
+        }
+    }
+
+    /**
+     * @return the latest list of known Acoustic Events, empty until the first read from the database
+     */
+    public List<AcousticEvent> getAcousticEvents() {
+        return acousticEvents;
+    }
+
+    /**
+     * Waits for the first list of known Acoustic Events to be read from the database, which only takes
+     * time if a sound is detected straight after the service starts. The session waiting checks its
+     * deadline every DEADLINE_CHECK_MILLIS, so a session that is cancelled gives up its recognition thread
+     * straight away instead of holding it until the events arrive.
+     *
+     * @param timeout the longest time to wait
+     * @param unit the unit of the timeout
+     * @param deadline the deadline of the session waiting
+     * @return the latest list of known Acoustic Events, empty if none could be read in time
+     */
+    public List<AcousticEvent> awaitAcousticEvents(long timeout, TimeUnit unit, RecognitionDeadline deadline) {
+        if (loaded.getCount() == 0) {
+            return acousticEvents;
+        }
+        long waitStart = System.nanoTime();
+        long waitEnd = waitStart + unit.toNanos(timeout);
+        long checkNanos = TimeUnit.MILLISECONDS.toNanos(DEADLINE_CHECK_MILLIS);
+        try {
+            long remaining = waitEnd - waitStart;
+            while (remaining > 0 && !deadline.isExpired()
+                    && !loaded.await(Math.min(remaining, checkNanos), TimeUnit.NANOSECONDS)) {
+                remaining = waitEnd - System.nanoTime();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (loaded.getCount() > 0) {
+            Log.w(TAG, "Known Acoustic Events were not read within "
+                    + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - waitStart) + "ms");
+        }
+        TRACE.complete("firebase", "await templates", waitStart, -1);
+        return acousticEvents;
+    }
+
+} // end AcousticEventCache
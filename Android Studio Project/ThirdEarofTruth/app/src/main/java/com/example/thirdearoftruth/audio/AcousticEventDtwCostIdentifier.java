@@ -2,7 +2,9 @@ package com.example.thirdearoftruth.audio;
 
 import android.util.Log;
 
-import com.example.thirdearoftruth.marytts.DTW;
+import com.example.thirdearoftruth.metrics.Counter;
+import com.example.thirdearoftruth.metrics.LatencyHistogram;
+import com.example.thirdearoftruth.metrics.MetricsRegistry;
 import com.example.thirdearoftruth.models.AcousticEvent;
 import java.util.ArrayList;
 import java.util.Collections;
@@ -24,11 +26,25 @@ import java.util.Map;
  * <p>
  * Results of the DTW can be viewed by calling the results HashMap<AcousticEvent, Double>
  * if the comparisons to all known events need to be viewed.
+ * <p>
+ * The costs are calculated by an OnlineDtwMatcher in subsequence mode, the same matching and the same
+ * cost per frame and per coefficient as MFCCRecognitionEvent, so each known event is held to its own
+ * maxCost on the scale it was calibrated for.
+ * <p>
+ * Each DTW calculation, its duration and each known event rejected for exceeding its maximum cost
+ * are counted in the MetricsRegistry.
  */
 public class AcousticEventDtwCostIdentifier implements AcousticEventIdentifier {
 
     // variables
     private static final String TAG = "COST_IDENTIFIER";
+
+    private static final Counter DTW_CALLS = MetricsRegistry.getInstance().counter(
+            "thirdear_dtw_calls_total", "Known Acoustic Events compared with a detected event by DTW");
+    private static final Counter DTW_PRUNED = MetricsRegistry.getInstance().counter(
+            "thirdear_dtw_templates_pruned_total", "Known Acoustic Events rejected for exceeding their maximum cost");
+    private static final LatencyHistogram DTW_TIME = MetricsRegistry.getInstance().histogram(
+            "thirdear_dtw_call_seconds", "Time a full DTW of a known Acoustic Event takes");
     // instance variables
     /**
      * the results of the DTW comparisons stored with their corresponding Acoustic
@@ -46,7 +62,7 @@ public class AcousticEventDtwCostIdentifier implements AcousticEventIdentifier {
      * the mfcc 2d array of the detected acoustic event to be compared with the
      * mfccs of the
      */
-    private double[][] detectedEventMFCCs;
+    private float[][] detectedEventMFCCs;
 
 
     /**
@@ -70,13 +86,13 @@ public class AcousticEventDtwCostIdentifier implements AcousticEventIdentifier {
 
     /**
      * Constructor that takes an arraylist of known acousticEvents (created from database
-     * references) and the mfcc double[][] as arguments to be compared through Dynamic
+     * references) and the mfcc float[][] as arguments to be compared through Dynamic
      * Time Warping.
      *
      * @param knownEvents
      * @param detectedEvent
      */
-    public AcousticEventDtwCostIdentifier(ArrayList<AcousticEvent> knownEvents, double[][] detectedEvent) {
+    public AcousticEventDtwCostIdentifier(ArrayList<AcousticEvent> knownEvents, float[][] detectedEvent) {
         this.knownEvents = knownEvents;
         this.detectedEventMFCCs = detectedEvent;
 
@@ -124,7 +140,7 @@ public class AcousticEventDtwCostIdentifier implements AcousticEventIdentifier {
     /**
      * @return the detectedEventMFCCs
      */
-    public double[][] getDetectedEventMFCCs() {
+    public float[][] getDetectedEventMFCCs() {
         return detectedEventMFCCs;
     }
 
@@ -132,7 +148,7 @@ public class AcousticEventDtwCostIdentifier implements AcousticEventIdentifier {
     /**
      * @param detectedEventMFCCs the detectedEventMFCCs to set
      */
-    public void setDetectedEventMFCCs(double[][] detectedEventMFCCs) {
+    public void setDetectedEventMFCCs(float[][] detectedEventMFCCs) {
         this.detectedEventMFCCs = detectedEventMFCCs;
     }
 
@@ -161,7 +177,7 @@ public class AcousticEventDtwCostIdentifier implements AcousticEventIdentifier {
 
     /**
      * When this method is invoked, the Dynamic Time Warping algorithm is applied to
-     * the double[][] mfccs of the AcousticEvents and the mfccs double[][] of the newly
+     * the float[][] mfccs of the AcousticEvents and the mfccs float[][] of the newly
      * detected event and the costs are mapped to their corresponding AcousticEvents in
      * the results HashMap.
      * <p>
@@ -173,26 +189,37 @@ public class AcousticEventDtwCostIdentifier implements AcousticEventIdentifier {
 
         // call the DTW
         // Calculates distance using Euclidean distance function.
-        // New DTWCostIdentifier could be chained with this using a different distance function
-        DTW dynamicTimeWarp;
-
-        // for each acoustic event, take its MFCC 2d array and compare to
-        // the detected event
-        for (AcousticEvent knownEvent : knownEvents) {
-            // signal is each knownEvent in the array, reference is the
-            dynamicTimeWarp = new DTW(knownEvent.getMfccMatrix(), detectedEventMFCCs);
-
-            // take the distance/cost between it's mfcc array and that of the detected event
-            //  add them to the results map IF the distance is lower than the specified
-            Double cost = Double.valueOf(dynamicTimeWarp.getCost());
+        // events recorded with static MFCCs only are compared on the static part of the detected event
+        OnlineDtwMatcher dtwMatcher = new OnlineDtwMatcher();
+        dtwMatcher.setSubsequence(true);
+        dtwMatcher.setTimed(true);
+        dtwMatcher.start(knownEvents);
+        for (float[] frame : detectedEventMFCCs) {
+            dtwMatcher.addFrame(frame);
+        }
+
+        // for each acoustic event, take the cost between its mfcc array and that of the detected event
+        for (int i = 0; i < dtwMatcher.getKnownEventCount(); i++) {
+            AcousticEvent knownEvent = dtwMatcher.getKnownEvent(i);
+            Double cost = Double.valueOf(dtwMatcher.getCost(i));
+            DTW_TIME.record(dtwMatcher.getNanos(i));
+            DTW_CALLS.increment();
 
             Log.d(TAG, "Distance for "+knownEvent.getName()+" was: "+cost);
-            if(cost <= knownEvent.maxCost) {
+            //  add them to the results map IF the distance is lower than the specified
+            if(cost <= knownEvent.getMaxCost()) {
                 // add to the results hashmap
                 results.put(knownEvent, cost);
+            } else {
+                DTW_PRUNED.increment();
             } // end distance checking if
 
-        } // end results Map enhanced for
+        } // end results Map for
+
+        if (results.isEmpty()) {
+            Log.d(TAG, "No known event was within its maximum cost");
+            return;
+        }
 
         // calculate the lowest value in the map
         Double shortestDistance = Collections.min(results.values());
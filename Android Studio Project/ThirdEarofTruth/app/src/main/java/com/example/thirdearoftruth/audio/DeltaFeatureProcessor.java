@@ -0,0 +1,324 @@
+/**
+ * This is a Digital Audio Signal Processing Class
+ */
+package com.example.thirdearoftruth.audio;
+
+import com.example.thirdearoftruth.utils.AudioEvent;
+import com.example.thirdearoftruth.utils.AudioProcessor;
+import com.example.thirdearoftruth.utils.MFCC;
+
+import java.util.ArrayList;
+
+/**
+ * An AudioProcessor that appends the dynamic features (delta and delta-delta coefficients) to the
+ * static MFCCs produced by the MFCC processor it is given. It must be processed after the MFCC
+ * processor for the same block of frames.
+ *
+ * The deltas are calculated with the standard regression formula
+ *
+ *      d(t) = sum n * (c(t+n) - c(t-n)) / (2 * sum n^2)     for n = 1..window
+ *
+ * over a fixed-size ring of the most recent frames, so every new frame costs the same small, constant
+ * amount of work no matter how long the Acoustic Event lasts. The delta-delta coefficients are the
+ * same formula applied to the deltas. Because the formula looks ahead by window frames (twice for the
+ * delta-deltas), the feature vector for a frame is ready 2 * window frames after its MFCC arrived.
+ * Calling flush() when the event ends pads the tail of the event with its last frame and returns the
+ * remaining feature vectors, so no second pass over the finished event is needed.
+ *
+ * The start of the event is padded in the same way by repeating its first frame.
+ *
+ * Each feature vector is laid out as [static MFCCs, deltas, delta-deltas], so the first
+ * amountOfCoefficients values are exactly the static MFCCs.
+ */
+public class DeltaFeatureProcessor implements AudioProcessor {
+
+    /**
+     * The default number of frames either side of the current one used in the regression.
+     * 2 frames either side is roughly 93 milliseconds of context at 44100Hz with 2048 sample buffers.
+     */
+    public static final int DEFAULT_WINDOW = 2;
+
+    /**
+     * The MFCC processor that supplies the static coefficients for each block of frames
+     */
+    private final MFCC mfcc;
+
+    /**
+     * The number of frames either side of the current frame used in the regression
+     */
+    private final int window;
+
+    /**
+     * The number of static coefficients in each MFCC
+     */
+    private final int amountOfCoefficients;
+
+    /**
+     * 2 * the sum of n^2 for n = 1..window
+     */
+    private final float denominator;
+
+    /**
+     * Ring of the last (2 * window + 1) static MFCC frames
+     */
+    private final float[][] staticRing;
+
+    /**
+     * Ring of the last (2 * window + 1) delta frames
+     */
+    private final float[][] deltaRing;
+
+    /**
+     * The latest complete feature vector [static, delta, delta-delta]
+     */
+    private final float[] features;
+
+    /**
+     * The static MFCCs of the block of frames being processed, copied from the MFCC processor
+     */
+    private final float[] staticFrame;
+
+    /**
+     * The number of static frames pushed into the ring so far, including the padding at the start
+     */
+    private long staticCount;
+
+    /**
+     * The number of delta frames pushed into the ring so far, including the padding at the start
+     */
+    private long deltaCount;
+
+    /**
+     * The number of frames of this event that have been pushed (excluding any padding)
+     */
+    private long frameCount;
+
+    /**
+     * True if the last frame pushed completed a new feature vector
+     */
+    private boolean featuresReady;
+
+    /**
+     * Constructor that uses the default window of 2 frames either side
+     *
+     * @param mfcc the MFCC processor that is processed before this one
+     * @param amountOfCoefficients the number of static coefficients the MFCC processor produces
+     */
+    public DeltaFeatureProcessor(MFCC mfcc, int amountOfCoefficients) {
+        this(mfcc, amountOfCoefficients, DEFAULT_WINDOW);
+    }
+
+    /**
+     * @param mfcc the MFCC processor that is processed before this one
+     * @param amountOfCoefficients the number of static coefficients the MFCC processor produces
+     * @param window the number of frames either side of the current frame used in the regression
+     */
+    public DeltaFeatureProcessor(MFCC mfcc, int amountOfCoefficients, int window) {
+        if (window < 1) {
+            throw new IllegalArgumentException("Delta window must be at least 1 frame, was " + window);
+        }
+        this.mfcc = mfcc;
+        this.amountOfCoefficients = amountOfCoefficients;
+        this.window = window;
+
+        int sum = 0;
+        for (int n = 1; n <= window; n++) {
+            sum += n * n;
+        }
+        this.denominator = 2f * sum;
+
+        staticRing = new float[2 * window + 1][amountOfCoefficients];
+        deltaRing = new float[2 * window + 1][amountOfCoefficients];
+        features = new float[3 * amountOfCoefficients];
+        staticFrame = new float[amountOfCoefficients];
+    }
+
+
+    // getters
+
+    /**
+     * @return the length of each feature vector (3 * the number of static coefficients)
+     */
+    public int getFeatureLength() {
+        return features.length;
+    }
+
+    /**
+     * @return true if the last processed frame completed a new feature vector
+     */
+    public boolean isFeatureReady() {
+        return featuresReady;
+    }
+
+    /**
+     * Returns a copy of the latest feature vector. Only meaningful when isFeatureReady() is true.
+     *
+     * @return the static MFCCs followed by their deltas and delta-deltas
+     */
+    public float[] getFeatures() {
+        return features.clone();
+    }
+
+    /**
+     * Copies the latest feature vector into an existing array, so a feature vector can be read for every
+     * frame without allocating. Only meaningful when isFeatureReady() is true.
+     *
+     * @param destination at least getFeatureLength() long
+     */
+    public void copyFeatures(float[] destination) {
+        System.arraycopy(features, 0, destination, 0, features.length);
+    }
+
+
+    // Methods
+
+    /**
+     * Takes the MFCC that the MFCC processor has just produced for this audioEvent and pushes it into
+     * the ring.
+     *
+     * @param audioEvent the block of frames the MFCC processor has just processed
+     * @return true so the rest of the processing chain continues
+     */
+    @Override
+    public boolean process(AudioEvent audioEvent) {
+        mfcc.getMFCC(staticFrame);
+        push(staticFrame);
+        return true;
+    }
+
+    @Override
+    public void processingFinished() {
+
+    }
+
+    /**
+     * Pushes the static coefficients of the next frame of the event into the ring.
+     *
+     * @param staticFrame the MFCCs of the next frame
+     * @return true if a new feature vector is ready to be read with getFeatures()
+     */
+    public boolean push(float[] staticFrame) {
+        if (frameCount == 0) {
+            // pad the start of the event by repeating the first frame
+            for (int i = 0; i < window; i++) {
+                pushStatic(staticFrame);
+            }
+        }
+        frameCount++;
+        return pushStatic(staticFrame);
+    }
+
+    /**
+     * Called when the event ends. The end of the event is padded by repeating its last frame until
+     * every remaining frame has a complete feature vector. The processor is reset afterwards, ready
+     * for the next event.
+     *
+     * @return the feature vectors of the last frames of the event, in order
+     */
+    public ArrayList<float[]> flush() {
+        ArrayList<float[]> remaining = new ArrayList<>(2 * window);
+        if (frameCount > 0) {
+            float[] lastFrame = staticRing[(int) ((staticCount - 1) % staticRing.length)].clone();
+            for (int i = 0; i < 2 * window; i++) {
+                if (pushStatic(lastFrame)) {
+                    remaining.add(getFeatures());
+                }
+            }
+        }
+        reset();
+        return remaining;
+    }
+
+    /**
+     * Forget every frame pushed so far so the processor can be used for a new event
+     */
+    public void reset() {
+        staticCount = 0;
+        deltaCount = 0;
+        frameCount = 0;
+        featuresReady = false;
+    }
+
+    /**
+     * Copies the frame into the static ring and, once enough frames are present, calculates the next
+     * delta and (once enough deltas are present) the next delta-delta.
+     */
+    private boolean pushStatic(float[] staticFrame) {
+        System.arraycopy(staticFrame, 0, staticRing[(int) (staticCount % staticRing.length)], 0, amountOfCoefficients);
+        staticCount++;
+
+        featuresReady = false;
+        if (staticCount < staticRing.length) {
+            return false;
+        }
+
+        // the delta of the frame in the centre of the static ring
+        float[] delta = deltaRing[(int) (deltaCount % deltaRing.length)];
+        regression(staticRing, staticCount - 1 - window, delta, 0);
+        deltaCount++;
+
+        if (deltaCount == 1) {
+            // pad the start of the deltas by repeating the first one
+            for (int i = 0; i < window; i++) {
+                System.arraycopy(delta, 0, deltaRing[(int) (deltaCount % deltaRing.length)], 0, amountOfCoefficients);
+                deltaCount++;
+            }
+        }
+
+        if (deltaCount < deltaRing.length) {
+            return false;
+        }
+
+        // the static frame and delta in the centre of the delta ring are 2 * window frames behind
+        long centre = deltaCount - 1 - window;
+        System.arraycopy(staticRing[(int) ((staticCount - 1 - 2 * window) % staticRing.length)], 0,
+                features, 0, amountOfCoefficients);
+        System.arraycopy(deltaRing[(int) (centre % deltaRing.length)], 0,
+                features, amountOfCoefficients, amountOfCoefficients);
+
+        regression(deltaRing, centre, features, 2 * amountOfCoefficients);
+
+        featuresReady = true;
+        return true;
+    }
+
+    /**
+     * The regression formula over the ring, centred on the frame with the given stream index. The result
+     * is written into output starting at offset.
+     */
+    private void regression(float[][] ring, long centre, float[] output, int offset) {
+        for (int c = 0; c < amountOfCoefficients; c++) {
+            float sum = 0f;
+            for (int n = 1; n <= window; n++) {
+                sum += n * (ring[(int) ((centre + n) % ring.length)][c] - ring[(int) ((centre - n) % ring.length)][c]);
+            }
+            output[offset + c] = sum / denominator;
+        }
+    }
+
+
+    /**
+     * Returns only the static MFCCs of each frame when the known event it is about to be compared with
+     * was recorded with static MFCCs only, so that feature vectors that carry dynamic features can still
+     * be compared against Acoustic Events that were saved before dynamic features were added.
+     *
+     * @param featureMatrix the feature vectors of the detected event
+     * @param knownEventMatrix the feature vectors of the known event it will be compared with
+     * @return the featureMatrix itself if its frames are not longer than those of the known event,
+     * otherwise a copy holding only the leading (static) coefficients of each frame
+     */
+    public static float[][] staticCoefficients(float[][] featureMatrix, float[][] knownEventMatrix) {
+        if (featureMatrix == null || featureMatrix.length == 0
+                || knownEventMatrix == null || knownEventMatrix.length == 0
+                || featureMatrix[0].length <= knownEventMatrix[0].length) {
+            return featureMatrix;
+        }
+        int amountOfCoefficients = knownEventMatrix[0].length;
+        float[][] statics = new float[featureMatrix.length][amountOfCoefficients];
+        for (int i = 0; i < featureMatrix.length; i++) {
+            System.arraycopy(featureMatrix[i], 0, statics[i], 0, amountOfCoefficients);
+        }
+        return statics;
+    }
+
+} // end DeltaFeatureProcessor
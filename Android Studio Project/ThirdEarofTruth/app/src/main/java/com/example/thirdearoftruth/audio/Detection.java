@@ -1,16 +1,16 @@
 package com.example.thirdearoftruth.audio;
 
 import com.android.volley.RequestQueue;
+import com.example.thirdearoftruth.utils.AudioEvent;
 import com.google.firebase.auth.FirebaseUser;
 
-import be.tarsos.dsp.AudioEvent;
-
 /**
  * This is the superclass from which all Detected Acoustic Events will be processed.
  *
- * The Tarsos DSP AudioEvent containing the buffer/current block of frames is shared between the
- * AudioDispatcher responsible for detecting the Acoustic Events in DetectionService while the
- * processing and identification takes place within a class that extends this Superclass.
+ * The buffers/blocks of frames of the Acoustic Event are read by the AudioDispatcher responsible for
+ * detecting the Acoustic Events in DetectionService, while the processing and identification takes
+ * place within a class that extends this Superclass. Subclasses that run on their own thread receive the
+ * buffers through a FrameRing rather than sharing the dispatcher's AudioEvent.
  */
 public abstract class Detection implements Runnable {
 
@@ -56,6 +56,17 @@ public abstract class Detection implements Runnable {
         this.mRequestQueue = mRequestQueue;
     }
 
+    /**
+     * Constructor for detections that receive their buffers some other way than a shared AudioEvent
+     *
+     * @param mUser
+     * @param mRequestQueue
+     */
+    public Detection(FirebaseUser mUser, RequestQueue mRequestQueue) {
+        this.mFirebaseUser = mUser;
+        this.mRequestQueue = mRequestQueue;
+    }
+
 
 
 
@@ -0,0 +1,300 @@
+/**
+ * This is a Digital Audio Signal Processing Class
+ */
+package com.example.thirdearoftruth.audio;
+
+import android.util.Log;
+
+import com.example.thirdearoftruth.metrics.Counter;
+import com.example.thirdearoftruth.metrics.Gauge;
+import com.example.thirdearoftruth.metrics.LatencyHistogram;
+import com.example.thirdearoftruth.metrics.MetricsRegistry;
+import com.example.thirdearoftruth.metrics.TraceRecorder;
+import com.example.thirdearoftruth.utils.AudioEvent;
+import com.example.thirdearoftruth.utils.AudioProcessor;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import be.tarsos.dsp.io.TarsosDSPAudioFormat;
+
+/**
+ * The detection conditions of the DetectionService, run on the detection dispatcher's thread for every
+ * buffer read from the stream. It finds the start, the middle and the end of each Acoustic Event and
+ * copies the event's buffers into the FrameRing of a recognition session.
+ *
+ * On each execution of the process() method, the relative power of the audio input is added to a
+ * NoiseFloorEstimator, which recalculates the threshold from the minimum and maximum power over each
+ * interval, in constant time per buffer and without a separate timer thread or a growing list of values.
+ *
+ * A buffer above the threshold only starts an Acoustic Event if it also passes the rest of a GateCascade
+ * of cheap checks, so steady low frequency noise such as a fridge hum or traffic rumble does not keep
+ * waking the MFCC extraction and recognition.
+ *
+ * The number of events, of buffers processed and of buffers dropped because recognition fell behind are
+ * counted in the MetricsRegistry, along with the time process() takes for each buffer, which must stay
+ * well inside the 46 milliseconds a buffer lasts. While trace capture is on, each event and each of its
+ * buffers are recorded in the TraceRecorder as slices of the dispatcher's thread.
+ *
+ * The processor does not depend on where the stream comes from, so recordings can be replayed through
+ * exactly the same detection as the microphone.
+ *
+ * Buffers that neither start nor end an event allocate nothing, the microphone never stops and any
+ * garbage made for every buffer keeps the collector running. HotPathAllocationTest holds the detection
+ * to that.
+ */
+public class DetectionProcessor implements AudioProcessor {
+
+    private static final String TAG = "DETECTION_DISPATCHER";
+
+    private static final Counter DETECTIONS = MetricsRegistry.getInstance().counter(
+            "thirdear_detections_total", "Acoustic Events detected");
+    private static final Counter FRAMES_PROCESSED = MetricsRegistry.getInstance().counter(
+            "thirdear_detection_frames_processed_total", "Buffers read by the detection dispatcher");
+    private static final Counter FRAMES_DROPPED = MetricsRegistry.getInstance().counter(
+            "thirdear_detection_frames_dropped_total", "Buffers of an event dropped because recognition fell behind");
+    private static final Gauge THRESHOLD = MetricsRegistry.getInstance().gauge(
+            "thirdear_detection_threshold", "The RMS an event must exceed to start");
+    private static final LatencyHistogram PROCESS_TIME = MetricsRegistry.getInstance().histogram(
+            "thirdear_detection_process_seconds", "Time the detection conditions take for each buffer");
+
+    private static final TraceRecorder TRACE = TraceRecorder.getInstance();
+
+    /**
+     * The limit to which the currentRMS can be below the threshold while the detectedEvent AtomicBoolean
+     * is still true. When nearRelease reaches this limit, detectedEvent will be set to false.
+     */
+    static final int RELEASE = 10;
+
+    /**
+     * An atomic boolean that denotes whether a detection is currently happening or not. If the threshold
+     * is exceeded and this is currently false, the start of the sound has just happened so it is set to true.
+     * At this point, a new recognition session will be started.
+     *
+     * If the value is true and the threshold is still exceeded, the sound is still occurring.
+     * if the value is true and the threshold is no longer exceeded, the release phase of the sound is happening
+     * and once the nearRelease variable reaches the specified limit, this will be set to false as the sound has ended.
+     *
+     */
+    private final AtomicBoolean detectionStarted = new AtomicBoolean(false);
+
+    /**
+     * The integer value that increments once the currentRMS falls below the threshold while the
+     * detectedEvent AtomicBoolean is still true.
+     *
+     * The purpose of these 2 variables is to prevent sharp cutoffs of the end of the AcousticEvent
+     * a single event with multiple steep transients from being interpreted as separate events requiring
+     * recognition and separate RecognitionEvent instances.
+     */
+    private int nearRelease;
+
+    /**
+     * The number of Acoustic Events started so far
+     */
+    private volatile long detectionCount;
+
+    /**
+     * The sample clock of the buffer that started the current Acoustic Event, which identifies its
+     * recognition session, and the time its processing started
+     */
+    private long eventOnsetSampleClock;
+    private long eventStartNanos;
+
+    /**
+     * Starts a recognition session every time detectionStarted becomes true and ends it when the event
+     * is released
+     */
+    private final RecognitionSessionManager recognitionSessions;
+
+    /**
+     * The ring the buffers of the current Acoustic Event are copied into for its recognition session.
+     * A free ring is taken from the recognition worker for each detected event and closed when the event
+     * ends, after which the worker recycles it for another event, so it is null while no event is in progress.
+     */
+    private FrameRing frameRing;
+
+    /**
+     * The PCM of the last few buffers before the current one while no event is happening. A new event is
+     * seeded with them so that the start of its attack, before the threshold was crossed, is not lost.
+     */
+    private final PreRollBuffer preRoll;
+
+    /**
+     * The buffer the pre-roll is converted into before it is offered to the frame ring
+     */
+    private final float[] preRollSamples;
+
+    /**
+     * Keeps the minimum and maximum RMS over the last interval and recalculates the threshold after
+     * every interval.
+     */
+    private final NoiseFloorEstimator noiseFloor;
+
+    /**
+     * The checks, cheapest first, that a buffer must pass to start an Acoustic Event, by default the RMS
+     * threshold and then the zero-crossing rate. Only consulted while no event is in progress, once an
+     * event has started its buffers are compared with the threshold alone to find its release.
+     */
+    private final GateCascade startGate;
+
+    /**
+     * The current relative power of this portion of the audio buffer. Acquired by performing the
+     * Root Mean Square calculation on the buffer and is cached in the AudioEvent class. The RMS is
+     * calculated straight from the 16 bit PCM samples, so buffers that never open the gate are not
+     * converted to floats.
+     * Measured against the threshold after every calculation and is added to the noise floor estimate
+     * in order to establish a new threshold based on the changing, ambient noise level of the
+     * listening environment.
+     */
+    private double currentRMS;
+
+    /**
+     * The value that the currentRMS must exceed in order to determine that an Acoustic Event has either
+     * just begun, is in the middle of happening or
+     */
+    private double volumeThreshold;
+
+
+    /**
+     * @param format the format of the stream read by the dispatcher
+     * @param audioBufferSize the number of samples in each buffer read by the dispatcher
+     * @param noiseFloor the estimate of the threshold, which can be resized from another thread
+     * @param startGate the checks a buffer must pass to start an Acoustic Event, cheapest first, whose
+     *                  EnergyGate reads the same noiseFloor
+     * @param recognitionSessions starts and ends the recognition session of each Acoustic Event
+     */
+    public DetectionProcessor(TarsosDSPAudioFormat format, int audioBufferSize, NoiseFloorEstimator noiseFloor,
+                              GateCascade startGate, RecognitionSessionManager recognitionSessions) {
+        this.noiseFloor = noiseFloor;
+        this.startGate = startGate;
+        this.recognitionSessions = recognitionSessions;
+        this.volumeThreshold = noiseFloor.getThreshold();
+
+        preRoll = new PreRollBuffer(format, audioBufferSize, PreRollBuffer.DEFAULT_FRAMES);
+        preRollSamples = new float[audioBufferSize];
+    } // end constructor
+
+
+    // getters
+
+    /**
+     * @return true while an Acoustic Event is in progress
+     */
+    public boolean isDetectionStarted() {
+        return detectionStarted.get();
+    }
+
+    /**
+     * @return the number of Acoustic Events started so far
+     */
+    public long getDetectionCount() {
+        return detectionCount;
+    }
+
+
+    // Methods
+
+    @Override
+    public boolean process(AudioEvent audioEvent) {
+        long processStart = System.nanoTime();
+        FRAMES_PROCESSED.increment();
+        currentRMS = audioEvent.getRMS();
+        noiseFloor.add(currentRMS);
+        volumeThreshold = noiseFloor.getThreshold();
+        THRESHOLD.set(volumeThreshold);
+
+        // if a sound is not detected and the buffer passes every stage of the gate - START EVENT
+        if ((detectionStarted.get() == false) && startGate.process(audioEvent)) {
+            detectionStarted.set(true);
+            detectionCount++;
+            DETECTIONS.increment();
+            eventOnsetSampleClock = audioEvent.getSamplesProcessed();
+            eventStartNanos = processStart;
+            frameRing = recognitionSessions.start(eventOnsetSampleClock).getFrames();
+            offerPreRoll();
+            offerFrame(audioEvent);
+
+            TRACE.complete("dispatcher", "buffer", processStart, eventOnsetSampleClock, "rms", currentRMS);
+
+        } else if ((currentRMS > volumeThreshold) && (detectionStarted.get() == true)) { // DURING EVENT
+
+            nearRelease = 0;
+            offerFrame(audioEvent);
+            TRACE.complete("dispatcher", "buffer", processStart, eventOnsetSampleClock, "rms", currentRMS);
+
+        } else if ((currentRMS <= volumeThreshold) && (nearRelease >= RELEASE)) { // END EVENT
+
+            detectionStarted.set(false);
+            nearRelease = 0;
+            recognitionSessions.endCurrent(audioEvent.getSamplesProcessed());
+            frameRing = null;
+            preRoll.push(audioEvent);
+            // the gate's counts are logged when the stream finishes, and after each event only when asked
+            // for, as building them here would make garbage on the audio thread
+            if (Log.isLoggable(TAG, Log.VERBOSE)) {
+                startGate.logStatistics();
+            }
+            TRACE.complete("dispatcher", "acoustic event", eventStartNanos, eventOnsetSampleClock);
+            TRACE.complete("dispatcher", "buffer", processStart, eventOnsetSampleClock, "rms", currentRMS);
+
+        } else if ((detectionStarted.get() == true) && currentRMS <= volumeThreshold) {
+            // increment if this condition is true
+            nearRelease += 1;
+            offerFrame(audioEvent);
+            TRACE.complete("dispatcher", "buffer", processStart, eventOnsetSampleClock, "rms", currentRMS);
+
+        } else {
+            // keep this buffer in case the next one starts an event
+            preRoll.push(audioEvent);
+            // Print RMS, only when asked for with 'adb shell setprop log.tag.DETECTION_DISPATCHER VERBOSE'
+            // as building the message on every quiet buffer would make garbage ~21 times a second
+            if (Log.isLoggable(TAG, Log.VERBOSE)) {
+                Log.v(TAG, "Current RMS: " + currentRMS);
+            }
+
+        } // end if
+
+        PROCESS_TIME.record(System.nanoTime() - processStart);
+        return true;
+
+    } //  end process Method
+
+
+    @Override
+    public void processingFinished() {
+        startGate.processingFinished();
+        Log.i(TAG, "Processing finished");
+    }
+
+
+    /**
+     * Copies the buffer of the current block of frames into the ring for the recognition thread. The
+     * gate is open, so this is also where the samples are first converted to floats for the MFCC.
+     *
+     * @param audioEvent the current block of frames from the detection dispatcher
+     */
+    private void offerFrame(AudioEvent audioEvent) {
+        if (!frameRing.offer(audioEvent.getFloatBuffer(), audioEvent.getSamplesProcessed())) {
+            FRAMES_DROPPED.increment();
+            Log.w(TAG, "Recognition is " + frameRing.getCapacity() + " frames behind, frame at "
+                    + audioEvent.getTimeStamp() + "s dropped");
+        }
+    } // end offerFrame
+
+
+    /**
+     * Seeds the ring of a new event with the buffers read just before it started, oldest first. A buffer
+     * that does not fit is dropped and counted in the same way as the buffers of the event itself.
+     */
+    private void offerPreRoll() {
+        for (int i = 0; i < preRoll.size(); i++) {
+            preRoll.toFloats(i, preRollSamples);
+            if (!frameRing.offer(preRollSamples, preRoll.sampleClock(i))) {
+                FRAMES_DROPPED.increment();
+                Log.w(TAG, "Recognition is " + frameRing.getCapacity() + " frames behind, pre-roll frame at sample "
+                        + preRoll.sampleClock(i) + " dropped");
+            }
+        }
+        preRoll.clear();
+    } // end offerPreRoll
+
+} // end DetectionProcessor
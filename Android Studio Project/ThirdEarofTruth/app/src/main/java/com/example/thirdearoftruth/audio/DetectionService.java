@@ -25,19 +25,19 @@ import com.android.volley.RequestQueue;
 import com.android.volley.toolbox.Volley;
 import com.example.thirdearoftruth.R;
 import com.example.thirdearoftruth.activities.DetectionActivity;
+import com.example.thirdearoftruth.metrics.MetricsExporter;
+import com.example.thirdearoftruth.metrics.MetricsRegistry;
+import com.example.thirdearoftruth.metrics.TraceRecorder;
+import com.example.thirdearoftruth.notifications.CloudMessagingNotifier;
+import com.example.thirdearoftruth.utils.AudioDispatcher;
+import com.example.thirdearoftruth.utils.DispatcherWatchdog;
 import com.google.firebase.auth.FirebaseAuth;
 import com.google.firebase.auth.FirebaseUser;
 
-import java.nio.ByteOrder;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Timer;
-import java.util.TimerTask;
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
 
-import be.tarsos.dsp.AudioDispatcher;
-import be.tarsos.dsp.AudioEvent;
-import be.tarsos.dsp.AudioProcessor;
 import be.tarsos.dsp.io.TarsosDSPAudioFormat;
 import be.tarsos.dsp.io.TarsosDSPAudioInputStream;
 import be.tarsos.dsp.io.android.AndroidAudioInputStream;
@@ -49,14 +49,23 @@ import static com.example.thirdearoftruth.notifications.InAppNotification.CHANNE
  *
  *
  * A background service that handles the detection of Acoustic Events/sounds in the user's listening
- * environment and calls instances of the Runnable class, Recognition Event to process the audiostream,
+ * environment and starts a recognition session, an instance of the Runnable class Recognition Event, on a
+ * long-lived pool of recognition threads for each one to process the audiostream,
  * extract important audio information and compare it to the Acoustic Events/Sounds saved in the Firebase
  * Realtime Database by the user (or the default sounds added upon registration if they have not added any).
  *
- * On each execution of the VolumeProcessor's process() method, the relative power of the audio input
- * is added to an arraylist. A timertask with a period and delay specified by the user runs constantly
- * and executes a threshold calculation using the values in the aforementioned list and clears the list
- * to allow another execution of this calculation after the next interval.
+ * The detection conditions are held in a DetectionProcessor on the dispatcher thread. On each buffer
+ * the relative power of the audio input is added to a NoiseFloorEstimator, which recalculates the
+ * threshold after every interval specified by the user, and a buffer above the threshold only starts an
+ * Acoustic Event if it also passes the rest of a GateCascade of cheap checks.
+ *
+ * While the service runs, the counters and latency histograms of the MetricsRegistry are written to
+ * METRICS_FILE in the app's files directory every METRICS_EXPORT_SECONDS, in the Prometheus text format.
+ *
+ * Trace capture into the TraceRecorder is switched on and off while the service runs by a TRACE_CAPTURE
+ * broadcast, and starts on if 'adb shell setprop log.tag.THIRDEAR_TRACE DEBUG' was set beforehand. The
+ * trace is written to TRACE_FILE, as Chrome trace-event JSON for Perfetto, whenever capture is switched
+ * off and when the service stops.
  */
 public class DetectionService extends Service {
 
@@ -77,7 +86,7 @@ public class DetectionService extends Service {
 
     // Audio variables
     /**
-     * The primary TarsosDSP class for processing an audioInputStream. Reads the audio into a buffer with a
+     * The primary class for processing an audioInputStream. Reads the audio into a buffer with a
      * size/length specified before running at the specified Sampling rate and wraps it in an AudioEvent
      * class to extract commonly used audio data from it e.g. RMS, dbSPL and the number of samples, bytes and seconds
      * processed so far in the stream. Shifts each portion of the buffer to allow the stream to be read continuously.
@@ -85,104 +94,112 @@ public class DetectionService extends Service {
     private AudioDispatcher detectionDispatcher;
 
     /**
-     * An atomic boolean that denotes whether a detection is currently happening or not. If the threshold
-     * is exceeded and this is currently false, the start of the sound has just happened so it is set to true.
-     * At this point, a new instance of RecognitionEvent will be called and started.
-     *
-     * If the value is true and the threshold is still exceeded, the sound is still occurring.
-     * if the value is true and the threshold is no longer exceeded, the release phase of the sound is happening
-     * and once the nearRelease variable reaches the specified limit, this will be set to false as the sound has ended.
-     *
+     * Thread to which the detectionDispatcher is passed in order to start it.
      */
-    private AtomicBoolean detectionStarted;
+    Thread detectionThread;
 
     /**
-     * The limit to which the currentRMS can be below the threshold while the detectedEvent AtomicBoolean
-     * is still true. When nearRelease reaches this limit, detectedEvent will be set to false.
+     * Flags the detection thread when it stops reading the stream, for example because a processor is
+     * stuck or the microphone has been taken by another app
      */
-    private static final int RELEASE = 10;
-    /**
-     * The integer value that increments once the currentRMS falls below the threshold while the
-     * detectedEvent AtomicBoolean is still true.
-     *
-     * The purpose of these 2 variables is to prevent sharp cutoffs of the end of the AcousticEvent
-     * a single event with multiple steep transients from being interpreted as separate events requiring
-     * recognition and separate RecognitionEvent instances.
-     */
-    private static int nearRelease;
+    private DispatcherWatchdog detectionWatchdog;
 
     /**
-     * Thread to which the detectionDispatcher is passed in order to start it.
+     * The longest the detection thread may go without reading a buffer, about 10 buffers
      */
-    Thread detectionThread;
+    private static final long DETECTION_STALL_MILLIS = 500;
 
     /**
-     * Thread to which the recognition event is passed in order to run while detectedEvent is true.
+     * The recognition threads, started once with the service, on which each recognition session runs.
      * Where the bulk of the DSP will be performed on the audio data to extract features from the
      * Acoustic event/sound currently being detected and compare them to those of the user's saved
-     * events to attempt to recognize it.
+     * events to attempt to recognize it. Their MFCC processors, frame rings and cache of the user's saved
+     * events are kept between events.
      */
-    private static Thread mfccThread;
+    private RecognitionWorker recognitionWorker;
 
 
     /**
-     * The class that handles the MFCC extraction concurrently during detection (while detectedEvent
-     * is true). Once the stop() method is called, the recognition process occurs during which the
-     * user's saved Acoustic Events/ sounds are read from Firebase RealTime Database and DTW is performed
-     * on their MFCC matrices and the matrix of the event that has just been detected. The cost of the
-     * distance for each is established and if they are below a specified cost limit, they are put into a
-     * results set.
-     *
-     * If the results set is not empty, the AcousticEvent with the lowest distance cost is selected as
-     * the best possible match and a notification is sent to the user's device on which they are subscribed to
-     * push notifications.
+     * Starts an MFCCRecognitionEvent, which handles the MFCC extraction concurrently during detection,
+     * every time an Acoustic Event is detected to treat each detection as a separate session identified
+     * by the sample clock it started at. Once a session is ended, the recognition process occurs during
+     * which the user's saved Acoustic Events/ sounds are compared with the event that has just been
+     * detected using DTW on their MFCC matrices, and the best match below its cost limit is sent to the
+     * user's devices as a push notification.
      *
-     * A new instance of this class are called every time detectedEvent becomes true (every time the
-     * threshold is exceeded) to treat each detection as a separate event.
+     * A session that is still being recognised does not hold up the next one, which starts its own
+     * session on another recognition thread.
      */
-    private static MFCCRecognitionEvent MFCCRecognitionEvent;
-
+    private RecognitionSessionManager recognitionSessions;
 
-    // Threshold variables
     /**
-     * The timer that is scheduled to run repeatedly and executes the Threshold calculation and setting
-     * method after a Time interval specified by the user.
+     * Finds the start and end of each Acoustic Event in the buffers read by the detection dispatcher
+     * and copies the event's buffers to its recognition session
      */
-    Timer timer;
+    private DetectionProcessor detectionProcessor;
+
 
+    // Threshold variables
     /**
-     * The current relative power of this portion of the audio buffer. Acquired by performing the
-     * Root Mean Square calculation on the buffer and is stored in the Tarsos DSP AudioEvent class.
-     * Measured against the threshold after every calculation and is added to the list of RMS values
-     * in order to establish a new threshold based on the changing, ambient noise level of the
-     * listening environment.
+     * Keeps the minimum and maximum RMS over the last interval and recalculates the threshold after
+     * every interval specified by the user.
      */
-    private double currentRMS;
+    private NoiseFloorEstimator noiseFloor;
 
     /**
-     * The value that the currentRMS must exceed in order to determine that an Acoustic Event has either
-     * just begun, is in the middle of happening or
+     * The number of buffers the detection dispatcher reads each second, used to convert the threshold
+     * interval into a number of buffers
      */
-    private double volumeThreshold;
+    private double buffersPerSecond;
 
     /**
-     * The list to which all currentRMS values are added during the specified time period (interval).
-     * After the timer executes the threshold calculation method on these values, the list is cleared
-     * and begins to refill with new values for the next time interval.
+     * The starting value of the threshold, until the first interval has been measured
      */
-    ArrayList<Double> rmsValues;
+    private static final double INITIAL_THRESHOLD = 0.0029043591183558017; //0.005457633058228808
 
     /**
      * The time period after which the threshold calculation will be executed. Initial value is specified
      * by the user in the DetectionActivity and can be updated/changed using the seekbar which broadcasts
-     * the new value to this service. The Timertask will adjust how long it waits before executing accordingly.
+     * the new value to this service. The noise floor estimate is taken over this many seconds of buffers.
      */
     private long thresholdInterval;
 
 
-    // Logcat printing variables
-    String rmsString;
-    String threshString;
+    // Metrics variables
+    /**
+     * The file in the app's files directory the metrics are exported to
+     */
+    private static final String METRICS_FILE = "metrics.prom";
+
+    /**
+     * The time between exports of the metrics
+     */
+    private static final long METRICS_EXPORT_SECONDS = 60;
+
+    /**
+     * Writes the metrics to METRICS_FILE on its own thread while the service runs
+     */
+    private MetricsExporter metricsExporter;
+
+
+    // Trace variables
+    /**
+     * The action of the local broadcast that switches trace capture, with the boolean extra
+     * TRACE_ENABLED_EXTRA
+     */
+    public static final String TRACE_CAPTURE = "trace_capture";
+    public static final String TRACE_ENABLED_EXTRA = "enabled";
+
+    /**
+     * The log tag whose level, when DEBUG or lower, switches trace capture on from the start
+     */
+    private static final String TRACE_TAG = "THIRDEAR_TRACE";
+
+    /**
+     * The file in the app's files directory the trace is written to
+     */
+    private static final String TRACE_FILE = "trace.json";
+
 
     // METHODS
 
@@ -191,6 +208,10 @@ public class DetectionService extends Service {
      */
     @Override
     public void onCreate() {
+        // before the recognition worker starts, so the first read of the known events is traced
+        if (Log.isLoggable(TRACE_TAG, Log.DEBUG)) {
+            TraceRecorder.getInstance().setEnabled(true);
+        }
         mUser = FirebaseAuth.getInstance().getCurrentUser();
         mRequestQueue = Volley.newRequestQueue(this);
 
@@ -198,12 +219,12 @@ public class DetectionService extends Service {
         int audioBufferSize = 2048;
         int bufferOverlap = 0;
 
-        detectionStarted = new AtomicBoolean(false);
-        nearRelease = 0;
-        rmsValues = new ArrayList<>();
-
-        // Starting value of the volumeThreshold
-        volumeThreshold = 0.0029043591183558017; //0.005457633058228808
+        // the threshold is recalculated once per interval from the RMS of that interval, the interval is
+        // set from the user's choice in onStartCommand
+        buffersPerSecond = (double) sampleRate / audioBufferSize;
+        int intervalBuffers = toBuffers(10);
+        noiseFloor = new NoiseFloorEstimator(INITIAL_THRESHOLD, intervalBuffers, intervalBuffers,
+                NoiseFloorEstimator.DEFAULT_RANGE_FRACTION);
 
         // setup the dispatcher with the Android system's audioRecord in place of the JVM's AudioInputStream
         int minAudioBufferSize = AudioRecord.getMinBufferSize(sampleRate,
@@ -225,75 +246,35 @@ public class DetectionService extends Service {
             audioInputStream.startRecording();
 
             detectionDispatcher = new AudioDispatcher(audioStream,audioBufferSize,bufferOverlap);
+
+            // start reading the user's saved events now so they are ready for the first detection
+            recognitionWorker = new RecognitionWorker(format, audioBufferSize, mUser);
+            recognitionWorker.start();
+            recognitionSessions = new RecognitionSessionManager(recognitionWorker,
+                    new CloudMessagingNotifier(mUser, mRequestQueue));
+            // a buffer must be over the threshold and not just low frequency rumble to start an event
+            GateCascade startGate = new GateCascade()
+                    .addStage(new EnergyGate(noiseFloor))
+                    .addStage(new ZeroCrossingGate(sampleRate, ZeroCrossingGate.DEFAULT_MIN_FREQUENCY));
+            detectionProcessor = new DetectionProcessor(format, audioBufferSize, noiseFloor, startGate,
+                    recognitionSessions);
         }else{
             throw new IllegalArgumentException("Buffer size too small should be at least " + (minAudioBufferSize *2));
         }
 
-        // Define the detection conditions in a new, anonymous AudioProcessor
-        AudioProcessor volumeProcessor = new AudioProcessor() {
-            @Override
-            public boolean process(AudioEvent audioEvent) {
-                currentRMS = audioEvent.getRMS();
-                rmsValues.add(currentRMS);
-                rmsString = Double.toString(currentRMS);
-                threshString = Double.toString(volumeThreshold);
-
-                // if a sound is not detected and rms is greater than thresh - START EVENT
-                if ((currentRMS > volumeThreshold) && (detectionStarted.get() == false)) {
-                    detectionStarted.set(true);
-                    MFCCRecognitionEvent = new MFCCRecognitionEvent(audioEvent, mUser, mRequestQueue);
-                    mfccThread = new Thread(MFCCRecognitionEvent);
-                    mfccThread.start();
-
-                    Log.d(TAG, "START- Time :"+System.currentTimeMillis()+" Detection: "
-                            +detectionStarted.get() + " OVER THRESHOLD: "+threshString
-                            +"\t Current RMS: "+rmsString);
-
-                } else if ((currentRMS > volumeThreshold) && (detectionStarted.get() == true)) { // DURING EVENT
-
-                    nearRelease = 0;
-                    MFCCRecognitionEvent.setAudioEvent(audioEvent);
-                    mfccThread.interrupt();
-
-                } else if ((currentRMS <= volumeThreshold) && (nearRelease >= RELEASE)) { // END EVENT
-
-                    detectionStarted.set(false);
-                    nearRelease = 0;
-                    MFCCRecognitionEvent.stop();
-
-                    Log.i("END DETECTION", " END- Time : "
-                            +System.currentTimeMillis()+" Detection: " + detectionStarted.get());
-
-                } else if ((detectionStarted.get() == true) && currentRMS <= volumeThreshold) {
-                    // increment if this condition is true
-                    nearRelease += 1;
-                    MFCCRecognitionEvent.setAudioEvent(audioEvent);
-                    mfccThread.interrupt();
-
-                } else {
-                    // Print RMS
-                    Log.i(TAG, "Current RMS: " + rmsString);
-
-                } // end if
-
-                return true;
-
-            } //  end process Method
-
-            @Override
-            public void processingFinished() {
-                Log.i(TAG, "Processing finished");
-            }
-        }; // end AudioProcessor declaration
-
-        detectionDispatcher.addAudioProcessor(volumeProcessor);
+        detectionDispatcher.addAudioProcessor(detectionProcessor);
         detectionThread = new Thread(detectionDispatcher, "Detection AudioDispatcher");
+        detectionWatchdog = new DispatcherWatchdog(detectionDispatcher, DETECTION_STALL_MILLIS);
 
         // Handle broadcasts from the DetectionActivity to change the threshold calculation interval
         // The user may wish to extend or reduce the time taken to calculate the threshold while the
         // detectionService is listening
         LocalBroadcastManager.getInstance(this).registerReceiver(receiver, new IntentFilter("interval_change"));
+        LocalBroadcastManager.getInstance(this).registerReceiver(traceReceiver, new IntentFilter(TRACE_CAPTURE));
 
+        metricsExporter = new MetricsExporter(MetricsRegistry.getInstance(), new File(getFilesDir(), METRICS_FILE),
+                METRICS_EXPORT_SECONDS, TimeUnit.SECONDS);
+        metricsExporter.start();
 
     } // end onCreate
 
@@ -302,7 +283,7 @@ public class DetectionService extends Service {
 
     /**
      * Receive broadcasts from the DetectionActivity and set the Threshold calculation interval for
-     * the timertask to the new value.
+     * the noise floor estimate to the new value.
      */
     private BroadcastReceiver receiver = new BroadcastReceiver() {
         @Override
@@ -320,6 +301,26 @@ public class DetectionService extends Service {
     }; // end Broadcast receiver
 
 
+    /**
+     * Receive broadcasts switching trace capture on or off. Switching it on starts a new trace,
+     * switching it off writes the trace to TRACE_FILE.
+     */
+    private BroadcastReceiver traceReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            TraceRecorder traceRecorder = TraceRecorder.getInstance();
+            if (intent.getBooleanExtra(TRACE_ENABLED_EXTRA, false)) {
+                traceRecorder.clear();
+                traceRecorder.setEnabled(true);
+                Log.i(TAG, "Trace capture started");
+            } else if (traceRecorder.isEnabled()) {
+                traceRecorder.setEnabled(false);
+                exportTrace();
+            }
+        }
+    }; // end trace receiver
+
+
 
 
     /**
@@ -327,7 +328,7 @@ public class DetectionService extends Service {
      * A broadcast manager and receiver listen for changes in the threshold interval set by the user
      * in the DetectionActivity and calls the ThresholdInterval's setter method.
      *
-     * The timertask adjusts the time taken to gather threshold values accordingly.
+     * The noise floor estimate adjusts the time taken to gather threshold values accordingly.
      *
      * @param intent
      * @param flags
@@ -361,25 +362,10 @@ public class DetectionService extends Service {
 
         // Begin the listening and detection...
         detectionThread.start();
+        detectionWatchdog.start();
 
-        // log the time started
-        Log.i(TAG, "Detection Started : "+System.currentTimeMillis());
-
-
+        Log.i(TAG, "Detection Started");
 
-        // Timertask that executes the calculateThreshold method periodically based on the time
-        // interval specified by the user in the DetectionActivity
-        timer = new Timer();
-        timer.schedule(new TimerTask() {
-            @Override
-            public void run() {
-                volumeThreshold = calculateThreshold(rmsValues);
-
-                Log.d(TAG, "Threshold set to : " + volumeThreshold);
-                rmsValues.clear();
-                // change interval to the value set by the user
-            }
-        }, thresholdInterval, thresholdInterval);
 
         Toast.makeText(DetectionService.this, "Listening for sounds...",
                 Toast.LENGTH_SHORT).show();
@@ -399,25 +385,43 @@ public class DetectionService extends Service {
      * stream is closed, the dispatcher releases its assets and stops processing, thereby allowing
      * its processing chain to end correctly.
      *
-     * If a recognition event is currently taking place, it ends and the regularly scheduled
-     * volume threshold calculation Timer is cancelled
+     * If a recognition event is currently taking place, it ends. The recognition worker finishes every
+     * session in flight and then stops.
      */
     @Override
     public void onDestroy() {
         super.onDestroy();
         // unregister the receiver as the service is about to stop
         LocalBroadcastManager.getInstance(this).unregisterReceiver(receiver);
+        LocalBroadcastManager.getInstance(this).unregisterReceiver(traceReceiver);
         Log.i(TAG, "Detection is finished");
-        timer.cancel();
-        if (MFCCRecognitionEvent != null) {
-            MFCCRecognitionEvent.stop();
-        }
         releaseDispatcher();
-
+        // end the event still in progress, if any, and let the sessions in flight finish
+        recognitionSessions.shutdown();
+        // write the counts of this run one last time
+        metricsExporter.stop();
+        // and the timeline of the last sessions, if it was being captured
+        if (TraceRecorder.getInstance().isEnabled()) {
+            exportTrace();
+        }
 
     } // end onDestroy
 
 
+    /**
+     * Writes the events in the TraceRecorder to TRACE_FILE, where they can be pulled with
+     * 'adb shell run-as com.example.thirdearoftruth cat files/trace.json > trace.json'
+     */
+    private void exportTrace() {
+        try {
+            int events = TraceRecorder.getInstance().export(new File(getFilesDir(), TRACE_FILE));
+            Log.i(TAG, events + " trace events written to " + TRACE_FILE);
+        } catch (IOException e) {
+            Log.e(TAG, "Trace could not be exported: " + e.getMessage());
+        }
+    } // end exportTrace
+
+
     @Nullable
     @Override
     public IBinder onBind(Intent intent) {
@@ -429,9 +433,11 @@ public class DetectionService extends Service {
      * Stops the detection dispatcher by checking its internal flag and assigns it a null value
      */
     private void releaseDispatcher() {
+        detectionWatchdog.stop();
         if (!detectionDispatcher.isStopped()) {
             detectionDispatcher.stop();
         } // end inner if
+        Log.i(TAG, detectionDispatcher.getMonitor().toString());
         detectionDispatcher = null;
     } // end release Dispatcher
 
@@ -446,38 +452,27 @@ public class DetectionService extends Service {
     }
 
     /**
-     * The period of time in milliseconds
+     * The period of time in milliseconds. The noise floor estimate starts again over the new interval
+     * on the next buffer the dispatcher reads.
      *
      * @param interval
      */
     public void setThresholdInterval(int interval) {
         this.thresholdInterval = interval*1000;
+        int intervalBuffers = toBuffers(interval);
+        noiseFloor.setWindow(intervalBuffers, intervalBuffers);
         Log.d("SERVICE_THRESHOLD", "Interval has been set at "+interval+". Threshold will be calculated repeatedly after this many seconds.");
     }
 
 
 
     /**
-     * Retrieves the Max and Min values of the collected RMS values of the input audio signal.
-     * Calculates the difference between them and returns the minimum value+ 20% of the difference.
-     * <p>
-     * The percentage of the difference added to the minimum RMS may need to change based on
-     * the performance of the system.
-     *
-     * @param rmsValues the ArrayList containing RMS values gathered from readDispatcher
-     * @return a Double representing the new average loudness/ambience of the user's listening environment
+     * @param seconds a threshold interval in seconds
+     * @return the number of buffers the detection dispatcher reads in that time, at least 1
      */
-    public static Double calculateThreshold(ArrayList<Double> rmsValues) {
-        double minRMS = Collections.min(rmsValues);
-        double maxRMS = Collections.max(rmsValues);
-
-        double difference = maxRMS - minRMS;
-
-        double result = minRMS + (difference * 0.2);
-        Log.d(TAG, "New Threshold is : " + result);
-        return result;
-
-    } // end calculate threshold
+    private int toBuffers(int seconds) {
+        return (int) Math.max(1, Math.round(seconds * buffersPerSecond));
+    } // end toBuffers
 
 
 } // end detection service
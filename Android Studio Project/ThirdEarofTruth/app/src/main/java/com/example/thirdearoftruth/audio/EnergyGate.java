@@ -0,0 +1,37 @@
+/**
+ * This is a Digital Audio Signal Processing Class
+ */
+package com.example.thirdearoftruth.audio;
+
+import com.example.thirdearoftruth.utils.AudioEvent;
+
+/**
+ * The first and cheapest stage of the detection GateCascade. A buffer passes if its RMS is above the
+ * threshold estimated from the listening environment. For 16 bit PCM the RMS is calculated from the
+ * integer samples, so buffers that stop here are never converted to floats.
+ */
+public class EnergyGate extends GateStage {
+
+    /**
+     * The estimate of the listening environment the threshold is read from
+     */
+    private final NoiseFloorEstimator noiseFloor;
+
+
+    /**
+     * @param noiseFloor the estimate of the listening environment the threshold is read from
+     */
+    public EnergyGate(NoiseFloorEstimator noiseFloor) {
+        super("Energy");
+        this.noiseFloor = noiseFloor;
+    }
+
+
+    // Methods
+
+    @Override
+    protected boolean accept(AudioEvent audioEvent) {
+        return audioEvent.getRMS() > noiseFloor.getThreshold();
+    }
+
+} // end EnergyGate
@@ -0,0 +1,258 @@
+/**
+ * This is a Digital Audio Signal Processing Class
+ */
+package com.example.thirdearoftruth.audio;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import be.tarsos.dsp.io.TarsosDSPAudioFormat;
+
+/**
+ * A single-producer/single-consumer ring of preallocated frame slots that carries the buffers of a
+ * detected Acoustic Event from the AudioDispatcher thread in the DetectionService to the thread that
+ * extracts its features.
+ *
+ * The dispatcher reuses its AudioEvent and float buffer for every block of frames, so each buffer is
+ * copied into the next free slot when it is offered. Every slot has a sequence number: the producer
+ * publishes a slot by advancing the write sequence and the consumer gives it back by advancing the read
+ * sequence, so every frame offered is taken exactly once and in order, and neither side ever takes a lock.
+ *
+ * The consumer parks while the ring is empty and is unparked by the producer when the next frame is
+ * published or the ring is closed. Frames arrive roughly every 46 milliseconds so there is nothing
+ * to gain from spinning. The producer never waits: the dispatcher must keep reading the microphone, so
+ * a frame offered while every slot is still in use is dropped and counted instead.
+ */
+public final class FrameRing {
+
+    /**
+     * The longest the consumer parks before checking the ring again, in case an unpark is missed
+     */
+    private static final long MAX_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    /**
+     * The format of the audio the frames were read from
+     */
+    private final TarsosDSPAudioFormat format;
+
+    /**
+     * The preallocated slots, each holding one buffer of samples
+     */
+    private final float[][] slots;
+
+    /**
+     * The position in the stream, in samples, of the first sample of the frame in each slot
+     */
+    private final long[] sampleClocks;
+
+    /**
+     * capacity - 1, the capacity is a power of 2 so a sequence maps to its slot with a mask
+     */
+    private final int mask;
+
+    /**
+     * The number of frames published by the producer
+     */
+    private final AtomicLong writeSequence = new AtomicLong();
+
+    /**
+     * The number of frames the consumer has finished with
+     */
+    private final AtomicLong readSequence = new AtomicLong();
+
+    /**
+     * The producer's last read of readSequence, so it only reads the volatile when the ring looks full
+     */
+    private long cachedReadSequence;
+
+    /**
+     * Set by the producer once the last frame of the event has been offered
+     */
+    private volatile boolean closed;
+
+    /**
+     * The consumer thread, while it is parked waiting for a frame
+     */
+    private volatile Thread parkedConsumer;
+
+    /**
+     * The number of frames dropped because every slot was still in use. Only written by the producer
+     */
+    private volatile long droppedFrames;
+
+
+    /**
+     * @param format the format of the audio the frames are read from
+     * @param frameSize the number of samples in each buffer
+     * @param capacity the number of slots, must be a power of 2
+     */
+    public FrameRing(TarsosDSPAudioFormat format, int frameSize, int capacity) {
+        if (capacity < 2 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("Frame ring capacity must be a power of 2, was " + capacity);
+        }
+        this.format = format;
+        this.slots = new float[capacity][frameSize];
+        this.sampleClocks = new long[capacity];
+        this.mask = capacity - 1;
+    }
+
+
+    // getters
+
+    /**
+     * @return the format of the audio the frames were read from
+     */
+    public TarsosDSPAudioFormat getFormat() {
+        return format;
+    }
+
+    /**
+     * @return the number of slots in the ring
+     */
+    public int getCapacity() {
+        return slots.length;
+    }
+
+    /**
+     * @return the number of frames dropped so far because the consumer had fallen a whole ring behind
+     */
+    public long getDroppedFrames() {
+        return droppedFrames;
+    }
+
+    /**
+     * @return the number of frames offered and not yet released by the consumer, safe to call from any
+     * thread
+     */
+    public int size() {
+        return (int) (writeSequence.get() - readSequence.get());
+    }
+
+    /**
+     * @return true once close() has been called
+     */
+    public boolean isClosed() {
+        return closed;
+    }
+
+
+    // Producer methods
+
+    /**
+     * Copies a buffer into the next free slot and publishes it to the consumer. Must only be called from
+     * the producer thread.
+     *
+     * @param samples the buffer of samples, copied before this method returns
+     * @param sampleClock the position in the stream, in samples, of the first sample of the buffer
+     * @return false if every slot was still in use and the frame was dropped
+     */
+    public boolean offer(float[] samples, long sampleClock) {
+        long sequence = writeSequence.get();
+        if (sequence - cachedReadSequence >= slots.length) {
+            cachedReadSequence = readSequence.get();
+            if (sequence - cachedReadSequence >= slots.length) {
+                droppedFrames++;
+                return false;
+            }
+        }
+
+        int index = (int) sequence & mask;
+        if (slots[index].length != samples.length) {
+            // only happens for a shortened last buffer at the end of a stream
+            slots[index] = new float[samples.length];
+        }
+        System.arraycopy(samples, 0, slots[index], 0, samples.length);
+        sampleClocks[index] = sampleClock;
+
+        // a volatile write, so the check for a parked consumer below cannot be reordered before it
+        writeSequence.set(sequence + 1);
+        wakeConsumer();
+        return true;
+    }
+
+    /**
+     * Tells the consumer that no more frames will be offered. It will still take every frame already
+     * published before take() reports the end of the event.
+     */
+    public void close() {
+        closed = true;
+        wakeConsumer();
+    }
+
+    /**
+     * Empties the ring so it can carry the frames of another event. Must only be called once the
+     * consumer has finished with the ring and before the producer offers it another frame.
+     */
+    public void reset() {
+        writeSequence.set(0);
+        readSequence.set(0);
+        cachedReadSequence = 0;
+        droppedFrames = 0;
+        closed = false;
+    }
+
+    private void wakeConsumer() {
+        Thread consumer = parkedConsumer;
+        if (consumer != null) {
+            LockSupport.unpark(consumer);
+        }
+    }
+
+
+    // Consumer methods
+
+    /**
+     * Waits until the next frame is published. The frame stays in its slot, without being copied, until
+     * release() is called with the same sequence. Must only be called from the consumer thread.
+     *
+     * @return the sequence of the next frame, or -1 if the ring has been closed and every frame published
+     * has already been taken
+     */
+    public long take() {
+        long sequence = readSequence.get();
+        while (true) {
+            // read closed first: if it is set, every frame was published before it
+            boolean wasClosed = closed;
+            if (writeSequence.get() > sequence) {
+                return sequence;
+            }
+            if (wasClosed) {
+                return -1;
+            }
+
+            parkedConsumer = Thread.currentThread();
+            // check again now the producer can see this thread, in case it published in between
+            if (writeSequence.get() == sequence && !closed) {
+                LockSupport.parkNanos(this, MAX_PARK_NANOS);
+            }
+            parkedConsumer = null;
+        }
+    }
+
+    /**
+     * @param sequence a sequence returned by take()
+     * @return the samples of that frame, only valid until release() is called for it
+     */
+    public float[] frame(long sequence) {
+        return slots[(int) sequence & mask];
+    }
+
+    /**
+     * @param sequence a sequence returned by take()
+     * @return the position in the stream, in samples, of the first sample of that frame
+     */
+    public long sampleClock(long sequence) {
+        return sampleClocks[(int) sequence & mask];
+    }
+
+    /**
+     * Hands the slot of a frame back to the producer once the consumer has finished with it.
+     *
+     * @param sequence the sequence returned by the last call to take()
+     */
+    public void release(long sequence) {
+        readSequence.lazySet(sequence + 1);
+    }
+
+} // end FrameRing
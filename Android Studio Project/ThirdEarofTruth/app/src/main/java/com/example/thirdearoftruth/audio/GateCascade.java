@@ -0,0 +1,94 @@
+/**
+ * This is a Digital Audio Signal Processing Class
+ */
+package com.example.thirdearoftruth.audio;
+
+import android.util.Log;
+
+import com.example.thirdearoftruth.utils.AudioEvent;
+import com.example.thirdearoftruth.utils.AudioProcessor;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The checks a buffer must pass before it starts an Acoustic Event and the expensive MFCC extraction
+ * and recognition that go with it. The stages are run cheapest first, in the order they were added,
+ * and the first one that stops the buffer ends the cascade, in the same way a processor returning false
+ * ends the AudioDispatcher's chain. A buffer that passes every stage is handed on to the MFCC stage.
+ *
+ * Every GateStage counts what it screens out, and the cascade counts the buffers handed on, so
+ * logStatistics() shows how much work each stage saves.
+ *
+ * Only meant to be used from the thread running the dispatcher's processing chain.
+ */
+public class GateCascade implements AudioProcessor {
+
+    private static final String TAG = "GATE_CASCADE";
+
+    /**
+     * The stages, cheapest first
+     */
+    private final List<GateStage> stages = new ArrayList<>();
+
+    /**
+     * The number of buffers that passed every stage and were handed on to the MFCC stage
+     */
+    private volatile long framesPassed;
+
+
+    // getters
+
+    public List<GateStage> getStages() {
+        return stages;
+    }
+
+    public long getFramesPassed() {
+        return framesPassed;
+    }
+
+
+    // Methods
+
+    /**
+     * Adds a stage after those already added
+     *
+     * @param stage the stage, which should cost more than the stages before it
+     * @return this cascade
+     */
+    public GateCascade addStage(GateStage stage) {
+        stages.add(stage);
+        return this;
+    }
+
+    /**
+     * @param audioEvent the current block of frames from the dispatcher
+     * @return true if the buffer passed every stage
+     */
+    @Override
+    public boolean process(AudioEvent audioEvent) {
+        for (int i = 0; i < stages.size(); i++) {
+            if (!stages.get(i).process(audioEvent)) {
+                return false;
+            }
+        }
+        framesPassed++;
+        return true;
+    } // end process
+
+    /**
+     * Logs the counters of every stage
+     */
+    public void logStatistics() {
+        for (int i = 0; i < stages.size(); i++) {
+            Log.i(TAG, stages.get(i).toString());
+        }
+        Log.i(TAG, "MFCC: " + framesPassed + " buffers passed every stage");
+    }
+
+    @Override
+    public void processingFinished() {
+        logStatistics();
+    }
+
+} // end GateCascade
@@ -0,0 +1,95 @@
+/**
+ * This is a Digital Audio Signal Processing Class
+ */
+package com.example.thirdearoftruth.audio;
+
+import com.example.thirdearoftruth.utils.AudioEvent;
+import com.example.thirdearoftruth.utils.AudioProcessor;
+
+/**
+ * One stage of a GateCascade, an AudioProcessor that lets a buffer through to the next stage or stops
+ * it. Each stage counts the buffers it was given and the buffers it let through, so the work every stage
+ * screens out of the more expensive stages after it can be seen in the log.
+ *
+ * The counters are only written by the thread running the dispatcher's processing chain and can be read
+ * from any thread.
+ */
+public abstract class GateStage implements AudioProcessor {
+
+    /**
+     * The name of the stage in the log
+     */
+    private final String name;
+
+    /**
+     * The number of buffers given to this stage
+     */
+    private volatile long framesIn;
+
+    /**
+     * The number of buffers this stage let through
+     */
+    private volatile long framesPassed;
+
+
+    /**
+     * @param name the name of the stage in the log
+     */
+    protected GateStage(String name) {
+        this.name = name;
+    }
+
+
+    // getters
+
+    public String getName() {
+        return name;
+    }
+
+    public long getFramesIn() {
+        return framesIn;
+    }
+
+    public long getFramesPassed() {
+        return framesPassed;
+    }
+
+    public long getFramesRejected() {
+        return framesIn - framesPassed;
+    }
+
+
+    // Methods
+
+    /**
+     * Counts the buffer and whether it passed
+     *
+     * @param audioEvent the current block of frames from the dispatcher
+     * @return true if the buffer passed this stage and should be given to the next one
+     */
+    @Override
+    public final boolean process(AudioEvent audioEvent) {
+        framesIn++;
+        if (accept(audioEvent)) {
+            framesPassed++;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * @param audioEvent the current block of frames from the dispatcher
+     * @return true if the buffer should be given to the next stage
+     */
+    protected abstract boolean accept(AudioEvent audioEvent);
+
+    @Override
+    public void processingFinished() {
+    }
+
+    @Override
+    public String toString() {
+        return name + ": " + framesPassed + " of " + framesIn + " passed";
+    }
+
+} // end GateStage
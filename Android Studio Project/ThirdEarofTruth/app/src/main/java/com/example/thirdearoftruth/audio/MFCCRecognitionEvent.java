@@ -5,49 +5,58 @@ package com.example.thirdearoftruth.audio;
 
 import android.util.Log;
 
-import androidx.annotation.NonNull;
-
-import com.android.volley.AuthFailureError;
-import com.android.volley.Request;
-import com.android.volley.RequestQueue;
-import com.android.volley.Response;
-import com.android.volley.VolleyError;
-import com.android.volley.toolbox.JsonObjectRequest;
-import com.example.thirdearoftruth.marytts.DTW;
-import com.example.thirdearoftruth.models.AcousticEvent;
-import com.google.firebase.auth.FirebaseUser;
-import com.google.firebase.database.DataSnapshot;
-import com.google.firebase.database.DatabaseError;
-import com.google.firebase.database.DatabaseReference;
-import com.google.firebase.database.FirebaseDatabase;
-import com.google.firebase.database.ValueEventListener;
 
-import org.json.JSONException;
-import org.json.JSONObject;
+import com.example.thirdearoftruth.metrics.Counter;
+import com.example.thirdearoftruth.metrics.LatencyHistogram;
+import com.example.thirdearoftruth.metrics.MetricsRegistry;
+import com.example.thirdearoftruth.metrics.TraceRecorder;
+import com.example.thirdearoftruth.models.AcousticEvent;
+import com.example.thirdearoftruth.utils.AudioEvent;
+import com.example.thirdearoftruth.utils.MFCC;
 
-import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Calendar;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.List;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.TimeUnit;
 
-import be.tarsos.dsp.AudioEvent;
-import be.tarsos.dsp.mfcc.MFCC;
-
 /**
  * @author dermotbrennan
  *
  *
  * This class handles the feature extraction and Recognition process when a sound is detected in the
- * Detection Service class using the Tarsos DSP AudioDispatcher, AudioProcessor and AudioEvent classes.
+ * Detection Service class using the AudioDispatcher, AudioProcessor and AudioEvent classes.
  *
- * This class runs concurrently with the Dispatcher in the Detection Service and shares the audioEvent
- * currently being processed by its AudioProcessor chain until it determines that the current RMS (power/volume) has
+ * This class runs concurrently with the Dispatcher in the Detection Service, which copies each buffer of
+ * the Acoustic Event into a FrameRing until it determines that the current RMS (power/volume) has
  * both fallen back below the specified threshold and has done so for a long enough period of time to
- * safely assume the Acoustic Event has finished.
+ * safely assume the Acoustic Event has finished. It then closes the ring, and once this class has taken
+ * every frame left in it the recognition process begins on this thread.
+ *
+ * Each instance is one recognition session, identified by the sample clock of the buffer that started
+ * it, with its own ring and feature window. Sessions are started by the RecognitionSessionManager and
+ * several may be recognised at once on different threads of the RecognitionWorker.
+ *
+ * In a loud environment an event can last for minutes, so it is recognised in overlapping windows of at
+ * most WINDOW_FRAMES feature vectors, starting every WINDOW_HOP_FRAMES. Each window is identified as soon
+ * as it is complete, so a sustained sound such as an alarm is notified within a few seconds of starting,
+ * and only the features of the last window are kept, so the memory of a session does not grow with the
+ * length of the event. A sound is notified once per session however many windows match it.
+ *
+ * Once the event ends the session has RECOGNITION_DEADLINE_MILLIS to notify the user. The deadline is
+ * checked between frames, inside the DTW and while waiting for the known events, and a session that
+ * misses it, or is cancelled to make room for a newer event, is abandoned rather than sending a
+ * notification about a sound that is long over.
+ *
+ * Every stage of the session, from the onset to the notification being acknowledged, is stamped in its
+ * SessionTrace, which is logged once the session is finished. The number of windows, comparisons and
+ * notifications, and the time from the end of the event to the end of the DTW, are counted in the
+ * MetricsRegistry.
+ *
+ * While trace capture is on, the session, each frame, each window identified and the DTW cost, maximum
+ * cost, outcome and matching time of every known event are recorded in the TraceRecorder.
  *
  * Extends Detection as this is expected to be 1 of potentially many Recognition behaviours, while
  * this one focuses solely on extraction of MFCCs as the acoustic feature and Dynamic Time Warping
@@ -56,13 +65,61 @@ import be.tarsos.dsp.mfcc.MFCC;
 public class MFCCRecognitionEvent extends Detection implements Runnable {
 
     private static final String TAG = "RECOGNITION_EVENT";
-    private static boolean detectedEvent;
 
+    private static final Counter FRAMES_PROCESSED = MetricsRegistry.getInstance().counter(
+            "thirdear_recognition_frames_processed_total", "Frames the MFCC was extracted from");
+    private static final Counter WINDOWS_IDENTIFIED = MetricsRegistry.getInstance().counter(
+            "thirdear_recognition_windows_total", "Windows of feature vectors identified");
+    private static final Counter DTW_CALLS = MetricsRegistry.getInstance().counter(
+            "thirdear_dtw_calls_total", "Known Acoustic Events compared with a detected event by DTW");
+    private static final Counter DTW_PRUNED = MetricsRegistry.getInstance().counter(
+            "thirdear_dtw_templates_pruned_total", "Known Acoustic Events rejected for exceeding their maximum cost");
+    private static final Counter SESSIONS_ABANDONED = MetricsRegistry.getInstance().counter(
+            "thirdear_recognition_sessions_abandoned_total", "Sessions that missed their deadline without notifying");
+    private static final Counter NOTIFICATIONS_SENT = MetricsRegistry.getInstance().counter(
+            "thirdear_notifications_sent_total", "Notifications passed to the notifier");
+    private static final LatencyHistogram RECOGNITION_LATENCY = MetricsRegistry.getInstance().histogram(
+            "thirdear_recognition_latency_seconds", "Time from the end of an event to the end of its DTW");
+
+    private static final TraceRecorder TRACE = TraceRecorder.getInstance();
 
     /**
-     * the current block of frames/ the buffer to be processed
+     * The most feature vectors recognised together, about 4.5 seconds at 44100Hz with 2048 sample buffers.
+     * Events no longer than this are recognised as a whole, as they always were.
      */
-    AudioEvent audioEvent;
+    public static final int WINDOW_FRAMES = 96;
+
+    /**
+     * The number of feature vectors between the starts of consecutive windows, so that every part of a
+     * long event is recognised with half a window of context on either side
+     */
+    static final int WINDOW_HOP_FRAMES = 48;
+
+    /**
+     * The number of windows that are open at the same time
+     */
+    static final int OPEN_WINDOWS = WINDOW_FRAMES / WINDOW_HOP_FRAMES;
+
+    /**
+     * The position in the stream, in samples, of the buffer that started this event
+     */
+    private final long startSampleClock;
+
+    /**
+     * The ring the Detection Service copies each buffer of the event into
+     */
+    private final FrameRing frames;
+
+    /**
+     * The long-lived recognition pool this event is recognised on, which holds the known Acoustic Events
+     * and, for each of its threads, the MFCC processor and delta features shared by every event
+     */
+    private final RecognitionWorker worker;
+
+    /**
+     * The warm state of the recognition thread running this event, set when run() starts
+     */
+    private RecognitionWorker.RecognitionState state;
 
 
     /**
@@ -72,86 +129,94 @@ public class MFCCRecognitionEvent extends Detection implements Runnable {
     private Map<AcousticEvent, Double> results;
 
     /**
-     * the arrayList of double[] to add each MFCC to. A 2d array suitable
-     * for DTW will be formed from it in the getResult() method
+     * The last WINDOW_FRAMES feature vectors of the event, indexed by their number modulo WINDOW_FRAMES.
+     * The slots belong to the recognition thread's state and are set when run() starts.
      */
-    ArrayList<double[]> mfccList;
+    private float[][] featureWindow;
 
     /**
-     * The mfccList converted to a 2D array suitable for Dynamic Time Warping
+     * The number of feature vectors of the event so far
      */
-    private double[][] detectedEventMfccs;
+    private long featureCount;
 
     /**
-     * the Tarsos DSP MFCC audioprocessor that produces an mfcc for each
-     * block of frames fed into it
+     * The number of the first feature vector of the window each of the state's window matchers is
+     * comparing, or -1 if it has not started one for this event
      */
-    private MFCC mfcc;
+    private final long[] windowStarts;
 
+    /**
+     * The number of the first feature vector of the last window identified, or -1 if none has been
+     */
+    private long lastIdentifiedWindowStart;
 
     /**
-     * The MFCC produced by the MFCC processor
+     * The names of the sounds already notified for this event
      */
-    float[] mfccs;
+    private final Set<String> notifiedSounds;
 
     /**
-     * the MFCC converted to a double[] to be added to the list
+     * The feature vectors of the last window identified, as a 2D array suitable for Dynamic Time Warping
      */
-    double[] mfccsAsDoubles;
+    private float[][] detectedEventMfccs;
 
 
     /**
-     * The volley requestQueue to which the notification holding the result of this recognition process
-     * will be sent to
+     * The feature vector (MFCC, deltas and delta-deltas) produced by the delta feature processor
      */
-    private RequestQueue mRequestQueue;
+    float[] mfccs;
+
 
     /**
-     * The Firebase Messaging push notification URL to connect to Cloud Messaging and
-     * handle the sending of push notifications/ topic notifications
+     * Tells the user the name of each sound identified for this event
      */
-    private String notificationUrl;
+    private final RecognitionNotifier notifier;
 
     /**
-     * The currently logged in user to which notifications will be sent
+     * The longest the recognition waits for the user's known Acoustic Events to be read the first time
      */
-    FirebaseUser mUser;
+    private static final long KNOWN_EVENTS_TIMEOUT_SECONDS = 10;
 
     /**
-     * The reference to the Firebase Realtime Database containing all the known acoustic events for this user
+     * The time the session has to notify the user after the event ends
      */
-    DatabaseReference mDatabaseReference;
+    static final long RECOGNITION_DEADLINE_MILLIS = 5000;
 
     /**
-     * A list of the user's known acoustic events read from the Firebase Realtime Database
-     *
+     * Set when the event ends, checked by the recognition thread
      */
-    List<AcousticEvent> acousticEventList;
+    private final RecognitionDeadline deadline = new RecognitionDeadline();
 
     /**
-     * Constructor to which the first audioEvent must be passed when this runnable is called in the
-     * Detection service. Other The requestQueue and current logged-in user are passed from the service as
-     * well to alleviate any unnecessary repetition of code.
-     *
+     * True if the session missed its deadline before notifying the user of anything
      */
-    public MFCCRecognitionEvent(AudioEvent audioEvent, FirebaseUser firebaseUser, RequestQueue requestQueue) {
-        // the current audioEvent, firebaseUser and Volley requestQueue are inherited from the detection
-        super(audioEvent, firebaseUser, requestQueue);
+    private volatile boolean abandoned;
 
-        this.audioEvent = super.getAudioEvent();
-
-        // URL used to connect to Cloud Messaging
-        notificationUrl = "https://fcm.googleapis.com/fcm/send";
-
-        detectedEvent = true;
+    /**
+     * The time and sample clock of each stage of this session
+     */
+    private final SessionTrace trace;
 
-        acousticEventList = new ArrayList<>();
+    /**
+     * Constructor to which the ring the Detection service offers the event's buffers to must be passed
+     * before this runnable is submitted to the recognition worker. The notifier is passed from the service
+     * as well to alleviate any unnecessary repetition of code.
+     *
+     */
+    public MFCCRecognitionEvent(long startSampleClock, FrameRing frames, RecognitionWorker worker,
+                                RecognitionNotifier notifier) {
+        this.startSampleClock = startSampleClock;
+        this.frames = frames;
+        this.worker = worker;
+        this.notifier = notifier;
+        this.trace = new SessionTrace(startSampleClock, frames.getFormat().getSampleRate());
 
         results = new HashMap<>();
 
-        mfccList = new ArrayList<double[]>();
-
-        mfcc = new MFCC(2048, 44100, 13, 20, 133.33f, 8000f);
+        windowStarts = new long[OPEN_WINDOWS];
+        Arrays.fill(windowStarts, -1);
+        lastIdentifiedWindowStart = -1;
+        notifiedSounds = new HashSet<>();
 
 
     } // end constructor
@@ -161,38 +226,61 @@ public class MFCCRecognitionEvent extends Detection implements Runnable {
     // getters and setters
 
     /**
-     * @return the audioEvent
+     * @return the position in the stream, in samples, of the buffer that started this event
+     */
+    public long getStartSampleClock() {
+        return startSampleClock;
+    }
+
+    /**
+     * @return the deadline of this session, which can be cancelled from any thread
+     */
+    public RecognitionDeadline getDeadline() {
+        return deadline;
+    }
+
+    /**
+     * @return true if the session missed its deadline before notifying the user of anything
      */
-    public AudioEvent getAudioEvent() {
-        return audioEvent;
+    public boolean isAbandoned() {
+        return abandoned;
     }
 
+    /**
+     * @return the time and sample clock of each stage of this session so far
+     */
+    public SessionTrace getTrace() {
+        return trace;
+    }
 
+    /**
+     * @return the ring the event's buffers are taken from
+     */
+    public FrameRing getFrames() {
+        return frames;
+    }
 
     /**
-     * Retrieve the new mfcc feature vector as a 2d array
+     * Retrieve the feature vectors of the last window identified as a 2d array. The vectors are the
+     * recognition thread's own slots, so they only hold this event's features until run() returns.
      * @return detectedEventMfccs, the 2d array
      */
-    public double[][] getDetectedEventMfccs() {
+    public float[][] getDetectedEventMfccs() {
         return detectedEventMfccs;
     }
 
     /**
-     * convert the List of double[] representing the mfccs of this detected Acoustic Event into
-     * a 2d array of type double [][].
+     * Copies the feature vectors of a window, which must still be in the feature window, into a 2d array
+     * of type float [][].
      *
-     *
-     * The newly detected event can now be passed into the MaryTTS Dynamic Time Warping class with each
-     * Acoustic Event stored in the database by the user to establish a potential match.
-     *
-     *
-     * @param mfccList
+     * @param start the number of the first feature vector of the window
+     * @param end the number of the feature vector after the last one of the window
      */
-    public void setDetectedEventMfccs(ArrayList<double[]> mfccList) {
+    private void setDetectedEventMfccs(long start, long end) {
 
-        double[][] mfcc2DArray = new double[mfccList.size()][];
-        for (int i = 0; i < mfccList.size(); i++) {
-            mfcc2DArray[i] = mfccList.get(i);
+        float[][] mfcc2DArray = new float[(int) (end - start)][];
+        for (long i = start; i < end; i++) {
+            mfcc2DArray[(int) (i - start)] = featureWindow[(int) (i % WINDOW_FRAMES)];
         }
 
         this.detectedEventMfccs = mfcc2DArray;
@@ -203,252 +291,311 @@ public class MFCCRecognitionEvent extends Detection implements Runnable {
     // Methods
 
     /**
-     * This method handles the processing and collection of MFCCs from the audioEvent (current portion
-     * of the audio buffer from the stream being shared between the detection service and this runnable).
+     * This method handles the processing and collection of MFCCs from the frames (portions of the audio
+     * stream) the Detection Service offers to the ring.
+     *
+     * Each frame is taken from the ring exactly once, in order, and the MFCC processes it in place before
+     * its slot is handed back. While the ring is empty this thread parks until the Detection Service
+     * offers the next frame, which happens roughly every 46 milliseconds.
+     *
+     * When the stop() method is called in the Detection Service the ring is closed. Once the frames left in
+     * it have been processed the loop ends, the ring is given back to the worker for the next event and the
+     * Recognition calculation occurs on this thread.
      *
-     * While running, each time the audioEvent is set during the processing in the Detection Service,
-     * the MFCC processes the float buffer within the audioEvent before being interrupted. It will sleep until
-     * the audioEvent is set again which happens roughly every 46 milliseconds and is virtually unnoticeable.
+     * This runs on one of the recognition worker's threads, so that thread's MFCC processor and delta
+     * features are used without any set up for this event. Each feature vector is compared with the known
+     * events by the online DTW matcher as soon as it is ready, so when the event ends only the last few
+     * frames are left to compare.
      *
-     * This continues while the AtomicBoolean detectedEvent is still true, and when the stop() method is called
-     * in the Detecttion Service this AtomicBoolean is set to false, thereby ending this loop and allowing the
-     * Recognition calculation to occur.
+     * If the deadline expires while frames are still waiting in the ring, they are handed back without
+     * being processed and the session is abandoned.
      *
      */
     @Override
     public void run() {
-        boolean paused;
-
-        while(detectedEvent==true) {
-            String threadName = Thread.currentThread().getName();
-            mfcc.process(audioEvent);
-            mfccs = mfcc.getMFCC();
-            mfccsAsDoubles = convertFloatsToDoubles(mfccs);
-            mfccList.add(mfccsAsDoubles);
-            Log.d(TAG,threadName+" "+ Arrays.toString(mfccsAsDoubles));
-            paused = true;
-
-            while(paused) {
-                try {
-                    Thread.sleep(1000);
-                } catch (Exception e) {
-                    paused = false;
+        long sessionStart = System.nanoTime();
+        String threadName = Thread.currentThread().getName();
+        state = worker.getRecognitionState();
+        featureWindow = state.featureWindow;
+        MFCC mfcc = state.mfcc;
+        DeltaFeatureProcessor deltaFeatures = state.deltaFeatures;
+        AudioEvent frameEvent = state.frameEvent;
+        deltaFeatures.reset();
+
+        long sequence;
+        while ((sequence = frames.take()) >= 0) {
+            if (deadline.isExpired()) {
+                // too late for this event to be useful, only drain the ring
+                frames.release(sequence);
+                continue;
+            }
+            long frameStart = System.nanoTime();
+            frameEvent.setFloatBuffer(frames.frame(sequence));
+            mfcc.process(frameEvent);
+            FRAMES_PROCESSED.increment();
+            trace.mark(SessionTrace.Stage.FIRST_MFCC, frames.sampleClock(sequence));
+            deltaFeatures.process(frameEvent);
+            frames.release(sequence);
+
+            if (deltaFeatures.isFeatureReady()) {
+                // copied straight into the next slot of the window, no frame allocates a feature vector
+                mfccs = featureWindow[(int) (featureCount % WINDOW_FRAMES)];
+                deltaFeatures.copyFeatures(mfccs);
+                addFeatures(mfccs);
+                // 'adb shell setprop log.tag.RECOGNITION_EVENT DEBUG' prints every feature vector
+                if (Log.isLoggable(TAG, Log.DEBUG)) {
+                    Log.d(TAG, threadName + " " + Arrays.toString(mfccs));
                 }
             }
+            TRACE.complete("recognition", "frame", frameStart, startSampleClock);
         } // end while
-    } // end run
 
+        if (frames.getDroppedFrames() > 0) {
+            Log.w(TAG, "Session " + startSampleClock + ": " + frames.getDroppedFrames()
+                    + " frames were dropped, recognition fell behind the dispatcher");
+        }
+        worker.recycle(frames);
 
-    /**
-     * Called when the detectedEvent atomicboolean in the main
-     * detection service becomes false.
-     *
-     * Create a method where the list is added to dtw
-     */
-    public void stop() {
+        if (deadline.isExpired()) {
+            deltaFeatures.reset();
+            abandon();
+            TRACE.complete("recognition", "session", sessionStart, startSampleClock);
+            return;
+        }
 
-        detectedEvent = false;
-        audioEvent = null;
-        Log.d(TAG,"List of mfccs created : "+mfccList.size());
-        setDetectedEventMfccs(mfccList);
+        // the last few frames only get their dynamic features once the end of the event is known
+        for (float[] features : deltaFeatures.flush()) {
+            addFeatures(features);
+        }
+        Log.d(TAG,"Number of mfccs : "+featureCount);
 
         identifyAcousticEvent();
 
-    } // end stop method
+        long latency = trace.getLatencyNanos(SessionTrace.Stage.EVENT_END, SessionTrace.Stage.DTW_COMPLETE);
+        if (latency != SessionTrace.NOT_STAMPED) {
+            RECOGNITION_LATENCY.record(latency);
+        }
+        TRACE.complete("recognition", "session", sessionStart, startSampleClock, "frames", featureCount);
+    } // end run
 
 
     /**
-     * The recognition process is initiated from here.
-     * The Acoustic Event's stored by the user in the Firebase Realtime Database are read and adapted
-     * into AcousticEvent objects to hold the relevant audio data and information to relay back to the
-     * user.
-     *
-     * Each acousticEvent stored by the user is compared to the new sound using their mfccs
-     * stored in feature vectors/matrices/2d arrays. The distance between them is established and
-     * set as the "Cost", after which the AcousticEvent with the minimum cost is established.
-     *
-     * If the cost of the Distance between this final Acoustic Event and the newly detected event is
-     * small enough to be deemed a probable match, a notification is sent to the user informing them
-     * that the sound has occurred in their listening environment.
+     * Adds the next feature vector of the event to the feature window and to every open window's
+     * matcher, opening a new window every WINDOW_HOP_FRAMES and identifying each window once it holds
+     * WINDOW_FRAMES feature vectors.
      *
+     * @param features the next feature vector, copied into its slot of the feature window unless it is
+     *                 that slot already
      */
-    public void identifyAcousticEvent() {
-
-        mUser = super.getmFirebaseUser();
-
-        Log.d(TAG, "DTW Recognition Process START : "+System.currentTimeMillis());
-
-        mDatabaseReference = FirebaseDatabase.getInstance().getReference("AcousticEvents").child(mUser.getUid());
-        mDatabaseReference.addValueEventListener(new ValueEventListener() {
-            @Override
-            public void onDataChange(@NonNull DataSnapshot snapshot) {
-                acousticEventList.clear();
-                results.clear();
-
-                for(DataSnapshot dataSnapshot : snapshot.getChildren()){
-                    // create the acoustic event object from the snapshot
-                    final AcousticEvent acousticEvent = dataSnapshot.getValue(AcousticEvent.class);
-
-                    assert acousticEvent != null;
-                    acousticEvent.setMfccMatrix(acousticEvent.getMfccDoubleList());
-
-
-                    // perform Dynamic Time Warping to compare the newly detected event against this Known Event
-                    DTW dynamicTimeWarp = new DTW(acousticEvent.getMfccMatrix(), detectedEventMfccs);
-
-                    Double cost = dynamicTimeWarp.getCost();
-                    Double maxCost = acousticEvent.getMaxCost();
-                    Log.d("KNOWN_EVENT", acousticEvent.name+" Maximum Acceptable Cost :"+maxCost+" distance :"+ cost);
-
-
-                    // Compare cost doubles to determine if the cost was less than the maximum
-                    // acceptable cost. If so, add event to results
-
-                    int comparison = Double.compare(cost, maxCost);
-
-                    if(comparison > 0 ){
-                        Log.d("KNOWN_EVENT", cost+
-                                " cost is greater than event's max acceptable cost: "+maxCost);
-                    } else if (comparison < 0){
-                        Log.d("KNOWN_EVENT", cost+
-                                " cost is less than event's max acceptable cost :"+maxCost);
-                        results.put(acousticEvent, cost);
-                    }
-
-
-
-                } // end dataSnapshot for-Loop
-
-
-                if(results.isEmpty()){
-                    // if none were close enough, send a default notification
-                    sendNotification("Unknown Sound");
-                } else {
-                    Double shortestDistance = Collections.min(results.values());
-                    Log.d("KNOWN_EVENTS", "Shortest Distance was : " + shortestDistance);
+    private void addFeatures(float[] features) {
+        long index = featureCount;
+        float[] windowSlot = featureWindow[(int) (index % WINDOW_FRAMES)];
+        if (features != windowSlot) {
+            System.arraycopy(features, 0, windowSlot, 0, windowSlot.length);
+            features = windowSlot;
+        }
+        if (index % WINDOW_HOP_FRAMES == 0) {
+            // the window that used this matcher ended with the previous feature vector
+            int slot = windowSlot(index);
+            windowStarts[slot] = index;
+            state.windowMatchers[slot].setTimed(TRACE.isEnabled());
+            state.windowMatchers[slot].start(worker.getAcousticEventCache().getAcousticEvents());
+            if (state.windowMatchers[slot].getKnownEventCount() > 0) {
+                trace.mark(SessionTrace.Stage.TEMPLATES_LOADED);
+            }
+        }
+        featureCount++;
 
+        for (int slot = 0; slot < OPEN_WINDOWS; slot++) {
+            if (windowStarts[slot] >= 0 && index < windowStarts[slot] + WINDOW_FRAMES) {
+                state.windowMatchers[slot].addFrame(features, deadline);
+            }
+        }
 
-                    //Match shortest distance to the event that produced it
-                    for (AcousticEvent event : results.keySet()) {
-                        if (results.get(event).equals(shortestDistance)) {
+        long completedStart = featureCount - WINDOW_FRAMES;
+        if (completedStart >= 0 && completedStart % WINDOW_HOP_FRAMES == 0) {
+            identifyWindow(completedStart, featureCount);
+        }
+    } // end addFeatures
 
-                            sendNotification(event.getName());
 
-                            Log.d(TAG, event.getName() + " was the event closest to this one");
-                            Log.d(TAG, "DTW Recognition Process END : "+System.currentTimeMillis());
+    /**
+     * @param windowStart the number of the first feature vector of a window
+     * @return the index of the state's window matcher used for that window
+     */
+    private static int windowSlot(long windowStart) {
+        return (int) ((windowStart / WINDOW_HOP_FRAMES) % OPEN_WINDOWS);
+    }
 
-                        }
-                    }
 
-                }
+    /**
+     * Called by the RecognitionSessionManager when the detectionStarted atomicboolean in the main
+     * detection service becomes false.
+     *
+     * Closes the ring so that run() finishes the frames left in it and then performs the recognition
+     */
+    public void stop() {
+        deadline.expireAfter(RECOGNITION_DEADLINE_MILLIS);
+        frames.close();
+    } // end stop method
 
-            } // end onDataChange
 
-            @Override
-            public void onCancelled(@NonNull DatabaseError error) {
-                Log.e("KNOWN_EVENTS", error.getMessage().toString());
-            } // end on cancelled
-        }); // end databaseReferenceValueEventListener
+    /**
+     * Gives up on the session without notifying the user
+     */
+    private void abandon() {
+        abandoned = true;
+        SESSIONS_ABANDONED.increment();
+        TRACE.instant("recognition", "abandoned", startSampleClock);
+        Log.w(TAG, "Session " + startSampleClock + " missed its deadline and was abandoned");
+    } // end abandon
 
 
+    /**
+     * Called once the event has ended. An event no longer than a window is identified as a whole. For a
+     * longer event, the feature vectors after the last window identified are identified with the window
+     * that is still open over them.
+     *
+     * If no sound was notified for any window of the event, the user is notified of an unknown sound.
+     */
+    @Override
+    public void identifyAcousticEvent() {
+        long start = lastIdentifiedWindowStart < 0 ? 0 : lastIdentifiedWindowStart + WINDOW_HOP_FRAMES;
+        if (featureCount > 0 && (lastIdentifiedWindowStart < 0
+                || featureCount > lastIdentifiedWindowStart + WINDOW_FRAMES)) {
+            identifyWindow(start, featureCount);
+        }
 
+        if (deadline.isExpired()) {
+            if (notifiedSounds.isEmpty()) {
+                abandon();
+            }
+            return;
+        }
 
+        if (notifiedSounds.isEmpty()) {
+            // if none were close enough, send a default notification
+            sendNotification("Unknown Sound");
+        }
     } // end identifyAcousticEvent
 
 
-
-
     /**
-     * converts the mfcc float array to doubles in order to be sent through the DTW
-     * class
+     * The recognition process is initiated from here for each window of the event.
+     * The Acoustic Event's stored by the user in the Firebase Realtime Database are taken from the
+     * recognition worker's cache, where they have already been adapted into AcousticEvent objects holding
+     * the relevant audio data and information to relay back to the user.
      *
-     * @param input
-     * @return a double array of mfccs
+     * Each acousticEvent stored by the user has been compared to the window frame by frame by the online
+     * DTW matcher using their mfccs stored in feature vectors/matrices/2d arrays, so the distance between
+     * them, the "Cost", only has to be read from the matcher, after which the AcousticEvent with the minimum
+     * cost is established. If the known events had not been read from the database yet when the window
+     * started, they are compared with the whole window here instead.
+     *
+     * If the cost of the Distance between this final Acoustic Event and the window is small enough to be
+     * deemed a probable match, and the sound has not been notified for this event already, a notification
+     * is sent to the user informing them that the sound has occurred in their listening environment.
+     *
+     * @param start the number of the first feature vector of the window
+     * @param end the number of the feature vector after the last one of the window
      */
-    public static double[] convertFloatsToDoubles(float[] input) {
-        if (input == null) {
-            return null; // Or throw an exception - your choice
+    private void identifyWindow(long start, long end) {
+        if (deadline.isExpired()) {
+            return;
         }
-        double[] output = new double[input.length];
-        for (int i = 0; i < input.length; i++) {
-            output[i] = input[i];
+
+        long identifyStart = System.nanoTime();
+        lastIdentifiedWindowStart = start;
+        setDetectedEventMfccs(start, end);
+        WINDOWS_IDENTIFIED.increment();
+
+        Log.d(TAG, "DTW Recognition Process START : session "+startSampleClock+" window "+start+"-"+end);
+
+        OnlineDtwMatcher dtwMatcher = state.windowMatchers[windowSlot(start)];
+        if (dtwMatcher.getKnownEventCount() == 0) {
+            // the known events were not ready when the window started, catch up with every frame now
+            dtwMatcher.setTimed(TRACE.isEnabled());
+            dtwMatcher.start(worker.getAcousticEventCache()
+                    .awaitAcousticEvents(KNOWN_EVENTS_TIMEOUT_SECONDS, TimeUnit.SECONDS, deadline));
+            trace.mark(SessionTrace.Stage.TEMPLATES_LOADED);
+            for (float[] features : detectedEventMfccs) {
+                if (!dtwMatcher.addFrame(features, deadline)) {
+                    return;
+                }
+            }
         }
-        return output;
-    } // end convertFloatsToDoubles
+        results.clear();
 
+        for(int i = 0; i < dtwMatcher.getKnownEventCount(); i++){
 
+            // the Dynamic Time Warping cost of the window against this Known Event.
+            // Acoustic Events recorded before dynamic features were added only hold static MFCCs, which the
+            // matcher compares with the static part of each frame
+            AcousticEvent acousticEvent = dtwMatcher.getKnownEvent(i);
+            Double cost = dtwMatcher.getCost(i);
+            Double maxCost = acousticEvent.getMaxCost();
+            Log.d("KNOWN_EVENT", acousticEvent.name+" Maximum Acceptable Cost :"+maxCost+" distance :"+ cost);
 
 
-    /**
-     * When the detected event is identified using DTW to establish the known event with the distance in
-     * MFCC vectors closest to this one, the name of the sound is passed into this method and the notification
-     * is sent to all user's subscribed to the topic.
-     *
-     * The topic in this case is the current user's id so the only receiver's of this notification will be the
-     * devices on which the user with this ID has logged into and therefore subscribed to the topic.
-     *
-     * @param soundName
-     */
-    public void sendNotification(String soundName){
-        mRequestQueue = super.getmRequestQueue();
+            // Compare cost doubles to determine if the cost was less than the maximum
+            // acceptable cost. If so, add event to results
 
-        String body;
-        String time = String.valueOf(Calendar.getInstance().getTime());
+            int comparison = Double.compare(cost, maxCost);
 
-        // Check if there was a match to the detected acoustic event or not
+            TRACE.instant("dtw", acousticEvent.getName(), startSampleClock,
+                    "outcome", comparison < 0 ? "candidate" : "pruned", "cost", cost, "maxCost", maxCost,
+                    "matchMillis", dtwMatcher.getNanos(i) / 1e6);
 
-        if(soundName.equals("Unknown Sound")){
-            body = " was detected, please investigate";
-        } else{
-            body = " was heard in your home at "+time;
-        }
+            if(comparison > 0 ){
+                DTW_PRUNED.increment();
+                Log.d("KNOWN_EVENT", cost+
+                        " cost is greater than event's max acceptable cost: "+maxCost);
+            } else if (comparison < 0){
+                Log.d("KNOWN_EVENT", cost+
+                        " cost is less than event's max acceptable cost :"+maxCost);
+                results.put(acousticEvent, cost);
+            }
+
+        } // end known events for-Loop
+        DTW_CALLS.add(dtwMatcher.getKnownEventCount());
+        trace.remark(SessionTrace.Stage.DTW_COMPLETE);
+        TRACE.complete("recognition", "identify window", identifyStart, startSampleClock, "frames", end - start);
 
-        // jsonObject
-        JSONObject mainObject = new JSONObject();
 
-        try {
-            // current user's user id is the topic to send notifications to subscribed devices
-            mainObject.put("to", "/topics/" + mUser.getUid());
-            JSONObject notificationObject = new JSONObject();
-            notificationObject.put("title", soundName+" Detected");
-            notificationObject.put("body", soundName+body);
+        if(!results.isEmpty()){
+            Double shortestDistance = Collections.min(results.values());
+            Log.d("KNOWN_EVENTS", "Shortest Distance was : " + shortestDistance);
 
 
-            mainObject.put("notification", notificationObject);
+            //Match shortest distance to the event that produced it
+            for (AcousticEvent event : results.keySet()) {
+                if (results.get(event).equals(shortestDistance)) {
 
+                    // a sustained sound matches window after window, only tell the user once
+                    if (!deadline.isExpired() && notifiedSounds.add(event.getName())) {
+                        sendNotification(event.getName());
+                    }
 
-            JsonObjectRequest request = new JsonObjectRequest(Request.Method.POST, notificationUrl, mainObject,
-                    new Response.Listener<JSONObject>() {
-                        @Override
-                        public void onResponse(JSONObject response) {
-                            // run when successful
+                    Log.d(TAG, event.getName() + " was the event closest to this one");
 
-                            Log.d("NOTIFICATION", "Notification sent to user : "+System.currentTimeMillis());
-                        }
-                    }, new Response.ErrorListener() {
-                @Override
-                public void onErrorResponse(VolleyError error) {
-                    // run on error
-                    Log.e("NOTIFICATION ERROR", error.getMessage().toString());
                 }
-            }){
-                @Override
-                public Map<String, String> getHeaders() throws AuthFailureError {
+            }
 
-                    Map<String,String> header = new HashMap<>();
-                    header.put("Content-type", "application/json");
-                    header.put("authorization", "key=AAAAajXxFaU:APA91bHXDHy0XumDr6FNo8LCsqc8YyR8Hop_JsiqaBKbAECR8KPlnr0x0g5opfyjsc5kXRCWLrePsFLgXUMVF_WDp43tbw8N7-IUT-4XuY5lMJ2fcTDCg8tjRL9WhP75x3E8c7Hfsewb");
+        }
+
+    } // end identifyWindow
 
-                    return header;
-                }
-            };
 
-            mRequestQueue.add(request);
-        }catch (JSONException e) {
-            e.printStackTrace();
-        } // end try-catch block
 
 
+    /**
+     * Passes the name of the sound identified for this event to the notifier, which tells the user
+     *
+     * @param soundName the name of the Acoustic Event identified, or "Unknown Sound"
+     */
+    public void sendNotification(String soundName){
+        NOTIFICATIONS_SENT.increment();
+        notifier.sendNotification(trace, soundName);
     } // end sendNotification method
 
 
@@ -0,0 +1,214 @@
+/**
+ * This is a Digital Audio Signal Processing Class
+ */
+package com.example.thirdearoftruth.audio;
+
+import android.util.Log;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Estimates the detection threshold from the RMS of the most recent buffers of the listening
+ * environment, in the same way the threshold calculation of the DetectionService always has: the
+ * minimum RMS plus a fraction (20%) of the difference between the maximum and minimum RMS.
+ *
+ * The minimum and maximum over the window of the last windowFrames buffers are kept in two monotonic
+ * deques of buffer numbers, held in primitive arrays, so each new RMS value is added in constant
+ * (amortised) time with no boxing and no allocation, however long the window is. Every publishFrames
+ * buffers the threshold is recalculated and published through a volatile field, so it can be read
+ * from any thread at any time.
+ *
+ * add() must only be called from the thread running the dispatcher's processing chain. The window can
+ * be changed from any thread with setWindow(), the change is applied by that thread on the next add().
+ */
+public final class NoiseFloorEstimator {
+
+    private static final String TAG = "NOISE_FLOOR";
+
+    /**
+     * The fraction of the difference between the maximum and minimum RMS added to the minimum
+     */
+    public static final double DEFAULT_RANGE_FRACTION = 0.2;
+
+    /**
+     * The fraction of the difference between the maximum and minimum RMS added to the minimum
+     */
+    private final double rangeFraction;
+
+    /**
+     * The RMS of the last windowFrames buffers, indexed by buffer number modulo windowFrames
+     */
+    private double[] values;
+
+    /**
+     * Buffer numbers in the window whose RMS is smaller than that of every buffer after them, oldest
+     * first, so the head is always the minimum of the window
+     */
+    private long[] minDeque;
+    private long minHead, minTail;
+
+    /**
+     * Buffer numbers in the window whose RMS is larger than that of every buffer after them, oldest
+     * first, so the head is always the maximum of the window
+     */
+    private long[] maxDeque;
+    private long maxHead, maxTail;
+
+    /**
+     * The number of buffers added since the window was last resized
+     */
+    private long count;
+
+    /**
+     * The number of buffers the minimum and maximum are taken over
+     */
+    private int windowFrames;
+
+    /**
+     * The number of buffers between each recalculation of the threshold
+     */
+    private int publishFrames;
+
+    /**
+     * The number of buffers added since the threshold was last recalculated
+     */
+    private int sincePublish;
+
+    /**
+     * A window requested by setWindow(), applied on the next add(). Zero if there is none
+     */
+    private final AtomicLong requestedWindow = new AtomicLong();
+
+    /**
+     * The latest threshold
+     */
+    private volatile double threshold;
+
+
+    /**
+     * @param initialThreshold the threshold until the first one is calculated
+     * @param windowFrames the number of buffers the minimum and maximum are taken over
+     * @param publishFrames the number of buffers between each recalculation of the threshold
+     * @param rangeFraction the fraction of the difference between the maximum and minimum added to the minimum
+     */
+    public NoiseFloorEstimator(double initialThreshold, int windowFrames, int publishFrames, double rangeFraction) {
+        this.threshold = initialThreshold;
+        this.rangeFraction = rangeFraction;
+        checkWindow(windowFrames, publishFrames);
+        resize(windowFrames, publishFrames);
+    }
+
+
+    // getters and setters
+
+    /**
+     * @return the latest threshold, safe to call from any thread
+     */
+    public double getThreshold() {
+        return threshold;
+    }
+
+    /**
+     * @return the minimum RMS in the window, only from the thread calling add()
+     */
+    public double getMinimum() {
+        return count == 0 ? 0 : values[(int) (minDeque[(int) (minHead % windowFrames)] % windowFrames)];
+    }
+
+    /**
+     * @return the maximum RMS in the window, only from the thread calling add()
+     */
+    public double getMaximum() {
+        return count == 0 ? 0 : values[(int) (maxDeque[(int) (maxHead % windowFrames)] % windowFrames)];
+    }
+
+    /**
+     * Change the number of buffers the threshold is calculated over and how often it is recalculated.
+     * Safe to call from any thread. The window starts again empty when the change is applied.
+     *
+     * @param windowFrames the number of buffers the minimum and maximum are taken over
+     * @param publishFrames the number of buffers between each recalculation of the threshold
+     */
+    public void setWindow(int windowFrames, int publishFrames) {
+        checkWindow(windowFrames, publishFrames);
+        requestedWindow.set(((long) windowFrames << 32) | publishFrames);
+    }
+
+
+    // Methods
+
+    /**
+     * Adds the RMS of the next buffer, recalculating and publishing the threshold every publishFrames
+     * buffers.
+     *
+     * @param rms the RMS of the buffer
+     */
+    public void add(double rms) {
+        if (requestedWindow.get() != 0) {
+            long request = requestedWindow.getAndSet(0);
+            resize((int) (request >>> 32), (int) request);
+        }
+
+        long frame = count;
+
+        // drop the buffer that is leaving the window before its slot is overwritten
+        long oldest = frame - windowFrames;
+        if (minTail > minHead && minDeque[(int) (minHead % windowFrames)] <= oldest) {
+            minHead++;
+        }
+        if (maxTail > maxHead && maxDeque[(int) (maxHead % windowFrames)] <= oldest) {
+            maxHead++;
+        }
+
+        values[(int) (frame % windowFrames)] = rms;
+
+        // buffers that can never be the minimum or maximum again are dropped from the back
+        while (minTail > minHead && values[(int) (minDeque[(int) ((minTail - 1) % windowFrames)] % windowFrames)] >= rms) {
+            minTail--;
+        }
+        minDeque[(int) (minTail++ % windowFrames)] = frame;
+
+        while (maxTail > maxHead && values[(int) (maxDeque[(int) ((maxTail - 1) % windowFrames)] % windowFrames)] <= rms) {
+            maxTail--;
+        }
+        maxDeque[(int) (maxTail++ % windowFrames)] = frame;
+
+        count++;
+
+        if (++sincePublish >= publishFrames) {
+            sincePublish = 0;
+            double minimum = getMinimum();
+            threshold = minimum + (getMaximum() - minimum) * rangeFraction;
+            // the threshold is published by the detection's gauge, the message is only built when asked for
+            // as add() runs on the dispatcher's thread
+            if (Log.isLoggable(TAG, Log.VERBOSE)) {
+                Log.v(TAG, "Threshold set to : " + threshold);
+            }
+        }
+    } // end add
+
+    /**
+     * Allocates the window and starts it again empty. The threshold keeps its current value.
+     */
+    private void resize(int windowFrames, int publishFrames) {
+        if (values == null || values.length != windowFrames) {
+            values = new double[windowFrames];
+            minDeque = new long[windowFrames];
+            maxDeque = new long[windowFrames];
+        }
+        this.windowFrames = windowFrames;
+        this.publishFrames = publishFrames;
+        count = 0;
+        sincePublish = 0;
+        minHead = minTail = 0;
+        maxHead = maxTail = 0;
+    }
+
+    private static void checkWindow(int windowFrames, int publishFrames) {
+        if (windowFrames < 1 || publishFrames < 1) {
+            throw new IllegalArgumentException("Window and publish period must be at least 1 buffer, were "
+                    + windowFrames + " and " + publishFrames);
+        }
+    }
+
+} // end NoiseFloorEstimator
@@ -0,0 +1,322 @@
+/**
+ * This is a Digital Audio Signal Processing Class
+ */
+package com.example.thirdearoftruth.audio;
+
+import com.example.thirdearoftruth.models.AcousticEvent;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compares a detected Acoustic Event with every known Acoustic Event while the event is still
+ * happening, using the same Dynamic Time Warping as the MaryTTS DTW class.
+ *
+ * The DTW cost is the bottom-right cell of a matrix with one row per frame of the known event and one
+ * column per frame of the detected event, where each cell is
+ *
+ *      D(x,y) = d(x,y) + min(D(x-1,y-1), D(x-2,y-1), D(x-1,y-2), D(x,y-1), D(x-1,y))
+ *
+ * Every cell only depends on the current column and the two before it, so the column for each new
+ * frame of the detected event is calculated as soon as the frame's features are ready and only those
+ * three columns are kept per known event. When the detected event ends its cost against every known
+ * event is already in the last column, so the recognition no longer has to wait for a DTW over the whole
+ * event for each known event in the user's library.
+ *
+ * The cells, the edges of the matrix (only the first cell of the first row and column is reachable)
+ * and the Euclidean frame distance are calculated exactly as in the MaryTTS DTW, so the costs are
+ * bit-for-bit the same. As with DeltaFeatureProcessor.staticCoefficients(), only the leading
+ * coefficients of each detected frame are compared with known events that hold fewer coefficients.
+ *
+ * In subsequence mode the known event is looked for anywhere in the detected frames instead of being
+ * stretched over all of them. A path can start at any detected frame, as the first cell of every column is
+ * reachable, and end at any detected frame, as the cheapest bottom cell of any column is kept. Every frame
+ * of the known event is still matched. The detected frames before and after the sound, the pre-roll, the
+ * release and the rest of a long window, then add nothing to the cost. The cost is divided by the number
+ * of frames of the known event and by the square root of the number of coefficients compared, so it is
+ * close to the root mean square difference of a coefficient, averaged over the frames of the known event.
+ * A short and a long known event are held to the same maxCost. Events of 13 static MFCCs and of 39
+ * coefficients with dynamic features each have the default maxCost of their own number of coefficients,
+ * from AcousticEvent.defaultMaxCost().
+ *
+ * A frame can be added with the session's RecognitionDeadline, which is checked before each known
+ * event's column, so a session that has run out of time stops comparing part way through the library.
+ *
+ * When the matcher is timed, the time spent on each known event's columns is added up so it can be
+ * traced with the event's cost.
+ */
+public class OnlineDtwMatcher {
+
+    /**
+     * The value MaryTTS DTW uses for cells that cannot be reached
+     */
+    private static final double INFINITE = 1.0e+32;
+
+    /**
+     * The DTW state of the detected event against one known event
+     */
+    private static final class Match {
+
+        /**
+         * The known event and its feature vectors, one per row
+         */
+        AcousticEvent knownEvent;
+        float[][] template;
+
+        /**
+         * The columns of the matrix for the two previous detected frames, and the array the next column
+         * is written into. The three arrays are rotated for each new frame.
+         */
+        double[] olderColumn;
+        double[] previousColumn;
+        double[] currentColumn;
+
+        /**
+         * The cheapest bottom cell of any column so far, in subsequence mode
+         */
+        double bestCost;
+
+        /**
+         * The time spent calculating the columns of this known event, while the matcher is timed
+         */
+        long nanos;
+
+        void setKnownEvent(AcousticEvent knownEvent) {
+            this.knownEvent = knownEvent;
+            this.template = knownEvent.getMfccMatrix();
+            int rows = template == null ? 0 : template.length;
+            if (previousColumn == null || previousColumn.length < rows) {
+                olderColumn = new double[rows];
+                previousColumn = new double[rows];
+                currentColumn = new double[rows];
+            }
+        }
+    }
+
+    /**
+     * One entry per known event, kept and reused between detected events
+     */
+    private final ArrayList<Match> matches = new ArrayList<>();
+
+    /**
+     * The number of entries in matches used by the current detected event
+     */
+    private int knownEventCount;
+
+    /**
+     * The number of frames of the detected event compared so far
+     */
+    private int frameCount;
+
+    /**
+     * True if the time spent on each known event is added up
+     */
+    private boolean timed;
+
+    /**
+     * True if each known event is looked for anywhere in the detected frames
+     */
+    private boolean subsequence;
+
+
+    // getters
+
+    /**
+     * @return the number of known events the detected event is being compared with
+     */
+    public int getKnownEventCount() {
+        return knownEventCount;
+    }
+
+    /**
+     * @param index from 0 to getKnownEventCount() - 1
+     * @return the known event at that index
+     */
+    public AcousticEvent getKnownEvent(int index) {
+        return matches.get(index).knownEvent;
+    }
+
+    /**
+     * @return the number of frames of the detected event compared so far
+     */
+    public int getFrameCount() {
+        return frameCount;
+    }
+
+    /**
+     * The DTW cost of the frames added so far against a known event. Otherwise the same value MaryTTS
+     * DTW gives for new DTW(knownEventMatrix, detectedFrames).getCost(). In subsequence mode, the cost of
+     * the cheapest match of the whole known event within those frames, per frame of the known event and
+     * per coefficient compared.
+     *
+     * @param index from 0 to getKnownEventCount() - 1
+     * @return the cost, 1.0e+32 if either event has no frames or the known event has not been matched
+     */
+    public double getCost(int index) {
+        Match match = matches.get(index);
+        int rows = match.template == null ? 0 : match.template.length;
+        if (frameCount == 0 || rows == 0) {
+            return INFINITE;
+        }
+        if (subsequence) {
+            if (match.bestCost >= INFINITE) {
+                return INFINITE;
+            }
+            return match.bestCost / (rows * Math.sqrt(match.template[0].length));
+        }
+        return match.previousColumn[rows - 1];
+    }
+
+    /**
+     * @param index from 0 to getKnownEventCount() - 1
+     * @return the time spent comparing the frames added so far with the known event at that index, 0 if
+     * the matcher was not timed
+     */
+    public long getNanos(int index) {
+        return matches.get(index).nanos;
+    }
+
+    /**
+     * @param timed true to add up the time spent on each known event, set before start() so the times
+     *              cover every frame
+     */
+    public void setTimed(boolean timed) {
+        this.timed = timed;
+    }
+
+
+    /**
+     * @param subsequence true to look for each known event anywhere in the detected frames, set before
+     *                    start()
+     */
+    public void setSubsequence(boolean subsequence) {
+        this.subsequence = subsequence;
+    }
+
+
+    // Methods
+
+    /**
+     * Start comparing a new detected event with the given known events. The arrays used for the
+     * previous detected event are reused where they are large enough.
+     *
+     * @param knownEvents the known events, with their MFCC matrices already set
+     */
+    public void start(List<AcousticEvent> knownEvents) {
+        knownEventCount = knownEvents.size();
+        for (int i = 0; i < knownEventCount; i++) {
+            if (i == matches.size()) {
+                matches.add(new Match());
+            }
+            matches.get(i).setKnownEvent(knownEvents.get(i));
+            matches.get(i).nanos = 0;
+            matches.get(i).bestCost = INFINITE;
+        }
+        frameCount = 0;
+    }
+
+    /**
+     * Adds the next frame of the detected event and calculates its column of the matrix for every
+     * known event.
+     *
+     * @param frame the feature vector of the next frame
+     */
+    public void addFrame(float[] frame) {
+        addFrame(frame, null);
+    }
+
+    /**
+     * Adds the next frame of the detected event and calculates its column of the matrix for every
+     * known event, unless the deadline expires first. Once a frame has been abandoned the costs are no
+     * longer valid for this detected event.
+     *
+     * @param frame the feature vector of the next frame
+     * @param deadline the deadline of the session, or null for none
+     * @return false if the deadline expired before every column was calculated
+     */
+    public boolean addFrame(float[] frame, RecognitionDeadline deadline) {
+        for (int i = 0; i < knownEventCount; i++) {
+            if (deadline != null && deadline.isExpired()) {
+                return false;
+            }
+            Match match = matches.get(i);
+            if (timed) {
+                long start = System.nanoTime();
+                addFrame(match, frame);
+                match.nanos += System.nanoTime() - start;
+            } else {
+                addFrame(match, frame);
+            }
+        }
+        frameCount++;
+        return true;
+    }
+
+    private void addFrame(Match match, float[] frame) {
+        float[][] template = match.template;
+        int rows = template == null ? 0 : template.length;
+        if (rows == 0) {
+            return;
+        }
+        if (frame.length < template[0].length) {
+            throw new RuntimeException("Given signal vector order (" + template[0].length
+                    + ") and reference vector order (" + frame.length + ") are not same.");
+        }
+
+        double[] older = match.olderColumn;
+        double[] previous = match.previousColumn;
+        double[] current = match.currentColumn;
+
+        if (frameCount == 0) {
+            // the first column: only the first cell is reachable
+            current[0] = distance(frame, template[0]);
+            for (int x = 1; x < rows; x++) {
+                current[x] = INFINITE;
+            }
+        } else {
+            // a subsequence can start at this frame
+            current[0] = subsequence ? distance(frame, template[0]) : INFINITE;
+            for (int x = 1; x < rows; x++) {
+                double min = previous[x - 1];
+                double candidate = x >= 2 ? previous[x - 2] : INFINITE;
+                if (candidate < min) {
+                    min = candidate;
+                }
+                candidate = frameCount >= 2 ? older[x - 1] : INFINITE;
+                if (candidate < min) {
+                    min = candidate;
+                }
+                if (previous[x] < min) {
+                    min = previous[x];
+                }
+                if (current[x - 1] < min) {
+                    min = current[x - 1];
+                }
+                current[x] = min + distance(frame, template[x]);
+            }
+        }
+
+        if (subsequence && current[rows - 1] < match.bestCost) {
+            match.bestCost = current[rows - 1];
+        }
+
+        match.olderColumn = previous;
+        match.previousColumn = current;
+        match.currentColumn = older;
+    }
+
+    /**
+     * The Euclidean distance between a detected frame and a frame of a known event over the
+     * coefficients of the known event, calculated in the same order as MaryTTS DTW
+     */
+    private static double distance(float[] detectedFrame, float[] knownFrame) {
+        double sum = 0;
+        double diff;
+        for (int i = 0; i < knownFrame.length; i++) {
+            diff = (double) detectedFrame[i] - knownFrame[i];
+            sum = sum + diff * diff;
+        }
+        return Math.sqrt(sum);
+    }
+
+} // end OnlineDtwMatcher
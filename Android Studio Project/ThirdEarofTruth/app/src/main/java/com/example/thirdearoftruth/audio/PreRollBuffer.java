@@ -0,0 +1,126 @@
+/**
+ * This is a Digital Audio Signal Processing Class
+ */
+package com.example.thirdearoftruth.audio;
+
+import com.example.thirdearoftruth.utils.AudioEvent;
+
+import be.tarsos.dsp.io.TarsosDSPAudioFloatConverter;
+import be.tarsos.dsp.io.TarsosDSPAudioFormat;
+
+/**
+ * Keeps the PCM of the last few buffers read before an Acoustic Event starts, so that the event can
+ * be seeded with the audio just before its RMS crossed the threshold. The buffer that crosses the
+ * threshold often starts part way into the attack of an impulsive sound such as breaking glass or a
+ * dropped pot, and the quieter start of the attack is in the buffers before it.
+ *
+ * The PCM is kept rather than the floats because the dispatcher only converts a buffer to floats when
+ * a processor asks for them, which the detection gate does not do while it is quiet. Every slot is
+ * allocated up front and overwritten in turn, so keeping the pre-roll allocates nothing per buffer.
+ *
+ * Only meant to be used from the thread running the dispatcher's processing chain.
+ */
+public final class PreRollBuffer {
+
+    /**
+     * The default number of buffers kept, about 93 milliseconds at 44100Hz with 2048 sample buffers
+     */
+    public static final int DEFAULT_FRAMES = 2;
+
+    /**
+     * The PCM of each buffer kept, overwritten oldest first
+     */
+    private final byte[][] slots;
+
+    /**
+     * The position in the stream, in samples, of the first sample of the buffer in each slot
+     */
+    private final long[] sampleClocks;
+
+    /**
+     * Converts the PCM of a slot to floats when the event is seeded
+     */
+    private final TarsosDSPAudioFloatConverter converter;
+
+    /**
+     * The number of buffers pushed since the buffer was last cleared
+     */
+    private long count;
+
+
+    /**
+     * @param format the format of the audio read by the dispatcher
+     * @param bufferSize the number of samples in each buffer
+     * @param frames the number of buffers to keep
+     */
+    public PreRollBuffer(TarsosDSPAudioFormat format, int bufferSize, int frames) {
+        slots = new byte[frames][bufferSize * format.getFrameSize()];
+        sampleClocks = new long[frames];
+        converter = TarsosDSPAudioFloatConverter.getConverter(format);
+    }
+
+
+    // Methods
+
+    /**
+     * Keeps a copy of the PCM of this buffer, replacing the oldest buffer kept
+     *
+     * @param audioEvent the current block of frames from the dispatcher
+     */
+    public void push(AudioEvent audioEvent) {
+        int index = (int) (count % slots.length);
+        byte[] pcm = audioEvent.getByteBuffer();
+        if (slots[index].length != pcm.length) {
+            // only happens for a shortened last buffer at the end of a stream
+            slots[index] = new byte[pcm.length];
+        }
+        System.arraycopy(pcm, 0, slots[index], 0, pcm.length);
+        sampleClocks[index] = audioEvent.getSamplesProcessed();
+        count++;
+    }
+
+    /**
+     * @return the number of buffers kept, at most the number of frames the buffer was created with
+     */
+    public int size() {
+        return (int) Math.min(count, slots.length);
+    }
+
+    /**
+     * @param i from 0, the oldest buffer kept, to size() - 1, the most recent
+     * @return the PCM of that buffer, valid until the next push
+     */
+    public byte[] frame(int i) {
+        return slots[slotIndex(i)];
+    }
+
+    /**
+     * @param i from 0, the oldest buffer kept, to size() - 1, the most recent
+     * @return the position in the stream, in samples, of the first sample of that buffer
+     */
+    public long sampleClock(int i) {
+        return sampleClocks[slotIndex(i)];
+    }
+
+    /**
+     * Converts a buffer kept to floats
+     *
+     * @param i from 0, the oldest buffer kept, to size() - 1, the most recent
+     * @param samples the array the floats are written into, one per sample of the buffer
+     */
+    public void toFloats(int i, float[] samples) {
+        converter.toFloatArray(frame(i), samples);
+    }
+
+    /**
+     * Forget every buffer kept, called once they have been used to seed an event
+     */
+    public void clear() {
+        count = 0;
+    }
+
+    private int slotIndex(int i) {
+        return (int) ((count - size() + i) % slots.length);
+    }
+
+} // end PreRollBuffer
@@ -0,0 +1,77 @@
+/**
+ * This is a Digital Audio Signal Processing Class
+ */
+package com.example.thirdearoftruth.audio;
+
+/**
+ * The time by which a recognition session must have notified the user for the notification to still be
+ * useful. A session has no deadline while its Acoustic Event is still happening. When the event ends the
+ * deadline is set a fixed time ahead, and the recognition thread checks it between frames and between
+ * known events in the DTW, so that a session that has fallen too far behind gives up instead of holding
+ * up the newer sessions behind it.
+ *
+ * The deadline can be set, cancelled and checked from any thread.
+ */
+public final class RecognitionDeadline {
+
+    /**
+     * The value of deadlineNanos while no deadline has been set
+     */
+    private static final long NONE = Long.MAX_VALUE;
+
+    /**
+     * The System.nanoTime() after which the session has expired, or NONE
+     */
+    private volatile long deadlineNanos = NONE;
+
+    /**
+     * True once the session has been cancelled, whatever its deadline
+     */
+    private volatile boolean cancelled;
+
+
+    // Methods
+
+    /**
+     * Sets the deadline a given time from now
+     *
+     * @param millis the time the session has left, in milliseconds
+     */
+    public void expireAfter(long millis) {
+        deadlineNanos = System.nanoTime() + millis * 1000000L;
+    }
+
+    /**
+     * Expires the session straight away
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    /**
+     * @return true if the session has been cancelled or its deadline has passed
+     */
+    public boolean isExpired() {
+        if (cancelled) {
+            return true;
+        }
+        long deadline = deadlineNanos;
+        return deadline != NONE && System.nanoTime() - deadline > 0;
+    }
+
+    /**
+     * @return the time left before the deadline in milliseconds, 0 if it has expired, or Long.MAX_VALUE if
+     * no deadline has been set
+     */
+    public long remainingMillis() {
+        if (cancelled) {
+            return 0;
+        }
+        long deadline = deadlineNanos;
+        if (deadline == NONE) {
+            return Long.MAX_VALUE;
+        }
+        return Math.max(0, (deadline - System.nanoTime()) / 1000000L);
+    }
+
+} // end RecognitionDeadline
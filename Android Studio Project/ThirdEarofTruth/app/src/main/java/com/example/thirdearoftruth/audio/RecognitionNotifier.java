@@ -0,0 +1,23 @@
+/**
+ * This is a Digital Audio Signal Processing Class
+ */
+package com.example.thirdearoftruth.audio;
+
+/**
+ * Tells the user which sound a recognition session identified. On the device the name of the sound is
+ * sent to the user's receiving devices through Firebase Cloud Messaging, while recordings replayed off
+ * the device only need the names collected.
+ *
+ * Called on the recognition thread of the session, so implementations must be safe to call from several
+ * threads at once. Implementations stamp the NOTIFICATION_ENQUEUED and NOTIFICATION_ACKNOWLEDGED stages
+ * of the session's trace.
+ */
+public interface RecognitionNotifier {
+
+    /**
+     * @param trace the trace of the session, whose onset sample clock identifies it
+     * @param soundName the name of the Acoustic Event identified, or "Unknown Sound"
+     */
+    void sendNotification(SessionTrace trace, String soundName);
+
+} // end RecognitionNotifier
@@ -0,0 +1,177 @@
+/**
+ * This is a Digital Audio Signal Processing Class
+ */
+package com.example.thirdearoftruth.audio;
+
+import android.util.Log;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps track of every Acoustic Event that is being recognised, so that a new sound can start while the
+ * recognition of the one before it is still going on. Each event is a recognition session with its own
+ * FrameRing and feature lists, identified by the position in the stream, in samples, of the buffer that
+ * started it, and is recognised on its own thread of the RecognitionWorker.
+ *
+ * At most one session is receiving frames at a time, the current one, which is started and ended by
+ * the detection dispatcher's thread. Ended sessions stay in flight until their recognition is finished
+ * and then remove themselves.
+ *
+ * The worker has a thread for each of RecognitionWorker.MAX_SESSIONS sessions. If a new event starts while
+ * that many are still in flight, the oldest of them is cancelled so that it gives its thread up to the new
+ * one, which would otherwise wait for a thread while its frames piled up.
+ */
+public class RecognitionSessionManager {
+
+    private static final String TAG = "RECOGNITION_SESSIONS";
+
+    /**
+     * The pool the sessions are recognised on
+     */
+    private final RecognitionWorker worker;
+
+    /**
+     * Tells the user the name of each sound recognised
+     */
+    private final RecognitionNotifier notifier;
+
+    /**
+     * Every session that has started and not yet been recognised, by the sample clock it started at
+     */
+    private final ConcurrentHashMap<Long, MFCCRecognitionEvent> sessions = new ConcurrentHashMap<>();
+
+    /**
+     * The session the dispatcher is offering frames to, null while no event is in progress
+     */
+    private volatile MFCCRecognitionEvent current;
+
+
+    /**
+     * @param worker the pool the sessions are recognised on
+     * @param notifier tells the user the name of each sound recognised
+     */
+    public RecognitionSessionManager(RecognitionWorker worker, RecognitionNotifier notifier) {
+        this.worker = worker;
+        this.notifier = notifier;
+    }
+
+
+    // getters
+
+    /**
+     * @return the session receiving frames, or null if no event is in progress
+     */
+    public MFCCRecognitionEvent getCurrent() {
+        return current;
+    }
+
+    /**
+     * The frames offered to a ring are only counted while it belongs to the current session. Once the
+     * event ends its recognition thread hands the ring back to the worker, which may give it to the next
+     * event, so the fill level is only read from here and not from the ring itself.
+     *
+     * @return the number of frames of the current event waiting for its recognition thread, 0 while no
+     * event is in progress. Only called on the dispatcher's thread, which is the thread that ends the
+     * current session
+     */
+    public int getPendingFrames() {
+        MFCCRecognitionEvent session = current;
+        return session == null ? 0 : session.getFrames().size();
+    }
+
+    /**
+     * @return the number of frames the current event can have waiting before the next one is dropped
+     */
+    public int getFrameCapacity() {
+        return worker.getFrameRingCapacity();
+    }
+
+    /**
+     * @return every session started and not yet recognised, including the current one
+     */
+    public Collection<MFCCRecognitionEvent> getSessions() {
+        return Collections.unmodifiableCollection(sessions.values());
+    }
+
+
+    // Methods
+
+    /**
+     * Starts a session for a new Acoustic Event and submits it to the recognition pool. Called on the
+     * dispatcher's thread when no event is in progress.
+     *
+     * @param startSampleClock the position in the stream, in samples, of the buffer that started the event
+     * @return the new session, whose FrameRing the event's buffers are offered to
+     */
+    public MFCCRecognitionEvent start(final long startSampleClock) {
+        if (sessions.size() >= RecognitionWorker.MAX_SESSIONS) {
+            cancelOldest();
+        }
+        final MFCCRecognitionEvent session = new MFCCRecognitionEvent(startSampleClock,
+                worker.obtainFrameRing(), worker, notifier);
+        sessions.put(startSampleClock, session);
+        current = session;
+
+        worker.submit(session, new Runnable() {
+            @Override
+            public void run() {
+                sessions.remove(startSampleClock);
+            }
+        });
+
+        Log.d(TAG, "Session " + startSampleClock + " started, " + sessions.size() + " in flight");
+        return session;
+    } // end start
+
+    /**
+     * Cancels the oldest session in flight that has not expired already, so that it gives up its thread
+     * for the next event. Called on the dispatcher's thread while no event is in progress, so the session
+     * cancelled has always ended.
+     */
+    private void cancelOldest() {
+        MFCCRecognitionEvent oldest = null;
+        for (MFCCRecognitionEvent session : sessions.values()) {
+            if (!session.getDeadline().isExpired()
+                    && (oldest == null || session.getStartSampleClock() < oldest.getStartSampleClock())) {
+                oldest = session;
+            }
+        }
+        if (oldest != null) {
+            oldest.getDeadline().cancel();
+            Log.w(TAG, "Session " + oldest.getStartSampleClock() + " cancelled, " + sessions.size()
+                    + " sessions in flight");
+        }
+    } // end cancelOldest
+
+    /**
+     * Ends the current session, if there is one, so that it is recognised once its frames are processed
+     *
+     * @param endSampleClock the position in the stream, in samples, of the buffer the event ended in
+     */
+    public void endCurrent(long endSampleClock) {
+        MFCCRecognitionEvent session = current;
+        if (session != null) {
+            current = null;
+            session.getTrace().mark(SessionTrace.Stage.EVENT_END, endSampleClock);
+            session.stop();
+        }
+    } // end endCurrent
+
+    /**
+     * Ends the current session, if there is one, where the stream stopped without the event ending
+     */
+    public void endCurrent() {
+        endCurrent(SessionTrace.NOT_STAMPED);
+    }
+
+    /**
+     * Ends the current session and lets the sessions in flight finish before the pool stops
+     */
+    public void shutdown() {
+        endCurrent();
+        worker.shutdown();
+    }
+
+} // end RecognitionSessionManager
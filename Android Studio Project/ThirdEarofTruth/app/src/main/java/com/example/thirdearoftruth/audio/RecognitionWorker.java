@@ -0,0 +1,353 @@
+/**
+ * This is a Digital Audio Signal Processing Class
+ */
+package com.example.thirdearoftruth.audio;
+
+import android.util.Log;
+
+import com.example.thirdearoftruth.utils.AudioEvent;
+import com.example.thirdearoftruth.utils.MFCC;
+import com.google.firebase.auth.FirebaseUser;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import be.tarsos.dsp.io.TarsosDSPAudioFormat;
+
+/**
+ * The small, long-lived pool of recognition threads of the DetectionService. It is started once when
+ * the service is created and each detected Acoustic Event is submitted to it as an MFCCRecognitionEvent,
+ * so a sound that starts while the previous one is still being identified is recognised at the same
+ * time on another thread instead of waiting behind it.
+ *
+ * Everything that is expensive to set up is created once per recognition thread and reused for every
+ * event that thread recognises: the MFCC processor with its FFT and mel filter bank, the delta feature
+ * rings, the DTW columns of the online matchers and the AudioEvent wrapped around each frame. This state
+ * belongs to one thread and needs no locking. The FrameRings the dispatcher copies frames into and the
+ * cache of the user's known Acoustic Events are shared by every thread and are safe to share.
+ *
+ * There is a thread for every session that can be in flight, so a new event is taken by a thread as soon
+ * as it starts and its ring never fills up behind the sessions of earlier events. A session only waits
+ * for a thread while a session cancelled to make room for it is giving its thread up, and the sessions
+ * waiting are run newest first, so a burst of old events cannot hold up the notification of the latest
+ * sound. Each session has a deadline once its event has ended, and the number of sessions completed in
+ * time, completed late and abandoned is kept and logged.
+ */
+public class RecognitionWorker {
+
+    private static final String TAG = "RECOGNITION_WORKER";
+
+    /**
+     * The most recognition sessions in flight at once: the event being detected and the events before it
+     * that are still being recognised. The RecognitionSessionManager cancels the oldest session when a
+     * new event would take it over this.
+     */
+    public static final int MAX_SESSIONS = 4;
+
+    /**
+     * The number of recognition threads, one for every session that can be in flight. A session holds its
+     * thread from the onset of its event until it has been recognised, parked while it waits for frames,
+     * so with fewer threads a new event could be kept waiting behind earlier ones until its ring overflowed.
+     */
+    static final int POOL_SIZE = MAX_SESSIONS;
+
+    /**
+     * The number of buffers a FrameRing can hold, about 1.5 seconds of audio that recognition can fall
+     * behind the dispatcher by before frames are dropped
+     */
+    static final int FRAME_RING_CAPACITY = 32;
+
+    /**
+     * The number of empty FrameRings kept for reuse, one for each session that can be in flight
+     */
+    private static final int MAX_FREE_FRAME_RINGS = MAX_SESSIONS;
+
+    /**
+     * The warm state of a single recognition thread, created the first time the thread recognises an
+     * event and kept for the life of the thread
+     */
+    static final class RecognitionState {
+
+        /**
+         * The MFCC processor. Its filter bank matches TarsosDSP's MFCC so that the results can be
+         * compared with the stored Acoustic Events
+         */
+        final MFCC mfcc;
+
+        /**
+         * Appends the delta and delta-delta coefficients to each MFCC, reset at the start of every event
+         */
+        final DeltaFeatureProcessor deltaFeatures;
+
+        /**
+         * Compare each open window of an event with the known events frame by frame while it is
+         * happening, one matcher per window that can be open at once. A window holds the frames around
+         * the sound and can hold several sounds, so each known event is looked for within it
+         */
+        final OnlineDtwMatcher[] windowMatchers;
+
+        /**
+         * The thread's own AudioEvent, wrapped around each frame taken from a FrameRing
+         */
+        final AudioEvent frameEvent;
+
+        /**
+         * The slots the feature vectors of the window of the event being recognised are copied into,
+         * reused by every event so that no frame allocates a feature vector of its own
+         */
+        final float[][] featureWindow;
+
+        RecognitionState(TarsosDSPAudioFormat format, int audioBufferSize) {
+            mfcc = new MFCC(audioBufferSize, format.getSampleRate(), 13, 20, 133.33f, 8000f, true);
+            deltaFeatures = new DeltaFeatureProcessor(mfcc, 13);
+            windowMatchers = new OnlineDtwMatcher[MFCCRecognitionEvent.OPEN_WINDOWS];
+            for (int i = 0; i < windowMatchers.length; i++) {
+                windowMatchers[i] = new OnlineDtwMatcher();
+                windowMatchers[i].setSubsequence(true);
+            }
+            frameEvent = new AudioEvent(format);
+            featureWindow = new float[MFCCRecognitionEvent.WINDOW_FRAMES][deltaFeatures.getFeatureLength()];
+        }
+    }
+
+    /**
+     * A session waiting for, or running on, a recognition thread. Waiting sessions are ordered newest
+     * first by the sample clock their event started at.
+     */
+    private final class ScheduledSession implements Runnable, Comparable<ScheduledSession> {
+
+        private final MFCCRecognitionEvent session;
+        private final Runnable onFinished;
+
+        ScheduledSession(MFCCRecognitionEvent session, Runnable onFinished) {
+            this.session = session;
+            this.onFinished = onFinished;
+        }
+
+        @Override
+        public void run() {
+            try {
+                session.run();
+            } finally {
+                if (session.isAbandoned()) {
+                    sessionsAbandoned.incrementAndGet();
+                } else if (session.getDeadline().isExpired()) {
+                    sessionsLate.incrementAndGet();
+                } else {
+                    sessionsCompleted.incrementAndGet();
+                }
+                Log.d(TAG, session.getTrace().toString());
+                Log.d(TAG, getStatistics());
+                onFinished.run();
+            }
+        }
+
+        @Override
+        public int compareTo(ScheduledSession other) {
+            long clock = session.getStartSampleClock();
+            long otherClock = other.session.getStartSampleClock();
+            return clock > otherClock ? -1 : (clock == otherClock ? 0 : 1);
+        }
+    }
+
+    /**
+     * Runs the submitted sessions on the recognition threads, newest first when they have to wait
+     */
+    private final ThreadPoolExecutor executor;
+
+    /**
+     * The number of sessions that notified the user before their deadline
+     */
+    private final AtomicLong sessionsCompleted = new AtomicLong();
+
+    /**
+     * The number of sessions that finished after their deadline had passed
+     */
+    private final AtomicLong sessionsLate = new AtomicLong();
+
+    /**
+     * The number of sessions given up on because they could not notify the user before their deadline
+     */
+    private final AtomicLong sessionsAbandoned = new AtomicLong();
+
+    /**
+     * The user's known Acoustic Events, kept up to date by a single database listener
+     */
+    private final AcousticEventCache acousticEventCache;
+
+    /**
+     * The format of the audio read by the detection dispatcher
+     */
+    private final TarsosDSPAudioFormat format;
+
+    /**
+     * The number of samples in each buffer read by the detection dispatcher
+     */
+    private final int audioBufferSize;
+
+    /**
+     * The warm state of each recognition thread
+     */
+    private final ThreadLocal<RecognitionState> recognitionState;
+
+    /**
+     * FrameRings that have been drained and can carry the frames of another event
+     */
+    private final ConcurrentLinkedQueue<FrameRing> freeFrameRings;
+
+
+    /**
+     * @param format the format of the audio read by the detection dispatcher
+     * @param audioBufferSize the number of samples in each buffer read by the detection dispatcher
+     * @param firebaseUser the user whose known Acoustic Events are recognised
+     */
+    public RecognitionWorker(TarsosDSPAudioFormat format, int audioBufferSize, FirebaseUser firebaseUser) {
+        this(format, audioBufferSize, new AcousticEventCache(firebaseUser));
+    }
+
+    /**
+     * @param format the format of the audio read by the detection dispatcher
+     * @param audioBufferSize the number of samples in each buffer read by the detection dispatcher
+     * @param acousticEventCache the known Acoustic Events the detected events are recognised against
+     */
+    public RecognitionWorker(final TarsosDSPAudioFormat format, final int audioBufferSize,
+                             AcousticEventCache acousticEventCache) {
+        this.format = format;
+        this.audioBufferSize = audioBufferSize;
+
+        recognitionState = new ThreadLocal<RecognitionState>() {
+            @Override
+            protected RecognitionState initialValue() {
+                return new RecognitionState(format, audioBufferSize);
+            }
+        };
+        freeFrameRings = new ConcurrentLinkedQueue<>();
+        this.acousticEventCache = acousticEventCache;
+
+        final AtomicInteger threadCount = new AtomicInteger();
+        executor = new ThreadPoolExecutor(POOL_SIZE, POOL_SIZE, 0L, TimeUnit.MILLISECONDS,
+                new PriorityBlockingQueue<Runnable>(), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                return new Thread(runnable, "Recognition-" + threadCount.incrementAndGet());
+            }
+        });
+    } // end constructor
+
+
+    // getters
+
+    /**
+     * @return the warm state of the calling recognition thread, only to be used on that thread
+     */
+    RecognitionState getRecognitionState() {
+        return recognitionState.get();
+    }
+
+    AcousticEventCache getAcousticEventCache() {
+        return acousticEventCache;
+    }
+
+    /**
+     * @return the number of frames each FrameRing holds
+     */
+    public int getFrameRingCapacity() {
+        return FRAME_RING_CAPACITY;
+    }
+
+    public long getSessionsCompleted() {
+        return sessionsCompleted.get();
+    }
+
+    public long getSessionsLate() {
+        return sessionsLate.get();
+    }
+
+    public long getSessionsAbandoned() {
+        return sessionsAbandoned.get();
+    }
+
+    /**
+     * @return the outcome of every session so far and the number still waiting for a thread
+     */
+    public String getStatistics() {
+        return "Sessions completed: " + sessionsCompleted.get() + ", late: " + sessionsLate.get()
+                + ", abandoned: " + sessionsAbandoned.get() + ", waiting: " + executor.getQueue().size();
+    }
+
+
+    // Methods
+
+    /**
+     * Start reading the user's known Acoustic Events so they are ready before the first detection
+     */
+    public void start() {
+        acousticEventCache.start();
+    }
+
+    /**
+     * @return an empty FrameRing for the frames of the next detected event, reused if one is free
+     */
+    public FrameRing obtainFrameRing() {
+        FrameRing frameRing = freeFrameRings.poll();
+        if (frameRing == null) {
+            frameRing = new FrameRing(format, audioBufferSize, FRAME_RING_CAPACITY);
+            Log.d(TAG, "New frame ring created");
+        }
+        return frameRing;
+    }
+
+    /**
+     * Called on a recognition thread once every frame has been taken from a FrameRing
+     *
+     * @param frameRing the drained ring
+     */
+    void recycle(FrameRing frameRing) {
+        frameRing.reset();
+        if (freeFrameRings.size() < MAX_FREE_FRAME_RINGS) {
+            freeFrameRings.offer(frameRing);
+        }
+    }
+
+    /**
+     * Queue a detected event to be recognised on the next free recognition thread
+     *
+     * @param recognitionEvent the event, whose FrameRing the dispatcher is offering frames to
+     * @param onFinished run on the recognition thread once the event has been recognised or abandoned
+     */
+    public void submit(MFCCRecognitionEvent recognitionEvent, Runnable onFinished) {
+        executor.execute(new ScheduledSession(recognitionEvent, onFinished));
+    }
+
+    /**
+     * Stop listening for changes to the known events. Events already submitted are still recognised,
+     * after which the recognition threads end.
+     */
+    public void shutdown() {
+        acousticEventCache.stop();
+        executor.shutdown();
+        Log.i(TAG, getStatistics());
+    }
+
+    /**
+     * Waits for the sessions in flight to finish after shutdown()
+     *
+     * @param timeout the longest time to wait
+     * @param unit the unit of the timeout
+     * @return true if every session finished in time
+     */
+    public boolean awaitTermination(long timeout, TimeUnit unit) {
+        try {
+            return executor.awaitTermination(timeout, unit);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+} // end RecognitionWorker
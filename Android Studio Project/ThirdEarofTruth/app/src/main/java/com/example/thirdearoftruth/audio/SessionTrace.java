@@ -0,0 +1,183 @@
+/**
+ * This is a Digital Audio Signal Processing Class
+ */
+package com.example.thirdearoftruth.audio;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * The timeline of one recognition session, from the onset of its Acoustic Event to the user's devices
+ * acknowledging the notification. Each Stage is stamped once with System.nanoTime() and, for the stages
+ * that happen at a point in the audio, with the sample clock of the buffer it happened in, so the
+ * latency of every stage can be measured both against the wall clock and against the audio itself.
+ *
+ * The stages are stamped on different threads: the onset and end on the detection dispatcher's thread,
+ * the feature and DTW stages on the recognition thread, and the acknowledgement on whichever thread the
+ * notification's response arrives on. Stamping only writes into preallocated arrays, with no allocation
+ * and no string formatting, so it is safe on the audio thread. The breakdown is only formatted, by
+ * toString(), when it is logged from another thread.
+ */
+public final class SessionTrace {
+
+    /**
+     * The stages of a session, in the order they happen
+     */
+    public enum Stage {
+        ONSET("onset"),
+        FIRST_MFCC("first MFCC"),
+        EVENT_END("event end"),
+        TEMPLATES_LOADED("templates loaded"),
+        DTW_COMPLETE("DTW complete"),
+        NOTIFICATION_ENQUEUED("notification enqueued"),
+        NOTIFICATION_ACKNOWLEDGED("notification acknowledged");
+
+        private final String label;
+
+        Stage(String label) {
+            this.label = label;
+        }
+
+        @Override
+        public String toString() {
+            return label;
+        }
+    }
+
+    /**
+     * The value of a stamp that has not been made, or of a stage that has no position in the audio
+     */
+    public static final long NOT_STAMPED = Long.MIN_VALUE;
+
+    private static final Stage[] STAGES = Stage.values();
+
+    /**
+     * The System.nanoTime() of each stage, by ordinal
+     */
+    private final AtomicLongArray nanos = new AtomicLongArray(STAGES.length);
+
+    /**
+     * The sample clock of each stage, by ordinal
+     */
+    private final AtomicLongArray sampleClocks = new AtomicLongArray(STAGES.length);
+
+    /**
+     * The sample rate of the stream, to turn sample clocks into seconds of audio
+     */
+    private final float sampleRate;
+
+
+    /**
+     * Stamps the onset of the event
+     *
+     * @param onsetSampleClock the position in the stream, in samples, of the buffer that started the event
+     * @param sampleRate the sample rate of the stream
+     */
+    public SessionTrace(long onsetSampleClock, float sampleRate) {
+        this.sampleRate = sampleRate;
+        for (int i = 0; i < STAGES.length; i++) {
+            nanos.set(i, NOT_STAMPED);
+            sampleClocks.set(i, NOT_STAMPED);
+        }
+        mark(Stage.ONSET, onsetSampleClock);
+    }
+
+
+    // getters
+
+    /**
+     * @return the position in the stream, in samples, of the buffer that started the event
+     */
+    public long getOnsetSampleClock() {
+        return sampleClocks.get(Stage.ONSET.ordinal());
+    }
+
+    /**
+     * @return true if the stage has been stamped
+     */
+    public boolean isStamped(Stage stage) {
+        return nanos.get(stage.ordinal()) != NOT_STAMPED;
+    }
+
+    /**
+     * @return the System.nanoTime() the stage was stamped at, or NOT_STAMPED
+     */
+    public long getNanos(Stage stage) {
+        return nanos.get(stage.ordinal());
+    }
+
+    /**
+     * @return the sample clock the stage was stamped with, or NOT_STAMPED
+     */
+    public long getSampleClock(Stage stage) {
+        return sampleClocks.get(stage.ordinal());
+    }
+
+    /**
+     * @return the wall time from the onset to the stage in nanoseconds, or NOT_STAMPED
+     */
+    public long getLatencyNanos(Stage stage) {
+        return getLatencyNanos(Stage.ONSET, stage);
+    }
+
+    /**
+     * @return the wall time between two stages in nanoseconds, or NOT_STAMPED if either has not been stamped
+     */
+    public long getLatencyNanos(Stage from, Stage to) {
+        long start = nanos.get(from.ordinal());
+        long end = nanos.get(to.ordinal());
+        return start == NOT_STAMPED || end == NOT_STAMPED ? NOT_STAMPED : end - start;
+    }
+
+
+    // Methods
+
+    /**
+     * Stamps a stage that has no position in the audio, unless it has been stamped already
+     */
+    public void mark(Stage stage) {
+        nanos.compareAndSet(stage.ordinal(), NOT_STAMPED, System.nanoTime());
+    }
+
+    /**
+     * Stamps a stage that happened in the buffer at a position in the audio, unless it has been stamped
+     * already
+     *
+     * @param stage the stage
+     * @param sampleClock the position in the stream, in samples, of the buffer
+     */
+    public void mark(Stage stage, long sampleClock) {
+        if (nanos.compareAndSet(stage.ordinal(), NOT_STAMPED, System.nanoTime())) {
+            sampleClocks.set(stage.ordinal(), sampleClock);
+        }
+    }
+
+    /**
+     * Stamps a stage again, for the stages that can happen more than once such as the DTW of each window,
+     * where the latest is the one that counts
+     */
+    public void remark(Stage stage) {
+        nanos.set(stage.ordinal(), System.nanoTime());
+    }
+
+    /**
+     * @return the latency of every stage stamped so far, from the onset in milliseconds, and the position
+     * in the audio of those that have one
+     */
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("Session ").append(getOnsetSampleClock());
+        for (int i = 1; i < STAGES.length; i++) {
+            long latency = getLatencyNanos(STAGES[i]);
+            if (latency == NOT_STAMPED) {
+                continue;
+            }
+            builder.append(", ").append(STAGES[i]).append(" +").append(latency / 1000 / 1000.0).append("ms");
+            long sampleClock = sampleClocks.get(i);
+            if (sampleClock != NOT_STAMPED) {
+                builder.append(" (audio +").append((sampleClock - getOnsetSampleClock()) / sampleRate).append("s)");
+            }
+        }
+        return builder.toString();
+    }
+
+} // end SessionTrace
@@ -0,0 +1,48 @@
+/**
+ * This is a Digital Audio Signal Processing Class
+ */
+package com.example.thirdearoftruth.audio;
+
+import com.example.thirdearoftruth.utils.AudioEvent;
+
+/**
+ * A stage of the detection GateCascade that stops buffers whose energy is almost all at low
+ * frequencies, such as the hum of a fridge compressor or the rumble of traffic outside. A signal
+ * dominated by a frequency f crosses zero about 2f times a second, so a buffer passes if its
+ * zero-crossing rate is at least that of the given frequency.
+ *
+ * For 16 bit PCM only the sign of each integer sample is read, so this stage costs about the same as
+ * the energy stage before it and still does not convert the buffer to floats.
+ */
+public class ZeroCrossingGate extends GateStage {
+
+    /**
+     * The default lowest dominant frequency in Hz of a buffer that passes. Mains hum and its first
+     * harmonic, and most road rumble, are below it.
+     */
+    public static final float DEFAULT_MIN_FREQUENCY = 110f;
+
+    /**
+     * The lowest zero-crossing rate, in crossings per pair of samples, of a buffer that passes
+     */
+    private final double minZeroCrossingRate;
+
+
+    /**
+     * @param sampleRate the sample rate of the audio read by the dispatcher
+     * @param minFrequency the lowest dominant frequency in Hz of a buffer that passes
+     */
+    public ZeroCrossingGate(float sampleRate, float minFrequency) {
+        super("Zero crossing");
+        this.minZeroCrossingRate = 2.0 * minFrequency / sampleRate;
+    }
+
+
+    // Methods
+
+    @Override
+    protected boolean accept(AudioEvent audioEvent) {
+        return audioEvent.getZeroCrossingRate() >= minZeroCrossingRate;
+    }
+
+} // end ZeroCrossingGate
@@ -26,6 +26,10 @@ import com.example.thirdearoftruth.marytts.Window;
 /**
  * Dynamic programming to compute similarity measure
  *
+ * The feature vectors are held as float[][] so that MFCCs can be compared as they are produced without
+ * widening every frame to double[]. Each operand is widened to double before any arithmetic, so the
+ * costs are bit-for-bit the same as comparing the same values held as double[][].
+ *
  * @author sathish
  *
  */
@@ -33,8 +37,8 @@ import com.example.thirdearoftruth.marytts.Window;
 public class DTW {
 
     private static final double INFINITE = 1.0e+32;
-    double[][] signal;
-    double[][] reference;
+    float[][] signal;
+    float[][] reference;
     // the slope constraint value
     double slope = 0.0;
     double[] weights;
@@ -50,7 +54,7 @@ public class DTW {
      * @param reference
      *            reference
      */
-    public DTW(double[][] signal, double[][] reference) {
+    public DTW(float[][] signal, float[][] reference) {
         this.signal = signal;
         this.reference = reference;
         this.distanceFunction = "Euclidean";
@@ -67,7 +71,7 @@ public class DTW {
      * @param distanceFunction
      *            distance function
      */
-    public DTW(double[][] signal, double[][] reference, String distanceFunction) {
+    public DTW(float[][] signal, float[][] reference, String distanceFunction) {
         this.signal = signal;
         this.reference = reference;
         this.distanceFunction = distanceFunction;
@@ -84,7 +88,7 @@ public class DTW {
      * @param sigma2
      *            sigma2
      */
-    public DTW(double[][] signal, double[][] reference, double[] sigma2) {
+    public DTW(float[][] signal, float[][] reference, double[] sigma2) {
         this.signal = signal;
         this.reference = reference;
         this.sigma2 = sigma2;
@@ -336,15 +340,17 @@ public class DTW {
      *            y
      * @return sum
      */
-    public double EuclideanDistance(double[] x, double[] y) {
+    public double EuclideanDistance(float[] x, float[] y) {
 
         double sum = 0;
         if (x.length != y.length) {
             throw new RuntimeException("Given array lengths were not equal.");
         }
         int d = x.length;
+        double diff;
         for (int i = 0; i < d; i++) {
-            sum = sum + (x[i] - y[i]) * (x[i] - y[i]);
+            diff = (double) x[i] - y[i];
+            sum = sum + diff * diff;
         }
         sum = Math.sqrt(sum);
         return sum;
@@ -359,7 +365,7 @@ public class DTW {
      *            y
      * @return sum
      */
-    public double AbsDistance(double[] x, double[] y) {
+    public double AbsDistance(float[] x, float[] y) {
 
         double sum = 0;
         if (x.length != y.length) {
@@ -367,7 +373,7 @@ public class DTW {
         }
         int d = x.length;
         for (int i = 0; i < d; i++) {
-            sum = sum + Math.abs(x[i] - y[i]);
+            sum = sum + Math.abs((double) x[i] - y[i]);
         }
         return sum;
     }
@@ -394,7 +400,7 @@ public class DTW {
      *            The variance of the distribution of the considered feature vectors.
      * @return The mahalanobis distance between v1 and v2.
      */
-    private double mahalanobis(double[] v1, double[] v2, double[] sig2) {
+    private double mahalanobis(float[] v1, float[] v2, double[] sig2) {
 
         if (v1.length != v2.length)
             throw new RuntimeException("Given array lengths were not equal.");
@@ -404,7 +410,7 @@ public class DTW {
         double sum = 0.0;
         double diff = 0.0;
         for (int i = 0; i < v1.length; i++) {
-            diff = v1[i] - v2[i];
+            diff = (double) v1[i] - v2[i];
             sum += ((diff * diff) / sig2[i]);
         }
         // System.err.println("Mahalanobis distance: "+sum);
@@ -412,7 +418,7 @@ public class DTW {
     }
 
     // methods to compute distance between two frames
-    protected double frameDistance(double f1[], double f2[], String distanceType) {
+    protected double frameDistance(float f1[], float f2[], String distanceType) {
 
         double dis = 0.0;
         if (distanceType == "Mahalanobis")
@@ -0,0 +1,34 @@
+package com.example.thirdearoftruth.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A count that only goes up, such as the number of Acoustic Events detected. Incrementing it is a single
+ * atomic add, with no allocation, so it can be called on the audio thread.
+ */
+public final class Counter extends Metric {
+
+    private final AtomicLong count = new AtomicLong();
+
+    Counter(String name, String help) {
+        super(name, help, "counter");
+    }
+
+    public void increment() {
+        count.incrementAndGet();
+    }
+
+    public void add(long amount) {
+        count.addAndGet(amount);
+    }
+
+    public long get() {
+        return count.get();
+    }
+
+    @Override
+    void writeSamples(StringBuilder out) {
+        out.append(getName()).append(' ').append(count.get()).append('\n');
+    }
+
+} // end Counter
@@ -0,0 +1,28 @@
+package com.example.thirdearoftruth.metrics;
+
+/**
+ * A value that can go up and down, such as the current detection threshold. Only the latest value is
+ * kept, and setting it allocates nothing.
+ */
+public final class Gauge extends Metric {
+
+    private volatile double value;
+
+    Gauge(String name, String help) {
+        super(name, help, "gauge");
+    }
+
+    public void set(double value) {
+        this.value = value;
+    }
+
+    public double get() {
+        return value;
+    }
+
+    @Override
+    void writeSamples(StringBuilder out) {
+        out.append(getName()).append(' ').append(value).append('\n');
+    }
+
+} // end Gauge
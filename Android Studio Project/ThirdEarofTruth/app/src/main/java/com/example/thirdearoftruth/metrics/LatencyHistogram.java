@@ -0,0 +1,157 @@
+package com.example.thirdearoftruth.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * The distribution of a latency, recorded in nanoseconds and written out in seconds as a Prometheus
+ * histogram.
+ *
+ * The buckets are log-linear: every power of 2 from about 1 microsecond to about 68 seconds is split into
+ * SUB_BUCKETS equal buckets, so the relative error of a bucket is at most 25% over the whole range while
+ * the number of buckets stays fixed. Finding the bucket of a value takes a leading zero count and a shift,
+ * and recording it is two atomic adds into preallocated arrays, so a latency can be recorded on the
+ * audio thread without allocating.
+ */
+public final class LatencyHistogram extends Metric {
+
+    /**
+     * The power of 2, in nanoseconds, below which every value shares the first bucket
+     */
+    private static final int MIN_EXPONENT = 10;
+
+    /**
+     * The largest power of 2, in nanoseconds, with buckets of its own. Larger values are only counted
+     * in the +Inf bucket
+     */
+    private static final int MAX_EXPONENT = 36;
+
+    /**
+     * The number of linear buckets each power of 2 is split into, a power of 2 itself
+     */
+    private static final int SUB_BUCKET_BITS = 2;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    /**
+     * The first bucket, every bucket of every power of 2 and the overflow bucket
+     */
+    private static final int BUCKETS = 1 + (MAX_EXPONENT - MIN_EXPONENT + 1) * SUB_BUCKETS + 1;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong sumNanos = new AtomicLong();
+
+    LatencyHistogram(String name, String help) {
+        super(name, help, "histogram");
+    }
+
+
+    // Methods
+
+    /**
+     * @param nanos the latency to record, negative values are recorded as 0
+     */
+    public void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        counts.incrementAndGet(bucketOf(nanos));
+        sumNanos.addAndGet(nanos);
+    }
+
+    /**
+     * @return the number of latencies recorded
+     */
+    public long getCount() {
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            count += counts.get(i);
+        }
+        return count;
+    }
+
+    /**
+     * @return the sum of the latencies recorded, in nanoseconds
+     */
+    public long getSumNanos() {
+        return sumNanos.get();
+    }
+
+    /**
+     * @param fraction the fraction of latencies, between 0 and 1
+     * @return the upper bound, in nanoseconds, of the bucket that latency falls into, Long.MAX_VALUE if it
+     * is in the overflow bucket or 0 if nothing has been recorded
+     */
+    public long getPercentileNanos(double fraction) {
+        long total = getCount();
+        if (total == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(fraction * total);
+        long cumulative = 0;
+        for (int i = 0; i < BUCKETS - 1; i++) {
+            cumulative += counts.get(i);
+            if (cumulative >= rank && cumulative > 0) {
+                return upperBoundOf(i);
+            }
+        }
+        return Long.MAX_VALUE;
+    }
+
+    /**
+     * @return the bucket a latency falls into
+     */
+    static int bucketOf(long nanos) {
+        int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+        if (exponent < MIN_EXPONENT) {
+            return 0;
+        }
+        if (exponent > MAX_EXPONENT) {
+            return BUCKETS - 1;
+        }
+        int subBucket = (int) (nanos >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return 1 + (exponent - MIN_EXPONENT) * SUB_BUCKETS + subBucket;
+    }
+
+    /**
+     * @return the exclusive upper bound of a bucket other than the overflow bucket, in nanoseconds
+     */
+    static long upperBoundOf(int bucket) {
+        if (bucket == 0) {
+            return 1L << MIN_EXPONENT;
+        }
+        int exponent = MIN_EXPONENT + (bucket - 1) / SUB_BUCKETS;
+        int subBucket = (bucket - 1) % SUB_BUCKETS;
+        return (long) (SUB_BUCKETS + subBucket + 1) << (exponent - SUB_BUCKET_BITS);
+    }
+
+    /**
+     * Writes the cumulative buckets up to the last one with a latency in it, then +Inf, the sum in
+     * seconds and the count
+     */
+    @Override
+    void writeSamples(StringBuilder out) {
+        long[] snapshot = new long[BUCKETS];
+        int last = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = counts.get(i);
+            if (snapshot[i] > 0 && i < BUCKETS - 1) {
+                last = i;
+            }
+        }
+
+        long cumulative = 0;
+        for (int i = 0; i <= last; i++) {
+            cumulative += snapshot[i];
+            out.append(getName()).append("_bucket{le=\"").append(upperBoundOf(i) / 1e9).append("\"} ")
+                    .append(cumulative).append('\n');
+        }
+        cumulative += snapshot[BUCKETS - 1];
+        for (int i = last + 1; i < BUCKETS - 1; i++) {
+            cumulative += snapshot[i];
+        }
+        out.append(getName()).append("_bucket{le=\"+Inf\"} ").append(cumulative).append('\n');
+        out.append(getName()).append("_sum ").append(sumNanos.get() / 1e9).append('\n');
+        out.append(getName()).append("_count ").append(cumulative).append('\n');
+    }
+
+} // end LatencyHistogram
@@ -0,0 +1,41 @@
+package com.example.thirdearoftruth.metrics;
+
+/**
+ * A named measurement held by the MetricsRegistry, written out in the Prometheus text format with its
+ * help text and type.
+ */
+public abstract class Metric {
+
+    private final String name;
+    private final String help;
+    private final String type;
+
+    Metric(String name, String help, String type) {
+        this.name = name;
+        this.help = help;
+        this.type = type;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getHelp() {
+        return help;
+    }
+
+    /**
+     * Writes the help, type and current samples of the metric
+     */
+    void write(StringBuilder out) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+        writeSamples(out);
+    }
+
+    /**
+     * Writes the current samples of the metric, one per line
+     */
+    abstract void writeSamples(StringBuilder out);
+
+} // end Metric
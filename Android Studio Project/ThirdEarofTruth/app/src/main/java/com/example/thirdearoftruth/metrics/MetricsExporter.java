@@ -0,0 +1,108 @@
+package com.example.thirdearoftruth.metrics;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes a snapshot of the MetricsRegistry to a local file at a fixed period, in the Prometheus text
+ * exposition format, so it can be pulled off the device and read by a scraper or the node exporter's
+ * textfile collector.
+ *
+ * Each snapshot is written to a temporary file next to the output and then renamed over it, so a reader
+ * never sees a half written file. The snapshots are written on the exporter's own thread.
+ */
+public class MetricsExporter {
+
+    private static final String TAG = "METRICS_EXPORTER";
+
+    private final MetricsRegistry registry;
+    private final File output;
+    private final long period;
+    private final TimeUnit unit;
+    private ScheduledExecutorService executor;
+
+
+    /**
+     * @param registry the metrics to export
+     * @param output the file the snapshots are written to
+     * @param period the time between snapshots
+     * @param unit the unit of the period
+     */
+    public MetricsExporter(MetricsRegistry registry, File output, long period, TimeUnit unit) {
+        this.registry = registry;
+        this.output = output;
+        this.period = period;
+        this.unit = unit;
+    }
+
+
+    // Methods
+
+    /**
+     * Starts writing a snapshot every period
+     */
+    public synchronized void start() {
+        if (executor != null) {
+            return;
+        }
+        executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "Metrics Exporter");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        executor.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                export();
+            }
+        }, period, period, unit);
+    }
+
+    /**
+     * Stops the periodic snapshots and writes a last one
+     */
+    public synchronized void stop() {
+        if (executor != null) {
+            executor.shutdown();
+            executor = null;
+        }
+        export();
+    }
+
+    /**
+     * Writes a snapshot now
+     *
+     * @return true if the snapshot was written
+     */
+    public synchronized boolean export() {
+        File temporary = new File(output.getPath() + ".tmp");
+        try {
+            Writer writer = new OutputStreamWriter(new FileOutputStream(temporary), "UTF-8");
+            try {
+                writer.write(registry.toPrometheusText());
+            } finally {
+                writer.close();
+            }
+            if (!temporary.renameTo(output)) {
+                throw new IOException("Could not rename " + temporary + " to " + output);
+            }
+            return true;
+        } catch (IOException e) {
+            Log.e(TAG, "Metrics could not be exported: " + e.getMessage());
+            return false;
+        }
+    } // end export
+
+} // end MetricsExporter
@@ -0,0 +1,98 @@
+package com.example.thirdearoftruth.metrics;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The counters, gauges and latency histograms of the app, by name. Each class looks up its metrics once,
+ * usually into static fields, and then updates them directly, so updating a metric never touches the
+ * registry and allocates nothing. Looking up a name that is already registered returns the same metric.
+ *
+ * The whole registry can be written out in the Prometheus text exposition format at any time, from any
+ * thread, while the metrics are being updated.
+ */
+public final class MetricsRegistry {
+
+    private static final MetricsRegistry INSTANCE = new MetricsRegistry();
+
+    private final ConcurrentHashMap<String, Metric> metrics = new ConcurrentHashMap<>();
+
+
+    /**
+     * @return the registry shared by the whole app
+     */
+    public static MetricsRegistry getInstance() {
+        return INSTANCE;
+    }
+
+
+    // Methods
+
+    /**
+     * @param name the metric name, ending in _total by convention
+     * @param help what is counted
+     * @return the counter with this name, registered if it is new
+     */
+    public Counter counter(String name, String help) {
+        return register(new Counter(name, help), Counter.class);
+    }
+
+    /**
+     * @param name the metric name
+     * @param help what is measured
+     * @return the gauge with this name, registered if it is new
+     */
+    public Gauge gauge(String name, String help) {
+        return register(new Gauge(name, help), Gauge.class);
+    }
+
+    /**
+     * @param name the metric name, ending in _seconds by convention
+     * @param help what is timed
+     * @return the histogram with this name, registered if it is new
+     */
+    public LatencyHistogram histogram(String name, String help) {
+        return register(new LatencyHistogram(name, help), LatencyHistogram.class);
+    }
+
+    private <T extends Metric> T register(T metric, Class<T> type) {
+        Metric existing = metrics.putIfAbsent(metric.getName(), metric);
+        if (existing == null) {
+            return metric;
+        }
+        if (!type.isInstance(existing)) {
+            throw new IllegalArgumentException("Metric " + metric.getName() + " is already registered as a "
+                    + existing.getClass().getSimpleName());
+        }
+        return type.cast(existing);
+    }
+
+    /**
+     * @return every metric registered, sorted by name
+     */
+    public List<Metric> getMetrics() {
+        List<Metric> sorted = new ArrayList<>(metrics.values());
+        Collections.sort(sorted, new Comparator<Metric>() {
+            @Override
+            public int compare(Metric a, Metric b) {
+                return a.getName().compareTo(b.getName());
+            }
+        });
+        return sorted;
+    }
+
+    /**
+     * @return every metric, sorted by name, in the Prometheus text exposition format
+     */
+    public String toPrometheusText() {
+        StringBuilder out = new StringBuilder();
+        for (Metric metric : getMetrics()) {
+            metric.write(out);
+        }
+        return out.toString();
+    }
+
+} // end MetricsRegistry
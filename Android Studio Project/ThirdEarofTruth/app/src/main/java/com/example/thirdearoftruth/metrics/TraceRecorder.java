@@ -0,0 +1,430 @@
+package com.example.thirdearoftruth.metrics;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The timeline of the detection and recognition sessions, kept as Chrome trace events so it can be
+ * opened in Perfetto (ui.perfetto.dev) or chrome://tracing. Each class records its own events: slices
+ * on the dispatcher and recognition threads, instants for every DTW comparison and asynchronous events
+ * for the template fetch and the notification requests, which finish on other threads.
+ *
+ * Capture is off until setEnabled(true) and can be switched on and off at any time. While it is off
+ * recording an event is a single volatile read. While it is on the events are written into a ring of
+ * preallocated slots, so recording allocates nothing and the oldest events are overwritten once the
+ * ring is full, and capture can be left on for as long as the app runs.
+ *
+ * Names and arguments are kept by reference, so they must be constants or strings that already exist,
+ * such as the name of a known event. The ring is only formatted, by writeJson(), when it is exported,
+ * from any thread and while events are being recorded.
+ */
+public final class TraceRecorder {
+
+    /**
+     * The events the shared recorder keeps, about ten minutes of sessions back to back
+     */
+    public static final int DEFAULT_CAPACITY = 16384;
+
+    /**
+     * The process id of every event, as only this app's threads are traced
+     */
+    private static final int PID = 1;
+
+    /**
+     * The most values an event can carry, besides its session and a label
+     */
+    private static final int MAX_ARGS = 3;
+
+    private static final TraceRecorder INSTANCE = new TraceRecorder(DEFAULT_CAPACITY);
+
+    /**
+     * One event. The sequence is cleared before the other fields are written and set after, so an
+     * export can tell a slot that is being overwritten from a complete one.
+     */
+    private static final class Slot {
+        volatile long sequence = -1;
+        char phase;
+        String category;
+        String name;
+        long timestampNanos;
+        long durationNanos;
+        long id;
+        long threadId;
+        String threadName;
+        String textArgName;
+        String textArg;
+        final String[] argNames = new String[MAX_ARGS];
+        final double[] args = new double[MAX_ARGS];
+    }
+
+    private final Slot[] slots;
+    private final int mask;
+
+    /**
+     * The sequence of the next event recorded
+     */
+    private final AtomicLong next = new AtomicLong();
+
+    /**
+     * The sequence of the first event exported, moved on by clear()
+     */
+    private volatile long first;
+
+    /**
+     * The id of the next pair of asynchronous events
+     */
+    private final AtomicLong asyncIds = new AtomicLong();
+
+    private volatile boolean enabled;
+
+
+    /**
+     * @param capacity the most events kept, a power of two
+     */
+    public TraceRecorder(int capacity) {
+        if (capacity <= 0 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("The capacity must be a power of two, not " + capacity);
+        }
+        slots = new Slot[capacity];
+        for (int i = 0; i < capacity; i++) {
+            slots[i] = new Slot();
+        }
+        mask = capacity - 1;
+    }
+
+
+    /**
+     * @return the recorder shared by the whole app
+     */
+    public static TraceRecorder getInstance() {
+        return INSTANCE;
+    }
+
+
+    // getters and setters
+
+    /**
+     * @return true while events are being recorded
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @param enabled true to start recording events, false to stop. The events recorded are kept.
+     */
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * @return the most events kept
+     */
+    public int getCapacity() {
+        return slots.length;
+    }
+
+    /**
+     * @return the id for a new pair of asynchronous events
+     */
+    public long nextAsyncId() {
+        return asyncIds.incrementAndGet();
+    }
+
+
+    // Methods
+
+    /**
+     * A slice of work on this thread, from startNanos until now
+     *
+     * @param category the part of the app, such as "dispatcher" or "recognition"
+     * @param name the work done
+     * @param startNanos the System.nanoTime() the work started
+     * @param session the onset sample clock of the session the work was for, or -1 for none
+     */
+    public void complete(String category, String name, long startNanos, long session) {
+        complete(category, name, startNanos, session, null, 0);
+    }
+
+    /**
+     * A slice of work on this thread, from startNanos until now, with a value
+     *
+     * @param argName the name of the value, or null for none
+     * @param arg the value
+     */
+    public void complete(String category, String name, long startNanos, long session, String argName,
+                         double arg) {
+        if (!enabled) {
+            return;
+        }
+        long now = System.nanoTime();
+        record('X', category, name, startNanos, now - startNanos, session, null, null, argName, arg, null, 0,
+                null, 0);
+    }
+
+    /**
+     * Something that happened at this moment on this thread
+     *
+     * @param session the onset sample clock of the session it happened in, or -1 for none
+     */
+    public void instant(String category, String name, long session) {
+        instant(category, name, session, null, null, null, 0, null, 0, null, 0);
+    }
+
+    /**
+     * Something that happened at this moment on this thread, with a label and up to three values. Each
+     * name can be null to leave its value out.
+     *
+     * @param textArgName the name of the label
+     * @param textArg the label
+     * @param argName the name of the first value
+     * @param arg the first value
+     * @param secondArgName the name of the second value
+     * @param secondArg the second value
+     * @param thirdArgName the name of the third value
+     * @param thirdArg the third value
+     */
+    public void instant(String category, String name, long session, String textArgName, String textArg,
+                        String argName, double arg, String secondArgName, double secondArg,
+                        String thirdArgName, double thirdArg) {
+        if (!enabled) {
+            return;
+        }
+        record('i', category, name, System.nanoTime(), 0, session, textArgName, textArg, argName, arg,
+                secondArgName, secondArg, thirdArgName, thirdArg);
+    }
+
+    /**
+     * The start of something that finishes later, usually on another thread, such as a request
+     *
+     * @param id from nextAsyncId(), passed to the asyncEnd() of the same category and name
+     * @param textArgName the name of a label, or null for none
+     * @param textArg the label
+     * @param argName the name of a value, or null for none
+     * @param arg the value
+     */
+    public void asyncBegin(String category, String name, long id, String textArgName, String textArg,
+                           String argName, double arg) {
+        if (!enabled) {
+            return;
+        }
+        record('b', category, name, System.nanoTime(), 0, id, textArgName, textArg, argName, arg, null, 0,
+                null, 0);
+    }
+
+    /**
+     * The end of something started with asyncBegin()
+     */
+    public void asyncEnd(String category, String name, long id, String textArgName, String textArg,
+                         String argName, double arg) {
+        if (!enabled) {
+            return;
+        }
+        record('e', category, name, System.nanoTime(), 0, id, textArgName, textArg, argName, arg, null, 0,
+                null, 0);
+    }
+
+    private void record(char phase, String category, String name, long timestampNanos, long durationNanos,
+                        long id, String textArgName, String textArg, String argName, double arg,
+                        String secondArgName, double secondArg, String thirdArgName, double thirdArg) {
+        long sequence = next.getAndIncrement();
+        Slot slot = slots[(int) (sequence & mask)];
+        Thread thread = Thread.currentThread();
+        slot.sequence = -1;
+        slot.phase = phase;
+        slot.category = category;
+        slot.name = name;
+        slot.timestampNanos = timestampNanos;
+        slot.durationNanos = durationNanos;
+        slot.id = id;
+        slot.threadId = thread.getId();
+        slot.threadName = thread.getName();
+        slot.textArgName = textArgName;
+        slot.textArg = textArg;
+        slot.argNames[0] = argName;
+        slot.args[0] = arg;
+        slot.argNames[1] = secondArgName;
+        slot.args[1] = secondArg;
+        slot.argNames[2] = thirdArgName;
+        slot.args[2] = thirdArg;
+        slot.sequence = sequence;
+    } // end record
+
+    /**
+     * Forgets every event recorded so far
+     */
+    public void clear() {
+        first = next.get();
+    }
+
+    /**
+     * Writes the events still in the ring, oldest first, as a Chrome trace-event JSON object, followed
+     * by the name of every thread they were recorded on. Events overwritten while they are read are
+     * left out.
+     *
+     * @param out where the JSON is written
+     * @return the number of events written
+     * @throws IOException if the JSON cannot be written
+     */
+    public int writeJson(Writer out) throws IOException {
+        long end = next.get();
+        long start = Math.max(first, end - slots.length);
+        Map<Long, String> threadNames = new LinkedHashMap<>();
+        String[] argNames = new String[MAX_ARGS];
+        double[] args = new double[MAX_ARGS];
+        int written = 0;
+
+        out.write("{\"displayTimeUnit\":\"ms\",\"traceEvents\":[");
+        for (long sequence = start; sequence < end; sequence++) {
+            Slot slot = slots[(int) (sequence & mask)];
+            if (slot.sequence != sequence) {
+                continue;
+            }
+            char phase = slot.phase;
+            String category = slot.category;
+            String name = slot.name;
+            long timestampNanos = slot.timestampNanos;
+            long durationNanos = slot.durationNanos;
+            long id = slot.id;
+            long threadId = slot.threadId;
+            String threadName = slot.threadName;
+            String textArgName = slot.textArgName;
+            String textArg = slot.textArg;
+            System.arraycopy(slot.argNames, 0, argNames, 0, MAX_ARGS);
+            System.arraycopy(slot.args, 0, args, 0, MAX_ARGS);
+            if (slot.sequence != sequence) {
+                // overwritten while it was being read
+                continue;
+            }
+
+            out.write(written == 0 ? "\n" : ",\n");
+            out.write("{\"ph\":\"");
+            out.write(phase);
+            out.write("\",\"cat\":");
+            writeString(out, category);
+            out.write(",\"name\":");
+            writeString(out, name);
+            out.write(",\"ts\":");
+            out.write(micros(timestampNanos));
+            out.write(",\"pid\":" + PID + ",\"tid\":" + threadId);
+            boolean async = phase == 'b' || phase == 'e';
+            if (phase == 'X') {
+                out.write(",\"dur\":");
+                out.write(micros(durationNanos));
+            } else if (phase == 'i') {
+                out.write(",\"s\":\"t\"");
+            } else if (async) {
+                out.write(",\"id\":\"0x" + Long.toHexString(id) + "\"");
+            }
+            out.write(",\"args\":{");
+            boolean hasArgs = false;
+            if (!async && id >= 0) {
+                out.write("\"session\":" + id);
+                hasArgs = true;
+            }
+            if (textArgName != null) {
+                hasArgs = writeArgName(out, textArgName, hasArgs);
+                writeString(out, textArg);
+            }
+            for (int i = 0; i < MAX_ARGS; i++) {
+                if (argNames[i] != null) {
+                    hasArgs = writeArgName(out, argNames[i], hasArgs);
+                    writeNumber(out, args[i]);
+                }
+            }
+            out.write("}}");
+
+            if (!threadNames.containsKey(threadId)) {
+                threadNames.put(threadId, threadName);
+            }
+            written++;
+        }
+
+        for (Map.Entry<Long, String> thread : threadNames.entrySet()) {
+            out.write(written == 0 ? "\n" : ",\n");
+            out.write("{\"ph\":\"M\",\"name\":\"thread_name\",\"pid\":" + PID + ",\"tid\":" + thread.getKey()
+                    + ",\"args\":{\"name\":");
+            writeString(out, thread.getValue());
+            out.write("}}");
+        }
+        out.write("\n]}\n");
+        return written;
+    } // end writeJson
+
+    /**
+     * Writes the events to a temporary file next to the output and renames it over the output, so a
+     * reader never sees a half written trace
+     *
+     * @param output the file the trace is written to, usually ending in .json
+     * @return the number of events written
+     * @throws IOException if the file cannot be written
+     */
+    public int export(File output) throws IOException {
+        File temporary = new File(output.getPath() + ".tmp");
+        int written;
+        Writer writer = new OutputStreamWriter(new FileOutputStream(temporary), "UTF-8");
+        try {
+            written = writeJson(writer);
+        } finally {
+            writer.close();
+        }
+        if (!temporary.renameTo(output)) {
+            throw new IOException("Could not rename " + temporary + " to " + output);
+        }
+        return written;
+    } // end export
+
+    private static String micros(long nanos) {
+        return String.format(Locale.ROOT, "%.3f", nanos / 1000.0);
+    }
+
+    private static boolean writeArgName(Writer out, String name, boolean hasArgs) throws IOException {
+        if (hasArgs) {
+            out.write(',');
+        }
+        writeString(out, name);
+        out.write(':');
+        return true;
+    }
+
+    /**
+     * Writes a number, or a string for the values JSON has no number for
+     */
+    private static void writeNumber(Writer out, double value) throws IOException {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            writeString(out, String.valueOf(value));
+        } else if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+            out.write(Long.toString((long) value));
+        } else {
+            out.write(String.valueOf(value));
+        }
+    }
+
+    private static void writeString(Writer out, String value) throws IOException {
+        if (value == null) {
+            out.write("null");
+            return;
+        }
+        out.write('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                out.write('\\');
+                out.write(c);
+            } else if (c < 0x20) {
+                out.write(String.format(Locale.ROOT, "\\u%04x", (int) c));
+            } else {
+                out.write(c);
+            }
+        }
+        out.write('"');
+    }
+
+} // end TraceRecorder
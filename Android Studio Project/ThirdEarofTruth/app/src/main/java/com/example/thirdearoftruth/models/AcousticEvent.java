@@ -16,6 +16,34 @@ import java.util.ArrayList;
  *
  */
 public class AcousticEvent   {
+
+    // constant variables
+    /**
+     * The maxCost every Acoustic Event was stored with while the cost was a DTW over the whole detected
+     * event, summed along the path, rather than per frame and per coefficient
+     */
+    public static final double LEGACY_MAX_COST = 300.0;
+
+    /**
+     * The maxCost a new Acoustic Event of 39 coefficients, MFCCs with their delta and delta-delta, is
+     * given. The default events replayed in pink noise 50dB below full scale are all below it, and events
+     * of the noise alone are all above it.
+     */
+    public static final double DEFAULT_MAX_COST = 1.8;
+
+    /**
+     * The maxCost of an Acoustic Event of 13 static MFCCs only, the one that identifies the most templates
+     * of the database export when each is left out of the library in turn. The dynamic features vary much
+     * less than the MFCCs, so for the same pair of sounds the cost per coefficient of the static MFCCs
+     * alone is about 1.4 times as high.
+     */
+    public static final double STATIC_DEFAULT_MAX_COST = 2.5;
+
+    /**
+     * The number of static MFCCs in each feature vector
+     */
+    public static final int STATIC_COEFFICIENTS = 13;
+
     // instance variables - must be public and have getters and setters in order to store
     // in Realtime database
 
@@ -49,7 +77,8 @@ public class AcousticEvent   {
 
     /**
      * the maximum acceptable value for a DTW cost to be considered accurate after the recognition
-     * process
+     * process. The cost is per frame of this event and per coefficient, so it depends on the number of
+     * coefficients held but not on the length of the event.
      */
     public double maxCost;
 
@@ -60,9 +89,10 @@ public class AcousticEvent   {
 
 
     /**
-     * The MFCC feature vector/matrix to be used in Dynamic Time Warping distance and cost calculations
+     * The MFCC feature vector/matrix to be used in Dynamic Time Warping distance and cost calculations.
+     * MFCCs are produced as floats so they are held as floats here, at half the memory of doubles.
      */
-    private double[][] mfccMatrix;
+    private float[][] mfccMatrix;
 
 
 
@@ -158,22 +188,25 @@ public class AcousticEvent   {
 
 
     /**
-     * Feed the 2d ArrayList of wrapper Doubles in to set the primitive 2d array double[][]
-     * to be used in the dynamic time warping and matching process
+     * Feed the 2d ArrayList of wrapper Doubles in to set the primitive 2d array float[][]
+     * to be used in the dynamic time warping and matching process.
+     *
+     * The stored values were produced as floats and widened to doubles for the database, so narrowing
+     * them back to float is exact.
      *
      *
      * @param mfccDoubleList
      */
     public void setMfccMatrix(ArrayList<ArrayList<Double>> mfccDoubleList){
 
-        double[][] mfcc2DArray = new double[mfccDoubleList.size()][];
+        float[][] mfcc2DArray = new float[mfccDoubleList.size()][];
 
         for(int i = 0; i < mfccDoubleList.size(); i++) {
 
             ArrayList<Double> row = mfccDoubleList.get(i);
-            double[] copy = new double[row.size()];
+            float[] copy = new float[row.size()];
             for(int j = 0; j < row.size(); j++) {
-                copy[j] = row.get(j);
+                copy[j] = row.get(j).floatValue();
             }
             mfcc2DArray[i] = copy;
         }
@@ -184,9 +217,27 @@ public class AcousticEvent   {
 
     /**
      * Returns the mfcc matrix/vector as a 2d array suitable for use in the
-     * @return the MfccMatrix as a double[][]
+     * @return the MfccMatrix as a float[][]
      */
-    public double[][] getMfccMatrix() {
+    public float[][] getMfccMatrix() {
         return mfccMatrix;
     }
+
+    /**
+     * Gives an event stored with the maxCost of the whole event DTW the default maxCost for the number of
+     * coefficients it holds. Called once the mfcc matrix has been set.
+     */
+    public void upgradeLegacyMaxCost() {
+        if (maxCost == LEGACY_MAX_COST && mfccMatrix != null && mfccMatrix.length > 0) {
+            maxCost = defaultMaxCost(mfccMatrix[0].length);
+        }
+    }
+
+    /**
+     * @param coefficients the number of coefficients in each feature vector of an event
+     * @return the maxCost a new event of that many coefficients is given
+     */
+    public static double defaultMaxCost(int coefficients) {
+        return coefficients > STATIC_COEFFICIENTS ? DEFAULT_MAX_COST : STATIC_DEFAULT_MAX_COST;
+    }
 }
@@ -25,7 +25,6 @@ public class DefaultEventsManager {
 
     // constant variables
     private static final String TAG = "DEFAULT_EVENT_MANAGER";
-    private static final double DEFAULT_MAX_COST = 300.0;
 
     // instance variables
     /**
@@ -144,7 +143,7 @@ public class DefaultEventsManager {
 
         // prepare object to add to Database
         defaultEventId = eventReference.push().getKey();
-        AcousticEvent ambulanceEvent1 = new AcousticEvent(defaultEventId, eventName, 5.0, lists1, String.valueOf(lists1.size()), DEFAULT_MAX_COST, true);
+        AcousticEvent ambulanceEvent1 = new AcousticEvent(defaultEventId, eventName, 5.0, lists1, String.valueOf(lists1.size()), AcousticEvent.STATIC_DEFAULT_MAX_COST, true);
 
 
         // Ambulance 2 MFCCs
@@ -202,7 +201,7 @@ public class DefaultEventsManager {
 
         // prepare object to add to Database
         defaultEventId = eventReference.push().getKey();
-        AcousticEvent ambulanceEvent2 = new AcousticEvent(defaultEventId, eventName, 5.0, lists2, String.valueOf(lists2.size()), DEFAULT_MAX_COST, true);
+        AcousticEvent ambulanceEvent2 = new AcousticEvent(defaultEventId, eventName, 5.0, lists2, String.valueOf(lists2.size()), AcousticEvent.STATIC_DEFAULT_MAX_COST, true);
 
         // add all Ambulance Siren Acoustic Events to the list
         defaultEvents.add(ambulanceEvent1);
@@ -287,7 +286,7 @@ public class DefaultEventsManager {
 
         // prepare object to add to Database
         defaultEventId = eventReference.push().getKey();
-        AcousticEvent carEvent1 = new AcousticEvent(defaultEventId, eventName, 1.0, lists1, String.valueOf(lists1.size()), DEFAULT_MAX_COST, true);
+        AcousticEvent carEvent1 = new AcousticEvent(defaultEventId, eventName, 1.0, lists1, String.valueOf(lists1.size()), AcousticEvent.STATIC_DEFAULT_MAX_COST, true);
 
 
         // Car Horn 2 MFCCs
@@ -345,7 +344,7 @@ public class DefaultEventsManager {
 
         // prepare object to add to Database
         defaultEventId = eventReference.push().getKey();
-        AcousticEvent carEvent2 = new AcousticEvent(defaultEventId, eventName, 6.0, lists2, String.valueOf(lists2.size()), DEFAULT_MAX_COST, true);
+        AcousticEvent carEvent2 = new AcousticEvent(defaultEventId, eventName, 6.0, lists2, String.valueOf(lists2.size()), AcousticEvent.STATIC_DEFAULT_MAX_COST, true);
 
 
         // add all Car Horn Acoustic Events to the list
@@ -425,7 +424,7 @@ public class DefaultEventsManager {
 
         // prepare object to add to Database
         defaultEventId = eventReference.push().getKey();
-        AcousticEvent dogEvent1 = new AcousticEvent(defaultEventId, eventName, 1.0, lists1, String.valueOf(lists1.size()), DEFAULT_MAX_COST, true);
+        AcousticEvent dogEvent1 = new AcousticEvent(defaultEventId, eventName, 1.0, lists1, String.valueOf(lists1.size()), AcousticEvent.STATIC_DEFAULT_MAX_COST, true);
 
 
         // Dog Barking 2 MFCCs
@@ -479,7 +478,7 @@ public class DefaultEventsManager {
         // prepare object to add to Database
         defaultEventId = eventReference.push().getKey();
 
-        AcousticEvent dogEvent2 = new AcousticEvent(defaultEventId, eventName, 1.0, lists2, String.valueOf(lists2.size()), DEFAULT_MAX_COST, true);
+        AcousticEvent dogEvent2 = new AcousticEvent(defaultEventId, eventName, 1.0, lists2, String.valueOf(lists2.size()), AcousticEvent.STATIC_DEFAULT_MAX_COST, true);
 
 
         // add all Dog Bark Acoustic Events to list
@@ -571,7 +570,7 @@ public class DefaultEventsManager {
 
         // prepare object to add to Database
         defaultEventId = eventReference.push().getKey();
-        AcousticEvent plateEvent1 = new AcousticEvent(defaultEventId, eventName, 1.0, lists1, String.valueOf(lists1.size()), DEFAULT_MAX_COST, true);
+        AcousticEvent plateEvent1 = new AcousticEvent(defaultEventId, eventName, 1.0, lists1, String.valueOf(lists1.size()), AcousticEvent.STATIC_DEFAULT_MAX_COST, true);
 
         // Plate Dropping 2 MFCCs
         double[][] plateArray2 = {
@@ -630,7 +629,7 @@ public class DefaultEventsManager {
 
         // prepare object to add to Database
         defaultEventId = eventReference.push().getKey();
-        AcousticEvent plateEvent2 = new AcousticEvent(defaultEventId, eventName, 2.0, lists2, String.valueOf(lists2.size()), DEFAULT_MAX_COST, true);
+        AcousticEvent plateEvent2 = new AcousticEvent(defaultEventId, eventName, 2.0, lists2, String.valueOf(lists2.size()), AcousticEvent.STATIC_DEFAULT_MAX_COST, true);
 
 
         // add all Plate Drop Acoustic Events to list
@@ -709,7 +708,7 @@ public class DefaultEventsManager {
 
         // prepare object to add to Database
         defaultEventId = eventReference.push().getKey();
-        AcousticEvent potEvent1 = new AcousticEvent(defaultEventId, eventName, 3.0, lists1, String.valueOf(lists1.size()), DEFAULT_MAX_COST, true);
+        AcousticEvent potEvent1 = new AcousticEvent(defaultEventId, eventName, 3.0, lists1, String.valueOf(lists1.size()), AcousticEvent.STATIC_DEFAULT_MAX_COST, true);
 
 
         // Pot Dropping 2 MFCCs
@@ -759,7 +758,7 @@ public class DefaultEventsManager {
 
         // prepare object to add to Database
         defaultEventId = eventReference.push().getKey();
-        AcousticEvent potEvent2 = new AcousticEvent(defaultEventId, eventName, 2.0, lists2, String.valueOf(lists2.size()), DEFAULT_MAX_COST, true);
+        AcousticEvent potEvent2 = new AcousticEvent(defaultEventId, eventName, 2.0, lists2, String.valueOf(lists2.size()), AcousticEvent.STATIC_DEFAULT_MAX_COST, true);
 
 
         // add all Pot Drop Acoustic Events to list
@@ -857,7 +856,7 @@ public class DefaultEventsManager {
 
         // prepare object to add to Database
         defaultEventId = eventReference.push().getKey();
-        AcousticEvent glassEvent1 = new AcousticEvent(defaultEventId, eventName, 2.0, lists1, String.valueOf(lists1.size()), DEFAULT_MAX_COST, true);
+        AcousticEvent glassEvent1 = new AcousticEvent(defaultEventId, eventName, 2.0, lists1, String.valueOf(lists1.size()), AcousticEvent.STATIC_DEFAULT_MAX_COST, true);
 
 
         // Glass Breaking 2 MFCCs
@@ -926,7 +925,7 @@ public class DefaultEventsManager {
 
         // prepare object to add to Database
         defaultEventId = eventReference.push().getKey();
-        AcousticEvent glassEvent2 = new AcousticEvent(defaultEventId, eventName, 3.0, lists2, String.valueOf(lists2.size()), DEFAULT_MAX_COST, true);
+        AcousticEvent glassEvent2 = new AcousticEvent(defaultEventId, eventName, 3.0, lists2, String.valueOf(lists2.size()), AcousticEvent.STATIC_DEFAULT_MAX_COST, true);
 
 
         // add all Glass Break Acoustic Events to list
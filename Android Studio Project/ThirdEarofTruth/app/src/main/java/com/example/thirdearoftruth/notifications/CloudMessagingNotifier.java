@@ -0,0 +1,167 @@
+package com.example.thirdearoftruth.notifications;
+
+import android.util.Log;
+
+import com.android.volley.AuthFailureError;
+import com.android.volley.Request;
+import com.android.volley.RequestQueue;
+import com.android.volley.Response;
+import com.android.volley.VolleyError;
+import com.android.volley.toolbox.JsonObjectRequest;
+import com.example.thirdearoftruth.audio.RecognitionNotifier;
+import com.example.thirdearoftruth.audio.SessionTrace;
+import com.example.thirdearoftruth.metrics.Counter;
+import com.example.thirdearoftruth.metrics.LatencyHistogram;
+import com.example.thirdearoftruth.metrics.MetricsRegistry;
+import com.example.thirdearoftruth.metrics.TraceRecorder;
+import com.google.firebase.auth.FirebaseUser;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.Calendar;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Sends the name of each sound recognised by the DetectionService as a push notification to every
+ * device the user has logged into and selected 'Receiving' on, through Firebase Cloud Messaging and
+ * the Volley requestQueue.
+ *
+ * Acknowledged and failed notifications, and the time Cloud Messaging takes to acknowledge each one, are
+ * counted in the MetricsRegistry. While trace capture is on, each request is recorded in the TraceRecorder
+ * from being queued to being acknowledged or failing.
+ */
+public class CloudMessagingNotifier implements RecognitionNotifier {
+
+    /**
+     * The Firebase Messaging push notification URL to connect to Cloud Messaging and
+     * handle the sending of push notifications/ topic notifications
+     */
+    private static final String NOTIFICATION_URL = "https://fcm.googleapis.com/fcm/send";
+
+    private static final Counter ACKNOWLEDGED = MetricsRegistry.getInstance().counter(
+            "thirdear_notifications_acknowledged_total", "Notifications acknowledged by Cloud Messaging");
+    private static final Counter FAILURES = MetricsRegistry.getInstance().counter(
+            "thirdear_notification_failures_total", "Notifications Cloud Messaging did not accept");
+    private static final LatencyHistogram ACK_TIME = MetricsRegistry.getInstance().histogram(
+            "thirdear_notification_ack_seconds", "Time from queueing a notification to its acknowledgement");
+
+    private static final TraceRecorder TRACE = TraceRecorder.getInstance();
+
+    /**
+     * The currently logged in user to which notifications will be sent
+     */
+    private final FirebaseUser mUser;
+
+    /**
+     * The volley requestQueue to which the notification holding the result of each recognition process
+     * will be sent to
+     */
+    private final RequestQueue mRequestQueue;
+
+
+    /**
+     * @param mUser the currently logged in user
+     * @param mRequestQueue the volley requestQueue the notifications are sent through
+     */
+    public CloudMessagingNotifier(FirebaseUser mUser, RequestQueue mRequestQueue) {
+        this.mUser = mUser;
+        this.mRequestQueue = mRequestQueue;
+    }
+
+
+    /**
+     * When the detected event is identified using DTW to establish the known event with the distance in
+     * MFCC vectors closest to this one, the name of the sound is passed into this method and the notification
+     * is sent to all user's subscribed to the topic.
+     *
+     * The topic in this case is the current user's id so the only receiver's of this notification will be the
+     * devices on which the user with this ID has logged into and therefore subscribed to the topic.
+     *
+     * The session's trace is stamped when the request is queued and when Cloud Messaging responds.
+     *
+     * @param trace
+     * @param soundName
+     */
+    @Override
+    public void sendNotification(final SessionTrace trace, String soundName) {
+        final long traceId = TRACE.nextAsyncId();
+        String body;
+        String time = String.valueOf(Calendar.getInstance().getTime());
+
+        // Check if there was a match to the detected acoustic event or not
+
+        if(soundName.equals("Unknown Sound")){
+            body = " was detected, please investigate";
+        } else{
+            body = " was heard in your home at "+time;
+        }
+
+        // jsonObject
+        JSONObject mainObject = new JSONObject();
+
+        try {
+            // current user's user id is the topic to send notifications to subscribed devices
+            mainObject.put("to", "/topics/" + mUser.getUid());
+            JSONObject notificationObject = new JSONObject();
+            notificationObject.put("title", soundName+" Detected");
+            notificationObject.put("body", soundName+body);
+
+
+            mainObject.put("notification", notificationObject);
+
+
+            JsonObjectRequest request = new JsonObjectRequest(Request.Method.POST, NOTIFICATION_URL, mainObject,
+                    new Response.Listener<JSONObject>() {
+                        @Override
+                        public void onResponse(JSONObject response) {
+                            // run when successful
+                            trace.mark(SessionTrace.Stage.NOTIFICATION_ACKNOWLEDGED);
+                            TRACE.asyncEnd("notification", "notification request", traceId,
+                                    "outcome", "acknowledged", null, 0);
+                            ACKNOWLEDGED.increment();
+                            long ackTime = trace.getLatencyNanos(SessionTrace.Stage.NOTIFICATION_ENQUEUED,
+                                    SessionTrace.Stage.NOTIFICATION_ACKNOWLEDGED);
+                            if (ackTime != SessionTrace.NOT_STAMPED) {
+                                ACK_TIME.record(ackTime);
+                            }
+
+                            if (Log.isLoggable("NOTIFICATION", Log.DEBUG)) {
+                                Log.d("NOTIFICATION", "Notification sent to user, " + trace);
+                            }
+                        }
+                    }, new Response.ErrorListener() {
+                @Override
+                public void onErrorResponse(VolleyError error) {
+                    // run on error
+                    TRACE.asyncEnd("notification", "notification request", traceId,
+                            "outcome", "failed", null, 0);
+                    FAILURES.increment();
+                    Log.e("NOTIFICATION ERROR", error.getMessage().toString());
+                }
+            }){
+                @Override
+                public Map<String, String> getHeaders() throws AuthFailureError {
+
+                    Map<String,String> header = new HashMap<>();
+                    header.put("Content-type", "application/json");
+                    header.put("authorization", "key=AAAAajXxFaU:APA91bHXDHy0XumDr6FNo8LCsqc8YyR8Hop_JsiqaBKbAECR8KPlnr0x0g5opfyjsc5kXRCWLrePsFLgXUMVF_WDp43tbw8N7-IUT-4XuY5lMJ2fcTDCg8tjRL9WhP75x3E8c7Hfsewb");
+
+                    return header;
+                }
+            };
+
+            TRACE.asyncBegin("notification", "notification request", traceId,
+                    "sound", soundName, "session", trace.getOnsetSampleClock());
+            mRequestQueue.add(request);
+            trace.mark(SessionTrace.Stage.NOTIFICATION_ENQUEUED);
+        }catch (JSONException e) {
+            FAILURES.increment();
+            e.printStackTrace();
+        } // end try-catch block
+
+
+    } // end sendNotification method
+
+} // end CloudMessagingNotifier
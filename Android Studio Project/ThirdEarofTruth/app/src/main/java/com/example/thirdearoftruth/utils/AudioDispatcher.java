@@ -24,12 +24,11 @@ package com.example.thirdearoftruth.utils;
 
 import java.io.IOException;
 import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
-import be.tarsos.dsp.AudioEvent;
-import be.tarsos.dsp.AudioProcessor;
 import be.tarsos.dsp.io.TarsosDSPAudioFloatConverter;
 import be.tarsos.dsp.io.TarsosDSPAudioFormat;
 import be.tarsos.dsp.io.TarsosDSPAudioInputStream;
@@ -40,6 +39,14 @@ import be.tarsos.dsp.io.TarsosDSPAudioInputStream;
  * implementors. This class can be used to feed FFT's, pitch detectors, audio players, ...
  * Using a (blocking) audio player it is even possible to synchronize execution of
  * AudioProcessors and sound. This behavior can be used for visualization.
+ *
+ * Besides its own chain, which runs on the dispatcher's thread, a dispatcher can feed any number of
+ * ProcessorBranches, each running its own chain on its own thread from the same immutable copy of every
+ * buffer. See addBranch().
+ *
+ * Every iteration of the chain is timed by a DispatcherMonitor against the time one buffer lasts, which
+ * counts overruns, blames the slowest processor and finds gaps in the stream from the sample clock. A
+ * DispatcherWatchdog can be started to flag the dispatcher's thread when it stops making progress.
  * @author Joren Six
  */
 public class AudioDispatcher implements Runnable {
@@ -74,6 +81,37 @@ public class AudioDispatcher implements Runnable {
      */
     private final List<AudioProcessor> audioProcessors;
 
+    /**
+     * The registered audio processors as an array, replaced whenever one is added or removed. The
+     * dispatch loop walks the array because iterating over the list creates an iterator for every buffer.
+     */
+    private volatile AudioProcessor[] processorChain = new AudioProcessor[0];
+
+    /**
+     * The branches fed with a copy of every buffer, each running its processors on its own thread
+     */
+    private final List<ProcessorBranch> branches;
+
+    /**
+     * Copies of buffers that every branch has finished with, reused for the next buffers
+     */
+    private final ConcurrentLinkedQueue<ProcessorBranch.Frame> freeFrames;
+
+    /**
+     * The longest time stop() waits for each branch to process the buffers still queued for it
+     */
+    private static final long BRANCH_FINISH_TIMEOUT_MILLIS = 2000;
+
+    /**
+     * Times each iteration of the chain and watches the sample clock for gaps
+     */
+    private final DispatcherMonitor monitor;
+
+    /**
+     * The thread running the dispatcher, set when run() starts
+     */
+    private volatile Thread thread;
+
     /**
      * Converter converts an array of floats to an array of bytes (and vice
      * versa).
@@ -115,9 +153,9 @@ public class AudioDispatcher implements Runnable {
     private AudioEvent audioEvent;
 
     /**
-     * If true the dispatcher stops dispatching audio.
+     * If true the dispatcher stops dispatching audio. Set from the thread calling stop().
      */
-    private boolean stopped;
+    private volatile boolean stopped;
 
     /**
      * If true then the first buffer is only filled up to buffer size - hop size
@@ -151,10 +189,12 @@ public class AudioDispatcher implements Runnable {
         // it is iterated. A nice feature to have when adding AudioProcessors while
         // the AudioDispatcher is running.
         audioProcessors = new CopyOnWriteArrayList<AudioProcessor>();
+        branches = new CopyOnWriteArrayList<ProcessorBranch>();
+        freeFrames = new ConcurrentLinkedQueue<ProcessorBranch.Frame>();
         audioInputStream = stream;
 
         format = audioInputStream.getFormat();
-
+        monitor = new DispatcherMonitor(format, audioBufferSize - bufferOverlap);
 
         setStepSizeAndOverlap(audioBufferSize, bufferOverlap);
 
@@ -199,6 +239,7 @@ public class AudioDispatcher implements Runnable {
         audioByteBuffer = new byte[audioFloatBuffer.length * format.getFrameSize()];
         byteOverlap = floatOverlap * format.getFrameSize();
         byteStepSize = floatStepSize * format.getFrameSize();
+        monitor.setStepSize(floatStepSize);
     }
 
     /**
@@ -229,7 +270,10 @@ public class AudioDispatcher implements Runnable {
      *            The AudioProcessor to add.
      */
     public void addAudioProcessor(final AudioProcessor audioProcessor) {
-        audioProcessors.add(audioProcessor);
+        synchronized (audioProcessors) {
+            audioProcessors.add(audioProcessor);
+            processorChain = audioProcessors.toArray(new AudioProcessor[0]);
+        }
         LOG.fine("Added an audioprocessor to the list of processors: " + audioProcessor.toString());
     }
 
@@ -240,13 +284,52 @@ public class AudioDispatcher implements Runnable {
      *            The AudioProcessor to remove.
      */
     public void removeAudioProcessor(final AudioProcessor audioProcessor) {
-        audioProcessors.remove(audioProcessor);
+        synchronized (audioProcessors) {
+            audioProcessors.remove(audioProcessor);
+            processorChain = audioProcessors.toArray(new AudioProcessor[0]);
+        }
         audioProcessor.processingFinished();
         LOG.fine("Remove an audioprocessor to the list of processors: " + audioProcessor.toString());
     }
 
+    /**
+     * Adds a branch that is given a copy of every buffer from now on and runs its processors on its own
+     * thread, which is started here. The branch's processors see the buffers as they were read from the
+     * stream, independently of the processors of this dispatcher's own chain.
+     *
+     * @param branch
+     *            The branch to add.
+     */
+    public void addBranch(final ProcessorBranch branch) {
+        branch.start(format);
+        branches.add(branch);
+        LOG.fine("Added a processor branch: " + branch.getName());
+    }
+
+    /**
+     * @return the branches added to this dispatcher, to read their metrics
+     */
+    public List<ProcessorBranch> getBranches() {
+        return branches;
+    }
+
+    /**
+     * @return the timing of the chain, to read its overruns and the gaps in the stream
+     */
+    public DispatcherMonitor getMonitor() {
+        return monitor;
+    }
+
+    /**
+     * @return the thread running the dispatcher, or null before it has started
+     */
+    public Thread getThread() {
+        return thread;
+    }
+
     public void run() {
 
+        thread = Thread.currentThread();
         int bytesRead = 0;
 
         if(bytesToSkip!=0){
@@ -258,6 +341,7 @@ public class AudioDispatcher implements Runnable {
             //needed to get correct time info when skipping first x seconds
             audioEvent.setBytesProcessed(bytesProcessed);
             bytesRead = readNextAudioBlock();
+            monitor.blockRead((bytesProcessed + bytesRead) / format.getFrameSize());
         } catch (IOException e) {
             String message="Error while reading audio input stream: " + e.getMessage();
             LOG.warning(message);
@@ -268,13 +352,21 @@ public class AudioDispatcher implements Runnable {
         while (bytesRead != 0 && !stopped) {
 
             //Makes sure the right buffers are processed, they can be changed by audio processors.
-            for (final AudioProcessor processor : audioProcessors) {
-                if(!processor.process(audioEvent)){
+            long processorStart = monitor.startIteration();
+            for (final AudioProcessor processor : processorChain) {
+                boolean carryOn = processor.process(audioEvent);
+                processorStart = monitor.processorFinished(processor, processorStart);
+                if(!carryOn){
                     //skip to the next audio processors if false is returned.
                     break;
                 }
             }
 
+            if(!branches.isEmpty()){
+                dispatchToBranches();
+            }
+            monitor.endIteration();
+
             if(!stopped){
                 //Update the number of bytes processed;
                 bytesProcessed += bytesRead;
@@ -285,6 +377,7 @@ public class AudioDispatcher implements Runnable {
                 try {
                     bytesRead = readNextAudioBlock();
                     audioEvent.setOverlap(floatOverlap);
+                    monitor.blockRead((bytesProcessed + bytesRead) / format.getFrameSize());
                 } catch (IOException e) {
                     String message="Error while reading audio input stream: " + e.getMessage();
                     LOG.warning(message);
@@ -318,13 +411,44 @@ public class AudioDispatcher implements Runnable {
     }
 
     /**
-     * Stops dispatching audio data.
+     * Copies the current buffer once and offers the copy to every branch.
+     */
+    private void dispatchToBranches() {
+        byte[] pcm = audioEvent.getByteBuffer();
+        ProcessorBranch.Frame frame = freeFrames.poll();
+        if(frame == null){
+            frame = new ProcessorBranch.Frame(freeFrames);
+        }
+        if(frame.pcm == null || frame.pcm.length != pcm.length){
+            frame.pcm = new byte[pcm.length];
+        }
+        System.arraycopy(pcm, 0, frame.pcm, 0, pcm.length);
+        frame.bytesProcessed = bytesProcessed;
+        frame.overlap = audioEvent.getOverlap();
+        frame.dispatchedNanos = System.nanoTime();
+
+        // the dispatcher holds its own reference while offering, so a branch that finishes with the copy
+        // straight away cannot hand it back to the pool before the other branches have it
+        frame.references.set(1);
+        for (final ProcessorBranch branch : branches) {
+            frame.references.incrementAndGet();
+            branch.offer(frame);
+        }
+        frame.release();
+    }
+
+    /**
+     * Stops dispatching audio data. Each branch processes the buffers still queued for it and calls
+     * processingFinished() on its own processors before this returns, or until it times out.
      */
     public void stop() {
         stopped = true;
         for (final AudioProcessor processor : audioProcessors) {
             processor.processingFinished();
         }
+        for (final ProcessorBranch branch : branches) {
+            branch.finish(BRANCH_FINISH_TIMEOUT_MILLIS);
+        }
         try {
             audioInputStream.close();
         } catch (IOException e) {
@@ -373,9 +497,15 @@ public class AudioDispatcher implements Runnable {
             offsetInSamples = floatOverlap;
         }
 
+        // When the whole buffer is read during this call nothing is kept from the previous buffer, so the
+        // conversion to floats is left to the AudioEvent, which only does it if a processor asks for them.
+        final boolean deferConversion = offsetInBytes == 0;
+
         //Shift the audio information using array copy since it is probably faster than manually shifting it.
         // No need to do this on the first buffer
         if(!isFirstBuffer && audioFloatBuffer.length == floatOverlap + floatStepSize ){
+            // the previous buffer may still be waiting to be converted if the overlap was changed since
+            audioEvent.getFloatBuffer();
             System.arraycopy(audioFloatBuffer,floatStepSize, audioFloatBuffer,0 ,floatOverlap);
 			/*
 			for(int i = floatStepSize ; i < floatStepSize+floatOverlap ; i++){
@@ -418,7 +548,9 @@ public class AudioDispatcher implements Runnable {
                 for(int i = offsetInBytes + totalBytesRead; i < audioByteBuffer.length; i++){
                     audioByteBuffer[i] = 0;
                 }
-                converter.toFloatArray(audioByteBuffer, offsetInBytes, audioFloatBuffer, offsetInSamples, floatStepSize);
+                if(!deferConversion){
+                    converter.toFloatArray(audioByteBuffer, offsetInBytes, audioFloatBuffer, offsetInSamples, floatStepSize);
+                }
             }else{
                 // Send a smaller buffer through the chain.
                 byte[] audioByteBufferContent = audioByteBuffer;
@@ -428,13 +560,17 @@ public class AudioDispatcher implements Runnable {
                 }
                 int totalSamplesRead = totalBytesRead/format.getFrameSize();
                 audioFloatBuffer = new float[offsetInSamples + totalBytesRead/format.getFrameSize()];
-                converter.toFloatArray(audioByteBuffer, offsetInBytes, audioFloatBuffer, offsetInSamples, totalSamplesRead);
+                if(!deferConversion){
+                    converter.toFloatArray(audioByteBuffer, offsetInBytes, audioFloatBuffer, offsetInSamples, totalSamplesRead);
+                }
 
 
             }
         }else if(bytesToRead == totalBytesRead) {
             // The expected amount of bytes have been read from the stream.
-            if(isFirstBuffer && !zeroPadFirstBuffer){
+            if(deferConversion){
+                // converted on demand by the AudioEvent
+            }else if(isFirstBuffer && !zeroPadFirstBuffer){
                 converter.toFloatArray(audioByteBuffer, 0, audioFloatBuffer, 0, audioFloatBuffer.length);
             }else{
                 converter.toFloatArray(audioByteBuffer, offsetInBytes, audioFloatBuffer, offsetInSamples, floatStepSize);
@@ -448,7 +584,14 @@ public class AudioDispatcher implements Runnable {
 
 
         // Makes sure AudioEvent contains correct info.
-        audioEvent.setFloatBuffer(audioFloatBuffer);
+        // The byte buffer is not shifted like the float buffer, so it only holds the PCM of the whole
+        // buffer when all of it was read during this call. In that case the bytes are passed through so
+        // writers can skip the float to byte conversion and the level can be measured on the integers.
+        if(deferConversion){
+            audioEvent.setPcmBuffer(audioByteBuffer, audioFloatBuffer);
+        }else{
+            audioEvent.setFloatBuffer(audioFloatBuffer);
+        }
         audioEvent.setOverlap(offsetInSamples);
 
         return totalBytesRead;
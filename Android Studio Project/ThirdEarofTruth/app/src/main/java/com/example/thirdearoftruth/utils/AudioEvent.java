@@ -31,6 +31,16 @@ import be.tarsos.dsp.io.TarsosDSPAudioFormat;
  * An audio event flows through the processing pipeline. The object is reused for performance reasons.
  * The arrays with audio information are also reused, so watch out when using the buffer getter and setters.
  *
+ * The RMS, dB SPL, zero-crossing rate, magnitude spectrum and mel energies of the buffer are calculated at most once per
+ * buffer and shared by every processor in the chain. A processor that changes the samples in place must
+ * call setFloatBuffer() afterwards so that the processors after it do not read stale results.
+ *
+ * When the dispatcher reads a whole buffer at once it hands over the PCM bytes with setPcmBuffer() and
+ * the conversion to floats is only done the first time getFloatBuffer() is called. For 16 bit signed
+ * PCM the RMS and zero-crossing rate are calculated straight from the integer samples, so a chain that
+ * only checks the level of the signal, like the detection gate, never converts a buffer to floats at all.
+ * Every other format is converted before its level is measured.
+ *
  * @author Joren Six
  */
 public class AudioEvent {
@@ -51,6 +61,27 @@ public class AudioEvent {
      */
     private byte[] byteBuffer;
 
+    /**
+     * The PCM bytes the float buffer was converted from, when the dispatcher has them for the whole
+     * buffer. Null if they are not available or the float buffer has been changed since.
+     */
+    private byte[] rawByteBuffer;
+
+    /**
+     * True while the float buffer still has to be filled from rawByteBuffer
+     */
+    private boolean floatConversionPending;
+
+    /**
+     * True if the format is 16 bit signed PCM, for which the RMS can be calculated from the raw bytes
+     */
+    private final boolean pcm16;
+
+    /**
+     * True if the analysis of the current buffer reads the 16 bit PCM bytes, false if it reads the floats
+     */
+    private boolean pcm16Frame;
+
     /**
      * The overlap in samples.
      */
@@ -68,11 +99,19 @@ public class AudioEvent {
 
     private int bytesProcessing;
 
+    /**
+     * The analysis of the current buffer shared by every processor in the chain
+     */
+    private final FrameAnalysis analysis;
+
 
     public AudioEvent(TarsosDSPAudioFormat format){
         this.format = format;
         this.converter = TarsosDSPAudioFloatConverter.getConverter(format);
+        this.pcm16 = format.getSampleSizeInBits() == 16
+                && format.getEncoding() == TarsosDSPAudioFormat.Encoding.PCM_SIGNED;
         this.overlap = 0;
+        this.analysis = new FrameAnalysis();
     }
 
     public float getSampleRate(){
@@ -80,7 +119,7 @@ public class AudioEvent {
     }
 
     public int getBufferSize(){
-        return getFloatBuffer().length;
+        return floatBuffer.length;
     }
 
     /**
@@ -130,12 +169,17 @@ public class AudioEvent {
 
     /**
      * Return a byte array with the audio data in bytes.
-     *  A conversion is done from float, cache accordingly on the other side...
+     * If the original PCM bytes of this buffer are available they are returned as they are, otherwise
+     * a conversion is done from float, cache accordingly on the other side...
+     * The array is reused for every buffer and must not be modified.
      *
      * @return a byte array with the audio data in bytes.
      */
     public byte[] getByteBuffer(){
-        int length = getFloatBuffer().length * format.getFrameSize();
+        int length = floatBuffer.length * format.getFrameSize();
+        if(rawByteBuffer != null && rawByteBuffer.length == length){
+            return rawByteBuffer;
+        }
         if(byteBuffer == null || byteBuffer.length != length){
             byteBuffer = new byte[length];
         }
@@ -143,23 +187,62 @@ public class AudioEvent {
         return byteBuffer;
     }
 
+    /**
+     * Sets the buffer of the current frame. This is also called when the contents of the same array
+     * have changed, so the shared analysis of the previous frame is always discarded here.
+     *
+     * @param floatBuffer the audio data encoded in floats from -1.0 to 1.0
+     */
     public void setFloatBuffer(float[] floatBuffer) {
         this.floatBuffer = floatBuffer;
+        this.rawByteBuffer = null;
+        this.floatConversionPending = false;
+        this.pcm16Frame = false;
+        analysis.setFrame(floatBuffer);
+    }
+
+    /**
+     * Sets the PCM bytes of the current frame without converting them. floatBuffer is only filled from
+     * them when getFloatBuffer() is first called for this frame, and getByteBuffer() passes the bytes
+     * straight through instead of converting the floats back.
+     *
+     * @param rawByteBuffer the PCM bytes of the whole buffer, in the format of this event
+     * @param floatBuffer the array the floats are converted into, one element per sample in rawByteBuffer
+     */
+    public void setPcmBuffer(byte[] rawByteBuffer, float[] floatBuffer) {
+        this.floatBuffer = floatBuffer;
+        this.rawByteBuffer = rawByteBuffer;
+        this.floatConversionPending = true;
+        this.pcm16Frame = pcm16 && rawByteBuffer.length == floatBuffer.length * 2;
+        if (pcm16Frame) {
+            analysis.setPcm16Frame(floatBuffer, rawByteBuffer, format.isBigEndian());
+        } else {
+            analysis.setFrame(floatBuffer);
+        }
     }
 
+    /**
+     * @return the audio data encoded in floats from -1.0 to 1.0, converted from the PCM bytes first if
+     * the dispatcher deferred the conversion
+     */
     public float[] getFloatBuffer(){
+        if(floatConversionPending){
+            converter.toFloatArray(rawByteBuffer, floatBuffer);
+            floatConversionPending = false;
+        }
         return floatBuffer;
     }
 
     /**
-     * Calculates and returns the root mean square of the signal. Please
-     * cache the result since it is calculated every time.
+     * Returns the root mean square of the signal. It is calculated once per buffer and shared by
+     * every processor in the chain.
      * @return The <a
      *         href="http://en.wikipedia.org/wiki/Root_mean_square">RMS</a> of
      *         the signal present in the current buffer.
      */
     public double getRMS() {
-        return calculateRMS(floatBuffer);
+        convertUnlessPcm16();
+        return analysis.getRMS();
     }
 
 
@@ -169,7 +252,56 @@ public class AudioEvent {
      * @return The dBSPL level for the buffer.
      */
     public double getdBSPL() {
-        return soundPressureLevel(floatBuffer);
+        convertUnlessPcm16();
+        return analysis.getdBSPL();
+    }
+
+    /**
+     * Returns the zero-crossing rate of the buffer, calculated once per buffer and shared by every
+     * processor in the chain. Like TarsosDSP's ZeroCrossingRateProcessor, a crossing is a change of
+     * sign between two consecutive samples, with zero counted as positive.
+     *
+     * @return the number of crossings divided by the number of pairs of consecutive samples
+     */
+    public double getZeroCrossingRate() {
+        convertUnlessPcm16();
+        return analysis.getZeroCrossingRate();
+    }
+
+    /**
+     * Fills the float buffer before an analysis that reads it. Only 16 bit signed PCM is analysed
+     * straight from the bytes, any other format, or a buffer whose bytes do not cover every sample, is
+     * analysed from the floats.
+     */
+    private void convertUnlessPcm16() {
+        if (!pcm16Frame) {
+            getFloatBuffer();
+        }
+    }
+
+    /**
+     * Returns the magnitude spectrum of the Hamming windowed buffer, laid out in the same way as
+     * MFCC.magnitudeSpectrum(). The FFT is run once per buffer and shared by every processor in the chain.
+     * The array is reused for every buffer and must not be modified.
+     *
+     * @return the magnitude spectrum of the current buffer
+     */
+    public float[] getMagnitudeSpectrum() {
+        getFloatBuffer();
+        return analysis.getMagnitudeSpectrum();
+    }
+
+    /**
+     * Returns the output of the triangular mel filters with the given FFT bin centre frequencies,
+     * applied to the shared magnitude spectrum. Calculated once per buffer for a given filter bank.
+     * The array is reused for every buffer and must not be modified.
+     *
+     * @param centerFrequencies the filter bank, see MFCC.getCenterFrequencies()
+     * @return the mel energies of the current buffer
+     */
+    public float[] getMelEnergies(int[] centerFrequencies) {
+        getFloatBuffer();
+        return analysis.getMelEnergies(centerFrequencies);
     }
 
     /**
@@ -190,20 +322,81 @@ public class AudioEvent {
         return rms;
     }
 
-    public void clearFloatBuffer() {
-        Arrays.fill(floatBuffer, 0);
+    /**
+     * Calculates the root mean square of 16 bit signed PCM without converting it to floats. The squares
+     * are summed as integers in a long, which cannot overflow for any realistic buffer size, and the result
+     * is scaled by the same 1/32767 as the float conversion so it can be compared with calculateRMS().
+     *
+     * @param pcm the PCM, 2 bytes per sample
+     * @param samples the number of samples to use from the start of pcm
+     * @param bigEndian the byte order of the PCM
+     * @return the RMS of the samples, from 0.0 to about 1.0
+     */
+    public static double calculatePcm16RMS(byte[] pcm, int samples, boolean bigEndian){
+        if(samples == 0){
+            return 0.0;
+        }
+        long sumOfSquares = 0;
+        int high = bigEndian ? 0 : 1;
+        int low = 1 - high;
+        for (int i = 0, b = 0; i < samples; i++, b += 2) {
+            int sample = (pcm[b + high] << 8) | (pcm[b + low] & 0xFF);
+            sumOfSquares += sample * sample;
+        }
+        return Math.sqrt((double) sumOfSquares / samples) / 32767.0;
     }
 
     /**
-     * Returns the dBSPL for a buffer.
+     * Calculates the zero-crossing rate of a buffer of floats.
      *
-     * @param buffer
-     *            The buffer with audio information.
-     * @return The dBSPL level for the buffer.
+     * @param floatBuffer the audio buffer
+     * @return the number of sign changes divided by the number of pairs of consecutive samples
+     */
+    public static double calculateZeroCrossingRate(float[] floatBuffer){
+        if(floatBuffer.length < 2){
+            return 0.0;
+        }
+        int crossings = 0;
+        for (int i = 1; i < floatBuffer.length; i++) {
+            if ((floatBuffer[i] >= 0) != (floatBuffer[i - 1] >= 0)) {
+                crossings++;
+            }
+        }
+        return crossings / (double) (floatBuffer.length - 1);
+    }
+
+    /**
+     * Calculates the zero-crossing rate of 16 bit signed PCM without converting it to floats. Only the
+     * sign bit of each sample is read, and the conversion to floats keeps the sign, so the result is the
+     * same as calculateZeroCrossingRate() on the converted buffer.
+     *
+     * @param pcm the PCM, 2 bytes per sample
+     * @param samples the number of samples to use from the start of pcm
+     * @param bigEndian the byte order of the PCM
+     * @return the number of sign changes divided by the number of pairs of consecutive samples
      */
-    private static double soundPressureLevel(final float[] buffer) {
-        double rms = calculateRMS(buffer);
-        return linearToDecibel(rms);
+    public static double calculatePcm16ZeroCrossingRate(byte[] pcm, int samples, boolean bigEndian){
+        if(samples < 2){
+            return 0.0;
+        }
+        int high = bigEndian ? 0 : 1;
+        int crossings = 0;
+        boolean previousNegative = pcm[high] < 0;
+        for (int b = 2 + high; b < samples * 2; b += 2) {
+            boolean negative = pcm[b] < 0;
+            if (negative != previousNegative) {
+                crossings++;
+            }
+            previousNegative = negative;
+        }
+        return crossings / (double) (samples - 1);
+    }
+
+    public void clearFloatBuffer() {
+        Arrays.fill(floatBuffer, 0);
+        rawByteBuffer = null;
+        floatConversionPending = false;
+        analysis.setFrame(floatBuffer);
     }
 
     /**
@@ -213,12 +406,12 @@ public class AudioEvent {
      *            The value to convert.
      * @return The converted value.
      */
-    private static double linearToDecibel(final double value) {
+    static double linearToDecibel(final double value) {
         return 20.0 * Math.log10(value);
     }
 
     public boolean isSilence(double silenceThreshold) {
-        return soundPressureLevel(floatBuffer) < silenceThreshold;
+        return getdBSPL() < silenceThreshold;
     }
 
     public void setBytesProcessing(int bytesProcessing) {
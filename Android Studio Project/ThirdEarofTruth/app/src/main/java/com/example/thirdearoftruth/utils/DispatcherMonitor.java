@@ -0,0 +1,299 @@
+package com.example.thirdearoftruth.utils;
+
+import com.example.thirdearoftruth.metrics.Counter;
+import com.example.thirdearoftruth.metrics.LatencyHistogram;
+import com.example.thirdearoftruth.metrics.MetricsRegistry;
+
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import be.tarsos.dsp.io.TarsosDSPAudioFormat;
+
+/**
+ * Times every iteration of an AudioDispatcher's chain against the time one buffer of audio lasts, and
+ * watches the sample clock for audio the stream lost while the chain was late.
+ *
+ * A live stream must be read as fast as it is captured. At 44.1 kHz with 2048 sample buffers and no
+ * overlap a buffer lasts about 46 ms, and every processor of the chain together must finish within that
+ * budget. An iteration that takes longer is an overrun, and the processor that took longest in it is
+ * blamed. An occasional overrun is absorbed by the buffer of the recorder behind the stream, but once that
+ * fills the recorder drops audio, which the dispatcher cannot see as it counts the samples it reads rather
+ * than the samples captured.
+ *
+ * Gaps are found by comparing the sample clock with the wall clock instead. Reading a live stream blocks
+ * until the audio has been captured, so the wall time since the first read stays close to the duration of
+ * the samples read, and when audio is dropped the wall clock jumps ahead by the length of the gap. The
+ * smallest difference seen so far is the baseline, so a stream read faster than real time, such as a
+ * recording, never reports a gap. A late chain also puts the wall clock ahead for a while, but the reads
+ * that follow return the audio the recorder held straight away and it falls back, so a gap is only
+ * reported once the wall clock has stayed ahead without falling back for GAP_CONFIRM_READS reads in a
+ * row, by however far it is ahead then.
+ *
+ * Everything is recorded on the dispatcher's thread without allocating and can be read from any thread,
+ * which is how the DispatcherWatchdog notices a dispatcher that has stopped making progress.
+ */
+public class DispatcherMonitor {
+
+    private static final Logger LOG = Logger.getLogger(DispatcherMonitor.class.getName());
+
+    private static final Counter OVERRUNS = MetricsRegistry.getInstance().counter(
+            "thirdear_dispatcher_overruns_total", "Iterations of the dispatcher's chain longer than a buffer lasts");
+    private static final Counter GAPS = MetricsRegistry.getInstance().counter(
+            "thirdear_dispatcher_gaps_total", "Gaps in the stream found from the sample clock");
+    private static final Counter SAMPLES_LOST = MetricsRegistry.getInstance().counter(
+            "thirdear_dispatcher_samples_lost_total", "Samples estimated to be lost in gaps of the stream");
+    private static final LatencyHistogram ITERATION_TIME = MetricsRegistry.getInstance().histogram(
+            "thirdear_dispatcher_iteration_seconds", "Time each iteration of the dispatcher's chain takes");
+
+    /**
+     * The number of buffers the wall clock may run ahead of the sample clock before a gap is reported, which
+     * allows for the jitter of a blocking read
+     */
+    static final int GAP_TOLERANCE_BUFFERS = 2;
+
+    /**
+     * The number of reads in a row the wall clock must stay ahead without falling back before a gap is
+     * reported
+     */
+    static final int GAP_CONFIRM_READS = 3;
+
+    /**
+     * The shortest time between two warnings about overruns, so a slow chain does not flood the log
+     */
+    private static final long OVERRUN_LOG_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    /**
+     * The value of a time that has not been recorded yet
+     */
+    public static final long NOT_STARTED = Long.MIN_VALUE;
+
+    private final float sampleRate;
+
+    /**
+     * The time one step of the dispatcher lasts, which every iteration of its chain must finish within
+     */
+    private volatile long budgetNanos;
+
+    // Only touched on the dispatcher's thread
+    private long iterationStartNanos;
+    private AudioProcessor slowestProcessor;
+    private long slowestProcessorNanos;
+    private long lastOverrunLogNanos = NOT_STARTED;
+    private long firstReadNanos = NOT_STARTED;
+    private long firstSampleClock;
+    private long baselineDriftNanos;
+    private int gapReads;
+    private long gapAheadNanos;
+
+    private volatile long lastProgressNanos = NOT_STARTED;
+    private volatile long iterations;
+    private volatile long overruns;
+    private volatile long maxIterationNanos;
+    private volatile AudioProcessor worstProcessor;
+    private volatile long worstProcessorNanos;
+    private volatile long gaps;
+    private volatile long samplesLost;
+
+    /**
+     * @param format the format of the dispatcher's stream
+     * @param stepSize the number of new samples in each buffer, the buffer size minus the overlap
+     */
+    public DispatcherMonitor(TarsosDSPAudioFormat format, int stepSize) {
+        this.sampleRate = format.getSampleRate();
+        setStepSize(stepSize);
+    }
+
+    /**
+     * @param stepSize the number of new samples in each buffer, the buffer size minus the overlap
+     */
+    void setStepSize(int stepSize) {
+        budgetNanos = (long) (stepSize * 1e9 / sampleRate);
+    }
+
+    /**
+     * Called on the dispatcher's thread each time a block has been read from the stream.
+     *
+     * @param sampleClock the position in the stream, in samples, of the end of the block
+     */
+    void blockRead(long sampleClock) {
+        long now = System.nanoTime();
+        lastProgressNanos = now;
+        if (firstReadNanos == NOT_STARTED) {
+            firstReadNanos = now;
+            firstSampleClock = sampleClock;
+            return;
+        }
+
+        long audioNanos = (long) ((sampleClock - firstSampleClock) * 1e9 / sampleRate);
+        long drift = (now - firstReadNanos) - audioNanos;
+        long ahead = drift - baselineDriftNanos;
+        if (ahead < 0) {
+            baselineDriftNanos = drift;
+            gapReads = 0;
+        } else if (ahead <= GAP_TOLERANCE_BUFFERS * budgetNanos) {
+            gapReads = 0;
+        } else {
+            // while the reads still return audio the recorder held, the wall clock keeps falling back
+            boolean catchingUp = gapReads > 0 && ahead < gapAheadNanos - budgetNanos / 2;
+            gapReads = catchingUp ? 1 : gapReads + 1;
+            gapAheadNanos = ahead;
+            if (gapReads < GAP_CONFIRM_READS) {
+                return;
+            }
+            long lost = (long) (ahead * sampleRate / 1e9);
+            gaps++;
+            samplesLost += lost;
+            GAPS.increment();
+            SAMPLES_LOST.add(lost);
+            // the audio after the gap is on time again
+            baselineDriftNanos += ahead;
+            gapReads = 0;
+            LOG.warning("Gap in the stream before sample " + sampleClock + ": about " + lost
+                    + " samples (" + (long) (lost * 1000 / sampleRate) + "ms) were lost");
+        }
+    }
+
+    /**
+     * Called on the dispatcher's thread before the first processor of an iteration.
+     *
+     * @return the time the iteration started, to pass to processorFinished()
+     */
+    long startIteration() {
+        slowestProcessor = null;
+        slowestProcessorNanos = 0;
+        iterationStartNanos = System.nanoTime();
+        return iterationStartNanos;
+    }
+
+    /**
+     * Called on the dispatcher's thread after each processor of an iteration.
+     *
+     * @param processor the processor that has just finished
+     * @param startNanos the time it started
+     * @return the time it finished, which the next processor starts at
+     */
+    long processorFinished(AudioProcessor processor, long startNanos) {
+        long now = System.nanoTime();
+        if (now - startNanos > slowestProcessorNanos) {
+            slowestProcessorNanos = now - startNanos;
+            slowestProcessor = processor;
+        }
+        return now;
+    }
+
+    /**
+     * Called on the dispatcher's thread once the buffer has been through the chain and handed to the
+     * branches.
+     */
+    void endIteration() {
+        long now = System.nanoTime();
+        long elapsed = now - iterationStartNanos;
+        lastProgressNanos = now;
+        iterations++;
+        ITERATION_TIME.record(elapsed);
+        if (elapsed > maxIterationNanos) {
+            maxIterationNanos = elapsed;
+        }
+        if (elapsed <= budgetNanos) {
+            return;
+        }
+
+        overruns++;
+        OVERRUNS.increment();
+        if (slowestProcessorNanos > worstProcessorNanos) {
+            worstProcessorNanos = slowestProcessorNanos;
+            worstProcessor = slowestProcessor;
+        }
+        if (lastOverrunLogNanos == NOT_STARTED || now - lastOverrunLogNanos >= OVERRUN_LOG_INTERVAL_NANOS) {
+            lastOverrunLogNanos = now;
+            LOG.warning("Overrun: iteration took " + TimeUnit.NANOSECONDS.toMicros(elapsed) + "us of a "
+                    + TimeUnit.NANOSECONDS.toMicros(budgetNanos) + "us budget, "
+                    + (slowestProcessor == null ? "no processor"
+                    : nameOf(slowestProcessor) + " took " + TimeUnit.NANOSECONDS.toMicros(slowestProcessorNanos) + "us")
+                    + " (" + overruns + " overruns so far)");
+        }
+    }
+
+    /**
+     * @return the time one buffer lasts, which every iteration must finish within
+     */
+    public long getBudgetNanos() {
+        return budgetNanos;
+    }
+
+    /**
+     * @return the System.nanoTime() the dispatcher last read a block or finished an iteration, or
+     * NOT_STARTED before the first read
+     */
+    public long getLastProgressNanos() {
+        return lastProgressNanos;
+    }
+
+    /**
+     * @return the number of iterations of the chain
+     */
+    public long getIterations() {
+        return iterations;
+    }
+
+    /**
+     * @return the number of iterations that took longer than a buffer lasts
+     */
+    public long getOverruns() {
+        return overruns;
+    }
+
+    /**
+     * @return the longest iteration of the chain
+     */
+    public long getMaxIterationNanos() {
+        return maxIterationNanos;
+    }
+
+    /**
+     * @return the processor that took the longest in any overrun, or null if there has not been one
+     */
+    public AudioProcessor getWorstProcessor() {
+        return worstProcessor;
+    }
+
+    /**
+     * @return the time the worst processor took in its overrun
+     */
+    public long getWorstProcessorNanos() {
+        return worstProcessorNanos;
+    }
+
+    /**
+     * @return the number of gaps found in the stream
+     */
+    public long getGaps() {
+        return gaps;
+    }
+
+    /**
+     * @return the estimated number of samples lost in the gaps
+     */
+    public long getSamplesLost() {
+        return samplesLost;
+    }
+
+    /**
+     * @return the class name of a processor, or of the class an anonymous processor is declared in
+     */
+    static String nameOf(AudioProcessor processor) {
+        String name = processor.getClass().getSimpleName();
+        return name.isEmpty() ? processor.getClass().getName() : name;
+    }
+
+    @Override
+    public String toString() {
+        AudioProcessor worst = worstProcessor;
+        return "Dispatcher: " + iterations + " iterations, max " + TimeUnit.NANOSECONDS.toMicros(maxIterationNanos)
+                + "us of a " + TimeUnit.NANOSECONDS.toMicros(budgetNanos) + "us budget, " + overruns + " overruns"
+                + (worst == null ? "" : " (worst " + nameOf(worst) + " "
+                + TimeUnit.NANOSECONDS.toMicros(worstProcessorNanos) + "us)")
+                + ", " + gaps + " gaps, " + samplesLost + " samples lost";
+    }
+
+}
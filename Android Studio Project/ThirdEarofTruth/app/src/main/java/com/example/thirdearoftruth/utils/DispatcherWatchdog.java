@@ -0,0 +1,124 @@
+package com.example.thirdearoftruth.utils;
+
+import com.example.thirdearoftruth.metrics.Counter;
+import com.example.thirdearoftruth.metrics.MetricsRegistry;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Checks from its own thread that an AudioDispatcher is still making progress, and flags its thread as
+ * stalled when it has neither read a block nor finished an iteration for longer than the stall timeout,
+ * for example because a processor is stuck or the recorder behind the stream has stopped delivering audio.
+ *
+ * A stall is logged once, with the stack of the dispatcher's thread so that the place it is stuck can be
+ * seen, and again when the dispatcher recovers.
+ */
+public class DispatcherWatchdog {
+
+    private static final Logger LOG = Logger.getLogger(DispatcherWatchdog.class.getName());
+
+    private static final Counter STALLS = MetricsRegistry.getInstance().counter(
+            "thirdear_dispatcher_stalls_total", "Times the dispatcher's thread stopped making progress");
+
+    private final AudioDispatcher dispatcher;
+    private final long stallTimeoutNanos;
+    private ScheduledExecutorService executor;
+
+    private volatile boolean stalled;
+    private volatile long stalls;
+
+    /**
+     * @param dispatcher the dispatcher to watch
+     * @param stallTimeoutMillis the longest the dispatcher may go without making progress
+     */
+    public DispatcherWatchdog(AudioDispatcher dispatcher, long stallTimeoutMillis) {
+        this.dispatcher = dispatcher;
+        this.stallTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(stallTimeoutMillis);
+    }
+
+    /**
+     * Starts checking the dispatcher twice every stall timeout
+     */
+    public synchronized void start() {
+        if (executor != null) {
+            return;
+        }
+        executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "Dispatcher Watchdog");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        long period = Math.max(1, stallTimeoutNanos / 2);
+        executor.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                check();
+            }
+        }, period, period, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Stops checking the dispatcher
+     */
+    public synchronized void stop() {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+
+    /**
+     * Checks the dispatcher once
+     */
+    void check() {
+        long lastProgress = dispatcher.getMonitor().getLastProgressNanos();
+        if (dispatcher.isStopped() || lastProgress == DispatcherMonitor.NOT_STARTED) {
+            return;
+        }
+
+        long sinceProgress = System.nanoTime() - lastProgress;
+        if (sinceProgress > stallTimeoutNanos && !stalled) {
+            stalled = true;
+            stalls++;
+            STALLS.increment();
+            LOG.warning("Dispatcher has made no progress for " + TimeUnit.NANOSECONDS.toMillis(sinceProgress)
+                    + "ms" + stackOf(dispatcher.getThread()));
+        } else if (sinceProgress <= stallTimeoutNanos && stalled) {
+            stalled = false;
+            LOG.info("Dispatcher is making progress again");
+        }
+    }
+
+    /**
+     * @return true while the dispatcher is stalled
+     */
+    public boolean isStalled() {
+        return stalled;
+    }
+
+    /**
+     * @return the number of times the dispatcher has stalled
+     */
+    public long getStalls() {
+        return stalls;
+    }
+
+    private static String stackOf(Thread thread) {
+        if (thread == null) {
+            return "";
+        }
+        StringBuilder builder = new StringBuilder(", ").append(thread.getName()).append(" is at:");
+        for (StackTraceElement element : thread.getStackTrace()) {
+            builder.append("\n\tat ").append(element);
+        }
+        return builder.toString();
+    }
+
+}
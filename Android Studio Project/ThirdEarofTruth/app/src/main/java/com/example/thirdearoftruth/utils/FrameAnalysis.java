@@ -0,0 +1,166 @@
+package com.example.thirdearoftruth.utils;
+
+import be.tarsos.dsp.util.fft.FFT;
+import be.tarsos.dsp.util.fft.HammingWindow;
+
+/**
+ * The analysis of a single buffer that is shared by every AudioProcessor in the AudioDispatcher chain.
+ *
+ * Each value is calculated the first time a processor asks for it and is then reused by every other
+ * processor that reads the same buffer, so the sum of squares is computed once per buffer instead of once
+ * per getRMS(), isSilence() and getdBSPL() call, and the FFT is run once per buffer instead of once per
+ * processor that needs a spectrum. The AudioEvent clears the cache whenever setFloatBuffer() is called.
+ *
+ * The arrays returned are reused for every buffer and must not be modified by the caller.
+ *
+ * Like the AudioEvent it belongs to, an instance is only meant to be used from the thread running the
+ * processing chain.
+ */
+final class FrameAnalysis {
+
+    /**
+     * The buffer currently being analysed
+     */
+    private float[] frame;
+
+    /**
+     * The 16 bit signed PCM the buffer is converted from, or null if it is not available. When present the
+     * RMS is calculated from these integers so it does not depend on the float conversion having happened.
+     */
+    private byte[] pcm16;
+    private boolean pcm16BigEndian;
+
+    private boolean rmsCalculated;
+    private double rms;
+
+    private boolean zeroCrossingRateCalculated;
+    private double zeroCrossingRate;
+
+    private boolean spectrumCalculated;
+
+    /**
+     * Scratch copy of the buffer, the FFT transforms in place and the buffer itself must not change
+     */
+    private float[] fftBuffer;
+
+    /**
+     * Same layout as MFCC.magnitudeSpectrum(): the magnitudes mirrored around the centre of the array
+     */
+    private float[] magnitudeSpectrum;
+
+    /**
+     * Hamming windowed FFT the size of the buffer, recreated only if the buffer size changes
+     */
+    private FFT fft;
+
+    private boolean melEnergiesCalculated;
+
+    /**
+     * The filter bank the cached mel energies were calculated with
+     */
+    private int[] melCenterFrequencies;
+    private float[] melEnergies;
+
+
+    /**
+     * Start analysing a new buffer, discarding everything calculated for the previous one.
+     *
+     * @param frame the buffer of the new frame
+     */
+    void setFrame(float[] frame) {
+        this.frame = frame;
+        pcm16 = null;
+        rmsCalculated = false;
+        zeroCrossingRateCalculated = false;
+        spectrumCalculated = false;
+        melEnergiesCalculated = false;
+    }
+
+    /**
+     * Start analysing a new buffer whose samples are also available as 16 bit signed PCM, discarding
+     * everything calculated for the previous one.
+     *
+     * @param frame the buffer of the new frame, which may not have been converted from the PCM yet
+     * @param pcm16 the PCM of the whole buffer, 2 bytes per sample
+     * @param bigEndian the byte order of the PCM
+     */
+    void setPcm16Frame(float[] frame, byte[] pcm16, boolean bigEndian) {
+        setFrame(frame);
+        this.pcm16 = pcm16;
+        this.pcm16BigEndian = bigEndian;
+    }
+
+    /**
+     * @return the root mean square of the buffer
+     */
+    double getRMS() {
+        if (!rmsCalculated) {
+            rms = pcm16 != null
+                    ? AudioEvent.calculatePcm16RMS(pcm16, frame.length, pcm16BigEndian)
+                    : AudioEvent.calculateRMS(frame);
+            rmsCalculated = true;
+        }
+        return rms;
+    }
+
+    /**
+     * @return the fraction of consecutive samples in the buffer whose sign differs
+     */
+    double getZeroCrossingRate() {
+        if (!zeroCrossingRateCalculated) {
+            zeroCrossingRate = pcm16 != null
+                    ? AudioEvent.calculatePcm16ZeroCrossingRate(pcm16, frame.length, pcm16BigEndian)
+                    : AudioEvent.calculateZeroCrossingRate(frame);
+            zeroCrossingRateCalculated = true;
+        }
+        return zeroCrossingRate;
+    }
+
+    /**
+     * @return the dB SPL of the buffer
+     */
+    double getdBSPL() {
+        return AudioEvent.linearToDecibel(getRMS());
+    }
+
+    /**
+     * @return the magnitude spectrum of the Hamming windowed buffer
+     */
+    float[] getMagnitudeSpectrum() {
+        if (!spectrumCalculated) {
+            int length = frame.length;
+            if (fft == null || fftBuffer.length != length) {
+                fft = new FFT(length, new HammingWindow());
+                fftBuffer = new float[length];
+                magnitudeSpectrum = new float[length];
+            }
+            System.arraycopy(frame, 0, fftBuffer, 0, length);
+            fft.forwardTransform(fftBuffer);
+            for (int k = 0; k < length / 2; k++) {
+                magnitudeSpectrum[length / 2 + k] = fft.modulus(fftBuffer, length / 2 - 1 - k);
+                magnitudeSpectrum[length / 2 - 1 - k] = magnitudeSpectrum[length / 2 + k];
+            }
+            spectrumCalculated = true;
+        }
+        return magnitudeSpectrum;
+    }
+
+    /**
+     * @param centerFrequencies the FFT bin indices of the triangular mel filters, see
+     *                          MFCC.getCenterFrequencies()
+     * @return the output of each mel filter applied to the magnitude spectrum
+     */
+    float[] getMelEnergies(int[] centerFrequencies) {
+        if (!melEnergiesCalculated || melCenterFrequencies != centerFrequencies) {
+            int amountOfMelFilters = centerFrequencies.length - 2;
+            if (melEnergies == null || melEnergies.length != amountOfMelFilters) {
+                melEnergies = new float[amountOfMelFilters];
+            }
+            MFCC.melFilter(getMagnitudeSpectrum(), centerFrequencies, melEnergies);
+            melCenterFrequencies = centerFrequencies;
+            melEnergiesCalculated = true;
+        }
+        return melEnergies;
+    }
+
+}
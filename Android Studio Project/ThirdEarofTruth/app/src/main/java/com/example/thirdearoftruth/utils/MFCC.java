@@ -23,8 +23,6 @@
 
 package com.example.thirdearoftruth.utils;
 
-import be.tarsos.dsp.AudioEvent;
-import be.tarsos.dsp.AudioProcessor;
 import be.tarsos.dsp.util.fft.FFT;
 import be.tarsos.dsp.util.fft.HammingWindow;
 
@@ -36,45 +34,65 @@ public class MFCC implements AudioProcessor {
     protected float lowerFilterFreq; //lower limit of filter (or 64 Hz?)
     protected float upperFilterFreq; //upper limit of filter (or half of sampling freq.?)
 
-    float[] audioFloatBuffer;
     //Er zijn evenveel mfccs als er frames zijn!?
     //Per frame zijn er dan CEPSTRA coëficienten
     private float[] mfcc;
 
+    /**
+     * The log of each mel filter's output for the current frame, reused for every frame
+     */
+    private final float[] logMelEnergies;
+
     int centerFrequencies[];
 
     private FFT fft;
     private int samplesPerFrame;
     private float sampleRate;
 
+    /**
+     * If true the filter bank is laid out exactly as TarsosDSP's be.tarsos.dsp.mfcc.MFCC lays it out,
+     * which stores each centre frequency one slot early. Every Acoustic Event stored in the database
+     * (including the default events) was extracted that way, so new features must be extracted the same
+     * way to be comparable with them.
+     */
+    private final boolean tarsosFilterBank;
+
     public MFCC(int samplesPerFrame, int sampleRate){
         this(samplesPerFrame, sampleRate, 30, 30, 133.3334f, ((float)sampleRate)/2f);
     }
 
     public MFCC(int samplesPerFrame, float sampleRate, int amountOfCepstrumCoef, int amountOfMelFilters, float lowerFilterFreq, float upperFilterFreq) {
+        this(samplesPerFrame, sampleRate, amountOfCepstrumCoef, amountOfMelFilters, lowerFilterFreq, upperFilterFreq, false);
+    }
+
+    /**
+     * @param tarsosFilterBank true to produce the same coefficients as TarsosDSP's MFCC, which the
+     *                         Acoustic Events in the database were extracted with
+     */
+    public MFCC(int samplesPerFrame, float sampleRate, int amountOfCepstrumCoef, int amountOfMelFilters, float lowerFilterFreq, float upperFilterFreq, boolean tarsosFilterBank) {
         this.samplesPerFrame = samplesPerFrame;
         this.sampleRate = sampleRate;
         this.amountOfCepstrumCoef = amountOfCepstrumCoef;
         this.amountOfMelFilters = amountOfMelFilters;
+        this.tarsosFilterBank = tarsosFilterBank;
         this.fft = new FFT(samplesPerFrame, new HammingWindow());
 
         this.lowerFilterFreq = Math.max(lowerFilterFreq, 25);
         this.upperFilterFreq = Math.min(upperFilterFreq, sampleRate / 2);
         calculateFilterBanks();
+
+        this.logMelEnergies = new float[amountOfMelFilters];
+        this.mfcc = new float[amountOfCepstrumCoef];
     }
 
     @Override
     public boolean process(AudioEvent audioEvent) {
-        audioFloatBuffer = audioEvent.getFloatBuffer().clone();
-
-        // Magnitude Spectrum
-        float bin[] = magnitudeSpectrum(audioFloatBuffer);
-        // get Mel Filterbank
-        float fbank[] = melFilter(bin, centerFrequencies);
+        // Magnitude Spectrum and Mel Filterbank, shared with every other processor reading this buffer
+        float fbank[] = audioEvent.getMelEnergies(centerFrequencies);
         // Non-linear transformation
-        float f[] = nonLinearTransformation(fbank);
-        // Cepstral coefficients
-        mfcc = cepCoefficients(f);
+        nonLinearTransformation(fbank, logMelEnergies);
+        // Cepstral coefficients, written over those of the previous frame so no frame allocates
+        cepCoefficients(logMelEnergies, mfcc);
 
         return true;
     }
@@ -127,7 +145,7 @@ public class MFCC implements AudioProcessor {
         //Calculates te centerfrequencies.
         for (int i = 1; i <= amountOfMelFilters; i++) {
             float fc = (inverseMel(mel[0] + factor * i) / sampleRate) * samplesPerFrame;
-            centerFrequencies[i] = Math.round(fc);
+            centerFrequencies[tarsosFilterBank ? i - 1 : i] = Math.round(fc);
         }
 
     }
@@ -142,6 +160,16 @@ public class MFCC implements AudioProcessor {
      */
     public float[] nonLinearTransformation(float fbank[]){
         float f[] = new float[fbank.length];
+        nonLinearTransformation(fbank, f);
+        return f;
+    }
+
+    /**
+     * The natural log of the output of mel filtering, into an existing array
+     * @param fbank Output of mel filtering
+     * @param f Natural log of the output of mel filtering, as long as fbank
+     */
+    public static void nonLinearTransformation(float fbank[], float f[]){
         final float FLOOR = -50;
 
         for (int i = 0; i < fbank.length; i++){
@@ -150,8 +178,6 @@ public class MFCC implements AudioProcessor {
             // check if ln() returns a value less than the floor
             if (f[i] < FLOOR) f[i] = FLOOR;
         }
-
-        return f;
     }
 
     /**
@@ -162,7 +188,20 @@ public class MFCC implements AudioProcessor {
      * @return Output of mel filter.
      */
     public float[] melFilter(float bin[], int centerFrequencies[]) {
-        float temp[] = new float[amountOfMelFilters + 2];
+        float fbank[] = new float[amountOfMelFilters];
+        melFilter(bin, centerFrequencies, fbank);
+        return fbank;
+    }
+
+    /**
+     * Calculate the output of the mel filter into an existing array, one value for each filter between
+     * the first and last centre frequency.
+     * @param bin The bins.
+     * @param centerFrequencies  The frequency centers.
+     * @param fbank Output of mel filter, centerFrequencies.length - 2 long.
+     */
+    public static void melFilter(float bin[], int centerFrequencies[], float fbank[]) {
+        int amountOfMelFilters = centerFrequencies.length - 2;
 
         for (int k = 1; k <= amountOfMelFilters; k++) {
             float num1 = 0, num2 = 0;
@@ -180,16 +219,8 @@ public class MFCC implements AudioProcessor {
                 num2 += bin[i] * (1 - ((i - centerFrequencies[k]) / den));
             }
 
-            temp[k] = num1 + num2;
+            fbank[k - 1] = num1 + num2;
         }
-
-        float fbank[] = new float[amountOfMelFilters];
-
-        for (int i = 0; i < amountOfMelFilters; i++) {
-            fbank[i] = temp[i + 1];
-        }
-
-        return fbank;
     }
 
 
@@ -202,14 +233,23 @@ public class MFCC implements AudioProcessor {
      */
     public float[] cepCoefficients(float f[]){
         float cepc[] = new float[amountOfCepstrumCoef];
+        cepCoefficients(f, cepc);
+        return cepc;
+    }
 
+    /**
+     * Cepstral coefficients into an existing array, whose previous values are overwritten
+     * @param f Output of the Non-linear Transformation method
+     * @param cepc Cepstral Coefficients, one for each coefficient wanted
+     */
+    public static void cepCoefficients(float f[], float cepc[]){
         for (int i = 0; i < cepc.length; i++){
+            float sum = 0;
             for (int j = 0; j < f.length; j++){
-                cepc[i] += f[j] * Math.cos(Math.PI * i / f.length * (j + 0.5));
+                sum += f[j] * Math.cos(Math.PI * i / f.length * (j + 0.5));
             }
+            cepc[i] = sum;
         }
-
-        return cepc;
     }
 
 //    /**
@@ -264,6 +304,14 @@ public class MFCC implements AudioProcessor {
         return mfcc.clone();
     }
 
+    /**
+     * Copies the MFCCs of the last frame processed into an existing array, without allocating a copy
+     * @param destination at least as long as the number of cepstral coefficients
+     */
+    public void getMFCC(float[] destination) {
+        System.arraycopy(mfcc, 0, destination, 0, mfcc.length);
+    }
+
     public int[] getCenterFrequencies() {
         return centerFrequencies;
     }
@@ -0,0 +1,296 @@
+package com.example.thirdearoftruth.utils;
+
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+import be.tarsos.dsp.io.TarsosDSPAudioFormat;
+
+/**
+ * A chain of AudioProcessors that runs on its own thread, next to the chain of the AudioDispatcher it is
+ * added to. Independent work such as writing the audio to a file, extracting features and metering the
+ * level can each be put in a branch so that none of them hold up the others or the reading of the stream.
+ *
+ * For every buffer the dispatcher makes a single immutable copy of the PCM, shared by every branch, and
+ * offers it to each branch's bounded queue. A branch wraps the copy in its own AudioEvent, so the floats,
+ * RMS and spectrum are calculated on the branch's thread. When its queue is full a branch either makes the
+ * dispatcher wait, for processors that must see every buffer like a writer, or drops the buffer, for
+ * processors that only need the latest ones like a level meter.
+ *
+ * The processors of a branch are only ever called from the branch's thread, including
+ * processingFinished(), which is called once the dispatcher has stopped and every queued buffer has been
+ * processed. The latency from the dispatcher reading a buffer to the branch finishing with it and the
+ * depth of the queue are kept for each branch and can be read from any thread.
+ */
+public class ProcessorBranch implements Runnable {
+
+    private static final Logger LOG = Logger.getLogger(ProcessorBranch.class.getName());
+
+    /**
+     * How long the dispatcher waits on a full queue before checking that the branch is still running
+     */
+    private static final long OFFER_POLL_MILLIS = 100;
+
+    /**
+     * An immutable copy of one buffer read by the dispatcher, shared by every branch. It is handed back to
+     * the dispatcher's pool once every branch it was offered to has finished with it.
+     */
+    static final class Frame {
+
+        /**
+         * Marks the end of the stream in a branch's queue
+         */
+        static final Frame END = new Frame(null);
+
+        byte[] pcm;
+        long bytesProcessed;
+        int overlap;
+        long dispatchedNanos;
+
+        /**
+         * The number of branches still to finish with this frame
+         */
+        final AtomicInteger references = new AtomicInteger();
+
+        private final ConcurrentLinkedQueue<Frame> pool;
+
+        Frame(ConcurrentLinkedQueue<Frame> pool) {
+            this.pool = pool;
+        }
+
+        void release() {
+            if (references.decrementAndGet() == 0 && pool != null) {
+                pool.offer(this);
+            }
+        }
+    }
+
+    private final String name;
+
+    /**
+     * The processors of this branch, run in order on the branch's thread
+     */
+    private final List<AudioProcessor> audioProcessors = new CopyOnWriteArrayList<AudioProcessor>();
+
+    private final ArrayBlockingQueue<Frame> queue;
+
+    /**
+     * If true a buffer is dropped when the queue is full, otherwise the dispatcher waits for space
+     */
+    private final boolean dropWhenFull;
+
+    private AudioEvent audioEvent;
+    private int frameSize;
+    private float[] floatBuffer;
+    private Thread thread;
+    private volatile boolean finished;
+
+    private volatile long framesProcessed;
+    private volatile long framesDropped;
+    private volatile int maxQueueDepth;
+    private volatile long lastLatencyNanos;
+    private volatile long maxLatencyNanos;
+    private volatile long totalLatencyNanos;
+
+    /**
+     * @param name the name of the branch and its thread
+     * @param capacity the number of buffers that can wait for the branch
+     * @param dropWhenFull true to drop buffers when the branch falls behind by more than capacity buffers,
+     *                     false to make the dispatcher wait for it
+     */
+    public ProcessorBranch(String name, int capacity, boolean dropWhenFull) {
+        this.name = name;
+        this.queue = new ArrayBlockingQueue<Frame>(capacity);
+        this.dropWhenFull = dropWhenFull;
+    }
+
+    /**
+     * Adds an AudioProcessor to the end of this branch's chain.
+     *
+     * @param audioProcessor the AudioProcessor to add
+     * @return this branch
+     */
+    public ProcessorBranch addAudioProcessor(AudioProcessor audioProcessor) {
+        audioProcessors.add(audioProcessor);
+        return this;
+    }
+
+    /**
+     * Starts the branch's thread, called by the dispatcher the branch is added to.
+     *
+     * @param format the format of the dispatcher's stream
+     */
+    void start(TarsosDSPAudioFormat format) {
+        audioEvent = new AudioEvent(format);
+        frameSize = format.getFrameSize();
+        thread = new Thread(this, name);
+        thread.start();
+    }
+
+    /**
+     * Offers a frame to the queue, called on the dispatcher's thread. The reference the frame holds for this
+     * branch is released straight away if it is dropped.
+     *
+     * @param frame the copy of the buffer just read
+     * @return false if the frame was dropped
+     */
+    boolean offer(Frame frame) {
+        boolean queued = !finished && queue.offer(frame);
+        try {
+            while (!queued && !dropWhenFull && !finished && thread.isAlive()) {
+                queued = queue.offer(frame, OFFER_POLL_MILLIS, TimeUnit.MILLISECONDS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (!queued) {
+            framesDropped++;
+            frame.release();
+            return false;
+        }
+        int depth = queue.size();
+        if (depth > maxQueueDepth) {
+            maxQueueDepth = depth;
+        }
+        return true;
+    }
+
+    /**
+     * Tells the branch that no more frames will be offered and waits for it to process those still queued
+     * and call processingFinished() on its processors.
+     *
+     * @param timeoutMillis the longest time to wait
+     * @return true if the branch finished in time
+     */
+    boolean finish(long timeoutMillis) {
+        if (thread == null) {
+            return true;
+        }
+        try {
+            if (!finished) {
+                finished = true;
+                while (thread.isAlive() && !queue.offer(Frame.END, OFFER_POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+                    // the branch is still working through a full queue
+                }
+            }
+            thread.join(timeoutMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (thread.isAlive()) {
+            LOG.warning("Branch " + name + " did not finish within " + timeoutMillis + "ms");
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    public void run() {
+        try {
+            Frame frame;
+            while ((frame = queue.take()) != Frame.END) {
+                process(frame);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            for (final AudioProcessor processor : audioProcessors) {
+                processor.processingFinished();
+            }
+        }
+    }
+
+    private void process(Frame frame) {
+        int samples = frame.pcm.length / frameSize;
+        if (floatBuffer == null || floatBuffer.length != samples) {
+            floatBuffer = new float[samples];
+        }
+        audioEvent.setPcmBuffer(frame.pcm, floatBuffer);
+        audioEvent.setBytesProcessed(frame.bytesProcessed);
+        audioEvent.setOverlap(frame.overlap);
+
+        try {
+            for (final AudioProcessor processor : audioProcessors) {
+                if (!processor.process(audioEvent)) {
+                    break;
+                }
+            }
+        } finally {
+            long latency = System.nanoTime() - frame.dispatchedNanos;
+            frame.release();
+            lastLatencyNanos = latency;
+            totalLatencyNanos += latency;
+            if (latency > maxLatencyNanos) {
+                maxLatencyNanos = latency;
+            }
+            framesProcessed++;
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return the number of buffers this branch has processed
+     */
+    public long getFramesProcessed() {
+        return framesProcessed;
+    }
+
+    /**
+     * @return the number of buffers dropped because the branch was too far behind
+     */
+    public long getFramesDropped() {
+        return framesDropped;
+    }
+
+    /**
+     * @return the number of buffers waiting for the branch right now
+     */
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    /**
+     * @return the most buffers that have waited for the branch at once
+     */
+    public int getMaxQueueDepth() {
+        return maxQueueDepth;
+    }
+
+    /**
+     * @return the time from the dispatcher reading the last buffer to the branch finishing with it
+     */
+    public long getLastLatencyNanos() {
+        return lastLatencyNanos;
+    }
+
+    /**
+     * @return the longest time from the dispatcher reading a buffer to the branch finishing with it
+     */
+    public long getMaxLatencyNanos() {
+        return maxLatencyNanos;
+    }
+
+    /**
+     * @return the mean time from the dispatcher reading a buffer to the branch finishing with it
+     */
+    public long getMeanLatencyNanos() {
+        long processed = framesProcessed;
+        return processed == 0 ? 0 : totalLatencyNanos / processed;
+    }
+
+    @Override
+    public String toString() {
+        return "Branch " + name + ": " + framesProcessed + " processed, " + framesDropped + " dropped, queue "
+                + getQueueDepth() + " (max " + maxQueueDepth + "), latency mean "
+                + TimeUnit.NANOSECONDS.toMicros(getMeanLatencyNanos()) + "us max "
+                + TimeUnit.NANOSECONDS.toMicros(maxLatencyNanos) + "us";
+    }
+
+}
@@ -26,16 +26,27 @@ import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.RandomAccessFile;
 
-import be.tarsos.dsp.AudioEvent;
-import be.tarsos.dsp.AudioProcessor;
+import com.example.thirdearoftruth.metrics.Counter;
+import com.example.thirdearoftruth.metrics.LatencyHistogram;
+import com.example.thirdearoftruth.metrics.MetricsRegistry;
+
 import be.tarsos.dsp.io.TarsosDSPAudioFormat;
 import be.tarsos.dsp.writer.WaveHeader;
 
 /**
  * This class writes the ongoing sound to an output specified by the programmer
  *
+ * The bytes written, the time each write takes and failed writes are counted in the MetricsRegistry, as a
+ * slow write holds up every other processor on the dispatcher's thread.
  */
 public class WriterProcessor implements AudioProcessor {
+    private static final Counter BYTES_WRITTEN = MetricsRegistry.getInstance().counter(
+            "thirdear_writer_bytes_written_total", "PCM bytes written to recordings");
+    private static final Counter WRITE_ERRORS = MetricsRegistry.getInstance().counter(
+            "thirdear_writer_errors_total", "Writes to recordings that failed");
+    private static final LatencyHistogram WRITE_TIME = MetricsRegistry.getInstance().histogram(
+            "thirdear_writer_write_seconds", "Time each buffer takes to write to a recording");
+
     RandomAccessFile output;
     TarsosDSPAudioFormat audioFormat;
     private int audioLen = 0;
@@ -55,13 +66,23 @@ public class WriterProcessor implements AudioProcessor {
         }
     }
 
+    /**
+     * Writes the PCM of this buffer to the output. When the dispatcher read the whole buffer from the
+     * stream, the AudioEvent passes the original bytes straight through, so no float to byte conversion
+     * is done while recording.
+     */
     @Override
     public boolean process(AudioEvent audioEvent) {
         try {
-            audioLen += audioEvent.getByteBuffer().length;
+            byte[] pcm = audioEvent.getByteBuffer();
+            audioLen += pcm.length;
             //write audio to the output
-            output.write(audioEvent.getByteBuffer());
+            long writeStart = System.nanoTime();
+            output.write(pcm);
+            WRITE_TIME.record(System.nanoTime() - writeStart);
+            BYTES_WRITTEN.add(pcm.length);
         } catch (IOException e) {
+            WRITE_ERRORS.increment();
             e.printStackTrace();
         }
         return true;
@@ -80,6 +101,7 @@ public class WriterProcessor implements AudioProcessor {
             output.write(header.toByteArray());
             output.close();
         } catch (IOException e) {
+            WRITE_ERRORS.increment();
             e.printStackTrace();
         }
 
@@ -0,0 +1,82 @@
+package com.example.thirdearoftruth.replay;
+
+import com.example.thirdearoftruth.utils.AudioEvent;
+import com.example.thirdearoftruth.utils.AudioProcessor;
+
+/**
+ * Records the bytes allocated on the dispatcher's thread for each buffer of a replay. Added after every
+ * other processor, each buffer is charged with everything allocated from the end of the previous buffer
+ * to the end of its own: the dispatcher's read and conversion, the detection's gate and the copy into
+ * the frame ring. The first buffer only starts the count.
+ *
+ * The probe allocates nothing itself once it is constructed.
+ */
+final class BufferAllocationProbe implements AudioProcessor {
+
+    private final long[] bytes;
+    private final long readCost;
+    private int buffers;
+    private long lastCount = -1;
+
+    /**
+     * @param capacity the most buffers recorded, those after it are not
+     */
+    BufferAllocationProbe(int capacity) {
+        bytes = new long[capacity];
+        readCost = ThreadAllocation.readCost();
+    }
+
+    @Override
+    public boolean process(AudioEvent audioEvent) {
+        long count = ThreadAllocation.allocatedBytes(Thread.currentThread());
+        if (lastCount >= 0 && buffers < bytes.length) {
+            bytes[buffers++] = count - lastCount - readCost;
+        }
+        lastCount = count;
+        return true;
+    }
+
+    @Override
+    public void processingFinished() {
+
+    }
+
+    /**
+     * @return the number of buffers recorded
+     */
+    int getBuffers() {
+        return buffers;
+    }
+
+    /**
+     * @return the bytes allocated for the buffer
+     */
+    long getBytes(int buffer) {
+        return bytes[buffer];
+    }
+
+    /**
+     * @return the number of buffers that allocated anything
+     */
+    int getAllocatingBuffers() {
+        int allocating = 0;
+        for (int i = 0; i < buffers; i++) {
+            if (bytes[i] > 0) {
+                allocating++;
+            }
+        }
+        return allocating;
+    }
+
+    /**
+     * @return the bytes allocated for every buffer recorded together
+     */
+    long getTotalBytes() {
+        long total = 0;
+        for (int i = 0; i < buffers; i++) {
+            total += bytes[i];
+        }
+        return total;
+    }
+
+}
@@ -0,0 +1,562 @@
+package com.example.thirdearoftruth.replay;
+
+import com.example.thirdearoftruth.audio.AcousticEventCache;
+import com.example.thirdearoftruth.audio.DeltaFeatureProcessor;
+import com.example.thirdearoftruth.audio.DetectionProcessor;
+import com.example.thirdearoftruth.audio.EnergyGate;
+import com.example.thirdearoftruth.audio.GateCascade;
+import com.example.thirdearoftruth.audio.NoiseFloorEstimator;
+import com.example.thirdearoftruth.audio.RecognitionNotifier;
+import com.example.thirdearoftruth.audio.RecognitionSessionManager;
+import com.example.thirdearoftruth.audio.RecognitionWorker;
+import com.example.thirdearoftruth.audio.SessionTrace;
+import com.example.thirdearoftruth.audio.ZeroCrossingGate;
+import com.example.thirdearoftruth.models.AcousticEvent;
+import com.example.thirdearoftruth.utils.AudioDispatcher;
+import com.example.thirdearoftruth.utils.AudioEvent;
+import com.example.thirdearoftruth.utils.AudioProcessor;
+import com.example.thirdearoftruth.utils.MFCC;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import be.tarsos.dsp.io.TarsosDSPAudioFormat;
+import be.tarsos.dsp.io.TarsosDSPAudioInputStream;
+
+/**
+ * Replays WAV recordings through the detection and recognition chain of the DetectionService, as fast
+ * as the CPU allows, on a plain JVM.
+ *
+ * Each recording is read by the TarsosDSP AudioDispatcher into the same DetectionProcessor, noise floor,
+ * gate cascade, recognition sessions and worker the service uses. Firebase and Volley are replaced by
+ * local stand-ins: the known Acoustic Events are a fixed AcousticEventCache and the notifications are
+ * collected instead of being sent. The known events can be enrolled from recordings, in the same way
+ * CreateEventActivity extracts the features of a new sound.
+ *
+ * Run from the app module with the recordings to enrol and replay, or a folder of them:
+ *
+ *     java ... com.example.thirdearoftruth.replay.DetectionReplay "../../../Default Acoustic Events"
+ */
+public class DetectionReplay {
+
+    static final int SAMPLE_RATE = 44100;
+    static final int AUDIO_BUFFER_SIZE = 2048;
+    static final int BUFFER_OVERLAP = 0;
+
+    /**
+     * The threshold the DetectionService starts with
+     */
+    static final double INITIAL_THRESHOLD = 0.0029043591183558017;
+
+    /**
+     * The threshold interval the DetectionService starts with, in seconds
+     */
+    static final int THRESHOLD_INTERVAL_SECONDS = 10;
+
+    /**
+     * The cost limit a newly recorded sound of 39 coefficients is given when it is confirmed
+     */
+    static final double DEFAULT_MAX_COST = AcousticEvent.DEFAULT_MAX_COST;
+
+    /**
+     * The quiet read before and after each recording, so the detection sees the quiet before the sound
+     * and releases it afterwards
+     */
+    static final double LEAD_IN_SECONDS = 0.5;
+    static final double TAIL_SECONDS = 1.0;
+
+    /**
+     * The level of the pink noise each recording is replayed over. A microphone never gives the app
+     * digital silence, and the frames of silence around a sound would not be the frames the app sees.
+     */
+    static final double ROOM_NOISE_DB = -60;
+
+    /**
+     * The longest a replay waits for the recognition of its sessions once the recording has been read
+     */
+    static final long SESSION_TIMEOUT_SECONDS = 30;
+
+    /**
+     * What a replay of one recording detected and how quickly it ran
+     */
+    public static final class Result {
+
+        private final String name;
+        private final long buffers;
+        private final double audioSeconds;
+        private final long dispatchNanos;
+        private final long totalNanos;
+        private final long detections;
+        private final List<String> labels;
+        private final List<SessionTrace> traces;
+        private final long overruns;
+        private final long gaps;
+
+        Result(String name, long buffers, double audioSeconds, long dispatchNanos, long totalNanos,
+               long detections, List<String> labels, List<SessionTrace> traces, long overruns, long gaps) {
+            this.name = name;
+            this.buffers = buffers;
+            this.audioSeconds = audioSeconds;
+            this.dispatchNanos = dispatchNanos;
+            this.totalNanos = totalNanos;
+            this.detections = detections;
+            this.labels = Collections.unmodifiableList(new ArrayList<>(labels));
+            this.traces = Collections.unmodifiableList(new ArrayList<>(traces));
+            this.overruns = overruns;
+            this.gaps = gaps;
+        }
+
+        /**
+         * @return the file name of the recording, or the name of the stream replayed
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return the number of buffers read by the dispatcher, including the silence around the recording
+         */
+        public long getBuffers() {
+            return buffers;
+        }
+
+        public double getAudioSeconds() {
+            return audioSeconds;
+        }
+
+        /**
+         * @return the number of Acoustic Events the detection started
+         */
+        public long getDetections() {
+            return detections;
+        }
+
+        /**
+         * @return the names notified by the recognition sessions, in the order they were notified
+         */
+        public List<String> getLabels() {
+            return labels;
+        }
+
+        /**
+         * @return the trace of each notification, in the order they were notified
+         */
+        public List<SessionTrace> getTraces() {
+            return traces;
+        }
+
+        /**
+         * @return the number of iterations of the dispatcher its monitor found over the time a buffer lasts
+         */
+        public long getOverruns() {
+            return overruns;
+        }
+
+        /**
+         * @return the number of gaps the dispatcher's monitor found in the stream
+         */
+        public long getGaps() {
+            return gaps;
+        }
+
+        /**
+         * @return the longest wall time from the end of an event to its last DTW, in milliseconds
+         */
+        public double getMaxRecognitionMillis() {
+            long max = 0;
+            for (SessionTrace trace : traces) {
+                long latency = trace.getLatencyNanos(SessionTrace.Stage.EVENT_END, SessionTrace.Stage.DTW_COMPLETE);
+                if (latency != SessionTrace.NOT_STAMPED && latency > max) {
+                    max = latency;
+                }
+            }
+            return max / 1e6;
+        }
+
+        /**
+         * @return the buffers the dispatcher read per second of wall time
+         */
+        public double getFramesPerSecond() {
+            return dispatchNanos == 0 ? 0 : buffers * 1e9 / dispatchNanos;
+        }
+
+        /**
+         * @return the seconds of audio detected and recognised per second of wall time
+         */
+        public double getRealTimeFactor() {
+            return totalNanos == 0 ? 0 : audioSeconds * 1e9 / totalNanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s: %d buffers (%.2fs) at %.0f frames/s, %.1fx real time, %d detections %s, "
+                    + "end to DTW at most %.1fms", name, buffers, audioSeconds, getFramesPerSecond(),
+                    getRealTimeFactor(), detections, labels, getMaxRecognitionMillis());
+        }
+    }
+
+    /**
+     * Collects the names the sessions of one replay notify, acknowledging each straight away
+     */
+    private static final class CollectingNotifier implements RecognitionNotifier {
+
+        private final List<String> labels = new CopyOnWriteArrayList<>();
+        private final List<SessionTrace> traces = new CopyOnWriteArrayList<>();
+
+        @Override
+        public void sendNotification(SessionTrace trace, String soundName) {
+            trace.mark(SessionTrace.Stage.NOTIFICATION_ENQUEUED);
+            labels.add(soundName);
+            traces.add(trace);
+            trace.mark(SessionTrace.Stage.NOTIFICATION_ACKNOWLEDGED);
+        }
+    }
+
+    /**
+     * Holds back each read of the stream until the ring of the current event has room for another buffer.
+     * The wait happens while the dispatcher reads, outside the iteration its monitor times, so it does
+     * not show up as an overrun of the detection.
+     */
+    private static final class PacedStream implements TarsosDSPAudioInputStream {
+
+        private final TarsosDSPAudioInputStream stream;
+        private final RecognitionSessionManager sessions;
+
+        PacedStream(TarsosDSPAudioInputStream stream, RecognitionSessionManager sessions) {
+            this.stream = stream;
+            this.sessions = sessions;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            while (sessions.getPendingFrames() >= sessions.getFrameCapacity()) {
+                Thread.yield();
+            }
+            return stream.read(b, off, len);
+        }
+
+        @Override
+        public long skip(long bytesToSkip) throws IOException {
+            return stream.skip(bytesToSkip);
+        }
+
+        @Override
+        public void close() throws IOException {
+            stream.close();
+        }
+
+        @Override
+        public TarsosDSPAudioFormat getFormat() {
+            return stream.getFormat();
+        }
+
+        @Override
+        public long getFrameLength() {
+            return stream.getFrameLength();
+        }
+    }
+
+    private final TarsosDSPAudioFormat format;
+    private final RecognitionWorker worker;
+
+
+    /**
+     * @param knownEvents the Acoustic Events the replayed recordings are recognised against
+     */
+    public DetectionReplay(List<AcousticEvent> knownEvents) {
+        format = new TarsosDSPAudioFormat(SAMPLE_RATE, 16, 1, true, false);
+        worker = new RecognitionWorker(format, AUDIO_BUFFER_SIZE, new AcousticEventCache(knownEvents));
+        worker.start();
+    }
+
+
+    /**
+     * Replays one recording over the noise of a quiet room through a new detection chain, as the service
+     * would hear it straight after it started, and waits for every session it started to be recognised.
+     *
+     * @param recording a 44100Hz, 16 bit WAV file
+     * @param probes processors run on the dispatcher's thread after the detection for every buffer, to
+     *               observe the chain without taking part in it
+     * @return what was detected and how quickly
+     * @throws IOException if the recording cannot be read
+     */
+    public Result replay(File recording, AudioProcessor... probes) throws IOException {
+        MixedSnrGenerator generator = new MixedSnrGenerator(Arrays.asList(recording))
+                .noise(MixedSnrGenerator.Noise.PINK, ROOM_NOISE_DB).insertAtGain(0, LEAD_IN_SECONDS, 0);
+        List<MixedSnrGenerator.Insertion> schedule = generator.schedule();
+        generator.duration(schedule.get(0).getEndSample() / (double) SAMPLE_RATE + TAIL_SECONDS);
+        return replay(recording.getName(), generator.open(schedule), probes);
+    } // end replay
+
+
+    /**
+     * Replays a stream through a new detection chain, as the service would hear it straight after it
+     * started, and waits for every session it started to be recognised.
+     *
+     * @param name the name of the stream in the result
+     * @param stream 44100Hz, 16 bit mono PCM, such as a recording or a synthetic mix
+     * @param probes processors run on the dispatcher's thread after the detection for every buffer
+     * @return what was detected and how quickly
+     */
+    public Result replay(String name, TarsosDSPAudioInputStream stream, AudioProcessor... probes) {
+        checkFormat(name, stream.getFormat());
+
+        int intervalBuffers = (int) Math.round(THRESHOLD_INTERVAL_SECONDS * SAMPLE_RATE / (double) AUDIO_BUFFER_SIZE);
+        NoiseFloorEstimator noiseFloor = new NoiseFloorEstimator(INITIAL_THRESHOLD, intervalBuffers,
+                intervalBuffers, NoiseFloorEstimator.DEFAULT_RANGE_FRACTION);
+        CollectingNotifier notifier = new CollectingNotifier();
+        final RecognitionSessionManager sessions = new RecognitionSessionManager(worker, notifier);
+        DetectionProcessor detection = new DetectionProcessor(format, AUDIO_BUFFER_SIZE, noiseFloor,
+                startGate(noiseFloor), sessions);
+
+        // the microphone never waits for recognition, but a file can be read faster than the recognition
+        // threads keep up with, so the next buffer is only read once the current ring has room for it
+        AudioDispatcher dispatcher = new AudioDispatcher(new PacedStream(stream, sessions), AUDIO_BUFFER_SIZE,
+                BUFFER_OVERLAP);
+        dispatcher.addAudioProcessor(detection);
+        for (AudioProcessor probe : probes) {
+            dispatcher.addAudioProcessor(probe);
+        }
+
+        long start = System.nanoTime();
+        dispatcher.run();
+        long dispatched = System.nanoTime();
+
+        // a recording that ends during an event is ended with it, as when the service is stopped
+        sessions.endCurrent();
+        long deadline = dispatched + TimeUnit.SECONDS.toNanos(SESSION_TIMEOUT_SECONDS);
+        while (!sessions.getSessions().isEmpty() && System.nanoTime() < deadline) {
+            try {
+                Thread.sleep(1);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        long finished = System.nanoTime();
+
+        long buffers = Math.round(dispatcher.secondsProcessed() * SAMPLE_RATE / AUDIO_BUFFER_SIZE);
+        return new Result(name, buffers, dispatcher.secondsProcessed(), dispatched - start,
+                finished - start, detection.getDetectionCount(), notifier.labels, notifier.traces,
+                dispatcher.getMonitor().getOverruns(), dispatcher.getMonitor().getGaps());
+    } // end replay
+
+
+    /**
+     * Stops the recognition threads once every session has been recognised
+     */
+    public void shutdown() {
+        worker.shutdown();
+        worker.awaitTermination(SESSION_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    }
+
+
+    /**
+     * Enrols each recording as a known Acoustic Event named after its file, with the feature vectors of
+     * the sound in it and the cost limit of a newly recorded sound
+     *
+     * @param recordings 44100Hz, 16 bit WAV files
+     * @return the known events, ready for DTW
+     * @throws IOException if a recording cannot be read
+     */
+    public static List<AcousticEvent> enrol(List<File> recordings) throws IOException {
+        List<AcousticEvent> knownEvents = new ArrayList<>();
+        for (File recording : recordings) {
+            ArrayList<ArrayList<Double>> mfccDoubleList = new ArrayList<>();
+            for (float[] features : extractFeatures(recording)) {
+                ArrayList<Double> row = new ArrayList<>(features.length);
+                for (float feature : features) {
+                    row.add((double) feature);
+                }
+                mfccDoubleList.add(row);
+            }
+            AcousticEvent acousticEvent = new AcousticEvent(recording.getName(), nameOf(recording),
+                    0.0, mfccDoubleList, String.valueOf(mfccDoubleList.size()), DEFAULT_MAX_COST, false);
+            acousticEvent.setMfccMatrix(mfccDoubleList);
+            knownEvents.add(acousticEvent);
+        }
+        return knownEvents;
+    } // end enrol
+
+
+    /**
+     * @param recording a 44100Hz, 16 bit WAV file
+     * @return the MFCC, delta and delta-delta feature vectors of every buffer of the recording from the
+     *         first to the last that is not digital silence. The recordings were cut in an editor, and
+     *         a microphone never gives the app a silent buffer to enrol, so the silence at either end is
+     *         left out before the delta features are calculated, as the app only calculates them over
+     *         the buffers of the event.
+     * @throws IOException if the recording cannot be read
+     */
+    public static List<float[]> extractFeatures(File recording) throws IOException {
+        final long[] sound = findSound(recording);
+        WavFileAudioInputStream stream = new WavFileAudioInputStream(recording, 0, 0);
+        checkFormat(recording.getName(), stream.getFormat());
+
+        final MFCC mfcc = new MFCC(AUDIO_BUFFER_SIZE, SAMPLE_RATE, 13, 20, 133.33f, 8000f, true);
+        final DeltaFeatureProcessor deltaFeatures = new DeltaFeatureProcessor(mfcc, 13);
+        final List<float[]> featureList = new ArrayList<>();
+
+        AudioDispatcher dispatcher = new AudioDispatcher(stream, AUDIO_BUFFER_SIZE, BUFFER_OVERLAP);
+        dispatcher.addAudioProcessor(new AudioProcessor() {
+            @Override
+            public boolean process(AudioEvent audioEvent) {
+                // the rest of the chain only sees the buffers of the sound
+                return audioEvent.getSamplesProcessed() >= sound[0] && audioEvent.getSamplesProcessed() < sound[1];
+            }
+
+            @Override
+            public void processingFinished() {
+
+            }
+        });
+        dispatcher.addAudioProcessor(mfcc);
+        dispatcher.addAudioProcessor(deltaFeatures);
+        dispatcher.addAudioProcessor(new AudioProcessor() {
+            @Override
+            public boolean process(AudioEvent audioEvent) {
+                if (deltaFeatures.isFeatureReady()) {
+                    featureList.add(deltaFeatures.getFeatures());
+                }
+                return true;
+            }
+
+            @Override
+            public void processingFinished() {
+                featureList.addAll(deltaFeatures.flush());
+            }
+        });
+        dispatcher.run();
+        return featureList;
+    } // end extractFeatures
+
+
+    /**
+     * @param recording a 44100Hz, 16 bit WAV file
+     * @return the sample clock of the first buffer that is not digital silence and the one after the last,
+     *         both 0 if the recording is silent
+     * @throws IOException if the recording cannot be read
+     */
+    private static long[] findSound(File recording) throws IOException {
+        final long[] sound = {-1, 0};
+        AudioDispatcher dispatcher = new AudioDispatcher(new WavFileAudioInputStream(recording, 0, 0),
+                AUDIO_BUFFER_SIZE, BUFFER_OVERLAP);
+        dispatcher.addAudioProcessor(new AudioProcessor() {
+            @Override
+            public boolean process(AudioEvent audioEvent) {
+                if (audioEvent.getRMS() > 0) {
+                    if (sound[0] < 0) {
+                        sound[0] = audioEvent.getSamplesProcessed();
+                    }
+                    sound[1] = audioEvent.getSamplesProcessed() + 1;
+                }
+                return true;
+            }
+
+            @Override
+            public void processingFinished() {
+
+            }
+        });
+        dispatcher.run();
+        if (sound[0] < 0) {
+            sound[0] = 0;
+        }
+        return sound;
+    } // end findSound
+
+
+    /**
+     * @param folder a folder of recordings
+     * @return the WAV files in the folder sorted by name, empty if it does not exist
+     */
+    public static File[] listRecordings(File folder) {
+        File[] recordings = folder.listFiles(new FileFilter() {
+            @Override
+            public boolean accept(File file) {
+                return file.isFile() && file.getName().toLowerCase().endsWith(".wav");
+            }
+        });
+        if (recordings == null) {
+            return new File[0];
+        }
+        Arrays.sort(recordings);
+        return recordings;
+    }
+
+    /**
+     * @return the gate the service starts its events with, the threshold of the noise floor given and then
+     * the zero-crossing rate
+     */
+    static GateCascade startGate(NoiseFloorEstimator noiseFloor) {
+        return new GateCascade()
+                .addStage(new EnergyGate(noiseFloor))
+                .addStage(new ZeroCrossingGate(SAMPLE_RATE, ZeroCrossingGate.DEFAULT_MIN_FREQUENCY));
+    }
+
+    /**
+     * @return the file name of the recording without its extension
+     */
+    static String nameOf(File recording) {
+        String name = recording.getName();
+        int dot = name.lastIndexOf('.');
+        return dot > 0 ? name.substring(0, dot) : name;
+    }
+
+    private static void checkFormat(String name, TarsosDSPAudioFormat format) {
+        if (format.getSampleRate() != SAMPLE_RATE) {
+            throw new IllegalArgumentException(name + " is " + format.getSampleRate()
+                    + "Hz, recordings must be " + SAMPLE_RATE + "Hz like the microphone");
+        }
+    }
+
+
+    /**
+     * Enrols every recording given, or every WAV file in the folders given, as a known event and then
+     * replays each of them, printing what was detected and how quickly.
+     *
+     * @param args WAV files or folders of them
+     * @throws IOException if a recording cannot be read
+     */
+    public static void main(String[] args) throws IOException {
+        List<File> recordings = new ArrayList<>();
+        for (String arg : args) {
+            File file = new File(arg);
+            if (file.isDirectory()) {
+                recordings.addAll(Arrays.asList(listRecordings(file)));
+            } else {
+                recordings.add(file);
+            }
+        }
+        if (recordings.isEmpty()) {
+            System.err.println("Usage: DetectionReplay <wav file or folder>...");
+            return;
+        }
+
+        DetectionReplay replay = new DetectionReplay(enrol(recordings));
+        long buffers = 0;
+        double audioSeconds = 0;
+        long start = System.nanoTime();
+        try {
+            for (File recording : recordings) {
+                Result result = replay.replay(recording);
+                buffers += result.getBuffers();
+                audioSeconds += result.getAudioSeconds();
+                System.out.println(result);
+            }
+        } finally {
+            replay.shutdown();
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.println(String.format("%d recordings, %d buffers (%.2fs) in %.3fs: %.0f frames/s, %.1fx real time",
+                recordings.size(), buffers, audioSeconds, seconds, buffers / seconds, audioSeconds / seconds));
+    } // end main
+
+}
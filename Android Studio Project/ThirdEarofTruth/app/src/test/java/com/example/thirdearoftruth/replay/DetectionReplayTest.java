@@ -0,0 +1,144 @@
+package com.example.thirdearoftruth.replay;
+
+import com.example.thirdearoftruth.audio.MFCCRecognitionEvent;
+import com.example.thirdearoftruth.metrics.TraceRecorder;
+import com.example.thirdearoftruth.models.AcousticEvent;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Replays the recordings of the default Acoustic Events through the detection and recognition chain,
+ * with each recording enrolled as a known event.
+ */
+public class DetectionReplayTest {
+
+    /**
+     * The recordings of the default events, relative to the app module
+     */
+    private static final File DEFAULT_EVENTS = new File("../../../Default Acoustic Events");
+
+    @Test
+    public void replayDefaultAcousticEvents() throws IOException {
+        File[] recordings = DetectionReplay.listRecordings(DEFAULT_EVENTS);
+        assumeTrue(recordings.length > 0);
+
+        DetectionReplay replay = new DetectionReplay(DetectionReplay.enrol(Arrays.asList(recordings)));
+        try {
+            for (File recording : recordings) {
+                DetectionReplay.Result result = replay.replay(recording);
+                System.out.println(result);
+
+                assertTrue(recording.getName() + " was not detected", result.getDetections() > 0);
+                assertTrue(recording.getName() + " was recognised as " + result.getLabels(),
+                        result.getLabels().contains(DetectionReplay.nameOf(recording)));
+                assertTrue(result.getRealTimeFactor() > 1);
+            }
+        } finally {
+            replay.shutdown();
+        }
+    }
+
+    /**
+     * Acoustic Events recorded before dynamic features were added hold 13 static MFCCs, are compared on
+     * the static part of each frame and are held to the default maxCost of 13 coefficients
+     */
+    @Test
+    public void staticTemplatesAreNamedAtTheirOwnMaxCost() throws IOException {
+        File[] recordings = DetectionReplay.listRecordings(DEFAULT_EVENTS);
+        assumeTrue(recordings.length > 0);
+
+        List<AcousticEvent> knownEvents = DetectionReplay.enrol(Arrays.asList(recordings));
+        for (AcousticEvent knownEvent : knownEvents) {
+            ArrayList<ArrayList<Double>> staticMfccs = new ArrayList<>();
+            for (ArrayList<Double> features : knownEvent.getMfccDoubleList()) {
+                staticMfccs.add(new ArrayList<>(features.subList(0, AcousticEvent.STATIC_COEFFICIENTS)));
+            }
+            knownEvent.setMfccDoubleList(staticMfccs);
+            knownEvent.setMfccMatrix(staticMfccs);
+            knownEvent.setMaxCost(AcousticEvent.defaultMaxCost(AcousticEvent.STATIC_COEFFICIENTS));
+        }
+
+        DetectionReplay replay = new DetectionReplay(knownEvents);
+        try {
+            for (File recording : recordings) {
+                DetectionReplay.Result result = replay.replay(recording);
+                assertTrue(recording.getName() + " was recognised as " + result.getLabels(),
+                        result.getLabels().contains(DetectionReplay.nameOf(recording)));
+            }
+        } finally {
+            replay.shutdown();
+        }
+    }
+
+    /**
+     * A sound repeated with no quiet between it is one event several windows long, and the enrolled sound
+     * is still named in a window that holds it along with parts of the copies before and after it
+     */
+    @Test
+    public void soundRepeatedPastAWindowIsNamed() throws IOException {
+        File[] recordings = DetectionReplay.listRecordings(DEFAULT_EVENTS);
+        assumeTrue(recordings.length > 0);
+
+        File recording = recordings[0];
+        double recordingSeconds = MixedSnrGenerator.readSamples(recording).length / (double) DetectionReplay.SAMPLE_RATE;
+        double windowSeconds = MFCCRecognitionEvent.WINDOW_FRAMES * DetectionReplay.AUDIO_BUFFER_SIZE
+                / (double) DetectionReplay.SAMPLE_RATE;
+        int copies = (int) Math.ceil(2 * windowSeconds / recordingSeconds);
+
+        MixedSnrGenerator generator = new MixedSnrGenerator(Arrays.asList(recording))
+                .duration(1 + copies * recordingSeconds + 2).noise(MixedSnrGenerator.Noise.WHITE, -60);
+        for (int i = 0; i < copies; i++) {
+            generator.insertAtGain(0, 1 + i * recordingSeconds, 0);
+        }
+
+        DetectionReplay replay = new DetectionReplay(DetectionReplay.enrol(Arrays.asList(recordings)));
+        try {
+            DetectionReplay.Result result = replay.replay(recording.getName() + " x" + copies,
+                    generator.open(generator.schedule()));
+            System.out.println(result);
+
+            assertEquals(copies + " copies were not detected as one event", 1, result.getDetections());
+            assertEquals(Arrays.asList(DetectionReplay.nameOf(recording)), result.getLabels());
+        } finally {
+            replay.shutdown();
+        }
+    }
+
+    @Test
+    public void traceCoversTheDispatcherAndRecognition() throws IOException {
+        File[] recordings = DetectionReplay.listRecordings(DEFAULT_EVENTS);
+        assumeTrue(recordings.length > 0);
+
+        TraceRecorder trace = TraceRecorder.getInstance();
+        DetectionReplay replay = new DetectionReplay(DetectionReplay.enrol(Arrays.asList(recordings)));
+        StringWriter json = new StringWriter();
+        try {
+            trace.clear();
+            trace.setEnabled(true);
+            replay.replay(recordings[0]);
+            trace.setEnabled(false);
+            assertTrue(trace.writeJson(json) > 0);
+        } finally {
+            trace.setEnabled(false);
+            trace.clear();
+            replay.shutdown();
+        }
+
+        String events = json.toString();
+        assertTrue(events.startsWith("{\"displayTimeUnit\":\"ms\",\"traceEvents\":["));
+        assertTrue(events.contains("\"name\":\"acoustic event\""));
+        assertTrue(events.contains("\"name\":\"identify window\""));
+        assertTrue(events.contains("\"cat\":\"dtw\""));
+        assertTrue(events.contains("\"name\":\"thread_name\""));
+    }
+}
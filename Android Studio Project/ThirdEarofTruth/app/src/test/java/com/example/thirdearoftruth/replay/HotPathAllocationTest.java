@@ -0,0 +1,270 @@
+package com.example.thirdearoftruth.replay;
+
+import com.example.thirdearoftruth.audio.DeltaFeatureProcessor;
+import com.example.thirdearoftruth.audio.OnlineDtwMatcher;
+import com.example.thirdearoftruth.metrics.TraceRecorder;
+import com.example.thirdearoftruth.models.AcousticEvent;
+import com.example.thirdearoftruth.utils.AudioDispatcher;
+import com.example.thirdearoftruth.utils.AudioEvent;
+import com.example.thirdearoftruth.utils.AudioProcessor;
+import com.example.thirdearoftruth.utils.MFCC;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Holds the hot path of the detection to its allocation budgets by replaying the recordings of the
+ * default Acoustic Events and counting the bytes allocated on each thread.
+ *
+ * On the dispatcher's thread the read, the conversion, the gate and the copy into the frame ring must
+ * allocate nothing for a buffer that neither starts nor ends an event. On the recognition threads the
+ * MFCC, the dynamic features and the online DTW must allocate nothing per frame, and a whole session
+ * must stay within its budget per detection. A change that makes garbage for every buffer fails here.
+ * The budgets are the same with trace capture on, so it can be left on in production.
+ *
+ * The chain is replayed a few times before it is measured, so the counts are those of compiled code
+ * rather than of the interpreter warming up. Even then a replay can be held up by the scheduler, the
+ * collector or the compiler, and the warning the dispatcher's monitor logs about the overrun or the gap
+ * allocates a log record. Each recording is therefore measured up to MEASURED_REPLAYS times, stopping
+ * at the first replay in the steady state, with no overrun or gap and within the budgets, and the replay
+ * that allocated on the fewest buffers is the one held to them. A change that makes garbage for every
+ * buffer does so on every replay and still fails.
+ */
+public class HotPathAllocationTest {
+
+    /**
+     * The recordings of the default events, relative to the app module
+     */
+    private static final File DEFAULT_EVENTS = new File("../../../Default Acoustic Events");
+
+    private static final int WARM_UP_REPLAYS = 3;
+
+    /**
+     * The most times each recording is replayed to find a replay in the steady state
+     */
+    private static final int MEASURED_REPLAYS = 5;
+
+    /**
+     * The most buffers a replay records, longer than any of the default events with their silence
+     */
+    private static final int MAX_BUFFERS = 4096;
+
+    /**
+     * The dispatcher's thread allocates for a detection only when the event starts, for its recognition
+     * session, about 850 bytes. Nothing is logged at the start or end of an event unless asked for.
+     */
+    private static final int ALLOCATING_BUFFERS_PER_DETECTION = 1;
+    private static final long DISPATCHER_BYTES_PER_DETECTION = 1024;
+
+    /**
+     * The recognition threads allocate the results and windows of each session, about 10KB for the
+     * default events, and nothing for each frame
+     */
+    private static final long RECOGNITION_BYTES_PER_DETECTION = 16 * 1024;
+
+    @Test
+    public void detectionAllocatesNothingPerBuffer() throws IOException {
+        assertDetectionWithinBudgets();
+    }
+
+    @Test
+    public void detectionAllocatesNothingPerBufferWhileTracing() throws IOException {
+        TraceRecorder trace = TraceRecorder.getInstance();
+        trace.setEnabled(true);
+        try {
+            assertDetectionWithinBudgets();
+        } finally {
+            trace.setEnabled(false);
+            trace.clear();
+        }
+    }
+
+    /**
+     * Every slice and instant the detection and recognition record while tracing, written into the
+     * recorder's preallocated slots, more times than it has slots so that the ring wraps around
+     */
+    @Test
+    public void traceRecorderAllocatesNothingPerEvent() {
+        assumeTrue(ThreadAllocation.isSupported());
+
+        TraceRecorder trace = new TraceRecorder(1024);
+        trace.setEnabled(true);
+        Thread thread = Thread.currentThread();
+        long readCost = ThreadAllocation.readCost();
+        long bytes = Long.MAX_VALUE;
+        for (int i = 0; i <= WARM_UP_REPLAYS + MEASURED_REPLAYS && bytes != 0; i++) {
+            long before = ThreadAllocation.allocatedBytes(thread);
+            for (int event = 0; event < 2 * trace.getCapacity(); event++) {
+                long start = System.nanoTime();
+                trace.complete("dispatcher", "buffer", start, event, "rms", 0.01 * event);
+                trace.complete("recognition", "frame", start, event);
+                trace.instant("dtw", "glass breaking", event, "outcome", "candidate", "cost", event,
+                        "maxCost", 300, "matchMillis", 0.1);
+            }
+            long allocated = ThreadAllocation.allocatedBytes(thread) - before - readCost;
+            if (i >= WARM_UP_REPLAYS) {
+                bytes = allocated;
+            }
+        }
+        assertEquals("Recording trace events allocated " + bytes + " bytes", 0, bytes);
+    }
+
+    private void assertDetectionWithinBudgets() throws IOException {
+        File[] recordings = DetectionReplay.listRecordings(DEFAULT_EVENTS);
+        assumeTrue(recordings.length > 0 && ThreadAllocation.isSupported());
+
+        DetectionReplay replay = new DetectionReplay(DetectionReplay.enrol(Arrays.asList(recordings)));
+        try {
+            for (int i = 0; i < WARM_UP_REPLAYS; i++) {
+                for (File recording : recordings) {
+                    replay.replay(recording);
+                }
+            }
+
+            for (File recording : recordings) {
+                DetectionMeasurement measurement = measureDetection(replay, recording);
+                for (int i = 1; i < MEASURED_REPLAYS && !measurement.isSteady(); i++) {
+                    DetectionMeasurement next = measureDetection(replay, recording);
+                    if (next.probe.getAllocatingBuffers() < measurement.probe.getAllocatingBuffers()
+                            || next.isSteady()) {
+                        measurement = next;
+                    }
+                }
+
+                DetectionReplay.Result result = measurement.result;
+                BufferAllocationProbe probe = measurement.probe;
+                long detections = result.getDetections();
+                System.out.println(String.format("%s: %d of %d buffers allocated %d bytes, recognition "
+                        + "allocated %d bytes for %d detections, %d overruns, %d gaps", recording.getName(),
+                        probe.getAllocatingBuffers(), probe.getBuffers(), probe.getTotalBytes(),
+                        measurement.recognitionBytes, detections, result.getOverruns(), result.getGaps()));
+
+                assertTrue(recording.getName() + " was not detected", detections > 0);
+                assertTrue(recording.getName() + ": " + probe.getAllocatingBuffers()
+                                + " buffers allocated, only the start of each event may",
+                        probe.getAllocatingBuffers() <= ALLOCATING_BUFFERS_PER_DETECTION * detections);
+                assertTrue(recording.getName() + ": the dispatcher allocated " + probe.getTotalBytes() + " bytes",
+                        probe.getTotalBytes() <= DISPATCHER_BYTES_PER_DETECTION * detections);
+                assertTrue(recording.getName() + ": recognition allocated " + measurement.recognitionBytes
+                                + " bytes", measurement.recognitionBytes <= RECOGNITION_BYTES_PER_DETECTION * detections);
+            }
+        } finally {
+            replay.shutdown();
+        }
+    }
+
+    /**
+     * The bytes allocated by one replay of a recording, on the dispatcher's thread for each buffer and on
+     * the recognition threads in all
+     */
+    private static final class DetectionMeasurement {
+
+        final DetectionReplay.Result result;
+        final BufferAllocationProbe probe;
+        final long recognitionBytes;
+
+        DetectionMeasurement(DetectionReplay.Result result, BufferAllocationProbe probe, long recognitionBytes) {
+            this.result = result;
+            this.probe = probe;
+            this.recognitionBytes = recognitionBytes;
+        }
+
+        /**
+         * @return true if the replay ran without an overrun or a gap and within the budgets
+         */
+        boolean isSteady() {
+            long detections = result.getDetections();
+            return result.getOverruns() == 0 && result.getGaps() == 0 && detections > 0
+                    && probe.getAllocatingBuffers() <= ALLOCATING_BUFFERS_PER_DETECTION * detections
+                    && probe.getTotalBytes() <= DISPATCHER_BYTES_PER_DETECTION * detections
+                    && recognitionBytes <= RECOGNITION_BYTES_PER_DETECTION * detections;
+        }
+    }
+
+    private static DetectionMeasurement measureDetection(DetectionReplay replay, File recording)
+            throws IOException {
+        BufferAllocationProbe probe = new BufferAllocationProbe(MAX_BUFFERS);
+        long recognitionBytes = ThreadAllocation.allocatedBytes("Recognition-");
+        DetectionReplay.Result result = replay.replay(recording, probe);
+        recognitionBytes = ThreadAllocation.allocatedBytes("Recognition-") - recognitionBytes;
+        return new DetectionMeasurement(result, probe, recognitionBytes);
+    }
+
+    /**
+     * The frames of each recording through the chain a recognition thread runs for every frame of an
+     * event, on this thread so that each frame can be counted: the MFCC, the dynamic features, the copy
+     * of the feature vector and the online DTW against every default event.
+     */
+    @Test
+    public void recognitionAllocatesNothingPerFrame() throws IOException {
+        File[] recordings = DetectionReplay.listRecordings(DEFAULT_EVENTS);
+        assumeTrue(recordings.length > 0 && ThreadAllocation.isSupported());
+
+        List<AcousticEvent> knownEvents = DetectionReplay.enrol(Arrays.asList(recordings));
+        MFCC mfcc = new MFCC(DetectionReplay.AUDIO_BUFFER_SIZE, DetectionReplay.SAMPLE_RATE, 13, 20,
+                133.33f, 8000f, true);
+        final DeltaFeatureProcessor deltaFeatures = new DeltaFeatureProcessor(mfcc, 13);
+        final OnlineDtwMatcher matcher = new OnlineDtwMatcher();
+        final float[] features = new float[deltaFeatures.getFeatureLength()];
+        AudioProcessor matching = new AudioProcessor() {
+            @Override
+            public boolean process(AudioEvent audioEvent) {
+                if (deltaFeatures.isFeatureReady()) {
+                    deltaFeatures.copyFeatures(features);
+                    matcher.addFrame(features);
+                }
+                return true;
+            }
+
+            @Override
+            public void processingFinished() {
+
+            }
+        };
+
+        for (int i = 0; i < WARM_UP_REPLAYS; i++) {
+            for (File recording : recordings) {
+                replayFrames(recording, mfcc, deltaFeatures, matching, matcher, knownEvents);
+            }
+        }
+
+        for (File recording : recordings) {
+            BufferAllocationProbe probe = replayFrames(recording, mfcc, deltaFeatures, matching, matcher,
+                    knownEvents);
+            for (int i = 1; i < MEASURED_REPLAYS && probe.getAllocatingBuffers() > 0; i++) {
+                BufferAllocationProbe next = replayFrames(recording, mfcc, deltaFeatures, matching, matcher,
+                        knownEvents);
+                if (next.getAllocatingBuffers() < probe.getAllocatingBuffers()) {
+                    probe = next;
+                }
+            }
+            System.out.println(String.format("%s: %d of %d frames allocated %d bytes", recording.getName(),
+                    probe.getAllocatingBuffers(), probe.getBuffers(), probe.getTotalBytes()));
+            assertEquals(recording.getName() + ": frames allocated " + probe.getTotalBytes() + " bytes",
+                    0, probe.getAllocatingBuffers());
+        }
+    }
+
+    private static BufferAllocationProbe replayFrames(File recording, MFCC mfcc, DeltaFeatureProcessor deltaFeatures,
+                                                      AudioProcessor matching, OnlineDtwMatcher matcher,
+                                                      List<AcousticEvent> knownEvents) throws IOException {
+        BufferAllocationProbe probe = new BufferAllocationProbe(MAX_BUFFERS);
+        AudioDispatcher dispatcher = new AudioDispatcher(new WavFileAudioInputStream(recording, 0, 0),
+                DetectionReplay.AUDIO_BUFFER_SIZE, DetectionReplay.BUFFER_OVERLAP);
+        dispatcher.addAudioProcessor(mfcc);
+        dispatcher.addAudioProcessor(deltaFeatures);
+        dispatcher.addAudioProcessor(matching);
+        dispatcher.addAudioProcessor(probe);
+        deltaFeatures.reset();
+        matcher.start(knownEvents);
+        dispatcher.run();
+        return probe;
+    }
+}
@@ -0,0 +1,390 @@
+package com.example.thirdearoftruth.replay;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Builds synthetic streams of the sounds in a set of recordings scattered through background noise, with
+ * the ground truth of where each sound was inserted, so the detection can be loaded with hours of audio
+ * at a realistic density of events without anybody making any noise.
+ *
+ * Each sound is inserted either at a signal-to-noise ratio, which sets its gain relative to the noise,
+ * or at a fixed gain. The level of a recording is the RMS of its loud part, the buffers within
+ * LOUD_RANGE_DB of its loudest, so the silence around a short impact does not lower it. Sounds can be
+ * placed at given times, or scattered at random: after each sound the next starts a minimum gap plus an
+ * exponentially distributed wait later, its recording chosen at random and its SNR drawn uniformly from
+ * the range given. Sounds never overlap.
+ *
+ * The generator is configured by chained setters and the same seed always gives the same stream. The
+ * stream is generated as it is read, so an hours-long stream takes no more memory than the recordings.
+ */
+public class MixedSnrGenerator {
+
+    /**
+     * The colour of the background noise
+     */
+    public enum Noise {
+        WHITE,
+        /** -3dB per octave, like the broadband hiss of a room */
+        PINK,
+        /** -6dB per octave, like traffic rumble or a boiler */
+        BROWN
+    }
+
+    /**
+     * Where one sound was inserted into the stream and how loud
+     */
+    public static final class Insertion {
+
+        private final String name;
+        private final long startSample;
+        private final long endSample;
+        private final double gain;
+        private final double snrDb;
+
+        Insertion(String name, long startSample, long endSample, double gain, double snrDb) {
+            this.name = name;
+            this.startSample = startSample;
+            this.endSample = endSample;
+            this.gain = gain;
+            this.snrDb = snrDb;
+        }
+
+        /**
+         * @return the name of the recording inserted, its file name without the extension
+         */
+        public String getName() {
+            return name;
+        }
+
+        public long getStartSample() {
+            return startSample;
+        }
+
+        /**
+         * @return the sample after the last sample of the recording
+         */
+        public long getEndSample() {
+            return endSample;
+        }
+
+        /**
+         * @return the factor the recording's samples were multiplied by
+         */
+        public double getGain() {
+            return gain;
+        }
+
+        /**
+         * @return the level of the loud part of the recording above the noise, in dB
+         */
+        public double getSnrDb() {
+            return snrDb;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, "%s at %.3fs, %.1fdB SNR", name,
+                    startSample / (double) DetectionReplay.SAMPLE_RATE, snrDb);
+        }
+    }
+
+    /**
+     * A sound placed at a given time, at either an SNR or a gain
+     */
+    private static final class Placement {
+
+        final int recording;
+        final double atSeconds;
+        final double snrDb;
+        final double gainDb;
+
+        Placement(int recording, double atSeconds, double snrDb, double gainDb) {
+            this.recording = recording;
+            this.atSeconds = atSeconds;
+            this.snrDb = snrDb;
+            this.gainDb = gainDb;
+        }
+    }
+
+    /**
+     * The range below the loudest buffer of a recording that counts as its loud part
+     */
+    static final double LOUD_RANGE_DB = 20;
+
+    private final List<String> names = new ArrayList<>();
+    private final List<float[]> recordings = new ArrayList<>();
+    private final List<Double> loudness = new ArrayList<>();
+    private final List<Placement> placements = new ArrayList<>();
+
+    private double durationSeconds = 3600;
+    private Noise noise = Noise.PINK;
+    private double noiseLevelDb = -50;
+    private double minSnrDb = 0;
+    private double maxSnrDb = 20;
+    private double meanGapSeconds = 20;
+    private double minGapSeconds = 2;
+    private long seed = 1;
+
+
+    /**
+     * @param recordings the 44100Hz, 16 bit WAV files of the sounds to insert
+     * @throws IOException if a recording cannot be read
+     */
+    public MixedSnrGenerator(List<File> recordings) throws IOException {
+        for (File recording : recordings) {
+            float[] samples = readSamples(recording);
+            names.add(DetectionReplay.nameOf(recording));
+            this.recordings.add(samples);
+            loudness.add(loudRms(samples));
+        }
+        if (this.recordings.isEmpty()) {
+            throw new IllegalArgumentException("No recordings to insert");
+        }
+    }
+
+    /**
+     * @param seconds the length of the stream
+     */
+    public MixedSnrGenerator duration(double seconds) {
+        durationSeconds = seconds;
+        return this;
+    }
+
+    /**
+     * @param noise the colour of the background noise
+     * @param levelDb the RMS of the noise relative to full scale, such as -50 for a quiet room
+     */
+    public MixedSnrGenerator noise(Noise noise, double levelDb) {
+        this.noise = noise;
+        this.noiseLevelDb = levelDb;
+        return this;
+    }
+
+    /**
+     * @param minDb the lowest SNR a sound scattered at random is inserted at
+     * @param maxDb the highest
+     */
+    public MixedSnrGenerator snr(double minDb, double maxDb) {
+        if (maxDb < minDb) {
+            throw new IllegalArgumentException("SNR range " + minDb + " to " + maxDb + "dB is empty");
+        }
+        minSnrDb = minDb;
+        maxSnrDb = maxDb;
+        return this;
+    }
+
+    /**
+     * @param minSeconds the least silence between the end of a sound scattered at random and the next
+     * @param meanSeconds the average time from the end of one sound to the start of the next
+     */
+    public MixedSnrGenerator gaps(double minSeconds, double meanSeconds) {
+        if (meanSeconds < minSeconds || minSeconds < 0) {
+            throw new IllegalArgumentException("Gaps of at least " + minSeconds + "s cannot average "
+                    + meanSeconds + "s");
+        }
+        minGapSeconds = minSeconds;
+        meanGapSeconds = meanSeconds;
+        return this;
+    }
+
+    public MixedSnrGenerator seed(long seed) {
+        this.seed = seed;
+        return this;
+    }
+
+    /**
+     * Places a sound at a given time instead of scattering them at random. Once any sound is placed, only
+     * the placed sounds are inserted.
+     *
+     * @param recording the index of the recording, in the order they were given
+     * @param atSeconds the time of the start of the recording in the stream
+     * @param snrDb the level of its loud part above the noise
+     */
+    public MixedSnrGenerator insertAtSnr(int recording, double atSeconds, double snrDb) {
+        placements.add(new Placement(recording, atSeconds, snrDb, Double.NaN));
+        return this;
+    }
+
+    /**
+     * Places a sound at a given time and gain, whatever the level of the noise
+     *
+     * @param recording the index of the recording, in the order they were given
+     * @param atSeconds the time of the start of the recording in the stream
+     * @param gainDb the gain applied to the recording, 0 to insert it as it was recorded
+     */
+    public MixedSnrGenerator insertAtGain(int recording, double atSeconds, double gainDb) {
+        placements.add(new Placement(recording, atSeconds, Double.NaN, gainDb));
+        return this;
+    }
+
+
+    /**
+     * @return the names of the recordings, in the order they were given
+     */
+    public List<String> getNames() {
+        return Collections.unmodifiableList(names);
+    }
+
+    /**
+     * @return the sounds the stream will hold, in the order they start
+     */
+    public List<Insertion> schedule() {
+        long totalSamples = totalSamples();
+        double noiseRms = Math.pow(10, noiseLevelDb / 20);
+        List<Insertion> schedule = new ArrayList<>();
+
+        if (!placements.isEmpty()) {
+            for (Placement placement : placements) {
+                long start = Math.round(placement.atSeconds * DetectionReplay.SAMPLE_RATE);
+                double gain = Double.isNaN(placement.gainDb)
+                        ? noiseRms * Math.pow(10, placement.snrDb / 20) / loudness.get(placement.recording)
+                        : Math.pow(10, placement.gainDb / 20);
+                schedule.add(insertion(placement.recording, start, gain, noiseRms));
+            }
+            Collections.sort(schedule, new Comparator<Insertion>() {
+                @Override
+                public int compare(Insertion a, Insertion b) {
+                    return Long.compare(a.startSample, b.startSample);
+                }
+            });
+            for (int i = 1; i < schedule.size(); i++) {
+                if (schedule.get(i).startSample < schedule.get(i - 1).endSample) {
+                    throw new IllegalArgumentException(schedule.get(i) + " overlaps " + schedule.get(i - 1));
+                }
+            }
+            return schedule;
+        }
+
+        Random random = new Random(seed);
+        long minGap = Math.round(minGapSeconds * DetectionReplay.SAMPLE_RATE);
+        double meanWait = (meanGapSeconds - minGapSeconds) * DetectionReplay.SAMPLE_RATE;
+        long start = minGap;
+        while (true) {
+            start += Math.round(-meanWait * Math.log(1 - random.nextDouble()));
+            int recording = random.nextInt(recordings.size());
+            if (start + recordings.get(recording).length > totalSamples) {
+                return schedule;
+            }
+            double snrDb = minSnrDb + random.nextDouble() * (maxSnrDb - minSnrDb);
+            double gain = noiseRms * Math.pow(10, snrDb / 20) / loudness.get(recording);
+            Insertion insertion = insertion(recording, start, gain, noiseRms);
+            schedule.add(insertion);
+            start = insertion.endSample + minGap;
+        }
+    } // end schedule
+
+    private Insertion insertion(int recording, long start, double gain, double noiseRms) {
+        double snrDb = 20 * Math.log10(gain * loudness.get(recording) / noiseRms);
+        return new Insertion(names.get(recording), start, start + recordings.get(recording).length, gain, snrDb);
+    }
+
+    /**
+     * @param schedule the sounds to insert, in the order they start, as given by schedule()
+     * @return the stream of the noise with the sounds mixed into it, generated as it is read
+     */
+    public MixedSnrStream open(List<Insertion> schedule) {
+        float[][] samples = new float[schedule.size()][];
+        for (int i = 0; i < schedule.size(); i++) {
+            samples[i] = recordings.get(names.indexOf(schedule.get(i).getName()));
+        }
+        return new MixedSnrStream(totalSamples(), noise, Math.pow(10, noiseLevelDb / 20), seed, schedule, samples);
+    }
+
+    private long totalSamples() {
+        return Math.round(durationSeconds * DetectionReplay.SAMPLE_RATE);
+    }
+
+
+    /**
+     * Writes the ground truth as tab separated values with a header, one sound per line
+     *
+     * @param schedule the sounds of the stream
+     * @param labels the file to write
+     * @throws IOException if the file cannot be written
+     */
+    public static void writeLabels(List<Insertion> schedule, File labels) throws IOException {
+        try (PrintWriter writer = new PrintWriter(labels, "UTF-8")) {
+            writer.println("start_seconds\tend_seconds\tstart_sample\tend_sample\tname\tsnr_db\tgain_db");
+            for (Insertion insertion : schedule) {
+                writer.println(String.format(Locale.ROOT, "%.6f\t%.6f\t%d\t%d\t%s\t%.2f\t%.2f",
+                        insertion.startSample / (double) DetectionReplay.SAMPLE_RATE,
+                        insertion.endSample / (double) DetectionReplay.SAMPLE_RATE,
+                        insertion.startSample, insertion.endSample, insertion.name, insertion.snrDb,
+                        20 * Math.log10(insertion.gain)));
+            }
+        }
+    }
+
+
+    /**
+     * @param recording a 44100Hz, 16 bit WAV file
+     * @return its samples mixed down to mono, between -1 and 1
+     * @throws IOException if the recording cannot be read
+     */
+    static float[] readSamples(File recording) throws IOException {
+        WavFileAudioInputStream stream = new WavFileAudioInputStream(recording, 0, 0);
+        if (stream.getFormat().getSampleRate() != DetectionReplay.SAMPLE_RATE) {
+            throw new IllegalArgumentException(recording.getName() + " is " + stream.getFormat().getSampleRate()
+                    + "Hz, recordings must be " + DetectionReplay.SAMPLE_RATE + "Hz like the microphone");
+        }
+        ByteArrayOutputStream pcm = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int read;
+        try {
+            while ((read = stream.read(buffer, 0, buffer.length)) > 0) {
+                pcm.write(buffer, 0, read);
+            }
+        } finally {
+            stream.close();
+        }
+        byte[] bytes = pcm.toByteArray();
+        float[] samples = new float[bytes.length / 2];
+        for (int i = 0; i < samples.length; i++) {
+            samples[i] = (short) ((bytes[2 * i] & 0xff) | (bytes[2 * i + 1] << 8)) / 32768f;
+        }
+        return samples;
+    }
+
+    /**
+     * @return the RMS of the buffers of the recording within LOUD_RANGE_DB of its loudest buffer
+     */
+    static double loudRms(float[] samples) {
+        int bufferSize = DetectionReplay.AUDIO_BUFFER_SIZE;
+        int buffers = Math.max(1, (samples.length + bufferSize - 1) / bufferSize);
+        double[] power = new double[buffers];
+        double loudest = 0;
+        for (int b = 0; b < buffers; b++) {
+            int from = b * bufferSize;
+            int to = Math.min(samples.length, from + bufferSize);
+            double sum = 0;
+            for (int i = from; i < to; i++) {
+                sum += samples[i] * samples[i];
+            }
+            power[b] = to > from ? sum / (to - from) : 0;
+            loudest = Math.max(loudest, power[b]);
+        }
+        if (loudest == 0) {
+            throw new IllegalArgumentException("The recording is silent");
+        }
+        double floor = loudest * Math.pow(10, -LOUD_RANGE_DB / 10);
+        double sum = 0;
+        int loud = 0;
+        for (double p : power) {
+            if (p >= floor) {
+                sum += p;
+                loud++;
+            }
+        }
+        return Math.sqrt(sum / loud);
+    }
+
+}
@@ -0,0 +1,93 @@
+package com.example.thirdearoftruth.replay;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Checks the schedule and the levels of the synthetic streams made from the default event recordings
+ */
+public class MixedSnrGeneratorTest {
+
+    /**
+     * The recordings of the default events, relative to the app module
+     */
+    private static final File DEFAULT_EVENTS = new File("../../../Default Acoustic Events");
+
+    @Test
+    public void scheduleKeepsSoundsApartWithinTheStream() throws IOException {
+        File[] recordings = DetectionReplay.listRecordings(DEFAULT_EVENTS);
+        assumeTrue(recordings.length > 0);
+
+        MixedSnrGenerator generator = new MixedSnrGenerator(Arrays.asList(recordings))
+                .duration(600).snr(5, 15).gaps(2, 10).seed(3);
+        List<MixedSnrGenerator.Insertion> schedule = generator.schedule();
+        assertFalse(schedule.isEmpty());
+        assertEquals(schedule.toString(), generator.schedule().toString());
+
+        long minGap = 2 * DetectionReplay.SAMPLE_RATE;
+        long previousEnd = 0;
+        for (MixedSnrGenerator.Insertion insertion : schedule) {
+            assertTrue(insertion + " starts too soon", insertion.getStartSample() >= previousEnd + minGap);
+            assertTrue(insertion + " is beyond the stream", insertion.getEndSample() <= 600L * DetectionReplay.SAMPLE_RATE);
+            assertEquals(10, insertion.getSnrDb(), 5 + 1e-9);
+            previousEnd = insertion.getEndSample();
+        }
+    }
+
+    /**
+     * The same seed gives the same noise, so the noise alone subtracted from the mix leaves the sound as
+     * it was inserted
+     */
+    @Test
+    public void soundIsInsertedAtItsSnr() throws IOException {
+        File[] recordings = DetectionReplay.listRecordings(DEFAULT_EVENTS);
+        assumeTrue(recordings.length > 0);
+
+        MixedSnrGenerator generator = new MixedSnrGenerator(Arrays.asList(recordings))
+                .duration(10).noise(MixedSnrGenerator.Noise.WHITE, -40).insertAtSnr(0, 2, 10);
+        List<MixedSnrGenerator.Insertion> schedule = generator.schedule();
+        float[] mix = read(generator.open(schedule));
+        float[] noise = read(generator.open(Collections.<MixedSnrGenerator.Insertion>emptyList()));
+        assertEquals(10 * DetectionReplay.SAMPLE_RATE, mix.length);
+
+        MixedSnrGenerator.Insertion insertion = schedule.get(0);
+        int start = (int) insertion.getStartSample();
+        float[] sound = new float[(int) (insertion.getEndSample() - start)];
+        for (int i = 0; i < sound.length; i++) {
+            sound[i] = mix[start + i] - noise[start + i];
+        }
+        double noiseDb = 20 * Math.log10(rms(noise));
+        double soundDb = 20 * Math.log10(MixedSnrGenerator.loudRms(sound));
+        assertEquals(-40, noiseDb, 0.1);
+        assertEquals(10, soundDb - noiseDb, 0.1);
+    }
+
+    private static float[] read(MixedSnrStream stream) {
+        float[] samples = new float[(int) stream.getFrameLength()];
+        byte[] buffer = new byte[4096];
+        int position = 0;
+        int read;
+        while ((read = stream.read(buffer, 0, buffer.length)) > 0) {
+            for (int i = 0; i < read / 2; i++) {
+                samples[position++] = (short) ((buffer[2 * i] & 0xff) | (buffer[2 * i + 1] << 8)) / 32768f;
+            }
+        }
+        return Arrays.copyOf(samples, position);
+    }
+
+    private static double rms(float[] samples) {
+        double sum = 0;
+        for (float sample : samples) {
+            sum += sample * sample;
+        }
+        return Math.sqrt(sum / samples.length);
+    }
+}
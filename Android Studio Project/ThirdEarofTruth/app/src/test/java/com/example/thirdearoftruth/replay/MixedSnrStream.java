@@ -0,0 +1,221 @@
+package com.example.thirdearoftruth.replay;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.Random;
+
+import be.tarsos.dsp.io.TarsosDSPAudioFormat;
+import be.tarsos.dsp.io.TarsosDSPAudioInputStream;
+
+/**
+ * Background noise with sounds mixed into it, generated as it is read, in the format the DetectionService
+ * records in: 44100Hz, 16 bit, signed, little endian, mono PCM. Made by MixedSnrGenerator.
+ *
+ * The noise is scaled to its level by measuring the first seconds of an identical generator beforehand.
+ * Samples beyond full scale are clipped and counted.
+ */
+public class MixedSnrStream implements TarsosDSPAudioInputStream {
+
+    /**
+     * The seconds of noise measured to scale it to its level
+     */
+    private static final int CALIBRATION_SECONDS = 10;
+
+    private final TarsosDSPAudioFormat format;
+    private final long totalSamples;
+    private final List<MixedSnrGenerator.Insertion> schedule;
+    private final float[][] insertedSamples;
+    private final NoiseSource noise;
+
+    private long position;
+    private int nextInsertion;
+    private long clippedSamples;
+
+    /**
+     * Coloured noise of unit scale from a seeded generator
+     */
+    private static final class NoiseSource {
+
+        private final MixedSnrGenerator.Noise colour;
+        private final Random random;
+        private double b0, b1, b2, b3, b4, b5, b6;
+        private double scale = 1;
+
+        NoiseSource(MixedSnrGenerator.Noise colour, long seed) {
+            this.colour = colour;
+            this.random = new Random(seed);
+        }
+
+        double next() {
+            double white = random.nextGaussian();
+            switch (colour) {
+                case PINK:
+                    // Paul Kellet's filter, within 0.05dB of -3dB per octave above 9Hz at 44100Hz
+                    b0 = 0.99886 * b0 + white * 0.0555179;
+                    b1 = 0.99332 * b1 + white * 0.0750759;
+                    b2 = 0.96900 * b2 + white * 0.1538520;
+                    b3 = 0.86650 * b3 + white * 0.3104856;
+                    b4 = 0.55000 * b4 + white * 0.5329522;
+                    b5 = -0.7616 * b5 - white * 0.0168980;
+                    double pink = b0 + b1 + b2 + b3 + b4 + b5 + b6 + white * 0.5362;
+                    b6 = white * 0.115926;
+                    return pink * scale;
+                case BROWN:
+                    // a leaky integrator, so the noise does not wander off into a DC offset
+                    b0 = 0.995 * b0 + white * 0.1;
+                    return b0 * scale;
+                default:
+                    return white * scale;
+            }
+        }
+    }
+
+
+    MixedSnrStream(long totalSamples, MixedSnrGenerator.Noise colour, double noiseRms, long seed,
+                   List<MixedSnrGenerator.Insertion> schedule, float[][] insertedSamples) {
+        this.format = new TarsosDSPAudioFormat(DetectionReplay.SAMPLE_RATE, 16, 1, true, false);
+        this.totalSamples = totalSamples;
+        this.schedule = schedule;
+        this.insertedSamples = insertedSamples;
+
+        NoiseSource calibration = new NoiseSource(colour, seed);
+        double sum = 0;
+        int samples = CALIBRATION_SECONDS * DetectionReplay.SAMPLE_RATE;
+        for (int i = 0; i < samples; i++) {
+            double sample = calibration.next();
+            sum += sample * sample;
+        }
+        noise = new NoiseSource(colour, seed);
+        noise.scale = noiseRms / Math.sqrt(sum / samples);
+    }
+
+
+    // getters
+
+    /**
+     * @return the number of samples read so far
+     */
+    public long getPosition() {
+        return position;
+    }
+
+    /**
+     * @return the number of samples so far that were beyond full scale and clipped
+     */
+    public long getClippedSamples() {
+        return clippedSamples;
+    }
+
+    @Override
+    public TarsosDSPAudioFormat getFormat() {
+        return format;
+    }
+
+    @Override
+    public long getFrameLength() {
+        return totalSamples;
+    }
+
+
+    // Methods
+
+    @Override
+    public int read(byte[] b, int off, int len) {
+        int samples = (int) Math.min(len / 2, totalSamples - position);
+        if (samples <= 0) {
+            return -1;
+        }
+        for (int i = 0; i < samples; i++) {
+            double sample = noise.next();
+
+            while (nextInsertion < schedule.size() && schedule.get(nextInsertion).getEndSample() <= position) {
+                nextInsertion++;
+            }
+            if (nextInsertion < schedule.size()) {
+                MixedSnrGenerator.Insertion insertion = schedule.get(nextInsertion);
+                if (position >= insertion.getStartSample()) {
+                    sample += insertion.getGain()
+                            * insertedSamples[nextInsertion][(int) (position - insertion.getStartSample())];
+                }
+            }
+
+            int pcm = (int) Math.round(sample * 32768);
+            if (pcm > Short.MAX_VALUE || pcm < Short.MIN_VALUE) {
+                pcm = Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, pcm));
+                clippedSamples++;
+            }
+            b[off + 2 * i] = (byte) pcm;
+            b[off + 2 * i + 1] = (byte) (pcm >> 8);
+            position++;
+        }
+        return samples * 2;
+    }
+
+    @Override
+    public long skip(long bytesToSkip) {
+        byte[] discard = new byte[4096];
+        long skipped = 0;
+        while (skipped < bytesToSkip) {
+            int read = read(discard, 0, (int) Math.min(discard.length, bytesToSkip - skipped));
+            if (read < 0) {
+                break;
+            }
+            skipped += read;
+        }
+        return skipped;
+    }
+
+    @Override
+    public void close() {
+
+    }
+
+
+    /**
+     * Reads the rest of the stream into a WAV file, a few kilobytes at a time
+     *
+     * @param wav the file to write
+     * @throws IOException if the file cannot be written
+     */
+    public void writeWav(File wav) throws IOException {
+        long dataBytes = 2 * (totalSamples - position);
+        if (dataBytes + 36 > 0xffffffffL) {
+            throw new IllegalArgumentException("A WAV file cannot hold " + dataBytes + " bytes");
+        }
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(wav))) {
+            out.write(new byte[]{'R', 'I', 'F', 'F'});
+            writeInt(out, (int) (dataBytes + 36));
+            out.write(new byte[]{'W', 'A', 'V', 'E', 'f', 'm', 't', ' '});
+            writeInt(out, 16);
+            writeShort(out, 1);
+            writeShort(out, 1);
+            writeInt(out, DetectionReplay.SAMPLE_RATE);
+            writeInt(out, DetectionReplay.SAMPLE_RATE * 2);
+            writeShort(out, 2);
+            writeShort(out, 16);
+            out.write(new byte[]{'d', 'a', 't', 'a'});
+            writeInt(out, (int) dataBytes);
+
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = read(buffer, 0, buffer.length)) > 0) {
+                out.write(buffer, 0, read);
+            }
+        }
+    }
+
+    private static void writeInt(OutputStream out, int value) throws IOException {
+        writeShort(out, value);
+        writeShort(out, value >> 16);
+    }
+
+    private static void writeShort(OutputStream out, int value) throws IOException {
+        out.write(value);
+        out.write(value >> 8);
+    }
+
+}
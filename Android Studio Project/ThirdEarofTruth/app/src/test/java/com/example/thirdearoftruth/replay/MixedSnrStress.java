@@ -0,0 +1,256 @@
+package com.example.thirdearoftruth.replay;
+
+import com.example.thirdearoftruth.audio.SessionTrace;
+import com.example.thirdearoftruth.utils.AudioEvent;
+import com.example.thirdearoftruth.utils.AudioProcessor;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Loads the detection with a synthetic stream from MixedSnrGenerator and scores it against the ground
+ * truth: how many sounds were detected and named correctly, how many detections were false positives,
+ * how much faster than real time the stream was processed and the most heap it needed.
+ *
+ * A detection is a hit if its onset lies between PRE_ONSET_TOLERANCE_SECONDS before a sound's start and
+ * the sound's end. Further detections in the same sound are splits, detections outside every sound are
+ * false positives. Sessions abandoned without notifying are counted from the detections without a trace.
+ *
+ * Run from the app module with the folder of recordings and any of the settings, for example
+ *
+ *     java ... com.example.thirdearoftruth.replay.MixedSnrStress "../../../Default Acoustic Events" \
+ *         hours=2 noise=pink level=-50 snr=0:20 gap=3:30 seed=7 labels=truth.tsv wav=mix.wav
+ *
+ * wav= writes the stream to a WAV file as well, which is then replayed from the file.
+ */
+public class MixedSnrStress {
+
+    static final double PRE_ONSET_TOLERANCE_SECONDS = 0.5;
+
+    /**
+     * How often the heap is sampled, in buffers
+     */
+    private static final int HEAP_SAMPLE_BUFFERS = 64;
+
+    /**
+     * Keeps the most heap in use seen every HEAP_SAMPLE_BUFFERS buffers
+     */
+    private static final class HeapCeilingProbe implements AudioProcessor {
+
+        private final Runtime runtime = Runtime.getRuntime();
+        private long buffers;
+        private long maxUsedBytes;
+
+        @Override
+        public boolean process(AudioEvent audioEvent) {
+            if (buffers++ % HEAP_SAMPLE_BUFFERS == 0) {
+                maxUsedBytes = Math.max(maxUsedBytes, runtime.totalMemory() - runtime.freeMemory());
+            }
+            return true;
+        }
+
+        @Override
+        public void processingFinished() {
+
+        }
+    }
+
+    /**
+     * How the detections of a replay compare with the ground truth
+     */
+    public static final class Score {
+
+        private final int sounds;
+        private final int hits;
+        private final int namedCorrectly;
+        private final int splits;
+        private final int falsePositives;
+        private final long abandoned;
+        private final double audioHours;
+
+        Score(int sounds, int hits, int namedCorrectly, int splits, int falsePositives, long abandoned,
+              double audioHours) {
+            this.sounds = sounds;
+            this.hits = hits;
+            this.namedCorrectly = namedCorrectly;
+            this.splits = splits;
+            this.falsePositives = falsePositives;
+            this.abandoned = abandoned;
+            this.audioHours = audioHours;
+        }
+
+        public int getSounds() {
+            return sounds;
+        }
+
+        /**
+         * @return the sounds detected at least once
+         */
+        public int getHits() {
+            return hits;
+        }
+
+        /**
+         * @return the sounds whose first detection was named after the recording inserted
+         */
+        public int getNamedCorrectly() {
+            return namedCorrectly;
+        }
+
+        public int getFalsePositives() {
+            return falsePositives;
+        }
+
+        /**
+         * @return the false positives per hour of audio
+         */
+        public double getFalsePositivesPerHour() {
+            return audioHours == 0 ? 0 : falsePositives / audioHours;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, "%d sounds: %d detected (recall %.3f), %d named correctly, "
+                            + "%d split, %d false positives (%.1f/hour), %d sessions abandoned",
+                    sounds, hits, sounds == 0 ? 0 : hits / (double) sounds, namedCorrectly, splits,
+                    falsePositives, getFalsePositivesPerHour(), abandoned);
+        }
+    }
+
+
+    /**
+     * @param schedule the sounds inserted, in the order they start
+     * @param result the replay of the stream they were inserted into
+     * @return how the detections compare with the sounds
+     */
+    public static Score score(List<MixedSnrGenerator.Insertion> schedule, DetectionReplay.Result result) {
+        long tolerance = Math.round(PRE_ONSET_TOLERANCE_SECONDS * DetectionReplay.SAMPLE_RATE);
+
+        // a session notifies once for every sound it names, the first notification carries its name
+        Map<SessionTrace, String> sessions = new IdentityHashMap<>();
+        List<SessionTrace> onsets = new ArrayList<>();
+        for (int i = 0; i < result.getTraces().size(); i++) {
+            SessionTrace trace = result.getTraces().get(i);
+            if (!sessions.containsKey(trace)) {
+                sessions.put(trace, result.getLabels().get(i));
+                onsets.add(trace);
+            }
+        }
+
+        boolean[] detected = new boolean[schedule.size()];
+        int hits = 0;
+        int namedCorrectly = 0;
+        int splits = 0;
+        int falsePositives = 0;
+        for (SessionTrace trace : onsets) {
+            long onset = trace.getOnsetSampleClock();
+            int sound = -1;
+            for (int i = 0; i < schedule.size(); i++) {
+                MixedSnrGenerator.Insertion insertion = schedule.get(i);
+                if (onset >= insertion.getStartSample() - tolerance && onset < insertion.getEndSample()) {
+                    sound = i;
+                    break;
+                }
+            }
+            if (sound < 0) {
+                falsePositives++;
+            } else if (detected[sound]) {
+                splits++;
+            } else {
+                detected[sound] = true;
+                hits++;
+                if (schedule.get(sound).getName().equals(sessions.get(trace))) {
+                    namedCorrectly++;
+                }
+            }
+        }
+        return new Score(schedule.size(), hits, namedCorrectly, splits, falsePositives,
+                Math.max(0, result.getDetections() - onsets.size()), result.getAudioSeconds() / 3600);
+    } // end score
+
+
+    /**
+     * @param args the folder of recordings, then any of hours=, noise=white|pink|brown, level=, snr=min:max,
+     *             gap=min:mean, seed=, labels= and wav=
+     * @throws IOException if a recording cannot be read or a file written
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            System.err.println("Usage: MixedSnrStress <folder of wav files> [hours=1] [noise=pink] [level=-50] "
+                    + "[snr=0:20] [gap=2:20] [seed=1] [labels=file.tsv] [wav=file.wav]");
+            return;
+        }
+        List<File> recordings = Arrays.asList(DetectionReplay.listRecordings(new File(args[0])));
+        MixedSnrGenerator generator = new MixedSnrGenerator(recordings);
+        MixedSnrGenerator.Noise noise = MixedSnrGenerator.Noise.PINK;
+        double level = -50;
+        File labels = null;
+        File wav = null;
+        for (int i = 1; i < args.length; i++) {
+            String[] setting = args[i].split("=", 2);
+            String[] range = setting[1].split(":");
+            switch (setting[0]) {
+                case "hours":
+                    generator.duration(Double.parseDouble(setting[1]) * 3600);
+                    break;
+                case "noise":
+                    noise = MixedSnrGenerator.Noise.valueOf(setting[1].toUpperCase(Locale.ROOT));
+                    break;
+                case "level":
+                    level = Double.parseDouble(setting[1]);
+                    break;
+                case "snr":
+                    generator.snr(Double.parseDouble(range[0]), Double.parseDouble(range[1]));
+                    break;
+                case "gap":
+                    generator.gaps(Double.parseDouble(range[0]), Double.parseDouble(range[1]));
+                    break;
+                case "seed":
+                    generator.seed(Long.parseLong(setting[1]));
+                    break;
+                case "labels":
+                    labels = new File(setting[1]);
+                    break;
+                case "wav":
+                    wav = new File(setting[1]);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown setting " + args[i]);
+            }
+        }
+        generator.noise(noise, level);
+
+        List<MixedSnrGenerator.Insertion> schedule = generator.schedule();
+        if (labels != null) {
+            MixedSnrGenerator.writeLabels(schedule, labels);
+        }
+        MixedSnrStream stream = generator.open(schedule);
+
+        DetectionReplay replay = new DetectionReplay(DetectionReplay.enrol(recordings));
+        HeapCeilingProbe heap = new HeapCeilingProbe();
+        DetectionReplay.Result result;
+        try {
+            if (wav != null) {
+                stream.writeWav(wav);
+                // without the silence replay(File) pads recordings with, so the labels still line up
+                result = replay.replay(wav.getName(), new WavFileAudioInputStream(wav, 0, 0), heap);
+            } else {
+                result = replay.replay("synthetic mix", stream, heap);
+            }
+        } finally {
+            replay.shutdown();
+        }
+
+        System.out.println(result);
+        System.out.println(score(schedule, result));
+        System.out.println(String.format(Locale.ROOT, "%d samples clipped, heap at most %.1fMB of %.1fMB",
+                stream.getClippedSamples(), heap.maxUsedBytes / 1e6, Runtime.getRuntime().maxMemory() / 1e6));
+    } // end main
+
+}
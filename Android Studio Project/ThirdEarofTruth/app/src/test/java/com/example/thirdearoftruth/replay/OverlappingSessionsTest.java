@@ -0,0 +1,135 @@
+package com.example.thirdearoftruth.replay;
+
+import com.example.thirdearoftruth.audio.AcousticEventCache;
+import com.example.thirdearoftruth.audio.DetectionProcessor;
+import com.example.thirdearoftruth.audio.NoiseFloorEstimator;
+import com.example.thirdearoftruth.audio.RecognitionNotifier;
+import com.example.thirdearoftruth.audio.RecognitionSessionManager;
+import com.example.thirdearoftruth.audio.RecognitionWorker;
+import com.example.thirdearoftruth.audio.SessionTrace;
+import com.example.thirdearoftruth.metrics.Counter;
+import com.example.thirdearoftruth.metrics.MetricsRegistry;
+import com.example.thirdearoftruth.utils.AudioDispatcher;
+import com.example.thirdearoftruth.utils.AudioEvent;
+import com.example.thirdearoftruth.utils.AudioProcessor;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import be.tarsos.dsp.io.TarsosDSPAudioFormat;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Detects sounds that follow each other faster than their recognition sessions finish, so that several
+ * sessions are in flight at once, and checks that the event being detected never loses a frame.
+ */
+public class OverlappingSessionsTest {
+
+    /**
+     * The recordings of the default events, relative to the app module
+     */
+    private static final File DEFAULT_EVENTS = new File("../../../Default Acoustic Events");
+
+    /**
+     * The longest the dispatcher waits for the recognition thread of the current event to take its
+     * frames, as long as several buffers last. A session that is given a thread takes them well within it,
+     * one that is not has its ring filled and its frames dropped.
+     */
+    private static final long DRAIN_TIMEOUT_MILLIS = 250;
+
+    private static final long SESSION_TIMEOUT_SECONDS = 30;
+
+    @Test
+    public void threeOverlappingEventsDropNoFrames() throws IOException, InterruptedException {
+        File[] recordings = DetectionReplay.listRecordings(DEFAULT_EVENTS);
+        assumeTrue(recordings.length > 0);
+
+        // three sounds with enough quiet between them to be released, the last the longest of the default
+        // events, which lasts more buffers than a frame ring holds
+        File[] overlapping = {recordings[0], recordings[recordings.length - 1], longest(recordings)};
+        MixedSnrGenerator generator = new MixedSnrGenerator(Arrays.asList(overlapping))
+                .duration(14).noise(MixedSnrGenerator.Noise.WHITE, -60)
+                .insertAtSnr(0, 1, 30).insertAtSnr(1, 5, 30).insertAtSnr(2, 9, 30);
+
+        TarsosDSPAudioFormat format = new TarsosDSPAudioFormat(DetectionReplay.SAMPLE_RATE, 16, 1, true, false);
+        RecognitionWorker worker = new RecognitionWorker(format, DetectionReplay.AUDIO_BUFFER_SIZE,
+                new AcousticEventCache(DetectionReplay.enrol(Arrays.asList(recordings))));
+        worker.start();
+
+        // a notification still being sent keeps its session, and the thread recognising it, busy until
+        // every sound has been detected
+        final CountDownLatch notificationsSent = new CountDownLatch(1);
+        RecognitionNotifier notifier = new RecognitionNotifier() {
+            @Override
+            public void sendNotification(SessionTrace trace, String soundName) {
+                try {
+                    notificationsSent.await(SESSION_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+
+        int intervalBuffers = (int) Math.round(DetectionReplay.THRESHOLD_INTERVAL_SECONDS
+                * DetectionReplay.SAMPLE_RATE / (double) DetectionReplay.AUDIO_BUFFER_SIZE);
+        NoiseFloorEstimator noiseFloor = new NoiseFloorEstimator(DetectionReplay.INITIAL_THRESHOLD,
+                intervalBuffers, intervalBuffers, NoiseFloorEstimator.DEFAULT_RANGE_FRACTION);
+        final RecognitionSessionManager sessions = new RecognitionSessionManager(worker, notifier);
+        DetectionProcessor detection = new DetectionProcessor(format, DetectionReplay.AUDIO_BUFFER_SIZE,
+                noiseFloor, DetectionReplay.startGate(noiseFloor), sessions);
+        final int[] mostInFlight = new int[1];
+
+        AudioDispatcher dispatcher = new AudioDispatcher(generator.open(generator.schedule()),
+                DetectionReplay.AUDIO_BUFFER_SIZE, DetectionReplay.BUFFER_OVERLAP);
+        dispatcher.addAudioProcessor(detection);
+        dispatcher.addAudioProcessor(new AudioProcessor() {
+            @Override
+            public boolean process(AudioEvent audioEvent) {
+                mostInFlight[0] = Math.max(mostInFlight[0], sessions.getSessions().size());
+                long timeout = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(DRAIN_TIMEOUT_MILLIS);
+                while (sessions.getPendingFrames() > 0 && System.nanoTime() < timeout) {
+                    Thread.yield();
+                }
+                return true;
+            }
+
+            @Override
+            public void processingFinished() {
+
+            }
+        });
+
+        Counter framesDropped = MetricsRegistry.getInstance().counter("thirdear_detection_frames_dropped_total",
+                "Buffers of an event dropped because recognition fell behind");
+        long droppedBefore = framesDropped.get();
+        try {
+            dispatcher.run();
+        } finally {
+            notificationsSent.countDown();
+            sessions.shutdown();
+            worker.awaitTermination(SESSION_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        }
+
+        assertTrue(generator.getNames() + " were not all detected", detection.getDetectionCount() >= 3);
+        assertTrue("Only " + mostInFlight[0] + " sessions were in flight at once", mostInFlight[0] >= 3);
+        assertEquals("Frames were dropped while " + mostInFlight[0] + " sessions were in flight",
+                0, framesDropped.get() - droppedBefore);
+    }
+
+    private static File longest(File[] recordings) {
+        File longest = recordings[0];
+        for (File recording : recordings) {
+            if (recording.length() > longest.length()) {
+                longest = recording;
+            }
+        }
+        return longest;
+    }
+}
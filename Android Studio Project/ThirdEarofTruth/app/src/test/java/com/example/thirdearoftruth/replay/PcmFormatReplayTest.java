@@ -0,0 +1,104 @@
+package com.example.thirdearoftruth.replay;
+
+import com.example.thirdearoftruth.utils.AudioDispatcher;
+import com.example.thirdearoftruth.utils.AudioEvent;
+import com.example.thirdearoftruth.utils.AudioProcessor;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import be.tarsos.dsp.io.TarsosDSPAudioFloatConverter;
+import be.tarsos.dsp.io.TarsosDSPAudioFormat;
+import be.tarsos.dsp.io.UniversalAudioInputStream;
+
+import static org.junit.Assert.*;
+
+/**
+ * Replays streams in PCM formats other than the 16 bit signed PCM of the microphone, whose level can only
+ * be measured once the buffer has been converted to floats, and checks that every buffer is measured on
+ * its own samples rather than on those of the buffer before it.
+ */
+public class PcmFormatReplayTest {
+
+    private static final float SAMPLE_RATE = DetectionReplay.SAMPLE_RATE;
+    private static final int BUFFER_SIZE = DetectionReplay.AUDIO_BUFFER_SIZE;
+    private static final int BUFFERS = 8;
+
+    @Test
+    public void eightBitSignedPcmIsMeasuredPerBuffer() {
+        assertMeasuredPerBuffer(new TarsosDSPAudioFormat(SAMPLE_RATE, 8, 1, true, false));
+    }
+
+    @Test
+    public void eightBitUnsignedPcmIsMeasuredPerBuffer() {
+        assertMeasuredPerBuffer(new TarsosDSPAudioFormat(SAMPLE_RATE, 8, 1, false, false));
+    }
+
+    @Test
+    public void twentyFourBitPcmIsMeasuredPerBuffer() {
+        assertMeasuredPerBuffer(new TarsosDSPAudioFormat(SAMPLE_RATE, 24, 1, true, false));
+    }
+
+    @Test
+    public void sixteenBitPcmIsMeasuredPerBuffer() {
+        assertMeasuredPerBuffer(new TarsosDSPAudioFormat(SAMPLE_RATE, 16, 1, true, false));
+    }
+
+    /**
+     * Each buffer of the stream is a tone louder than the one before it, so a level read from the
+     * previous buffer, or from a buffer that was never converted, is always wrong
+     */
+    private static void assertMeasuredPerBuffer(TarsosDSPAudioFormat format) {
+        float[] samples = new float[BUFFERS * BUFFER_SIZE];
+        for (int i = 0; i < samples.length; i++) {
+            double amplitude = 0.1 * (i / BUFFER_SIZE + 1);
+            samples[i] = (float) (amplitude * Math.sin(2 * Math.PI * 440 * i / SAMPLE_RATE));
+        }
+        byte[] pcm = new byte[samples.length * format.getFrameSize()];
+        TarsosDSPAudioFloatConverter.getConverter(format).toByteArray(samples, pcm);
+
+        final List<double[]> measured = new ArrayList<>();
+        AudioDispatcher dispatcher = new AudioDispatcher(
+                new UniversalAudioInputStream(new ByteArrayInputStream(pcm), format), BUFFER_SIZE, 0);
+        dispatcher.addAudioProcessor(new AudioProcessor() {
+            @Override
+            public boolean process(AudioEvent audioEvent) {
+                // the level is read before anything asks for the floats, as the detection gate does
+                double rms = audioEvent.getRMS();
+                double zeroCrossingRate = audioEvent.getZeroCrossingRate();
+                float[] floats = audioEvent.getFloatBuffer();
+                measured.add(new double[]{rms, AudioEvent.calculateRMS(floats), zeroCrossingRate,
+                        zeroCrossingRate(floats)});
+                return true;
+            }
+
+            @Override
+            public void processingFinished() {
+
+            }
+        });
+        dispatcher.run();
+
+        assertEquals(BUFFERS, measured.size());
+        for (int i = 0; i < BUFFERS; i++) {
+            double[] buffer = measured.get(i);
+            String name = format.getSampleSizeInBits() + " bit buffer " + i;
+            assertEquals(name + " RMS", buffer[1], buffer[0], 1e-6);
+            assertEquals(name + " RMS of the tone", 0.1 * (i + 1) / Math.sqrt(2), buffer[0], 0.01);
+            assertEquals(name + " zero-crossing rate", buffer[3], buffer[2], 1e-9);
+        }
+    }
+
+    private static double zeroCrossingRate(float[] floats) {
+        int crossings = 0;
+        for (int i = 1; i < floats.length; i++) {
+            if ((floats[i] >= 0) != (floats[i - 1] >= 0)) {
+                crossings++;
+            }
+        }
+        return crossings / (double) (floats.length - 1);
+    }
+}
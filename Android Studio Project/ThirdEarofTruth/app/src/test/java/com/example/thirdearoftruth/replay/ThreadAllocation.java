@@ -0,0 +1,75 @@
+package com.example.thirdearoftruth.replay;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * The bytes the JVM has allocated on each thread, read through HotSpot's extension of the ThreadMXBean.
+ * The count includes the part of the thread's current allocation buffer already used, so it is exact to
+ * the object rather than to the TLAB.
+ */
+final class ThreadAllocation {
+
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+    private ThreadAllocation() {
+
+    }
+
+    /**
+     * @return true if the JVM counts the bytes allocated on each thread, enabling the count if it can
+     */
+    static boolean isSupported() {
+        if (!(THREADS instanceof com.sun.management.ThreadMXBean)) {
+            return false;
+        }
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) THREADS;
+        if (!threads.isThreadAllocatedMemorySupported()) {
+            return false;
+        }
+        if (!threads.isThreadAllocatedMemoryEnabled()) {
+            threads.setThreadAllocatedMemoryEnabled(true);
+        }
+        return true;
+    }
+
+    /**
+     * @return the bytes allocated on the thread since it started
+     */
+    static long allocatedBytes(Thread thread) {
+        return ((com.sun.management.ThreadMXBean) THREADS).getThreadAllocatedBytes(thread.getId());
+    }
+
+    /**
+     * @param namePrefix the start of the names of the threads, such as "Recognition-"
+     * @return the bytes allocated on every live thread whose name starts with the prefix
+     */
+    static long allocatedBytes(String namePrefix) {
+        long bytes = 0;
+        for (ThreadInfo info : THREADS.getThreadInfo(THREADS.getAllThreadIds())) {
+            if (info != null && info.getThreadName().startsWith(namePrefix)) {
+                bytes += ((com.sun.management.ThreadMXBean) THREADS).getThreadAllocatedBytes(info.getThreadId());
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * Reading the count allocates nothing on recent JVMs, but Java 8 allocates the arrays it passes the
+     * thread's id in. That cost is the same on every read, so it is measured here and subtracted.
+     *
+     * @return the bytes one read of the current thread's count allocates
+     */
+    static long readCost() {
+        Thread thread = Thread.currentThread();
+        long cost = Long.MAX_VALUE;
+        for (int i = 0; i < 10; i++) {
+            long first = allocatedBytes(thread);
+            long second = allocatedBytes(thread);
+            cost = Math.min(cost, second - first);
+        }
+        return cost;
+    }
+
+}
@@ -0,0 +1,175 @@
+package com.example.thirdearoftruth.replay;
+
+import java.io.File;
+import java.io.IOException;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.UnsupportedAudioFileException;
+
+import be.tarsos.dsp.io.TarsosDSPAudioFormat;
+import be.tarsos.dsp.io.TarsosDSPAudioInputStream;
+
+/**
+ * Reads a WAV file in place of the microphone, in the format the DetectionService records in: 16 bit,
+ * signed, little endian, mono PCM. A stereo file is mixed down to mono.
+ *
+ * The recording can be padded with silence before and after it, so that the detection sees the quiet
+ * before the sound and the release after it, as it would in a room.
+ */
+public class WavFileAudioInputStream implements TarsosDSPAudioInputStream {
+
+    /**
+     * The number of source frames read from the file at a time
+     */
+    private static final int READ_FRAMES = 4096;
+
+    private final AudioInputStream source;
+    private final TarsosDSPAudioFormat format;
+    private final int channels;
+    private final byte[] sourceBuffer;
+
+    /**
+     * The number of frames of silence and recording together, or -1 if the length of the file is unknown
+     */
+    private final long frameLength;
+
+    private long leadInFrames;
+    private long tailFrames;
+    private boolean sourceEnded;
+
+    /**
+     * @param file the WAV file
+     * @param leadInSeconds the silence read before the recording
+     * @param tailSeconds the silence read after the recording
+     * @throws IOException if the file cannot be read as 16 bit PCM
+     */
+    public WavFileAudioInputStream(File file, double leadInSeconds, double tailSeconds) throws IOException {
+        AudioInputStream stream;
+        try {
+            stream = AudioSystem.getAudioInputStream(file);
+        } catch (UnsupportedAudioFileException e) {
+            throw new IOException("Not a supported audio file: " + file, e);
+        }
+
+        AudioFormat fileFormat = stream.getFormat();
+        channels = fileFormat.getChannels();
+        float sampleRate = fileFormat.getSampleRate();
+        AudioFormat pcmFormat = new AudioFormat(AudioFormat.Encoding.PCM_SIGNED, sampleRate, 16, channels,
+                2 * channels, sampleRate, false);
+        if (!fileFormat.matches(pcmFormat)) {
+            stream = AudioSystem.getAudioInputStream(pcmFormat, stream);
+        }
+
+        source = stream;
+        format = new TarsosDSPAudioFormat(sampleRate, 16, 1, true, false);
+        sourceBuffer = new byte[READ_FRAMES * 2 * channels];
+        leadInFrames = Math.round(leadInSeconds * sampleRate);
+        tailFrames = Math.round(tailSeconds * sampleRate);
+        long sourceFrames = stream.getFrameLength();
+        frameLength = sourceFrames < 0 ? -1 : leadInFrames + sourceFrames + tailFrames;
+    }
+
+    @Override
+    public long skip(long bytesToSkip) throws IOException {
+        byte[] discard = new byte[4096];
+        long skipped = 0;
+        while (skipped < bytesToSkip) {
+            int read = read(discard, 0, (int) Math.min(discard.length, bytesToSkip - skipped));
+            if (read < 0) {
+                break;
+            }
+            skipped += read;
+        }
+        return skipped;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        int frames = len / 2;
+        int written = 0;
+        while (written < frames) {
+            if (leadInFrames > 0) {
+                int silent = (int) Math.min(leadInFrames, frames - written);
+                fillSilence(b, off + written * 2, silent);
+                leadInFrames -= silent;
+                written += silent;
+            } else if (!sourceEnded) {
+                int wanted = Math.min(frames - written, READ_FRAMES);
+                int read = readSourceFrames(wanted);
+                if (read == 0) {
+                    sourceEnded = true;
+                } else {
+                    mixDown(b, off + written * 2, read);
+                    written += read;
+                }
+            } else if (tailFrames > 0) {
+                int silent = (int) Math.min(tailFrames, frames - written);
+                fillSilence(b, off + written * 2, silent);
+                tailFrames -= silent;
+                written += silent;
+            } else {
+                break;
+            }
+        }
+        return written == 0 ? -1 : written * 2;
+    }
+
+    /**
+     * Reads whole frames from the file into the source buffer
+     *
+     * @return the number of frames read, 0 at the end of the file
+     */
+    private int readSourceFrames(int frames) throws IOException {
+        int frameSize = 2 * channels;
+        int wanted = frames * frameSize;
+        int total = 0;
+        while (total < wanted) {
+            int read = source.read(sourceBuffer, total, wanted - total);
+            if (read < 0) {
+                break;
+            }
+            total += read;
+        }
+        return total / frameSize;
+    }
+
+    /**
+     * Averages the channels of each source frame into one little endian sample
+     */
+    private void mixDown(byte[] b, int off, int frames) {
+        for (int frame = 0; frame < frames; frame++) {
+            int sum = 0;
+            for (int channel = 0; channel < channels; channel++) {
+                int index = (frame * channels + channel) * 2;
+                sum += (short) ((sourceBuffer[index] & 0xff) | (sourceBuffer[index + 1] << 8));
+            }
+            int sample = sum / channels;
+            b[off + frame * 2] = (byte) sample;
+            b[off + frame * 2 + 1] = (byte) (sample >> 8);
+        }
+    }
+
+    private static void fillSilence(byte[] b, int off, int frames) {
+        for (int i = 0; i < frames * 2; i++) {
+            b[off + i] = 0;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        source.close();
+    }
+
+    @Override
+    public TarsosDSPAudioFormat getFormat() {
+        return format;
+    }
+
+    @Override
+    public long getFrameLength() {
+        return frameLength;
+    }
+
+}
@@ -0,0 +1,64 @@
+package com.example.thirdearoftruth.benchmarks;
+
+import com.example.thirdearoftruth.marytts.DTW;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One MaryTTS DTW between two sequences of real frames with each of its frame distance functions, across
+ * sequence lengths. The Mahalanobis distance is weighted by the variance of each coefficient over the
+ * whole corpus.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DtwDistanceBenchmark {
+
+    @Param({"Euclidean", "Absolute", "Mahalanobis"})
+    public String distance;
+
+    /**
+     * The number of frames of both sequences
+     */
+    @Param({"16", "48", "96"})
+    public int length;
+
+    private float[][] signal;
+    private float[][] reference;
+    private double[] variance;
+
+    @Setup
+    public void setUp() throws IOException {
+        TemplateCorpus corpus = TemplateCorpus.load();
+        signal = corpus.sequence(length, 0);
+        reference = corpus.sequence(length, 100);
+        variance = corpus.variance();
+        // DTW compares the name of the distance function with ==, so it must be the interned literal
+        distance = distance.intern();
+    }
+
+    @Benchmark
+    public double dtw() {
+        if (distance == "Mahalanobis") {
+            return new DTW(signal, reference, variance).getCost();
+        }
+        return new DTW(signal, reference, distance).getCost();
+    }
+
+}
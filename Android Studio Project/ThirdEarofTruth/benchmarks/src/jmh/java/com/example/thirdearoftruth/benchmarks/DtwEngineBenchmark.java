@@ -0,0 +1,102 @@
+package com.example.thirdearoftruth.benchmarks;
+
+import com.example.thirdearoftruth.audio.OnlineDtwMatcher;
+import com.example.thirdearoftruth.marytts.DTW;
+import com.example.thirdearoftruth.models.AcousticEvent;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Identifies a detected event against a library of known events with each DTW engine, the way the
+ * recognition does once an event or a window of it ends.
+ *
+ * The MaryTTS DTW builds the whole matrix for each known event after the event, as the recognition did
+ * before it was done one frame at a time. The OnlineDtwMatcher is fed the event one frame at a time and
+ * its costs are then read. In subsequence mode it looks for each known event anywhere in the event, as
+ * the window matchers of MFCCRecognitionEvent and AcousticEventDtwCostIdentifier do, which is what the app
+ * runs. Without it the whole event is aligned with each known event, giving the same costs as the MaryTTS
+ * DTW, so only their time and allocation differ.
+ *
+ * The sample-time mode gives the tail latency of one identification, which is what the deadline of a
+ * recognition session has to allow for.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DtwEngineBenchmark {
+
+    /**
+     * The number of frames of the detected event, from a short impact to a whole recognition window
+     */
+    @Param({"16", "48", "96"})
+    public int length;
+
+    /**
+     * The number of known events in the user's library
+     */
+    @Param({"1", "15", "60"})
+    public int librarySize;
+
+    /**
+     * Whether the online matcher looks for each known event anywhere in the detected event, as the app
+     * does, or aligns the whole of both. The MaryTTS DTW always aligns the whole of both.
+     */
+    @Param({"true", "false"})
+    public boolean subsequence;
+
+    private List<AcousticEvent> library;
+    private float[][][] templates;
+    private float[][] detectedEvent;
+    private OnlineDtwMatcher matcher;
+
+    @Setup
+    public void setUp() throws IOException {
+        TemplateCorpus corpus = TemplateCorpus.load();
+        library = corpus.library(librarySize);
+        templates = new float[librarySize][][];
+        for (int i = 0; i < librarySize; i++) {
+            templates[i] = library.get(i).getMfccMatrix();
+        }
+        // start part way into the corpus so the event is not identical to the first known event
+        detectedEvent = corpus.sequence(length, 100);
+        matcher = new OnlineDtwMatcher();
+        matcher.setSubsequence(subsequence);
+    }
+
+    @Benchmark
+    public void marytts(Blackhole blackhole) {
+        for (float[][] template : templates) {
+            blackhole.consume(new DTW(template, detectedEvent).getCost());
+        }
+    }
+
+    @Benchmark
+    public void online(Blackhole blackhole) {
+        matcher.start(library);
+        for (float[] frame : detectedEvent) {
+            matcher.addFrame(frame);
+        }
+        for (int i = 0; i < matcher.getKnownEventCount(); i++) {
+            blackhole.consume(matcher.getCost(i));
+        }
+    }
+
+}
@@ -0,0 +1,150 @@
+package com.example.thirdearoftruth.benchmarks;
+
+import com.example.thirdearoftruth.utils.AudioEvent;
+import com.example.thirdearoftruth.utils.MFCC;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import be.tarsos.dsp.io.TarsosDSPAudioFormat;
+
+/**
+ * The MFCC front end of the recognition, the app's utils.MFCC against the TarsosDSP MFCC it was adapted
+ * from, at the configuration the RecognitionWorker uses: 2048 sample frames at 44.1 kHz, 13 coefficients
+ * and 20 mel filters between 133.33 Hz and 8 kHz.
+ *
+ * Each stage is measured on its own with the input it gets in the extraction, prepared from the same
+ * frame beforehand: the magnitude spectrum of the frame, the mel filter bank of that spectrum and the
+ * cepstral coefficients of its log. The whole frame is measured as each MFCC's process() extracts it
+ * from an AudioEvent. Every invocation takes the next frame of the default event recordings.
+ *
+ * magnitudeSpectrum() transforms the frame it is given in place, so the frame is copied into a scratch
+ * buffer first for both MFCCs.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MfccBenchmark {
+
+    private static final int SAMPLE_RATE = 44100;
+    private static final int FRAME_SIZE = 2048;
+    private static final int COEFFICIENTS = 13;
+    private static final int MEL_FILTERS = 20;
+    private static final float LOWER_FILTER_FREQUENCY = 133.33f;
+    private static final float UPPER_FILTER_FREQUENCY = 8000f;
+
+    private MFCC mfcc;
+    private be.tarsos.dsp.mfcc.MFCC tarsosMfcc;
+    private AudioEvent audioEvent;
+    private be.tarsos.dsp.AudioEvent tarsosAudioEvent;
+
+    private float[][] frames;
+    private float[][] spectra;
+    private float[][] tarsosSpectra;
+    private float[][] logMelEnergies;
+    private float[][] tarsosLogMelEnergies;
+    private float[] scratch;
+    private int next;
+
+    @Setup
+    public void setUp() throws IOException {
+        TarsosDSPAudioFormat format = new TarsosDSPAudioFormat(SAMPLE_RATE, 16, 1, true, false);
+        mfcc = new MFCC(FRAME_SIZE, SAMPLE_RATE, COEFFICIENTS, MEL_FILTERS, LOWER_FILTER_FREQUENCY,
+                UPPER_FILTER_FREQUENCY, true);
+        tarsosMfcc = new be.tarsos.dsp.mfcc.MFCC(FRAME_SIZE, SAMPLE_RATE, COEFFICIENTS, MEL_FILTERS,
+                LOWER_FILTER_FREQUENCY, UPPER_FILTER_FREQUENCY);
+        audioEvent = new AudioEvent(format);
+        tarsosAudioEvent = new be.tarsos.dsp.AudioEvent(format);
+
+        frames = RecordingFrames.load(FRAME_SIZE);
+        scratch = new float[FRAME_SIZE];
+        spectra = new float[frames.length][];
+        tarsosSpectra = new float[frames.length][];
+        logMelEnergies = new float[frames.length][];
+        tarsosLogMelEnergies = new float[frames.length][];
+        for (int i = 0; i < frames.length; i++) {
+            spectra[i] = mfcc.magnitudeSpectrum(frames[i].clone());
+            tarsosSpectra[i] = tarsosMfcc.magnitudeSpectrum(frames[i].clone());
+            logMelEnergies[i] = mfcc.nonLinearTransformation(
+                    mfcc.melFilter(spectra[i], mfcc.getCenterFrequencies()));
+            tarsosLogMelEnergies[i] = tarsosMfcc.nonLinearTransformation(
+                    tarsosMfcc.melFilter(tarsosSpectra[i], tarsosMfcc.getCenterFrequencies()));
+        }
+    }
+
+    /**
+     * @return the index of the frame for this invocation
+     */
+    private int nextFrame() {
+        int frame = next;
+        next = frame + 1 == frames.length ? 0 : frame + 1;
+        return frame;
+    }
+
+
+    // utils.MFCC
+
+    @Benchmark
+    public float[] magnitudeSpectrum() {
+        System.arraycopy(frames[nextFrame()], 0, scratch, 0, FRAME_SIZE);
+        return mfcc.magnitudeSpectrum(scratch);
+    }
+
+    @Benchmark
+    public float[] melFilter() {
+        return mfcc.melFilter(spectra[nextFrame()], mfcc.getCenterFrequencies());
+    }
+
+    @Benchmark
+    public float[] cepCoefficients() {
+        return mfcc.cepCoefficients(logMelEnergies[nextFrame()]);
+    }
+
+    @Benchmark
+    public float[] wholeFrame() {
+        audioEvent.setFloatBuffer(frames[nextFrame()]);
+        mfcc.process(audioEvent);
+        return mfcc.getMFCC();
+    }
+
+
+    // be.tarsos.dsp.mfcc.MFCC
+
+    @Benchmark
+    public float[] tarsosMagnitudeSpectrum() {
+        System.arraycopy(frames[nextFrame()], 0, scratch, 0, FRAME_SIZE);
+        return tarsosMfcc.magnitudeSpectrum(scratch);
+    }
+
+    @Benchmark
+    public float[] tarsosMelFilter() {
+        return tarsosMfcc.melFilter(tarsosSpectra[nextFrame()], tarsosMfcc.getCenterFrequencies());
+    }
+
+    @Benchmark
+    public float[] tarsosCepCoefficients() {
+        return tarsosMfcc.cepCoefficients(tarsosLogMelEnergies[nextFrame()]);
+    }
+
+    @Benchmark
+    public float[] tarsosWholeFrame() {
+        tarsosAudioEvent.setFloatBuffer(frames[nextFrame()]);
+        tarsosMfcc.process(tarsosAudioEvent);
+        return tarsosMfcc.getMFCC();
+    }
+
+}
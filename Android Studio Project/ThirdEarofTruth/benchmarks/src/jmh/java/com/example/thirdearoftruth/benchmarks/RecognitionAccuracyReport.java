@@ -0,0 +1,279 @@
+package com.example.thirdearoftruth.benchmarks;
+
+import com.example.thirdearoftruth.audio.OnlineDtwMatcher;
+import com.example.thirdearoftruth.marytts.DTW;
+import com.example.thirdearoftruth.models.AcousticEvent;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.TreeSet;
+
+/**
+ * Leave-one-out recognition over every template of the database export, so a change to the matching can
+ * be judged on what it recognises and how fast in the same report.
+ *
+ * Each template in turn is taken out of the library and identified against all the others the way
+ * MFCCRecognitionEvent identifies a window: the known events whose cost is below their maxCost are
+ * candidates and the cheapest of them is the sound notified, otherwise "Unknown Sound". The right answer
+ * is the template's own name when another template has that name, and "Unknown Sound" when it is the only
+ * recording of its sound, as a sound the user never recorded should not be named.
+ *
+ * For each DTW engine the report gives the confusion matrix, the precision and recall of every label and
+ * the matches per second, one match being a detected event compared with one known event. The matching
+ * is timed over repeated passes after warming up, as the JIT would have compiled it by the time a device
+ * had been listening for a while.
+ *
+ * Run with ./gradlew :benchmarks:recognitionReport, or with the path of an export as the only argument.
+ */
+public final class RecognitionAccuracyReport {
+
+    static final String UNKNOWN_SOUND = "Unknown Sound";
+
+    private static final long WARM_UP_NANOS = 2000000000L;
+    private static final long MEASURE_NANOS = 5000000000L;
+
+    /**
+     * The ways the recognition can compute the cost of a detected event against each known event
+     */
+    enum Engine {
+
+        /**
+         * The whole matrix for each known event after the event, as the recognition was done before it
+         * was done one frame at a time, held to the whole event limit it had then
+         */
+        MARYTTS {
+            @Override
+            void costs(float[][] detectedEvent, List<AcousticEvent> library, double[] costs) {
+                for (int i = 0; i < library.size(); i++) {
+                    costs[i] = new DTW(library.get(i).getMfccMatrix(), detectedEvent).getCost();
+                }
+            }
+
+            /**
+             * The cost of the whole event is summed along the path, on the scale of the limit every event
+             * had before the cost was taken per frame and per coefficient
+             */
+            @Override
+            double maxCost(AcousticEvent knownEvent) {
+                return AcousticEvent.LEGACY_MAX_COST;
+            }
+        },
+
+        /**
+         * One frame at a time while the event is happening, looking for each known event within the
+         * detected frames, as MFCCRecognitionEvent does
+         */
+        ONLINE {
+            private final OnlineDtwMatcher matcher = new OnlineDtwMatcher();
+
+            @Override
+            void costs(float[][] detectedEvent, List<AcousticEvent> library, double[] costs) {
+                matcher.setSubsequence(true);
+                matcher.start(library);
+                for (float[] frame : detectedEvent) {
+                    matcher.addFrame(frame);
+                }
+                for (int i = 0; i < matcher.getKnownEventCount(); i++) {
+                    costs[i] = matcher.getCost(i);
+                }
+            }
+        };
+
+        /**
+         * @param detectedEvent the feature vectors of the event to identify
+         * @param library the known events
+         * @param costs the cost against each known event, in the order of the library
+         */
+        abstract void costs(float[][] detectedEvent, List<AcousticEvent> library, double[] costs);
+
+        /**
+         * @param knownEvent a known event
+         * @return the cost below which the known event is a candidate
+         */
+        double maxCost(AcousticEvent knownEvent) {
+            return knownEvent.getMaxCost();
+        }
+    }
+
+    private final List<AcousticEvent> templates;
+    private final List<List<AcousticEvent>> libraries;
+    private final String[] expected;
+    private final String[] labels;
+
+    /**
+     * @param templates every template of the export, each identified against all the others
+     */
+    RecognitionAccuracyReport(List<AcousticEvent> templates) {
+        this.templates = templates;
+        libraries = new ArrayList<>(templates.size());
+        expected = new String[templates.size()];
+        TreeSet<String> labelSet = new TreeSet<>();
+        for (int i = 0; i < templates.size(); i++) {
+            List<AcousticEvent> library = new ArrayList<>(templates);
+            library.remove(i);
+            libraries.add(library);
+            expected[i] = UNKNOWN_SOUND;
+            for (AcousticEvent known : library) {
+                if (known.getName().equals(templates.get(i).getName())) {
+                    expected[i] = known.getName();
+                }
+            }
+            labelSet.add(expected[i]);
+            // a template that is the only recording of its sound can still be identified in another's place
+            labelSet.add(templates.get(i).getName());
+        }
+        labelSet.add(UNKNOWN_SOUND);
+        labels = labelSet.toArray(new String[0]);
+    }
+
+
+    /**
+     * @param engine the engine that computes the costs
+     * @return the sound identified for each template, in the order of the templates
+     */
+    String[] identifyAll(Engine engine) {
+        String[] identified = new String[templates.size()];
+        double[] costs = new double[templates.size()];
+        for (int i = 0; i < templates.size(); i++) {
+            List<AcousticEvent> library = libraries.get(i);
+            engine.costs(templates.get(i).getMfccMatrix(), library, costs);
+            identified[i] = identify(engine, library, costs);
+        }
+        return identified;
+    }
+
+    /**
+     * The decision of MFCCRecognitionEvent.identifyWindow(): the cheapest known event whose cost is below
+     * its maxCost
+     */
+    static String identify(Engine engine, List<AcousticEvent> library, double[] costs) {
+        String identified = UNKNOWN_SOUND;
+        double shortestDistance = Double.POSITIVE_INFINITY;
+        for (int i = 0; i < library.size(); i++) {
+            if (costs[i] < engine.maxCost(library.get(i)) && costs[i] < shortestDistance) {
+                shortestDistance = costs[i];
+                identified = library.get(i).getName();
+            }
+        }
+        return identified;
+    }
+
+    /**
+     * @return the known events compared per second of matching, once warmed up
+     */
+    double matchesPerSecond(Engine engine) {
+        long matchesPerPass = 0;
+        for (List<AcousticEvent> library : libraries) {
+            matchesPerPass += library.size();
+        }
+
+        long start = System.nanoTime();
+        while (System.nanoTime() - start < WARM_UP_NANOS) {
+            identifyAll(engine);
+        }
+        long passes = 0;
+        start = System.nanoTime();
+        long elapsed;
+        do {
+            identifyAll(engine);
+            passes++;
+            elapsed = System.nanoTime() - start;
+        } while (elapsed < MEASURE_NANOS);
+        return passes * matchesPerPass * 1e9 / elapsed;
+    }
+
+
+    /**
+     * @return the report of one engine: its confusion matrix, the precision and recall of each label,
+     * its accuracy and its matches per second
+     */
+    String report(Engine engine) {
+        String[] identified = identifyAll(engine);
+        int[][] confusion = new int[labels.length][labels.length];
+        int correct = 0;
+        for (int i = 0; i < identified.length; i++) {
+            confusion[indexOf(expected[i])][indexOf(identified[i])]++;
+            if (expected[i].equals(identified[i])) {
+                correct++;
+            }
+        }
+
+        StringBuilder report = new StringBuilder();
+        report.append(String.format(Locale.ROOT, "%s: %d templates, leave-one-out%n", engine, identified.length));
+
+        int width = UNKNOWN_SOUND.length();
+        for (String label : labels) {
+            width = Math.max(width, label.length());
+        }
+        report.append(String.format(Locale.ROOT, "%n%-" + width + "s  actual \\ identified%n", ""));
+        for (int actual = 0; actual < labels.length; actual++) {
+            report.append(String.format(Locale.ROOT, "%-" + width + "s", labels[actual]));
+            for (int predicted = 0; predicted < labels.length; predicted++) {
+                report.append(String.format(Locale.ROOT, " %3d", confusion[actual][predicted]));
+            }
+            report.append(String.format(Locale.ROOT, "   %c%n", (char) ('A' + actual)));
+        }
+        report.append(String.format(Locale.ROOT, "%-" + width + "s", ""));
+        for (int predicted = 0; predicted < labels.length; predicted++) {
+            report.append(String.format(Locale.ROOT, " %3c", (char) ('A' + predicted)));
+        }
+
+        report.append(String.format(Locale.ROOT, "%n%n%-" + width + "s  precision  recall  support%n", ""));
+        double precisionSum = 0;
+        double recallSum = 0;
+        int supported = 0;
+        for (int label = 0; label < labels.length; label++) {
+            int truePositives = confusion[label][label];
+            int identifiedAs = 0;
+            int support = 0;
+            for (int other = 0; other < labels.length; other++) {
+                identifiedAs += confusion[other][label];
+                support += confusion[label][other];
+            }
+            double precision = identifiedAs == 0 ? 0 : truePositives / (double) identifiedAs;
+            double recall = support == 0 ? 0 : truePositives / (double) support;
+            if (support > 0) {
+                precisionSum += precision;
+                recallSum += recall;
+                supported++;
+            }
+            report.append(String.format(Locale.ROOT, "%-" + width + "s  %9.3f  %6.3f  %7d%n",
+                    labels[label], precision, recall, support));
+        }
+        report.append(String.format(Locale.ROOT, "%-" + width + "s  %9.3f  %6.3f  %7d%n", "macro average",
+                precisionSum / supported, recallSum / supported, identified.length));
+
+        report.append(String.format(Locale.ROOT, "%naccuracy %.3f (%d of %d), %.0f matches/s%n",
+                correct / (double) identified.length, correct, identified.length, matchesPerSecond(engine)));
+        return report.toString();
+    }
+
+    private int indexOf(String label) {
+        for (int i = 0; i < labels.length; i++) {
+            if (labels[i].equals(label)) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("Unexpected label " + label);
+    }
+
+
+    /**
+     * Prints the report of every engine for the export at the path of the thirdear.corpus property, or at
+     * the path given
+     *
+     * @param args optionally the path of the export
+     * @throws IOException if the export cannot be read
+     */
+    public static void main(String[] args) throws IOException {
+        TemplateCorpus corpus = args.length > 0 ? TemplateCorpus.load(new File(args[0])) : TemplateCorpus.load();
+        RecognitionAccuracyReport report = new RecognitionAccuracyReport(corpus.getEvents());
+        for (Engine engine : Engine.values()) {
+            System.out.println(report.report(engine));
+        }
+    }
+
+}
@@ -0,0 +1,135 @@
+package com.example.thirdearoftruth.benchmarks;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.UnsupportedAudioFileException;
+
+/**
+ * Frames of the default Acoustic Event recordings, as the MFCC would be given them by the detection,
+ * so the front end is benchmarked on real signal content.
+ *
+ * Each WAV file is mixed down to mono and cut into consecutive buffers of the detection's size. Buffers
+ * quieter than the DetectionService's initial threshold are left out, as they would never start or
+ * continue an event and so never reach the MFCC.
+ */
+public final class RecordingFrames {
+
+    /**
+     * The system property holding the folder of recordings, set by the benchmarks' build
+     */
+    public static final String RECORDINGS_PROPERTY = "thirdear.recordings";
+
+    /**
+     * The folder of recordings from the benchmarks module when the property is not set
+     */
+    private static final String DEFAULT_RECORDINGS = "../../../Default Acoustic Events";
+
+    /**
+     * The RMS the DetectionService's threshold starts at
+     */
+    private static final double INITIAL_THRESHOLD = 0.0029043591183558017;
+
+    private RecordingFrames() {
+    }
+
+    /**
+     * @param frameSize the number of samples in each frame
+     * @return the frames of every recording in the folder of the thirdear.recordings property
+     */
+    public static float[][] load(int frameSize) throws IOException {
+        return load(new File(System.getProperty(RECORDINGS_PROPERTY, DEFAULT_RECORDINGS)), frameSize);
+    }
+
+    /**
+     * @param folder the folder of WAV recordings
+     * @param frameSize the number of samples in each frame
+     * @return the frames of every recording in the folder, in the order of their file names
+     */
+    public static float[][] load(File folder, int frameSize) throws IOException {
+        File[] recordings = folder.listFiles(new FileFilter() {
+            @Override
+            public boolean accept(File file) {
+                return file.isFile() && file.getName().toLowerCase().endsWith(".wav");
+            }
+        });
+        if (recordings == null || recordings.length == 0) {
+            throw new IOException("No WAV recordings in " + folder);
+        }
+        Arrays.sort(recordings);
+
+        List<float[]> frames = new ArrayList<>();
+        for (File recording : recordings) {
+            float[] samples = readMono(recording);
+            for (int start = 0; start + frameSize <= samples.length; start += frameSize) {
+                float[] frame = Arrays.copyOfRange(samples, start, start + frameSize);
+                if (rms(frame) > INITIAL_THRESHOLD) {
+                    frames.add(frame);
+                }
+            }
+        }
+        return frames.toArray(new float[frames.size()][]);
+    }
+
+    /**
+     * @return the samples of a recording as 16 bit PCM mixed down to mono, from -1.0 to 1.0
+     */
+    private static float[] readMono(File recording) throws IOException {
+        AudioInputStream stream;
+        try {
+            stream = AudioSystem.getAudioInputStream(recording);
+        } catch (UnsupportedAudioFileException e) {
+            throw new IOException("Not a supported audio file: " + recording, e);
+        }
+        AudioFormat fileFormat = stream.getFormat();
+        int channels = fileFormat.getChannels();
+        AudioFormat pcmFormat = new AudioFormat(AudioFormat.Encoding.PCM_SIGNED, fileFormat.getSampleRate(), 16,
+                channels, 2 * channels, fileFormat.getSampleRate(), false);
+        if (!fileFormat.matches(pcmFormat)) {
+            stream = AudioSystem.getAudioInputStream(pcmFormat, stream);
+        }
+
+        byte[] pcm;
+        try (InputStream in = stream) {
+            pcm = readAll(in);
+        }
+        float[] samples = new float[pcm.length / (2 * channels)];
+        for (int i = 0; i < samples.length; i++) {
+            float sum = 0;
+            for (int c = 0; c < channels; c++) {
+                int offset = (i * channels + c) * 2;
+                sum += (short) ((pcm[offset] & 0xff) | (pcm[offset + 1] << 8)) / 32768f;
+            }
+            samples[i] = sum / channels;
+        }
+        return samples;
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        byte[] buffer = new byte[64 * 1024];
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int read;
+        while ((read = in.read(buffer)) > 0) {
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+
+    private static double rms(float[] frame) {
+        double sum = 0;
+        for (float sample : frame) {
+            sum += sample * sample;
+        }
+        return Math.sqrt(sum / frame.length);
+    }
+
+}
@@ -0,0 +1,180 @@
+package com.example.thirdearoftruth.benchmarks;
+
+import com.example.thirdearoftruth.models.AcousticEvent;
+import com.google.gson.Gson;
+import com.google.gson.stream.JsonReader;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The known Acoustic Events of the Firebase Realtime Database export, read on the JVM so the benchmarks
+ * compare real templates rather than random numbers.
+ *
+ * The export holds the default events DefaultEventsManager uploads on registration, with defaultEvent
+ * set, next to the events recorded by the user. DefaultEventsManager itself needs a signed in Firebase
+ * user, so its templates are taken from the export, where they are stored with exactly the same values.
+ */
+public final class TemplateCorpus {
+
+    /**
+     * The system property holding the path of the export, set by the benchmarks' build
+     */
+    public static final String CORPUS_PROPERTY = "thirdear.corpus";
+
+    /**
+     * The path of the export from the benchmarks module when the property is not set
+     */
+    private static final String DEFAULT_CORPUS = "../../../Database Model/third-ear-of-truth-export.json";
+
+    private final List<AcousticEvent> events;
+
+    private TemplateCorpus(List<AcousticEvent> events) {
+        this.events = Collections.unmodifiableList(events);
+    }
+
+    /**
+     * @return the corpus at the path of the thirdear.corpus property
+     */
+    public static TemplateCorpus load() throws IOException {
+        return load(new File(System.getProperty(CORPUS_PROPERTY, DEFAULT_CORPUS)));
+    }
+
+    /**
+     * Streams the export one Acoustic Event at a time, so only the events themselves are held in memory
+     * however large the export grows. Everything outside AcousticEvents, such as the Users, is skipped.
+     *
+     * @param export the JSON export of the Realtime Database
+     * @return every Acoustic Event of every user in the export, in the order of the export, with its MFCC
+     * matrix set
+     */
+    public static TemplateCorpus load(File export) throws IOException {
+        Gson gson = new Gson();
+        List<AcousticEvent> events = new ArrayList<>();
+        try (JsonReader reader = new JsonReader(new InputStreamReader(new FileInputStream(export), "UTF-8"))) {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                if (!reader.nextName().equals("AcousticEvents")) {
+                    reader.skipValue();
+                    continue;
+                }
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    // each user's events, keyed by the user's id
+                    reader.nextName();
+                    reader.beginObject();
+                    while (reader.hasNext()) {
+                        reader.nextName();
+                        AcousticEvent event = gson.fromJson(reader, AcousticEvent.class);
+                        event.setMfccMatrix(event.getMfccDoubleList());
+                        event.upgradeLegacyMaxCost();
+                        events.add(event);
+                    }
+                    reader.endObject();
+                }
+                reader.endObject();
+            }
+            reader.endObject();
+        }
+        if (events.isEmpty()) {
+            throw new IOException("No Acoustic Events in " + export);
+        }
+        return new TemplateCorpus(events);
+    }
+
+    /**
+     * @return every Acoustic Event in the export
+     */
+    public List<AcousticEvent> getEvents() {
+        return events;
+    }
+
+    /**
+     * @return the default Acoustic Events added by DefaultEventsManager
+     */
+    public List<AcousticEvent> getDefaultEvents() {
+        List<AcousticEvent> defaults = new ArrayList<>();
+        for (AcousticEvent event : events) {
+            if (event.isDefaultEvent()) {
+                defaults.add(event);
+            }
+        }
+        return defaults;
+    }
+
+    /**
+     * A library of known events of any size, taking the events of the export in order and starting
+     * again from the first once they run out, as a user with a larger library would hold several
+     * recordings of each sound.
+     *
+     * @param size the number of known events
+     * @return the library
+     */
+    public List<AcousticEvent> library(int size) {
+        List<AcousticEvent> library = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            library.add(events.get(i % events.size()));
+        }
+        return library;
+    }
+
+    /**
+     * A detected event of any length, made of consecutive frames of the export's templates one after
+     * another, starting at a frame offset into them and wrapping around at the end.
+     *
+     * @param length the number of frames
+     * @param offset the number of frames into the templates to start at
+     * @return the frames, each a copy
+     */
+    public float[][] sequence(int length, int offset) {
+        int total = 0;
+        for (AcousticEvent event : events) {
+            total += event.getMfccMatrix().length;
+        }
+        float[][] sequence = new float[length][];
+        for (int i = 0; i < length; i++) {
+            int frame = (offset + i) % total;
+            for (AcousticEvent event : events) {
+                float[][] template = event.getMfccMatrix();
+                if (frame < template.length) {
+                    sequence[i] = template[frame].clone();
+                    break;
+                }
+                frame -= template.length;
+            }
+        }
+        return sequence;
+    }
+
+    /**
+     * @return the variance of each coefficient over every frame of every template, for the Mahalanobis
+     * distance
+     */
+    public double[] variance() {
+        int coefficients = events.get(0).getMfccMatrix()[0].length;
+        double[] sum = new double[coefficients];
+        double[] sumOfSquares = new double[coefficients];
+        long frames = 0;
+        for (AcousticEvent event : events) {
+            for (float[] frame : event.getMfccMatrix()) {
+                for (int c = 0; c < coefficients; c++) {
+                    sum[c] += frame[c];
+                    sumOfSquares[c] += (double) frame[c] * frame[c];
+                }
+                frames++;
+            }
+        }
+        double[] variance = new double[coefficients];
+        for (int c = 0; c < coefficients; c++) {
+            double mean = sum[c] / frames;
+            variance[c] = sumOfSquares[c] / frames - mean * mean;
+        }
+        return variance;
+    }
+
+}